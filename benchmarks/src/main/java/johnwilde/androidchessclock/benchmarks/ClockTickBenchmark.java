@@ -0,0 +1,62 @@
+package johnwilde.androidchessclock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import johnwilde.androidchessclock.engine.ChessClock;
+import johnwilde.androidchessclock.engine.ClockFormatter;
+import johnwilde.androidchessclock.engine.ClockSettings;
+import johnwilde.androidchessclock.engine.DelayType;
+import johnwilde.androidchessclock.engine.Player;
+import johnwilde.androidchessclock.engine.TickScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One pass of the running timer's update task in ChessTimerActivity: tick
+ * the clock, redraw the text if it changed, and work out when to run next.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClockTickBenchmark {
+
+    private final VirtualTime mTime = new VirtualTime();
+    private final ClockFormatter mFormatter = new ClockFormatter();
+    private ChessClock mClock;
+
+    @Setup
+    public void setUp() {
+        mClock = new ChessClock(ClockSettings.basic(90 * 60, 30,
+                DelayType.FISCHER, false), mTime);
+        mClock.start();
+    }
+
+    @Benchmark
+    public long tick() {
+        mTime.advance(7);
+        mClock.tick();
+        if (!mClock.isRunning(Player.WHITE) || mClock.getMsToGo(Player.WHITE) < 60000) {
+            // start a new game long before the flag falls
+            mClock.reset();
+            mClock.start();
+        }
+        if (mClock.getMsDelayToGo(Player.WHITE) > 0)
+            return 0;
+        long msToGo = mClock.getMsToGo(Player.WHITE);
+        mFormatter.format(msToGo);
+        return TickScheduler.nextDelay(msToGo, mClock.getSettings()
+                .getAllowNegativeTime());
+    }
+}
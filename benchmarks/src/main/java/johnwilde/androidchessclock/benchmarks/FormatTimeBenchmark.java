@@ -0,0 +1,54 @@
+package johnwilde.androidchessclock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import johnwilde.androidchessclock.engine.ClockFormatter;
+import johnwilde.androidchessclock.engine.Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Formatting the time shown on a clock, which happens on every redraw:
+ * Utils.formatTime, and ClockFormatter which the timers use instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatTimeBenchmark {
+
+    // one of each kind of text: "H:MM:SS", "M:SS", "SS", "N.N", "-N" and
+    // "-M:SS"
+    private static final long[] TIMES = { 3723000, 754000, 42000, 7300,
+            -4200, -75000 };
+
+    private final ClockFormatter mFormatter = new ClockFormatter();
+    private int mNext;
+
+    private long nextTime() {
+        long ms = TIMES[mNext];
+        mNext = (mNext + 1) % TIMES.length;
+        return ms;
+    }
+
+    @Benchmark
+    public String utilsFormatTime() {
+        return Utils.formatTime(nextTime());
+    }
+
+    // the text changes every time, so it is always reformatted
+    @Benchmark
+    public boolean clockFormatter() {
+        return mFormatter.format(nextTime());
+    }
+}
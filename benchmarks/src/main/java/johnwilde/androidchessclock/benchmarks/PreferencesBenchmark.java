@@ -0,0 +1,55 @@
+package johnwilde.androidchessclock.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import johnwilde.androidchessclock.engine.ClockSettings;
+import johnwilde.androidchessclock.engine.DelayType;
+import johnwilde.androidchessclock.engine.TimeControlType;
+import johnwilde.androidchessclock.engine.Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the time control from the preferences, as ChessTimerActivity
+ * does for every reset: the values are stored as strings (a map stands in
+ * for SharedPreferences here) and parsed into ClockSettings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreferencesBenchmark {
+
+    private final Map<String, String> mPreferences = new HashMap<String, String>();
+
+    public PreferencesBenchmark() {
+        mPreferences.put("MINUTES", "5");
+        mPreferences.put("SECONDS", "");
+        mPreferences.put("INCREMENT_SECONDS", "3");
+        mPreferences.put("DELAY_TYPE", "Bronstein");
+    }
+
+    @Benchmark
+    public ClockSettings parseBasicTimeControl() {
+        int minutes = Utils.parseTimerOption(mPreferences.get("MINUTES"));
+        int seconds = Utils.parseTimerOption(mPreferences.get("SECONDS"));
+        int increment = Utils.parseTimerOption(mPreferences
+                .get("INCREMENT_SECONDS"));
+        DelayType delayType = DelayType.valueOf(mPreferences.get(
+                "DELAY_TYPE").toUpperCase());
+        return new ClockSettings(TimeControlType.BASIC, minutes * 60
+                + seconds, increment, delayType, false, 0, 0);
+    }
+}
@@ -0,0 +1,80 @@
+package johnwilde.androidchessclock.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import johnwilde.androidchessclock.engine.ChessClock;
+import johnwilde.androidchessclock.engine.ClockFormatter;
+import johnwilde.androidchessclock.engine.ClockListener;
+import johnwilde.androidchessclock.engine.ClockSettings;
+import johnwilde.androidchessclock.engine.DelayType;
+import johnwilde.androidchessclock.engine.Player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A press of the player's button, switching the clocks: ChessClock.press
+ * and the work ChessTimerActivity's listener does for it, redrawing the
+ * time of the clock that stopped (the views themselves aren't included).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PressBenchmark {
+
+    @Param({ "FISCHER", "BRONSTEIN" })
+    public DelayType delayType;
+
+    private final VirtualTime mTime = new VirtualTime();
+    private final ClockFormatter[] mFormatters = { new ClockFormatter(),
+            new ClockFormatter() };
+    private ChessClock mClock;
+    private Player mToMove;
+
+    // what the activity's listener does, without the views
+    private final class Redraw extends ClockListener.Adapter {
+        @Override
+        public void onClockStopped(Player player) {
+            redraw(player);
+        }
+
+        @Override
+        public void onTimeChanged(Player player) {
+            redraw(player);
+        }
+
+        private void redraw(Player player) {
+            mFormatters[player.ordinal()].format(mClock.getMsToGo(player));
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // the increment pays for each move, so the game never ends
+        mClock = new ChessClock(ClockSettings.basic(60, 5, delayType, false),
+                mTime);
+        mClock.setListener(new Redraw());
+        mClock.start();
+        mToMove = Player.WHITE;
+    }
+
+    @Benchmark
+    public Player press() {
+        mTime.advance(3);
+        mClock.press(mToMove);
+        mToMove = mToMove.other();
+        return mClock.getActive();
+    }
+}
@@ -0,0 +1,82 @@
+package johnwilde.androidchessclock.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import johnwilde.androidchessclock.engine.ChessClock;
+import johnwilde.androidchessclock.engine.ClockSettings;
+import johnwilde.androidchessclock.engine.ClockSnapshot;
+import johnwilde.androidchessclock.engine.DelayType;
+import johnwilde.androidchessclock.engine.GameState;
+import johnwilde.androidchessclock.engine.Player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving a running game and restoring it into a new clock, as
+ * ChessTimerActivity does when it is recreated (a map stands in for the
+ * Bundle).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveRestoreBenchmark {
+
+    private final VirtualTime mTime = new VirtualTime();
+    private final ClockSettings mSettings = ClockSettings.basic(300, 5,
+            DelayType.BRONSTEIN, false);
+    private ChessClock mClock;
+
+    @Setup
+    public void setUp() {
+        mClock = new ChessClock(mSettings, mTime);
+        mClock.start();
+    }
+
+    @Benchmark
+    public ChessClock saveAndRestore() {
+        // the restored game is PAUSED; carry on playing
+        if (mClock.getState() == GameState.PAUSED)
+            mClock.togglePause();
+        mTime.advance(1);
+
+        // onSaveInstanceState()
+        if (mClock.getState() == GameState.RUNNING)
+            mClock.togglePause();
+        ClockSnapshot snapshot = mClock.snapshot();
+        Map<String, Object> state = new HashMap<String, Object>();
+        state.put("Timer1", snapshot.getMsToGo(Player.WHITE));
+        state.put("Timer1Delay", snapshot.getMsDelayToGo(Player.WHITE));
+        state.put("Timer2", snapshot.getMsToGo(Player.BLACK));
+        state.put("Timer2Delay", snapshot.getMsDelayToGo(Player.BLACK));
+        state.put("MoveCounter1", snapshot.getMoveNumber(Player.WHITE));
+        state.put("MoveCounter2", snapshot.getMoveNumber(Player.BLACK));
+        state.put("State", snapshot.getState().toString());
+        state.put("Active", snapshot.getActive().toString());
+
+        // onCreate() and onRestoreInstanceState()
+        ChessClock restored = new ChessClock(mSettings, mTime);
+        restored.restore(new ClockSnapshot((Long) state.get("Timer1"),
+                (Long) state.get("Timer1Delay"),
+                (Integer) state.get("MoveCounter1"),
+                (Long) state.get("Timer2"), (Long) state.get("Timer2Delay"),
+                (Integer) state.get("MoveCounter2"),
+                GameState.valueOf((String) state.get("State")),
+                Player.valueOf((String) state.get("Active"))));
+        mClock = restored;
+        return restored;
+    }
+}
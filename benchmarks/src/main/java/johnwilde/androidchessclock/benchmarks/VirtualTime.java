@@ -0,0 +1,21 @@
+package johnwilde.androidchessclock.benchmarks;
+
+import johnwilde.androidchessclock.engine.TimeSource;
+
+/**
+ * A TimeSource the benchmarks move by hand, so that every run sees the
+ * same sequence of clock times.
+ */
+final class VirtualTime implements TimeSource {
+
+    private long mNow = 1000000;
+
+    @Override
+    public long uptimeMillis() {
+        return mNow;
+    }
+
+    void advance(long ms) {
+        mNow += ms;
+    }
+}
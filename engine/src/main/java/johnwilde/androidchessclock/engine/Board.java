@@ -0,0 +1,48 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * One game hosted by a Tournament.
+ *
+ * The clock may be queried from any thread, but commands must go through
+ * the Tournament so that they run on its thread.
+ */
+public final class Board {
+
+    private final int mNumber;
+    private final int mRound;
+    // null if the tournament has no sections
+    private final String mSection;
+    private final ChessClock mClock;
+    // set on the tournament's thread when the board is registered
+    TimingWheel.Timeout mHandle;
+    // waiting to be reported to the Tournament.Observer
+    boolean mChanged;
+
+    Board(int number, int round, String section, ChessClock clock) {
+        mNumber = number;
+        mRound = round;
+        mSection = section;
+        mClock = clock;
+    }
+
+    public int getNumber() {
+        return mNumber;
+    }
+
+    public int getRound() {
+        return mRound;
+    }
+
+    public String getSection() {
+        return mSection;
+    }
+
+    public ChessClock getClock() {
+        return mClock;
+    }
+
+    @Override
+    public String toString() {
+        return "Board " + mNumber;
+    }
+}
@@ -0,0 +1,46 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Picks the boards an arbiter's batch command applies to.
+ */
+public abstract class BoardSelector {
+
+    public abstract boolean matches(Board board);
+
+    /** Every board */
+    public static final BoardSelector ALL = new BoardSelector() {
+        @Override
+        public boolean matches(Board board) {
+            return true;
+        }
+    };
+
+    public static BoardSelector round(final int round) {
+        return new BoardSelector() {
+            @Override
+            public boolean matches(Board board) {
+                return board.getRound() == round;
+            }
+        };
+    }
+
+    public static BoardSelector section(final String section) {
+        return new BoardSelector() {
+            @Override
+            public boolean matches(Board board) {
+                return section.equals(board.getSection());
+            }
+        };
+    }
+
+    /** The boards matched by both selectors */
+    public BoardSelector and(final BoardSelector other) {
+        final BoardSelector self = this;
+        return new BoardSelector() {
+            @Override
+            public boolean matches(Board board) {
+                return self.matches(board) && other.matches(board);
+            }
+        };
+    }
+}
@@ -0,0 +1,746 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * The game logic of a two player chess clock, independent of Android.
+ *
+ * Each clock only stores when it was started and how much time and delay
+ * it had then (see PlayerClock), so the time left is worked out on demand
+ * from the injected TimeSource. Nothing needs to run for the clocks to be
+ * right; tick() only exists to report events (end of the Bronstein delay,
+ * negative time and flag fall) and callers need only tick() as often as
+ * they want to redraw, or when msUntilNextEvent() says something is due.
+ *
+ * Commands and tick() must be called from one thread (the UI thread on
+ * Android) and report what happens through a ClockListener on that
+ * thread. The query methods may be called from any thread.
+ */
+public class ChessClock {
+
+    /** The number of presses that can be undone, the last ones */
+    public static final int UNDO_DEPTH = 64;
+
+    private final TimeSource mTimeSource;
+    private ClockListener mListener = new ClockListener.Adapter();
+    private ClockRecorder mRecorder;
+    private volatile ClockSettings mSettings;
+
+    private volatile PlayerClock mWhite;
+    private volatile PlayerClock mBlack;
+
+    private volatile GameState mState = GameState.IDLE;
+
+    // if mState == IDLE:
+    // it will be null.
+    // if mState == ARMED:
+    // it will be WHITE
+    // if mState == RUNNING:
+    // it will be the player whose clock is running
+    // if mState == PAUSED:
+    // it will be the player whose clock was running when paused
+    // if mState == DONE:
+    // it will be the player whose clock ran out of time
+    private volatile Player mActive = null;
+
+    // Bookkeeping for events, so each is only reported once
+    //
+    // the active clock was started with some Bronstein delay left
+    private boolean mInDelay = false;
+    // indexed by Player.ordinal()
+    private final boolean[] mReportedNegative = new boolean[2];
+    // how long each player's clock has run for their current move
+    private final long[] mMoveMs = new long[2];
+    private final PlayerStatistics[] mStatistics = {
+            new PlayerStatistics(), new PlayerStatistics() };
+    // the presses that can be undone, and those undone that can be redone
+    private final ClockHistory mUndo = new ClockHistory(UNDO_DEPTH);
+    private final ClockHistory mRedo = new ClockHistory(UNDO_DEPTH);
+
+    public ChessClock(ClockSettings settings, TimeSource timeSource) {
+        mSettings = settings;
+        mTimeSource = timeSource;
+        mWhite = PlayerClock.initial(Player.WHITE, settings);
+        mBlack = PlayerClock.initial(Player.BLACK, settings);
+    }
+
+    public void setListener(ClockListener listener) {
+        mListener = listener != null ? listener : new ClockListener.Adapter();
+    }
+
+    /** Record every event from now on; null to stop */
+    public void setRecorder(ClockRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    //
+    // Commands
+    //
+
+    /** Start white's clock (the start button) */
+    public void start() {
+        startAt(mTimeSource.uptimeMillis());
+    }
+
+    /**
+     * Start white's clock as if it had been started at 'at' (but no later
+     * than now), for a start scheduled ahead of time.
+     * 
+     * @return false if the game has already started
+     */
+    public boolean startAt(long at) {
+        if (mState != GameState.IDLE && mState != GameState.ARMED)
+            return false;
+        setActive(Player.WHITE);
+        transitionTo(GameState.RUNNING, pastTime(at, null));
+        return true;
+    }
+
+    /**
+     * Wait for a scheduled start: the players can't start the clock until
+     * start() or startAt() is called. reset() cancels.
+     * 
+     * @return false if the game has already started
+     */
+    public boolean arm() {
+        if (mState != GameState.IDLE)
+            return false;
+        setActive(Player.WHITE);
+        transitionTo(GameState.ARMED);
+        return true;
+    }
+
+    /**
+     * A player pressed their button: stop their clock and start the other
+     * player's clock.
+     */
+    public void press(Player player) {
+        pressAt(player, mTimeSource.uptimeMillis());
+    }
+
+    /**
+     * A press made at 'at', which may be in the past: for example on a
+     * paired device, and received over the network. The player is charged
+     * up to 'at' and the other clock runs from then.
+     * 
+     * @return false if the press did nothing: the other player's button, or
+     *         a game that is over or waiting for a scheduled start
+     */
+    public boolean pressAt(Player player, long at) {
+        switch (mState) {
+
+        case PAUSED:
+            // alternate way to un-pause
+            return resumeAt(at);
+
+        case DONE: // do nothing
+        case ARMED: // wait for the scheduled start
+            return false;
+
+        case RUNNING:
+            PlayerClock running = clock(player);
+            if (!running.isRunning())
+                return false;
+            long when = pastTime(at, running);
+            stopClock(player, when);
+            if (hasFlagFallen(clock(player))) {
+                flagFall(player, when);
+                return true;
+            }
+            PlayerClock stopped = clock(player);
+            long moveMs = mMoveMs[player.ordinal()];
+            moveFinished(player, when);
+            mUndo.push(new ClockHistory.Press(player, stopped,
+                    clock(player), clock(player.other()), moveMs));
+            mRedo.clear();
+            startClock(player.other(), when);
+            setActive(player.other());
+            return true;
+
+        default:
+            // IDLE: the game just started
+            setActive(player.other());
+            transitionTo(GameState.RUNNING, pastTime(at, null));
+            return true;
+        }
+    }
+
+    /** Pause a running game, or resume a paused one (the pause button) */
+    public void togglePause() {
+        if (mState == GameState.DONE || mState == GameState.ARMED)
+            return;
+        if (mState == GameState.PAUSED)
+            resumeAt(mTimeSource.uptimeMillis());
+        else
+            pause();
+    }
+
+    /**
+     * Pause the game.
+     * 
+     * @return false if there is nothing to pause (IDLE or DONE)
+     */
+    public boolean pause() {
+        return pauseAt(mTimeSource.uptimeMillis());
+    }
+
+    /**
+     * Pause the game as of 'at', which may be in the past.
+     * 
+     * @return false if there is nothing to pause (IDLE or DONE)
+     */
+    public boolean pauseAt(long at) {
+        if (mState == GameState.DONE || mState == GameState.IDLE
+                || mState == GameState.ARMED)
+            return false;
+        transitionTo(GameState.PAUSED, pastTime(at, clock(mActive)));
+        return true;
+    }
+
+    /**
+     * Resume a paused game as of 'at', which may be in the past.
+     * 
+     * @return false if the game wasn't paused
+     */
+    public boolean resumeAt(long at) {
+        if (mState != GameState.PAUSED)
+            return false;
+        transitionTo(GameState.RUNNING, pastTime(at, null));
+        return true;
+    }
+
+    /** Put both clocks back to their initial time */
+    public void reset() {
+        transitionTo(GameState.IDLE);
+    }
+
+    /** Reset using new settings */
+    public void reset(ClockSettings settings) {
+        mSettings = settings;
+        reset();
+    }
+
+    /** Set the time left on a player's clock */
+    public void adjustTime(Player player, long msToGo) {
+        adjustTimeAt(player, msToGo, mTimeSource.uptimeMillis());
+    }
+
+    /**
+     * Set the time left on a player's clock as of 'at', which may be in the
+     * past: a running clock has run on from 'at' since.
+     */
+    public void adjustTimeAt(Player player, long msToGo, long at) {
+        PlayerClock clock = clock(player);
+        long when = pastTime(at, clock);
+        long change = msToGo - clock.getMsToGo(when);
+        PlayerClock adjusted = clock.stop(when).withTime(msToGo,
+                clock.getMsDelayToGo(when));
+        setClock(clock.isRunning() ? adjusted.start(when) : adjusted);
+        mReportedNegative[player.ordinal()] = false;
+        // an undo would put the old time back
+        clearHistory();
+        record(ClockEventType.ADJUST, player, when, change, msToGo);
+        mListener.onTimeChanged(player);
+    }
+
+    /**
+     * Take back the last press, for a player who pressed by mistake. It is
+     * as if they hadn't: they are on the same move again, with the delay
+     * they had left, and are charged for the time the other clock has run
+     * since (not counting pauses), and the other clock is put back as it
+     * was before it started. A paused game stays paused.
+     *
+     * The last UNDO_DEPTH presses can be undone, back to the start of the
+     * game at most, or to the last reset, restore(), adjustTime() or flag
+     * fall.
+     *
+     * @return false if there is no press to undo
+     */
+    public boolean undo() {
+        if (mUndo.size() == 0 || !canTakeBack())
+            return false;
+        long now = mTimeSource.uptimeMillis();
+        ClockHistory.Press press = mUndo.pop();
+        Player player = press.mPlayer;
+        Player other = player.other();
+
+        long elapsed = getMoveMs(other, now);
+        stopClock(other, now);
+        setClock(press.mOther);
+        mMoveMs[other.ordinal()] = 0;
+        mReportedNegative[other.ordinal()] = press.mOther.mMsToGo < 0;
+        mListener.onTimeChanged(other);
+
+        mStatistics[player.ordinal()].removeMove(press.mMoveMs);
+        handBack(player, press.mStopped, press.mMoveMs, elapsed, now);
+
+        mRedo.push(press);
+        recordHistory(ClockEventType.UNDO, press, now);
+        return true;
+    }
+
+    /**
+     * Make an undone press again, charging the other player for the time
+     * since the undo, as if it hadn't been undone. Another press clears
+     * what can be redone.
+     *
+     * @return false if there is no undone press to redo
+     */
+    public boolean redo() {
+        if (mRedo.size() == 0 || !canTakeBack())
+            return false;
+        long now = mTimeSource.uptimeMillis();
+        ClockHistory.Press press = mRedo.pop();
+        Player player = press.mPlayer;
+
+        long elapsed = Math.max(0, getMoveMs(player, now) - press.mMoveMs);
+        stopClock(player, now);
+        setClock(press.mAfter);
+        mMoveMs[player.ordinal()] = 0;
+        mReportedNegative[player.ordinal()] = press.mAfter.mMsToGo < 0;
+        mStatistics[player.ordinal()].addMove(press.mMoveMs);
+        mListener.onTimeChanged(player);
+
+        handBack(player.other(), press.mOther, 0, elapsed, now);
+
+        mUndo.push(press);
+        recordHistory(ClockEventType.REDO, press, now);
+        return true;
+    }
+
+    /** Whether undo() would take back a press */
+    public boolean canUndo() {
+        return mUndo.size() > 0 && canTakeBack();
+    }
+
+    /** Whether redo() would make an undone press again */
+    public boolean canRedo() {
+        return mRedo.size() > 0 && canTakeBack();
+    }
+
+    /**
+     * Report the end of the Bronstein delay, negative time and flag fall if
+     * they are due.
+     */
+    public void tick() {
+        if (mState != GameState.RUNNING)
+            return;
+
+        long now = mTimeSource.uptimeMillis();
+        Player player = mActive;
+        PlayerClock clock = clock(player);
+
+        if (mInDelay && clock.getMsDelayToGo(now) == 0) {
+            mInDelay = false;
+            mListener.onDelayFinished(player);
+        }
+
+        long msToGo = clock.getMsToGo(now);
+        if (msToGo <= 0 && !mSettings.getAllowNegativeTime()) {
+            setClock(clock.stop(now));
+            mListener.onClockStopped(player);
+            flagFall(player, now);
+        } else if (msToGo < 0 && !mReportedNegative[player.ordinal()]) {
+            mReportedNegative[player.ordinal()] = true;
+            mListener.onNegativeTime(player);
+        }
+    }
+
+    /**
+     * The number of ms until tick() has something to report, or
+     * Long.MAX_VALUE if nothing will happen without another command.
+     */
+    public long msUntilNextEvent() {
+        if (mState != GameState.RUNNING)
+            return Long.MAX_VALUE;
+
+        long now = mTimeSource.uptimeMillis();
+        PlayerClock clock = clock(mActive);
+        long msDelayToGo = clock.getMsDelayToGo(now);
+        long untilZero = msDelayToGo + clock.getMsToGo(now);
+
+        long next = Long.MAX_VALUE;
+        if (mInDelay)
+            next = msDelayToGo;
+        if (!mSettings.getAllowNegativeTime())
+            next = Math.min(next, untilZero);
+        else if (!mReportedNegative[mActive.ordinal()])
+            next = Math.min(next, untilZero + 1);
+        return Math.max(0, next);
+    }
+
+    //
+    // Saving and restoring
+    //
+
+    /** Capture the game, reporting any events that are due first. */
+    public ClockSnapshot snapshot() {
+        tick();
+        return peek(mTimeSource.uptimeMillis());
+    }
+
+    /**
+     * Capture the game as of 'now' (a time from the clock's TimeSource)
+     * without reporting anything. Safe from any thread.
+     */
+    public ClockSnapshot peek(long now) {
+        PlayerClock white = mWhite;
+        PlayerClock black = mBlack;
+        return new ClockSnapshot(white.getMsToGo(now),
+                white.getMsDelayToGo(now), white.mMoveNumber,
+                black.getMsToGo(now), black.getMsDelayToGo(now),
+                black.mMoveNumber, mState, mActive);
+    }
+
+    /**
+     * Recreate a game from a snapshot. The clock will never be RUNNING after
+     * this method; a running game is restored as PAUSED, and a game that
+     * hasn't started as IDLE, keeping any time adjusted before the start.
+     */
+    public void restore(ClockSnapshot snapshot) {
+        GameState stateToRestore = snapshot.getState();
+        // a scheduled start can't be restored
+        if (stateToRestore == GameState.IDLE
+                || stateToRestore == GameState.ARMED
+                || snapshot.getActive() == null) {
+            reset();
+            for (Player player : Player.values()) {
+                if (snapshot.getMsToGo(player) != clock(player).mMsToGo)
+                    adjustTime(player, snapshot.getMsToGo(player));
+            }
+            return;
+        }
+
+        GameState start = mState;
+        long now = mTimeSource.uptimeMillis();
+        stopClock(Player.WHITE, now);
+        stopClock(Player.BLACK, now);
+        clearHistory();
+        for (Player player : Player.values()) {
+            setClock(new PlayerClock(player, snapshot.getMsToGo(player),
+                    snapshot.getMsDelayToGo(player),
+                    mSettings.getBronsteinMs(),
+                    snapshot.getMoveNumber(player), PlayerClock.NOT_RUNNING));
+            mReportedNegative[player.ordinal()] = false;
+            mMoveMs[player.ordinal()] = 0;
+            record(ClockEventType.RESTORE, player, now,
+                    snapshot.getMsDelayToGo(player),
+                    snapshot.getMsToGo(player));
+            mListener.onTimeChanged(player);
+        }
+
+        mState = stateToRestore == GameState.DONE ? GameState.DONE
+                : GameState.PAUSED;
+        setActive(snapshot.getActive());
+        record(mState == GameState.DONE ? ClockEventType.FLAG
+                : ClockEventType.PAUSE, mActive, now, 0,
+                clock(mActive).mMsToGo);
+        mListener.onStateChanged(start, mState);
+    }
+
+    /**
+     * Recreate a game as it was at 'at', a time from the clock's TimeSource,
+     * after the process was killed. Unlike restore(), a RUNNING game keeps
+     * running: the active clock is charged for the time since 'at'. If the
+     * device has restarted since (and its uptime with it) the time in
+     * between can't be known, and the game is left PAUSED.
+     *
+     * @param sameBoot whether 'at' is of the device's boot now; after a
+     *        restart the uptime may already be past it
+     */
+    public void recover(ClockSnapshot snapshot, long at, boolean sameBoot) {
+        restore(snapshot);
+        // a time in the future is of another boot, whatever it says
+        if (snapshot.getState() == GameState.RUNNING && sameBoot
+                && at <= mTimeSource.uptimeMillis())
+            resumeAt(at);
+    }
+
+    //
+    // Queries, safe from any thread
+    //
+
+    public GameState getState() {
+        return mState;
+    }
+
+    public Player getActive() {
+        return mActive;
+    }
+
+    public ClockSettings getSettings() {
+        return mSettings;
+    }
+
+    /** Time left on the player's clock right now */
+    public long getMsToGo(Player player) {
+        return clock(player).getMsToGo(mTimeSource.uptimeMillis());
+    }
+
+    public long getMsDelayToGo(Player player) {
+        return clock(player).getMsDelayToGo(mTimeSource.uptimeMillis());
+    }
+
+    public int getMoveNumber(Player player) {
+        return clock(player).mMoveNumber;
+    }
+
+    public boolean isRunning(Player player) {
+        return clock(player).isRunning();
+    }
+
+    //
+    // Statistics, from the clock's thread
+    //
+
+    /**
+     * How long the player's moves of this game took. Moves made before a
+     * restore() aren't counted, unless they are added again (see
+     * ClockJournal.recover()).
+     */
+    public PlayerStatistics getStatistics(Player player) {
+        return mStatistics[player.ordinal()];
+    }
+
+    /**
+     * The number of moves, this one included, the player has left to make
+     * before the time control, or -1 if there is none to come.
+     */
+    public int getMovesToTimeControl(Player player) {
+        int control = mSettings.getPhase1NumberMoves();
+        int move = getMoveNumber(player);
+        if (mSettings.getTimeControlType() != TimeControlType.TOURNAMENT
+                || move > control)
+            return -1;
+        return control - move + 1;
+    }
+
+    /**
+     * The move the player's flag falls on at their rate so far, or -1 (see
+     * PlayerStatistics.forecastFlagFall())
+     */
+    public int getFlagFallForecast(Player player) {
+        return getStatistics(player).forecastFlagFall(getMsToGo(player),
+                getMoveNumber(player), mSettings);
+    }
+
+    //
+    // Implementation
+    //
+
+    // All state transitions occur here.
+    private void transitionTo(GameState state) {
+        transitionTo(state, mTimeSource.uptimeMillis());
+    }
+
+    private void transitionTo(GameState state, long now) {
+        GameState start = mState;
+
+        switch (state) {
+        case IDLE:
+            stopClock(Player.WHITE, now);
+            stopClock(Player.BLACK, now);
+            mState = GameState.IDLE;
+            mActive = null;
+            record(ClockEventType.RESET, null, now,
+                    mSettings.getBronsteinMs(), mSettings.getInitialMs());
+            clearHistory();
+            for (Player player : Player.values()) {
+                setClock(PlayerClock.initial(player, mSettings));
+                mReportedNegative[player.ordinal()] = false;
+                mMoveMs[player.ordinal()] = 0;
+                mStatistics[player.ordinal()].reset();
+                mListener.onTimeChanged(player);
+            }
+            break;
+
+        case RUNNING:
+            mState = GameState.RUNNING;
+            // start the clock
+            startClock(mActive, now);
+            record(start == GameState.PAUSED ? ClockEventType.RESUME
+                    : ClockEventType.START, mActive, now, 0,
+                    clock(mActive).mMsToGo);
+            break;
+
+        case ARMED:
+            mState = GameState.ARMED;
+            break;
+
+        case PAUSED:
+            stopClock(mActive, now);
+            if (hasFlagFallen(clock(mActive))) {
+                // time ran out before we noticed
+                flagFall(mActive, now);
+                return;
+            }
+            mState = GameState.PAUSED;
+            record(ClockEventType.PAUSE, mActive, now, 0,
+                    clock(mActive).mMsToGo);
+            break;
+
+        case DONE:
+            if (mActive == null)
+                return; // neither player is active
+            mState = GameState.DONE;
+            break;
+        }
+
+        mListener.onStateChanged(start, mState);
+    }
+
+    private void setActive(Player player) {
+        mActive = player;
+        mListener.onActivePlayerChanged(player);
+    }
+
+    private void startClock(Player player, long now) {
+        PlayerClock clock = clock(player);
+        mInDelay = clock.mMsDelayToGo > 0;
+        setClock(clock.start(now));
+        mListener.onClockRunning(player);
+    }
+
+    private void stopClock(Player player, long now) {
+        PlayerClock clock = clock(player);
+        if (!clock.isRunning())
+            return;
+        setClock(clock.stop(now));
+        mMoveMs[player.ordinal()] += Math.max(0, now - clock.mStartedAt);
+        if (mInDelay && clock(player).mMsDelayToGo == 0)
+            mListener.onDelayFinished(player);
+        mInDelay = false;
+        mListener.onClockStopped(player);
+    }
+
+    // 'at', but not in the future, nor before the running clock started
+    private long pastTime(long at, PlayerClock running) {
+        long when = Math.min(at, mTimeSource.uptimeMillis());
+        if (running != null && running.isRunning())
+            when = Math.max(when, running.mStartedAt);
+        return when;
+    }
+
+    private boolean hasFlagFallen(PlayerClock clock) {
+        return clock.getMsToGo(mTimeSource.uptimeMillis()) <= 0
+                && !mSettings.getAllowNegativeTime();
+    }
+
+    // the clock reached 0 (noticed at 'now'); it is shown as exactly 0.0
+    private void flagFall(Player player, long now) {
+        PlayerClock clock = clock(player);
+        setClock(clock.withTime(0, clock.mMsDelayToGo));
+        mActive = player;
+        clearHistory();
+        record(ClockEventType.FLAG, player, now, 0, 0);
+        transitionTo(GameState.DONE);
+        mListener.onFlagFall(player);
+    }
+
+    // The method below implements the logic of when time should be added
+    // to each clock according to the style of time control that the user
+    // configured. The clock is stopped; the move was made at 'now'.
+    private void moveFinished(Player player, long now) {
+        PlayerClock clock = clock(player);
+        long bonusMs = 0;
+        long phaseMs = 0;
+
+        if (mSettings.getTimeControlType() == TimeControlType.TOURNAMENT) {
+            if (clock.mMoveNumber + 1 == (mSettings.getPhase1NumberMoves() + 1)) {
+                phaseMs = mSettings.getPhase2Minutes() * 60 * 1000L;
+                bonusMs += phaseMs;
+            }
+        }
+
+        if (mSettings.getDelayType() == DelayType.FISCHER)
+            bonusMs += mSettings.getIncrementSeconds() * 1000L;
+
+        // when a move finishes the delay timer is reset
+        setClock(clock.nextMove(bonusMs));
+
+        if (mRecorder != null) {
+            long msToGo = clock(player).mMsToGo;
+            mRecorder.record(ClockEventType.PRESS, player, now,
+                    clock.mMoveNumber, mMoveMs[player.ordinal()], msToGo);
+            if (phaseMs != 0)
+                mRecorder.record(ClockEventType.PHASE, player, now,
+                        clock.mMoveNumber + 1, phaseMs, msToGo);
+        }
+        mStatistics[player.ordinal()].addMove(mMoveMs[player.ordinal()]);
+        mMoveMs[player.ordinal()] = 0;
+
+        mListener.onTimeChanged(player);
+    }
+
+    // a press can only be taken back, or made again, during the game
+    private boolean canTakeBack() {
+        return mState == GameState.RUNNING || mState == GameState.PAUSED;
+    }
+
+    private void clearHistory() {
+        mUndo.clear();
+        mRedo.clear();
+    }
+
+    // how long the player's clock has run for their current move
+    private long getMoveMs(Player player, long now) {
+        PlayerClock clock = clock(player);
+        long ms = mMoveMs[player.ordinal()];
+        if (clock.isRunning())
+            ms += Math.max(0, now - clock.mStartedAt);
+        return ms;
+    }
+
+    // Make it the player's turn again with their clock as it was, charged
+    // for the 'elapsed' ms since (moveMs before that). A running game has
+    // their clock running from 'elapsed' ago, a paused one has it stopped.
+    private void handBack(Player player, PlayerClock clock, long moveMs,
+            long elapsed, long now) {
+        mReportedNegative[player.ordinal()] = clock.mMsToGo < 0;
+        if (mState == GameState.RUNNING) {
+            setClock(clock);
+            mMoveMs[player.ordinal()] = moveMs;
+            startClock(player, now - elapsed);
+        } else {
+            setClock(clock.start(now - elapsed).stop(now));
+            mMoveMs[player.ordinal()] = moveMs + elapsed;
+        }
+        mListener.onTimeChanged(player);
+        setActive(player);
+    }
+
+    // Record an undo or redo, then the clocks after it as a restore() does
+    // (RESTORE for each player, and the game's state) so that a reader of
+    // the log needn't know what was undone
+    private void recordHistory(ClockEventType type,
+            ClockHistory.Press press, long now) {
+        if (mRecorder == null)
+            return;
+        Player player = press.mPlayer;
+        mRecorder.record(type, player, now, press.getMoveNumber(),
+                press.mMoveMs, clock(player).getMsToGo(now));
+        for (Player p : Player.values())
+            record(ClockEventType.RESTORE, p, now, clock(p).getMsDelayToGo(
+                    now), clock(p).getMsToGo(now));
+        record(mState == GameState.RUNNING ? ClockEventType.RESUME
+                : ClockEventType.PAUSE, mActive, now, 0, clock(mActive)
+                .getMsToGo(now));
+    }
+
+    // tell the recorder, if there is one, about an event
+    private void record(ClockEventType type, Player player, long now,
+            long value, long msToGo) {
+        if (mRecorder != null)
+            mRecorder.record(type, player, now, player == null ? 0
+                    : clock(player).mMoveNumber, value, msToGo);
+    }
+
+    private PlayerClock clock(Player player) {
+        return player == Player.WHITE ? mWhite : mBlack;
+    }
+
+    private void setClock(PlayerClock clock) {
+        if (clock.mPlayer == Player.WHITE)
+            mWhite = clock;
+        else
+            mBlack = clock;
+    }
+}
@@ -0,0 +1,86 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Drives the tick() of many ChessClocks from one TimingWheel, so a host
+ * running lots of games wakes up only when one of them has an event due
+ * (end of delay, negative time, flag fall) instead of polling every clock.
+ *
+ * Call update() after sending a command to a clock, since commands change
+ * when its next event is due, and advance() whenever the host wakes up.
+ *
+ * Not thread safe; the clocks' commands, update() and advance() must all
+ * be called from the host's thread.
+ */
+public final class ClockEventScheduler implements TimingWheel.Task {
+
+    private final TimeSource mTimeSource;
+    private final TimingWheel mWheel;
+
+    /** @param timeSource the time source shared by the watched clocks */
+    public ClockEventScheduler(TimeSource timeSource) {
+        mTimeSource = timeSource;
+        mWheel = new TimingWheel(timeSource.uptimeMillis());
+    }
+
+    /**
+     * Start watching a clock.
+     *
+     * @return the handle to pass to update() and unwatch()
+     */
+    public TimingWheel.Timeout watch(ChessClock clock) {
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(this);
+        timeout.tag = clock;
+        update(timeout);
+        return timeout;
+    }
+
+    public void unwatch(TimingWheel.Timeout timeout) {
+        mWheel.cancel(timeout);
+    }
+
+    /** Reschedule the clock's next event after a command */
+    public void update(TimingWheel.Timeout timeout) {
+        ChessClock clock = (ChessClock) timeout.tag;
+        long ms = clock.msUntilNextEvent();
+        if (ms == Long.MAX_VALUE)
+            mWheel.cancel(timeout);
+        else
+            mWheel.schedule(timeout, mTimeSource.uptimeMillis() + ms);
+    }
+
+    /** Run a task of the host's own from advance() at the given time */
+    public TimingWheel.Timeout schedule(long at, TimingWheel.Task task) {
+        return mWheel.schedule(at, task);
+    }
+
+    /**
+     * Tick the clocks whose events are due.
+     *
+     * @return the number of clocks ticked and tasks run
+     */
+    public int advance() {
+        return mWheel.advance(mTimeSource.uptimeMillis());
+    }
+
+    /**
+     * How long the host may sleep before calling advance() again:
+     * Long.MAX_VALUE when no clock has an event pending.
+     */
+    public long msUntilNextEvent() {
+        long bound = mWheel.nextDeadlineBound();
+        if (bound == Long.MAX_VALUE)
+            return bound;
+        return Math.max(0, bound - mTimeSource.uptimeMillis());
+    }
+
+    /** The number of clocks with an event pending, and tasks waiting */
+    public int pending() {
+        return mWheel.size();
+    }
+
+    @Override
+    public void onTimeout(TimingWheel.Timeout timeout, long now) {
+        ((ChessClock) timeout.tag).tick();
+        update(timeout);
+    }
+}
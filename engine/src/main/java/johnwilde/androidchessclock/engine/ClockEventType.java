@@ -0,0 +1,44 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * The events a ClockRecorder is told about. Each comes with the player, the
+ * time it happened, a move number, a value and the player's time left:
+ * 
+ * START: the game started and the player's clock is running.
+ * 
+ * PRESS: the player finished a move. The move number is that of the move
+ * just made, the value is how long the clock ran for it (not counting
+ * pauses) and the time left includes any bonus.
+ * 
+ * PAUSE, RESUME: the game was paused or resumed; the player is the one
+ * whose clock was, or is again, running.
+ * 
+ * ADJUST: the player's time was set; the value is the change.
+ * 
+ * PHASE: the player reached the second phase of a tournament time
+ * control. The move number is the first of the phase and the value is the
+ * time added.
+ * 
+ * FLAG: the player's clock reached 0 and the game is over.
+ * 
+ * RESET: both clocks were put back to their initial time; the player is
+ * null, the time left is the initial time and the value is the Bronstein
+ * delay.
+ * 
+ * RESTORE: the player's clock was set from a saved game; the value is the
+ * delay left. One for each player, followed by a PAUSE (or FLAG, for a
+ * finished game) for the active player.
+ * 
+ * UNDO: the player's last press was taken back. The move number is that of
+ * the move they are on again, the value is how long the clock had run for
+ * it. Followed, like a restore, by a RESTORE for each player and a RESUME
+ * (or PAUSE) for the active player.
+ * 
+ * REDO: a press taken back was made again, with the same move number and
+ * value as its UNDO, and followed the same way.
+ */
+public enum ClockEventType {
+    // the ordinals are stored in MoveLog files: add new types at the end
+    START, PRESS, PAUSE, RESUME, ADJUST, PHASE, FLAG, RESET, RESTORE,
+    UNDO, REDO
+}
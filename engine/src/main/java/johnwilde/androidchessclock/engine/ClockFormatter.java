@@ -0,0 +1,206 @@
+package johnwilde.androidchessclock.engine;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats clock times into a reusable char buffer.
+ *
+ * The output is identical to Utils.formatTime(long) but no objects are
+ * created once the formatter has been constructed, which matters because
+ * the running clock is redrawn many times per second.
+ *
+ * An instance is not thread safe; each Timer owns its own.
+ */
+public final class ClockFormatter {
+
+    // "-" + 19 digit hours + ":MM:SS" fits with room to spare
+    private static final int CAPACITY = 32;
+
+    // DecimalFormat rounds HALF_EVEN on the binary value of the double that
+    // Utils.formatTime builds, so a value like 1.05 may round either way.
+    // Record what the platform does for every tie we can meet:
+    //
+    // TENTHS_TIE_UP[sec * 10 + tenth] for "N.N" at sec + (tenth * 100 + 50) ms
+    // UNITS_TIE_UP[sec] for "N" at sec + 500 ms
+    private static final boolean[] TENTHS_TIE_UP = new boolean[100];
+    private static final boolean[] UNITS_TIE_UP = new boolean[10];
+
+    static {
+        DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.US);
+        DecimalFormat dfOneDecimal = new DecimalFormat("0.0", symbols);
+        DecimalFormat dfOneDigit = new DecimalFormat("0", symbols);
+        for (int sec = 0; sec < 10; sec++) {
+            for (int tenth = 0; tenth < 10; tenth++) {
+                double value = (double) sec + (double) (tenth * 100 + 50) / 1000.0;
+                int up = sec * 10 + tenth + 1;
+                String roundedUp = (up / 10) + "." + (up % 10);
+                TENTHS_TIE_UP[sec * 10 + tenth] = dfOneDecimal.format(value)
+                        .equals(roundedUp);
+            }
+            double value = (double) sec + 500.0 / 1000.0;
+            UNITS_TIE_UP[sec] = dfOneDigit.format(value).equals(
+                    String.valueOf(sec + 1));
+        }
+    }
+
+    private final char[] mBuffer = new char[CAPACITY];
+    private final char[] mPrevious = new char[CAPACITY];
+    private int mLength;
+    private int mPreviousLength;
+    private boolean mInvalid = true;
+
+    // locale dependent characters used by DecimalFormat
+    private final char mZero;
+    private final char mDecimalSeparator;
+
+    public ClockFormatter() {
+        this(new DecimalFormatSymbols());
+    }
+
+    public ClockFormatter(DecimalFormatSymbols symbols) {
+        mZero = symbols.getZeroDigit();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+    }
+
+    /**
+     * Format the time into the internal buffer.
+     *
+     * @return true if the text differs from the text produced by the
+     *         previous call, so callers can skip redundant redraws.
+     */
+    public boolean format(long millisIn) {
+        System.arraycopy(mBuffer, 0, mPrevious, 0, mLength);
+        mPreviousLength = mLength;
+        mLength = 0;
+
+        if (millisIn == Long.MIN_VALUE) {
+            // Math.abs() overflows here; defer to the original code
+            String s = Utils.formatTime(millisIn);
+            s.getChars(0, s.length(), mBuffer, 0);
+            mLength = s.length();
+            return hasChanged();
+        }
+
+        long millis = Math.abs(millisIn);
+
+        long hours = millis / (1000 * 60 * 60);
+        millis -= hours * (1000 * 60 * 60);
+
+        long min = millis / (1000 * 60);
+        millis -= min * (1000 * 60);
+
+        long sec = millis / 1000;
+        millis -= sec * 1000;
+
+        // clock is <= -1 second, prepend a minus sign
+        if (millisIn <= -1000)
+            mBuffer[mLength++] = '-';
+
+        if (hours > 0) {
+            appendNumber(hours);
+            mBuffer[mLength++] = ':';
+            appendTwoDigits((int) min);
+            mBuffer[mLength++] = ':';
+        } else if (min > 0) {
+            appendNumber(min);
+            mBuffer[mLength++] = ':';
+        }
+
+        if (hours == 0 && min == 0 && sec < 10) {
+            // See Utils.formatTime() for the desired behavior
+            if (millisIn >= 0) {
+                int tenths = roundToTenths(millisIn);
+                appendNumber(tenths / 10);
+                mBuffer[mLength++] = mDecimalSeparator;
+                mBuffer[mLength++] = (char) (mZero + tenths % 10);
+            } else {
+                appendNumber(roundToSeconds(-millisIn));
+            }
+        } else {
+            appendTwoDigits((int) sec);
+        }
+
+        return hasChanged();
+    }
+
+    /**
+     * Forget the previous text, so the next call to format() reports a
+     * change. Use this when the view was set to something else.
+     */
+    public void invalidate() {
+        mInvalid = true;
+    }
+
+    /**
+     * The number of tenths of a second shown for 0 <= millis < 10000, e.g.
+     * 95 when the clock reads "9.5".
+     */
+    public static int roundToTenths(long millis) {
+        int tenths = (int) (millis / 100);
+        int rest = (int) (millis % 100);
+        if (rest > 50 || (rest == 50 && TENTHS_TIE_UP[tenths]))
+            tenths++;
+        return tenths;
+    }
+
+    /**
+     * The number of seconds shown for a negative time between 0 and -9999
+     * ms, where millis is the absolute value of the time.
+     */
+    public static int roundToSeconds(long millis) {
+        int sec = (int) (millis / 1000);
+        int rest = (int) (millis % 1000);
+        if (rest > 500 || (rest == 500 && UNITS_TIE_UP[sec]))
+            sec++;
+        return sec;
+    }
+
+    public char[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mLength);
+    }
+
+    private boolean hasChanged() {
+        if (mInvalid) {
+            mInvalid = false;
+            return true;
+        }
+        if (mLength != mPreviousLength)
+            return true;
+        for (int i = 0; i < mLength; i++) {
+            if (mBuffer[i] != mPrevious[i])
+                return true;
+        }
+        return false;
+    }
+
+    private void appendTwoDigits(int value) {
+        mBuffer[mLength++] = (char) (mZero + value / 10);
+        mBuffer[mLength++] = (char) (mZero + value % 10);
+    }
+
+    private void appendNumber(long value) {
+        int start = mLength;
+        do {
+            mBuffer[mLength++] = (char) (mZero + (int) (value % 10));
+            value /= 10;
+        } while (value > 0);
+
+        // digits were written least significant first
+        for (int i = start, j = mLength - 1; i < j; i++, j--) {
+            char c = mBuffer[i];
+            mBuffer[i] = mBuffer[j];
+            mBuffer[j] = c;
+        }
+    }
+}
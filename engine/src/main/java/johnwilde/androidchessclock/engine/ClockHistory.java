@@ -0,0 +1,97 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.Arrays;
+
+/**
+ * The last presses of a game, newest first, for undo (or redo): a stack of
+ * a fixed depth, kept in a ring, so that a press pushed onto a full one
+ * drops the oldest. However long the game, the history holds no more than
+ * its depth.
+ *
+ * A press only replaces the two PlayerClocks, which never change, so each
+ * Press keeps the ones it replaced rather than a copy of the game: one
+ * small object per press, which can move between the undo and redo
+ * stacks without being copied.
+ */
+final class ClockHistory {
+
+    /**
+     * One press:
+     *
+     * mStopped: the pressing player's clock, stopped when they pressed
+     *
+     * mAfter: their clock for the next move, with any bonus added
+     *
+     * mOther: the other player's clock, before it was started
+     *
+     * mMoveMs: how long the pressing player's clock ran for the move
+     */
+    static final class Press {
+        final Player mPlayer;
+        final PlayerClock mStopped;
+        final PlayerClock mAfter;
+        final PlayerClock mOther;
+        final long mMoveMs;
+
+        Press(Player player, PlayerClock stopped, PlayerClock after,
+                PlayerClock other, long moveMs) {
+            mPlayer = player;
+            mStopped = stopped;
+            mAfter = after;
+            mOther = other;
+            mMoveMs = moveMs;
+        }
+
+        /** The move number of the press */
+        int getMoveNumber() {
+            return mStopped.mMoveNumber;
+        }
+    }
+
+    private final Press[] mPresses;
+    // where the next press goes, and how many there are below it
+    private int mTop;
+    private int mSize;
+
+    ClockHistory(int depth) {
+        mPresses = new Press[depth];
+    }
+
+    /** Push a press, dropping the oldest if the history is full */
+    void push(Press press) {
+        mPresses[mTop] = press;
+        mTop = (mTop + 1) % mPresses.length;
+        if (mSize < mPresses.length)
+            mSize++;
+    }
+
+    /** The newest press, removed, or null if there are none */
+    Press pop() {
+        if (mSize == 0)
+            return null;
+        mTop = (mTop - 1 + mPresses.length) % mPresses.length;
+        Press press = mPresses[mTop];
+        mPresses[mTop] = null;
+        mSize--;
+        return press;
+    }
+
+    /** The newest press, or null if there are none */
+    Press peek() {
+        if (mSize == 0)
+            return null;
+        return mPresses[(mTop - 1 + mPresses.length) % mPresses.length];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        if (mSize == 0)
+            return;
+        Arrays.fill(mPresses, null);
+        mTop = 0;
+        mSize = 0;
+    }
+}
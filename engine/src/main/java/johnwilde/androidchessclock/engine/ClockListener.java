@@ -0,0 +1,70 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Callbacks from ChessClock. They are invoked synchronously on the thread
+ * that called into the clock.
+ */
+public interface ClockListener {
+
+    /** The game moved from one GameState to another */
+    void onStateChanged(GameState from, GameState to);
+
+    /** It is now this player's turn (also called when restoring a game) */
+    void onActivePlayerChanged(Player player);
+
+    /** The player's clock began running, for a new move or on resume */
+    void onClockRunning(Player player);
+
+    /** The player's clock was stopped by a move, pause or reset */
+    void onClockStopped(Player player);
+
+    /** The Bronstein delay ran out and the clock itself is counting down */
+    void onDelayFinished(Player player);
+
+    /** Time was changed other than by running: reset, bonus or adjustment */
+    void onTimeChanged(Player player);
+
+    /** The player's clock reached 0 and the game is over */
+    void onFlagFall(Player player);
+
+    /** The player's clock went below 0 (only when negative time is allowed) */
+    void onNegativeTime(Player player);
+
+    /**
+     * A listener that does nothing, for subclasses that only care about some
+     * of the callbacks.
+     */
+    class Adapter implements ClockListener {
+        @Override
+        public void onStateChanged(GameState from, GameState to) {
+        }
+
+        @Override
+        public void onActivePlayerChanged(Player player) {
+        }
+
+        @Override
+        public void onClockRunning(Player player) {
+        }
+
+        @Override
+        public void onClockStopped(Player player) {
+        }
+
+        @Override
+        public void onDelayFinished(Player player) {
+        }
+
+        @Override
+        public void onTimeChanged(Player player) {
+        }
+
+        @Override
+        public void onFlagFall(Player player) {
+        }
+
+        @Override
+        public void onNegativeTime(Player player) {
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Receives every event of a ChessClock, with the exact time it happened,
+ * for keeping the game's history. Called synchronously on the clock's
+ * thread, on the press path, so it shouldn't allocate or block.
+ * 
+ * See ClockEventType for what the arguments mean for each event.
+ */
+public interface ClockRecorder {
+
+    void record(ClockEventType type, Player player, long at, int moveNumber,
+            long value, long msToGo);
+}
@@ -0,0 +1,92 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * The time control for a game, as configured in the user preferences.
+ */
+public final class ClockSettings {
+
+    private final TimeControlType mTimeControlType;
+    private final int mInitialDurationSeconds;
+    private final int mIncrementSeconds;
+    private final DelayType mDelayType;
+    private final boolean mAllowNegativeTime;
+    // only used for TOURNAMENT time control
+    private final int mPhase1NumberMoves;
+    private final int mPhase2Minutes;
+
+    public ClockSettings(TimeControlType timeControlType,
+            int initialDurationSeconds, int incrementSeconds,
+            DelayType delayType, boolean allowNegativeTime,
+            int phase1NumberMoves, int phase2Minutes) {
+        mTimeControlType = timeControlType;
+        mInitialDurationSeconds = initialDurationSeconds;
+        mIncrementSeconds = incrementSeconds;
+        mDelayType = delayType;
+        mAllowNegativeTime = allowNegativeTime;
+        mPhase1NumberMoves = phase1NumberMoves;
+        mPhase2Minutes = phase2Minutes;
+    }
+
+    /** A single period of play with a per-move bonus */
+    public static ClockSettings basic(int initialDurationSeconds,
+            int incrementSeconds, DelayType delayType,
+            boolean allowNegativeTime) {
+        return new ClockSettings(TimeControlType.BASIC,
+                initialDurationSeconds, incrementSeconds, delayType,
+                allowNegativeTime, 0, 0);
+    }
+
+    /**
+     * phase2Minutes are added to a player's clock when they complete
+     * phase1NumberMoves moves.
+     */
+    public static ClockSettings tournament(int phase1Minutes,
+            int phase1NumberMoves, int phase2Minutes, int incrementSeconds,
+            DelayType delayType, boolean allowNegativeTime) {
+        return new ClockSettings(TimeControlType.TOURNAMENT,
+                phase1Minutes * 60, incrementSeconds, delayType,
+                allowNegativeTime, phase1NumberMoves, phase2Minutes);
+    }
+
+    public TimeControlType getTimeControlType() {
+        return mTimeControlType;
+    }
+
+    public int getInitialDurationSeconds() {
+        return mInitialDurationSeconds;
+    }
+
+    public int getIncrementSeconds() {
+        return mIncrementSeconds;
+    }
+
+    public DelayType getDelayType() {
+        return mDelayType;
+    }
+
+    public boolean getAllowNegativeTime() {
+        return mAllowNegativeTime;
+    }
+
+    public int getPhase1NumberMoves() {
+        return mPhase1NumberMoves;
+    }
+
+    public int getPhase2Minutes() {
+        return mPhase2Minutes;
+    }
+
+    /** Length of the Bronstein delay, 0 when using Fischer */
+    public long getBronsteinMs() {
+        return mDelayType == DelayType.BRONSTEIN ? mIncrementSeconds * 1000L
+                : 0;
+    }
+
+    /** Time on each clock before the first move */
+    public long getInitialMs() {
+        long ms = mInitialDurationSeconds * 1000L;
+        if (mDelayType == DelayType.FISCHER)
+            ms += mIncrementSeconds * 1000L;
+        return ms;
+    }
+}
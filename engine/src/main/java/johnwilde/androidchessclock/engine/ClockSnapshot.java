@@ -0,0 +1,60 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * The state needed to recreate a game: both clocks, the move counters, the
+ * active player and the game state. A snapshot of a RUNNING game holds the
+ * time left when it was taken; ChessClock.restore() resumes it as PAUSED.
+ */
+public final class ClockSnapshot {
+
+    private final long mWhiteMsToGo;
+    private final long mWhiteMsDelayToGo;
+    private final int mWhiteMoveNumber;
+    private final long mBlackMsToGo;
+    private final long mBlackMsDelayToGo;
+    private final int mBlackMoveNumber;
+    private final GameState mState;
+    // null when IDLE
+    private final Player mActive;
+
+    public ClockSnapshot(long whiteMsToGo, long whiteMsDelayToGo,
+            int whiteMoveNumber, long blackMsToGo, long blackMsDelayToGo,
+            int blackMoveNumber, GameState state, Player active) {
+        mWhiteMsToGo = whiteMsToGo;
+        mWhiteMsDelayToGo = whiteMsDelayToGo;
+        mWhiteMoveNumber = whiteMoveNumber;
+        mBlackMsToGo = blackMsToGo;
+        mBlackMsDelayToGo = blackMsDelayToGo;
+        mBlackMoveNumber = blackMoveNumber;
+        mState = state;
+        mActive = active;
+    }
+
+    public long getMsToGo(Player player) {
+        return player == Player.WHITE ? mWhiteMsToGo : mBlackMsToGo;
+    }
+
+    public long getMsDelayToGo(Player player) {
+        return player == Player.WHITE ? mWhiteMsDelayToGo : mBlackMsDelayToGo;
+    }
+
+    public int getMoveNumber(Player player) {
+        return player == Player.WHITE ? mWhiteMoveNumber : mBlackMoveNumber;
+    }
+
+    public GameState getState() {
+        return mState;
+    }
+
+    public Player getActive() {
+        return mActive;
+    }
+
+    @Override
+    public String toString() {
+        return mState + " active=" + mActive + " white=" + mWhiteMsToGo + "/"
+                + mWhiteMsDelayToGo + "#" + mWhiteMoveNumber + " black="
+                + mBlackMsToGo + "/" + mBlackMsDelayToGo + "#"
+                + mBlackMoveNumber;
+    }
+}
@@ -0,0 +1,13 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * How the per-move bonus is applied.
+ *
+ * FISCHER: the bonus is added to the clock after every move.
+ *
+ * BRONSTEIN: the clock only starts counting down after the bonus (delay)
+ * has elapsed.
+ */
+public enum DelayType {
+    FISCHER, BRONSTEIN;
+}
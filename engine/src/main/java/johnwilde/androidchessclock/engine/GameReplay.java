@@ -0,0 +1,288 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * A recorded game, indexed so that what both clocks showed can be found
+ * for any instant or any move: for arbiters settling a dispute, and for
+ * picking a game up again after the process died (ClockJournal.recover()).
+ *
+ * The game's events are replayed once when it is loaded, and the state
+ * after each is kept in arrays: the clocks as of the event, the move
+ * numbers, the game state and the active player. The time of each event
+ * on the game's timeline is the prefix sum of the gaps between events,
+ * ms since the first; a gap where uptime went backwards (the device
+ * restarted) counts as none. Seeking is a binary search of the timeline,
+ * plus running the active clock on from the event before; a move is found
+ * directly, by the PRESS that ended it.
+ */
+public final class GameReplay {
+
+    // by event, then for the clocks by Player.ordinal()
+    private final long[] mTime;
+    private final long[] mAt;
+    private final long[][] mMsToGo;
+    private final long[][] mMsDelayToGo;
+    private final int[][] mMoveNumber;
+    private final GameState[] mState;
+    private final Player[] mActive;
+    private final int mSize;
+    // by Player.ordinal(), then move number - 1: the PRESS (or REDO) that
+    // ended it
+    private final int[][] mPress = new int[2][];
+    private final int[] mPressCount = new int[2];
+    // the wall clock time of the last event, 0 if it isn't known
+    private long mLastWallClockMs;
+
+    private GameReplay(int size) {
+        mSize = size;
+        mTime = new long[size];
+        mAt = new long[size];
+        mMsToGo = new long[2][size];
+        mMsDelayToGo = new long[2][size];
+        mMoveNumber = new int[2][size];
+        mState = new GameState[size];
+        mActive = new Player[size];
+        mPress[0] = new int[64];
+        mPress[1] = new int[64];
+    }
+
+    /**
+     * Load the last game in a log: the events since the last RESET.
+     *
+     * @param settings the settings the game was played with, used if the
+     *        log doesn't have the RESET it started with
+     * @return null if there are no events since the last RESET
+     */
+    public static GameReplay fromLog(MoveLog log, ClockSettings settings) {
+        int first = log.getGameStart();
+        int size = log.size() - first;
+        if (size == 0)
+            return null;
+
+        long initialMs, bronsteinMs;
+        if (first > 0) {
+            initialMs = log.getMsToGo(first - 1);
+            bronsteinMs = log.getValue(first - 1);
+        } else {
+            initialMs = settings.getInitialMs();
+            bronsteinMs = settings.getBronsteinMs();
+        }
+
+        GameReplay replay = new GameReplay(size);
+        // indexed by Player.ordinal()
+        long[] msToGo = { initialMs, initialMs };
+        long[] msDelayToGo = { bronsteinMs, bronsteinMs };
+        int[] moveNumber = { 1, 1 };
+        GameState state = GameState.IDLE;
+        Player active = null;
+        long time = 0;
+        long last = log.getAt(first);
+
+        for (int e = 0; e < size; e++) {
+            int i = first + e;
+            ClockEventType type = log.getType(i);
+            Player player = log.getPlayer(i);
+            long at = log.getAt(i);
+            int p = player.ordinal();
+
+            long gap = Math.max(0, at - last);
+            time += gap;
+            last = at;
+            // the running clock, as of this event
+            if (state == GameState.RUNNING) {
+                int a = active.ordinal();
+                msToGo[a] -= Math.max(0, gap - msDelayToGo[a]);
+                msDelayToGo[a] = Math.max(0, msDelayToGo[a] - gap);
+            }
+
+            switch (type) {
+            case START:
+            case RESUME:
+                state = GameState.RUNNING;
+                active = player;
+                msToGo[p] = log.getMsToGo(i);
+                break;
+
+            case PRESS:
+                msToGo[p] = log.getMsToGo(i);
+                msDelayToGo[p] = bronsteinMs;
+                moveNumber[p] = log.getMoveNumber(i) + 1;
+                active = player.other();
+                replay.addPress(player, log.getMoveNumber(i), e);
+                break;
+
+            case PAUSE:
+            case FLAG:
+                state = type == ClockEventType.PAUSE ? GameState.PAUSED
+                        : GameState.DONE;
+                active = player;
+                msToGo[p] = log.getMsToGo(i);
+                break;
+
+            case ADJUST:
+                msToGo[p] = log.getMsToGo(i);
+                break;
+
+            case RESTORE:
+                state = GameState.PAUSED;
+                msToGo[p] = log.getMsToGo(i);
+                msDelayToGo[p] = log.getValue(i);
+                moveNumber[p] = log.getMoveNumber(i);
+                break;
+
+            case REDO:
+                replay.addPress(player, log.getMoveNumber(i), e);
+                break;
+
+            case UNDO:
+                // the clocks follow, in RESTOREs
+                replay.mPressCount[p] = log.getMoveNumber(i) - 1;
+                break;
+
+            case PHASE:
+                // the time was added by the PRESS
+            case RESET:
+                // there are none after 'first'
+                break;
+            }
+
+            replay.mTime[e] = time;
+            replay.mAt[e] = at;
+            for (int q = 0; q < 2; q++) {
+                replay.mMsToGo[q][e] = msToGo[q];
+                replay.mMsDelayToGo[q][e] = msDelayToGo[q];
+                replay.mMoveNumber[q][e] = moveNumber[q];
+            }
+            replay.mState[e] = state;
+            replay.mActive[e] = active;
+        }
+        replay.mLastWallClockMs = log.getWallClockMs(log.getAt(log.size()
+                - 1));
+        return replay;
+    }
+
+    // A move recorded again (after a restore or an undo) replaces the
+    // first one
+    private void addPress(Player player, int moveNumber, int event) {
+        int p = player.ordinal();
+        if (moveNumber > mPress[p].length) {
+            // Arrays.copyOf needs API 9
+            int[] grown = new int[Math.max(moveNumber, mPress[p].length * 2)];
+            System.arraycopy(mPress[p], 0, grown, 0, mPress[p].length);
+            mPress[p] = grown;
+        }
+        mPress[p][moveNumber - 1] = event;
+        mPressCount[p] = Math.max(mPressCount[p], moveNumber);
+    }
+
+    /** The number of events */
+    public int size() {
+        return mSize;
+    }
+
+    /** The length of the game, from its first event to its last, in ms */
+    public long getDuration() {
+        return mTime[mSize - 1];
+    }
+
+    /** When an event was, in ms since the first */
+    public long getTime(int event) {
+        return mTime[event];
+    }
+
+    /** When an event was recorded, in uptime ms */
+    public long getAt(int event) {
+        return mAt[event];
+    }
+
+    /**
+     * The wall clock time (ms since the epoch) of a time in the game, in ms
+     * since its first event; 0 if it isn't known (see
+     * MoveLog.getWallClockMs())
+     */
+    public long getWallClockMs(long time) {
+        return mLastWallClockMs == 0 ? 0 : mLastWallClockMs
+                - (getDuration() - time);
+    }
+
+    /** The game as of an event */
+    public ClockSnapshot getSnapshot(int event) {
+        return new ClockSnapshot(mMsToGo[0][event], mMsDelayToGo[0][event],
+                mMoveNumber[0][event], mMsToGo[1][event],
+                mMsDelayToGo[1][event], mMoveNumber[1][event],
+                mState[event], mActive[event]);
+    }
+
+    /**
+     * The last event at or before a time: the state the game was in then.
+     *
+     * @param time ms since the first event
+     */
+    public int findEvent(long time) {
+        // the last of equal times, the state after them all
+        int low = 0, high = mSize - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mTime[middle] <= time)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * The time on a player's clock at a time in the game, counting down
+     * from the event before if it was running.
+     *
+     * @param time ms since the first event
+     */
+    public long getMsToGo(long time, Player player) {
+        int event = findEvent(time);
+        int p = player.ordinal();
+        long msToGo = mMsToGo[p][event];
+        if (mState[event] == GameState.RUNNING && mActive[event] == player)
+            msToGo -= Math.max(0, time - mTime[event]
+                    - mMsDelayToGo[p][event]);
+        return msToGo;
+    }
+
+    /** The move a player was on at a time in the game */
+    public int getMoveNumber(long time, Player player) {
+        return mMoveNumber[player.ordinal()][findEvent(time)];
+    }
+
+    /** The game at a time, ms since its first event */
+    public ClockSnapshot seek(long time) {
+        int event = findEvent(time);
+        Player active = mActive[event];
+        if (mState[event] != GameState.RUNNING)
+            return getSnapshot(event);
+        long elapsed = time - mTime[event];
+        long[] msToGo = { mMsToGo[0][event], mMsToGo[1][event] };
+        long[] msDelayToGo = { mMsDelayToGo[0][event],
+                mMsDelayToGo[1][event] };
+        int a = active.ordinal();
+        msToGo[a] -= Math.max(0, elapsed - msDelayToGo[a]);
+        msDelayToGo[a] = Math.max(0, msDelayToGo[a] - elapsed);
+        return new ClockSnapshot(msToGo[0], msDelayToGo[0],
+                mMoveNumber[0][event], msToGo[1], msDelayToGo[1],
+                mMoveNumber[1][event], GameState.RUNNING, active);
+    }
+
+    /** The number of moves a player made */
+    public int getMoveCount(Player player) {
+        return mPressCount[player.ordinal()];
+    }
+
+    /**
+     * When a player finished a move, in ms since the first event; seek()
+     * to it for the clocks just after.
+     *
+     * @return -1 if they didn't make it
+     */
+    public long getMoveTime(Player player, int moveNumber) {
+        if (moveNumber < 1 || moveNumber > getMoveCount(player))
+            return -1;
+        return mTime[mPress[player.ordinal()][moveNumber - 1]];
+    }
+}
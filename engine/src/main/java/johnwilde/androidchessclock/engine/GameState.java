@@ -0,0 +1,23 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * The 5 states are:
+ * 
+ * IDLE: Waiting for a player to make the first move.
+ * 
+ * RUNNING: The timer for one player is running.
+ * 
+ * PAUSED: Neither timer is running, but the active player is the one whose
+ * timer will start when play is resumed.
+ * 
+ * DONE: Neither timer is running and one timer has reached 0.0. The active
+ * player is the one whose timer ran out.
+ * 
+ * ARMED: Like IDLE, but waiting for a start scheduled by the arbiter; the
+ * players can't start the clock. White is the active player.
+ * 
+ */
+public enum GameState {
+    // ARMED is last so that the ordinals of the others stay the same
+    IDLE, RUNNING, PAUSED, DONE, ARMED
+}
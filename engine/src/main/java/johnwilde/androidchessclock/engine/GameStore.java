@@ -0,0 +1,495 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The history of completed games, stored column by column: a directory
+ * with one file for each thing known about a game, so that a query reads
+ * only what it asks about and never builds the games themselves.
+ *
+ * timecontrols.dict the distinct time controls, 7 ints each, in the order
+ *                   they were first played
+ * timecontrol.col   int per game, its time control in the dictionary
+ * result.col        byte per game, 0 if it didn't end on time, else 1 +
+ *                   the ordinal of the player whose flag fell
+ * moves.col         2 ints per game, the number of moves of white and
+ *                   black
+ * offsets.col       int per game, where its move times end in times.col
+ * times.col         the move times of each game, white's then black's,
+ *                   each the zigzag varint of its difference from the
+ *                   player's move before: a couple of bytes a move
+ *
+ * Files are appended to. When the store is opened the columns of a few
+ * bytes a game are read (under 2 megabytes for 100,000 games), and
+ * times.col, most of the store, is memory mapped: the move times are only
+ * paged in when a query decodes them. A game written only partly, because
+ * the process died, is cut off when the store is opened again.
+ *
+ * The index kept in memory lists the games of each time control and the
+ * games that ended on time, so queries only visit the games they are
+ * about: the mean time of one move over 100,000 games takes tens of
+ * milliseconds.
+ *
+ * Not thread safe.
+ */
+public final class GameStore {
+
+    private static final String TIME_CONTROLS = "timecontrols.dict";
+    private static final String TIME_CONTROL = "timecontrol.col";
+    private static final String RESULT = "result.col";
+    private static final String MOVES = "moves.col";
+    private static final String OFFSETS = "offsets.col";
+    private static final String TIMES = "times.col";
+
+    private static final int TIME_CONTROL_BYTES = 7 * 4;
+
+    private final File mDirectory;
+
+    // the dictionary, and its index by key()
+    private final List<ClockSettings> mTimeControls =
+            new ArrayList<ClockSettings>();
+    private final Map<String, Integer> mTimeControlIds =
+            new HashMap<String, Integer>();
+
+    // the columns, mSize games long
+    private int mSize;
+    private int[] mTimeControl;
+    private byte[] mResult;
+    private int[] mMoves;
+    private int[] mOffsets;
+    private int mTimesLength;
+
+    // the move times: times.col as it was when the store was opened, then
+    // those of the games added since
+    private ByteBuffer mStoredTimes;
+    private byte[] mTimes;
+
+    // the index: games by time control id, and games that ended on time
+    private int[][] mGamesByTimeControl = new int[0][];
+    private int[] mGamesByTimeControlCount = new int[0];
+    private int[] mGamesOnTime = new int[16];
+    private int mGamesOnTimeCount;
+
+    private DataOutputStream mTimeControlsOut;
+    private DataOutputStream mTimeControlOut;
+    private DataOutputStream mResultOut;
+    private DataOutputStream mMovesOut;
+    private DataOutputStream mOffsetsOut;
+    private DataOutputStream mTimesOut;
+
+    // a game's move times, encoded
+    private byte[] mEncoded = new byte[256];
+
+    private GameStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /** Open the store in a directory, creating it if necessary */
+    public static GameStore open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("can't create " + directory);
+        GameStore store = new GameStore(directory);
+        store.load();
+        return store;
+    }
+
+    private void load() throws IOException {
+        ByteBuffer dict = read(TIME_CONTROLS);
+        int timeControls = dict.remaining() / TIME_CONTROL_BYTES;
+        for (int i = 0; i < timeControls; i++) {
+            ClockSettings settings = new ClockSettings(
+                    TimeControlType.values()[dict.getInt()], dict.getInt(),
+                    dict.getInt(), DelayType.values()[dict.getInt()],
+                    dict.getInt() != 0, dict.getInt(), dict.getInt());
+            mTimeControlIds.put(key(settings), mTimeControls.size());
+            mTimeControls.add(settings);
+        }
+
+        ByteBuffer timeControl = read(TIME_CONTROL);
+        ByteBuffer result = read(RESULT);
+        ByteBuffer moves = read(MOVES);
+        ByteBuffer offsets = read(OFFSETS);
+        long timesLength = new File(mDirectory, TIMES).length();
+        int size = Math.min(Math.min(timeControl.remaining() / 4,
+                result.remaining()), Math.min(moves.remaining() / 8,
+                offsets.remaining() / 4));
+
+        mTimeControl = new int[Math.max(16, size)];
+        mResult = new byte[mTimeControl.length];
+        mMoves = new int[mTimeControl.length * 2];
+        mOffsets = new int[mTimeControl.length];
+        timeControl.asIntBuffer().get(mTimeControl, 0, size);
+        result.get(mResult, 0, size);
+        moves.asIntBuffer().get(mMoves, 0, size * 2);
+        offsets.asIntBuffer().get(mOffsets, 0, size);
+
+        // a game is whole if all of its columns are
+        while (size > 0 && (mOffsets[size - 1] > timesLength
+                || mTimeControl[size - 1] >= timeControls))
+            size--;
+        mSize = size;
+        mTimesLength = size == 0 ? 0 : mOffsets[size - 1];
+        mTimes = new byte[4096];
+
+        mGamesByTimeControl = new int[timeControls][];
+        mGamesByTimeControlCount = new int[timeControls];
+        for (int i = 0; i < timeControls; i++)
+            mGamesByTimeControl[i] = new int[16];
+        for (int game = 0; game < mSize; game++)
+            index(game);
+
+        // cut off what is left of a partly written game before appending
+        truncate(TIME_CONTROLS, timeControls * TIME_CONTROL_BYTES);
+        truncate(TIME_CONTROL, mSize * 4L);
+        truncate(RESULT, mSize);
+        truncate(MOVES, mSize * 8L);
+        truncate(OFFSETS, mSize * 4L);
+        truncate(TIMES, mTimesLength);
+        mStoredTimes = map(TIMES, mTimesLength);
+        mTimeControlsOut = append(TIME_CONTROLS);
+        mTimeControlOut = append(TIME_CONTROL);
+        mResultOut = append(RESULT);
+        mMovesOut = append(MOVES);
+        mOffsetsOut = append(OFFSETS);
+        mTimesOut = append(TIMES);
+    }
+
+    private ByteBuffer read(String name) throws IOException {
+        File file = new File(mDirectory, name);
+        if (!file.exists())
+            return ByteBuffer.allocate(0);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+                ;
+            buffer.flip();
+            return buffer;
+        } finally {
+            in.close();
+        }
+    }
+
+    // The start of a file, which is never truncated while it is mapped
+    private ByteBuffer map(String name, int length) throws IOException {
+        if (length == 0)
+            return ByteBuffer.allocate(0);
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory,
+                name), "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void truncate(String name, long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory,
+                name), "rw");
+        try {
+            if (file.length() > length)
+                file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private DataOutputStream append(String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(mDirectory, name), true)));
+    }
+
+    /**
+     * Add a completed game. It is written by the next flush().
+     *
+     * @param settings the time control it was played with
+     * @param times how long each move took
+     * @param flagged the player whose flag fell, null if the game ended
+     *        some other way
+     * @return the game's number
+     */
+    public int add(ClockSettings settings, MoveTimes times, Player flagged)
+            throws IOException {
+        Integer id = mTimeControlIds.get(key(settings));
+        if (id == null) {
+            id = mTimeControls.size();
+            mTimeControls.add(settings);
+            mTimeControlIds.put(key(settings), id);
+            mGamesByTimeControl = copyOf(mGamesByTimeControl, id + 1);
+            mGamesByTimeControl[id] = new int[16];
+            mGamesByTimeControlCount = copyOf(
+                    mGamesByTimeControlCount, id + 1);
+            writeTimeControl(settings);
+        }
+
+        int length = 0;
+        for (Player player : Player.values()) {
+            long previous = 0;
+            for (int i = 0; i < times.getCount(player); i++) {
+                long ms = times.get(player, i);
+                length = encode(ms - previous, length);
+                previous = ms;
+            }
+        }
+
+        int game = mSize;
+        if (game == mTimeControl.length) {
+            mTimeControl = copyOf(mTimeControl, game * 2);
+            mResult = copyOf(mResult, game * 2);
+            mMoves = copyOf(mMoves, game * 4);
+            mOffsets = copyOf(mOffsets, game * 2);
+        }
+        int added = mTimesLength - mStoredTimes.limit();
+        if (added + length > mTimes.length)
+            mTimes = copyOf(mTimes, Math.max(mTimes.length * 2,
+                    added + length));
+        System.arraycopy(mEncoded, 0, mTimes, added, length);
+        mTimesLength += length;
+        mTimeControl[game] = id;
+        mResult[game] = (byte) (flagged == null ? 0 : 1 + flagged.ordinal());
+        mMoves[game * 2] = times.getCount(Player.WHITE);
+        mMoves[game * 2 + 1] = times.getCount(Player.BLACK);
+        mOffsets[game] = mTimesLength;
+        mSize++;
+        index(game);
+
+        // the times before the columns that refer to them
+        mTimesOut.write(mEncoded, 0, length);
+        mOffsetsOut.writeInt(mOffsets[game]);
+        mMovesOut.writeInt(mMoves[game * 2]);
+        mMovesOut.writeInt(mMoves[game * 2 + 1]);
+        mResultOut.writeByte(mResult[game]);
+        mTimeControlOut.writeInt(id);
+        return game;
+    }
+
+    private void writeTimeControl(ClockSettings settings) throws IOException {
+        mTimeControlsOut.writeInt(settings.getTimeControlType().ordinal());
+        mTimeControlsOut.writeInt(settings.getInitialDurationSeconds());
+        mTimeControlsOut.writeInt(settings.getIncrementSeconds());
+        mTimeControlsOut.writeInt(settings.getDelayType().ordinal());
+        mTimeControlsOut.writeInt(settings.getAllowNegativeTime() ? 1 : 0);
+        mTimeControlsOut.writeInt(settings.getPhase1NumberMoves());
+        mTimeControlsOut.writeInt(settings.getPhase2Minutes());
+    }
+
+    // Add a zigzag varint to mEncoded at 'length', return the new length
+    private int encode(long value, int length) {
+        if (length + 10 > mEncoded.length)
+            mEncoded = copyOf(mEncoded, mEncoded.length * 2);
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            mEncoded[length++] = (byte) (zigzag | 0x80);
+            zigzag >>>= 7;
+        }
+        mEncoded[length++] = (byte) zigzag;
+        return length;
+    }
+
+    private void index(int game) {
+        int id = mTimeControl[game];
+        int count = mGamesByTimeControlCount[id];
+        if (count == mGamesByTimeControl[id].length)
+            mGamesByTimeControl[id] = copyOf(mGamesByTimeControl[id],
+                    count * 2);
+        mGamesByTimeControl[id][count] = game;
+        mGamesByTimeControlCount[id]++;
+
+        if (mResult[game] != 0) {
+            if (mGamesOnTimeCount == mGamesOnTime.length)
+                mGamesOnTime = copyOf(mGamesOnTime,
+                        mGamesOnTimeCount * 2);
+            mGamesOnTime[mGamesOnTimeCount++] = game;
+        }
+    }
+
+    /** Write the games added so far to the files */
+    public void flush() throws IOException {
+        mTimeControlsOut.flush();
+        mTimesOut.flush();
+        mOffsetsOut.flush();
+        mMovesOut.flush();
+        mResultOut.flush();
+        mTimeControlOut.flush();
+    }
+
+    /** Flush, and close the files */
+    public void close() throws IOException {
+        flush();
+        mTimeControlsOut.close();
+        mTimesOut.close();
+        mOffsetsOut.close();
+        mMovesOut.close();
+        mResultOut.close();
+        mTimeControlOut.close();
+    }
+
+    /** The number of games */
+    public int size() {
+        return mSize;
+    }
+
+    /** The time control a game was played with */
+    public ClockSettings getSettings(int game) {
+        return mTimeControls.get(mTimeControl[game]);
+    }
+
+    /** The player whose flag fell, null if the game didn't end on time */
+    public Player getFlagged(int game) {
+        return mResult[game] == 0 ? null : Player.values()[mResult[game] - 1];
+    }
+
+    /** The number of moves a player made in a game */
+    public int getMoveCount(int game, Player player) {
+        return mMoves[game * 2 + player.ordinal()];
+    }
+
+    /** How long a move took, by its index (its number - 1) */
+    public long getMoveMs(int game, Player player, int index) {
+        return decode(start(game, player), index + 1);
+    }
+
+    /** All the move times of a game */
+    public MoveTimes getMoveTimes(int game) {
+        MoveTimes times = new MoveTimes();
+        for (Player player : Player.values()) {
+            int position = start(game, player);
+            long ms = 0;
+            for (int i = 0; i < getMoveCount(game, player); i++) {
+                ms += decode(position, 1);
+                position = skip(position, 1);
+                times.set(player, i + 1, ms);
+            }
+        }
+        return times;
+    }
+
+    /** The games played with a time control, in the order they were added */
+    public int[] getGames(ClockSettings settings) {
+        Integer id = mTimeControlIds.get(key(settings));
+        if (id == null)
+            return new int[0];
+        return copyOf(mGamesByTimeControl[id],
+                mGamesByTimeControlCount[id]);
+    }
+
+    /** The games that ended with a flag fall */
+    public int[] getGamesEndedOnTime() {
+        return copyOf(mGamesOnTime, mGamesOnTimeCount);
+    }
+
+    /**
+     * The mean time that a move took, over the games played with a time
+     * control and both players, counting only the games that got that far.
+     *
+     * @param moveNumber the move, from 1
+     * @return NaN if no game got that far
+     */
+    public double getMeanMoveMs(ClockSettings settings, int moveNumber) {
+        Integer id = mTimeControlIds.get(key(settings));
+        if (id == null)
+            return Double.NaN;
+        int[] games = mGamesByTimeControl[id];
+        long sum = 0;
+        int count = 0;
+        for (int i = 0; i < mGamesByTimeControlCount[id]; i++) {
+            int game = games[i];
+            int white = mMoves[game * 2];
+            int black = mMoves[game * 2 + 1];
+            int start = game == 0 ? 0 : mOffsets[game - 1];
+            if (moveNumber <= white) {
+                sum += decode(start, moveNumber);
+                count++;
+            }
+            if (moveNumber <= black) {
+                sum += decode(skip(start, white), moveNumber);
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    // Where a player's move times start, from the first game's
+    private int start(int game, Player player) {
+        int start = game == 0 ? 0 : mOffsets[game - 1];
+        return player == Player.WHITE ? start : skip(start, mMoves[game * 2]);
+    }
+
+    // The position after 'count' varints from 'position'
+    private int skip(int position, int count) {
+        while (count > 0) {
+            if (timesAt(position++) >= 0)
+                count--;
+        }
+        return position;
+    }
+
+    // Sum the first 'count' differences from 'position': the time of the
+    // move they end with
+    private long decode(int position, int count) {
+        long ms = 0;
+        for (int i = 0; i < count; i++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = timesAt(position++);
+                zigzag |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            ms += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        return ms;
+    }
+
+    // A byte of the move times, from the first game's
+    private byte timesAt(int position) {
+        int stored = mStoredTimes.limit();
+        return position < stored ? mStoredTimes.get(position)
+                : mTimes[position - stored];
+    }
+
+    // Arrays.copyOf needs API 9
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int[][] copyOf(int[][] array, int length) {
+        int[][] copy = new int[length][];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static byte[] copyOf(byte[] array, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    // Time controls are the same if all of their settings are
+    private static String key(ClockSettings settings) {
+        return settings.getTimeControlType() + " "
+                + settings.getInitialDurationSeconds() + " "
+                + settings.getIncrementSeconds() + " "
+                + settings.getDelayType() + " "
+                + settings.getAllowNegativeTime() + " "
+                + settings.getPhase1NumberMoves() + " "
+                + settings.getPhase2Minutes();
+    }
+}
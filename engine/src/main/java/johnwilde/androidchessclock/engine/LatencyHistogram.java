@@ -0,0 +1,119 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Counts latencies (or any non-negative values) for percentiles, in a
+ * fixed array: recording a value never allocates, so it can be done on a
+ * hot path, such as every press.
+ *
+ * Values below 128 are counted exactly; above that each power of two is
+ * split into 64 buckets, so a percentile is out by less than 1/64th of
+ * its value. The exact minimum and maximum are kept too.
+ *
+ * Not thread safe: keep one per thread and add() them together.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // enough for Long.MAX_VALUE
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /** Count a value; negative values are counted as 0 */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        mCounts[index(value)]++;
+        mCount++;
+        mSum += value;
+        if (value < mMin)
+            mMin = value;
+        if (value > mMax)
+            mMax = value;
+    }
+
+    /** Add the values counted by another histogram to this one */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            mCounts[i] += other.mCounts[i];
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            mCounts[i] = 0;
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /** The smallest value, 0 if there are none */
+    public long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * The value that 'percentile' percent of the values are at or below
+     * (rounded up to the top of its bucket), 0 if there are none.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mCount == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile / 100 * mCount);
+        rank = Math.max(1, Math.min(mCount, rank));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return Math.max(mMin, Math.min(mMax, highestInBucket(i)));
+        }
+        return mMax;
+    }
+
+    // Values below 2 * SUB_BUCKETS are their own index. Above, the top
+    // SUB_BUCKET_BITS + 1 bits of the value pick the bucket within its power
+    // of two.
+    static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 64 - SUB_BUCKET_BITS - 1
+                - Long.numberOfLeadingZeros(value);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long highestInBucket(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50 %d, p90 %d, p99 %d, p99.9 %d, max %d",
+                getValueAtPercentile(50), getValueAtPercentile(90),
+                getValueAtPercentile(99), getValueAtPercentile(99.9), mMax);
+    }
+}
@@ -0,0 +1,312 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives Tournament boards the way real players would, to size a
+ * multi-board deployment: headless, on any JVM.
+ *
+ * Each simulated player thinks for a while (a log-normal time, much
+ * shorter once their clock is low: time trouble) and then presses their
+ * button, which goes through ChessClock.press just like a tap on the
+ * player's button in ChessTimerActivity. Now and then both players press
+ * at once (an instant reply), and an arbiter pauses a game and gives a
+ * player more time. Games are reset and started again when they end.
+ *
+ * The boards are spread over several Tournaments ("shards"), each with a
+ * driver thread of its own. A player is not a thread but a task on the
+ * driver's TimingWheel, so 100,000 players cost a few megabytes.
+ *
+ * Usage: java -cp engine.jar johnwilde.androidchessclock.engine.LoadGenerator
+ * [players] [seconds]
+ */
+public final class LoadGenerator {
+
+    // a game is started again this long after it ends
+    private static final long RESTART_MS = 1000;
+
+    private final int mPlayers;
+    private final ClockSettings mSettings;
+    private int mShards = Math.max(1,
+            Runtime.getRuntime().availableProcessors() / 2);
+    private long mThinkMedianMs = 5000;
+    private double mThinkSigma = 1;
+    private long mTimeTroubleMs = 30000;
+    private long mTimeTroubleMedianMs = 1000;
+    private double mSimultaneousRate = 0.02;
+    private double mInterruptionRate = 0.001;
+    private long mInterruptionMs = 3000;
+    private int mMovesPerGame = 80;
+    private long mSeed = 1;
+
+    /**
+     * @param players the number of players, two to a board
+     * @param settings the time control of every board
+     */
+    public LoadGenerator(int players, ClockSettings settings) {
+        if (players < 2)
+            throw new IllegalArgumentException("Need at least two players");
+        mPlayers = players;
+        mSettings = settings;
+    }
+
+    /** The number of Tournaments to spread the boards over */
+    public void setShards(int shards) {
+        mShards = shards;
+    }
+
+    /**
+     * How long players think: log-normal, with the given median and sigma
+     * (the standard deviation of its logarithm).
+     */
+    public void setThinkTime(long medianMs, double sigma) {
+        mThinkMedianMs = medianMs;
+        mThinkSigma = sigma;
+    }
+
+    /** Below thresholdMs on the clock, a player thinks for medianMs */
+    public void setTimeTrouble(long thresholdMs, long medianMs) {
+        mTimeTroubleMs = thresholdMs;
+        mTimeTroubleMedianMs = medianMs;
+    }
+
+    /** The chance that the opponent replies the instant a move is made */
+    public void setSimultaneousPressRate(double rate) {
+        mSimultaneousRate = rate;
+    }
+
+    /** The chance, per move, of an arbiter pausing a game for pauseMs */
+    public void setInterruptionRate(double rate, long pauseMs) {
+        mInterruptionRate = rate;
+        mInterruptionMs = pauseMs;
+    }
+
+    /** The number of moves (by both players) after which a game ends */
+    public void setMovesPerGame(int moves) {
+        mMovesPerGame = moves;
+    }
+
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /** Run the players in real time for durationMs */
+    public LoadReport run(long durationMs) throws InterruptedException {
+        int boards = mPlayers / 2;
+        int shardCount = Math.max(1, Math.min(mShards, boards));
+        List<Shard> shards = new ArrayList<Shard>();
+        for (int i = 0; i < shardCount; i++)
+            shards.add(new Shard(boards / shardCount
+                    + (i < boards % shardCount ? 1 : 0), mSeed + i));
+
+        long end = TimeSource.SYSTEM.uptimeMillis() + durationMs;
+        long start = System.nanoTime();
+        for (Shard shard : shards)
+            shard.start(end);
+        for (Shard shard : shards)
+            shard.join();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - start);
+
+        long presses = 0, commands = 0, games = 0, flagFalls = 0;
+        long interruptions = 0;
+        LatencyHistogram latency = new LatencyHistogram();
+        for (Shard shard : shards) {
+            presses += shard.mPresses;
+            commands += shard.mCommands;
+            games += shard.mGamesPlayed;
+            flagFalls += shard.mFlagFalls;
+            interruptions += shard.mInterruptions;
+            latency.add(shard.mLatency);
+        }
+        return new LoadReport(boards * 2, shardCount, elapsedMs, presses,
+                commands, games, flagFalls, interruptions, latency);
+    }
+
+    // What a board's players will do next
+    private enum Action {
+        RESTART, PRESS, RESUME
+    }
+
+    // A board and its two players, on the driver's thread
+    private static final class Game {
+        final int mIndex;
+        final Board mBoard;
+        final TimingWheel.Timeout mTimeout;
+        Action mNext = Action.RESTART;
+        Player mToMove;
+        int mMoves;
+
+        Game(int index, Board board, TimingWheel.Task task) {
+            mIndex = index;
+            mBoard = board;
+            mTimeout = new TimingWheel.Timeout(task);
+            mTimeout.tag = this;
+        }
+    }
+
+    // One Tournament and the thread driving its players
+    private final class Shard implements TimingWheel.Task, Runnable {
+        final Tournament mTournament = new Tournament(TimeSource.SYSTEM);
+        final Game[] mGames;
+        final Random mRandom;
+        final TimingWheel mWheel;
+        // when each player's last press was sent, by game index * 2 +
+        // Player.ordinal(); 0 once the press has been seen
+        final AtomicLongArray mSentAt;
+        // only used on the tournament's thread until it has stopped
+        final LatencyHistogram mLatency = new LatencyHistogram();
+        Thread mThread;
+        long mEnd;
+
+        // counted on the driver's thread
+        long mPresses;
+        long mCommands;
+        long mGamesPlayed;
+        long mFlagFalls;
+        long mInterruptions;
+
+        Shard(int boards, long seed) {
+            mRandom = new Random(seed);
+            mGames = new Game[boards];
+            mSentAt = new AtomicLongArray(boards * 2);
+            long now = TimeSource.SYSTEM.uptimeMillis();
+            mWheel = new TimingWheel(now);
+            for (int i = 0; i < boards; i++) {
+                final int index = i;
+                Board board = mTournament.addBoard(mSettings,
+                        new ClockListener.Adapter() {
+                            @Override
+                            public void onClockRunning(Player player) {
+                                long sentAt = mSentAt.getAndSet(index * 2
+                                        + player.other().ordinal(), 0);
+                                if (sentAt != 0)
+                                    mLatency.record(System.nanoTime()
+                                            - sentAt);
+                            }
+                        });
+                mGames[i] = new Game(i, board, this);
+                // spread the starts out, as players don't all sit down at
+                // the same moment
+                mWheel.schedule(mGames[i].mTimeout,
+                        now + (long) (mRandom.nextDouble() * mThinkMedianMs));
+            }
+        }
+
+        void start(long end) {
+            mEnd = end;
+            mTournament.startLoop();
+            mThread = new Thread(this, "LoadGenerator");
+            mThread.start();
+        }
+
+        void join() throws InterruptedException {
+            mThread.join();
+            mTournament.shutdown();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long now = TimeSource.SYSTEM.uptimeMillis();
+                if (now >= mEnd)
+                    break;
+                mWheel.advance(now);
+                long wake = Math.min(mEnd, mWheel.nextDeadlineBound());
+                if (wake > now)
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS
+                            .toNanos(wake - now));
+            }
+        }
+
+        @Override
+        public void onTimeout(TimingWheel.Timeout timeout, long now) {
+            Game game = (Game) timeout.tag;
+            switch (game.mNext) {
+            case RESTART:
+                mTournament.reset(game.mBoard);
+                mTournament.start(game.mBoard);
+                mCommands += 2;
+                game.mToMove = Player.WHITE;
+                game.mMoves = 0;
+                next(game, Action.PRESS, now + thinkTime(game));
+                break;
+
+            case RESUME:
+                mTournament.togglePause(game.mBoard);
+                mCommands++;
+                next(game, Action.PRESS, now + thinkTime(game));
+                break;
+
+            case PRESS:
+                if (game.mBoard.getClock().getState() == GameState.DONE) {
+                    // a flag fell while the player was thinking
+                    mFlagFalls++;
+                    mGamesPlayed++;
+                    next(game, Action.RESTART, now + RESTART_MS);
+                    break;
+                }
+                press(game);
+                if (mRandom.nextDouble() < mSimultaneousRate)
+                    press(game);
+
+                if (game.mMoves >= mMovesPerGame) {
+                    mGamesPlayed++;
+                    next(game, Action.RESTART, now + RESTART_MS);
+                } else if (mRandom.nextDouble() < mInterruptionRate) {
+                    interrupt(game);
+                    next(game, Action.RESUME, now + mInterruptionMs);
+                } else {
+                    next(game, Action.PRESS, now + thinkTime(game));
+                }
+                break;
+            }
+        }
+
+        private void press(Game game) {
+            Player player = game.mToMove;
+            mSentAt.set(game.mIndex * 2 + player.ordinal(), System.nanoTime());
+            mTournament.press(game.mBoard, player);
+            mPresses++;
+            mCommands++;
+            game.mToMove = player.other();
+            game.mMoves++;
+        }
+
+        // the arbiter stops the game and gives the player to move a minute
+        private void interrupt(Game game) {
+            Player player = game.mToMove;
+            mTournament.togglePause(game.mBoard);
+            mTournament.adjustTime(game.mBoard, player, game.mBoard
+                    .getClock().getMsToGo(player) + 60000);
+            mCommands += 2;
+            mInterruptions++;
+        }
+
+        private void next(Game game, Action action, long at) {
+            game.mNext = action;
+            mWheel.schedule(game.mTimeout, at);
+        }
+
+        private long thinkTime(Game game) {
+            long msToGo = game.mBoard.getClock().getMsToGo(game.mToMove);
+            long median = msToGo < mTimeTroubleMs ? mTimeTroubleMedianMs
+                    : mThinkMedianMs;
+            return (long) (median * Math.exp(mThinkSigma
+                    * mRandom.nextGaussian()));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        LoadGenerator generator = new LoadGenerator(players,
+                ClockSettings.basic(180, 2, DelayType.FISCHER, false));
+        System.out.println(generator.run(TimeUnit.SECONDS.toMillis(seconds)));
+    }
+}
@@ -0,0 +1,94 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * The results of a LoadGenerator run.
+ */
+public final class LoadReport {
+
+    private final int mPlayers;
+    private final int mShards;
+    private final long mDurationMs;
+    private final long mPresses;
+    private final long mCommands;
+    private final long mGames;
+    private final long mFlagFalls;
+    private final long mInterruptions;
+    private final LatencyHistogram mLatency;
+
+    LoadReport(int players, int shards, long durationMs, long presses,
+            long commands, long games, long flagFalls, long interruptions,
+            LatencyHistogram latency) {
+        mPlayers = players;
+        mShards = shards;
+        mDurationMs = durationMs;
+        mPresses = presses;
+        mCommands = commands;
+        mGames = games;
+        mFlagFalls = flagFalls;
+        mInterruptions = interruptions;
+        mLatency = latency;
+    }
+
+    public int getPlayers() {
+        return mPlayers;
+    }
+
+    /** The number of Tournaments (threads) the boards were spread over */
+    public int getShards() {
+        return mShards;
+    }
+
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /** Clock presses sent */
+    public long getPresses() {
+        return mPresses;
+    }
+
+    /** Every command sent: presses, starts, resets, pauses and adjustments */
+    public long getCommands() {
+        return mCommands;
+    }
+
+    public double getPressesPerSecond() {
+        return mDurationMs == 0 ? 0 : mPresses * 1000.0 / mDurationMs;
+    }
+
+    /** Games finished, by move count or flag fall */
+    public long getGames() {
+        return mGames;
+    }
+
+    public long getFlagFalls() {
+        return mFlagFalls;
+    }
+
+    /** Games paused by an arbiter, and given extra time */
+    public long getInterruptions() {
+        return mInterruptions;
+    }
+
+    /**
+     * Nanoseconds from sending a press to the other player's clock
+     * starting, for the presses that switched the clocks.
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d players on %d shards for %.1f s: "
+                + "%d presses (%.0f/s), %d commands, %d games, "
+                + "%d flag falls, %d interruptions; press to switch "
+                + "p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                mPlayers, mShards, mDurationMs / 1000.0, mPresses,
+                getPressesPerSecond(), mCommands, mGames, mFlagFalls,
+                mInterruptions, mLatency.getValueAtPercentile(50) / 1e6,
+                mLatency.getValueAtPercentile(99) / 1e6,
+                mLatency.getValueAtPercentile(99.9) / 1e6,
+                mLatency.getMax() / 1e6);
+    }
+}
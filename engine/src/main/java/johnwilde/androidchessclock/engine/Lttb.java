@@ -0,0 +1,72 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling (Steinarsson, 2013): picks
+ * the points of a series that keep its visual shape, so that a long series
+ * can be drawn with about one point per pixel and still show its peaks.
+ *
+ * The first and last points are always kept. The rest are split into
+ * buckets, and from each bucket the point that makes the largest triangle
+ * with the point kept before it and the average of the next bucket is
+ * kept.
+ */
+public final class Lttb {
+
+    private Lttb() {
+    }
+
+    /**
+     * Choose 'threshold' of the first 'count' values, whose x is their
+     * index, without allocating.
+     * 
+     * @param selected receives the indexes of the values chosen, in order;
+     *            it must have room for min(count, threshold) of them
+     * @return the number of values chosen: all of them if there are no more
+     *         than 'threshold', or if 'threshold' is below 3
+     */
+    public static int downsample(long[] values, int count, int threshold,
+            int[] selected) {
+        if (count <= threshold || threshold < 3) {
+            for (int i = 0; i < count; i++)
+                selected[i] = i;
+            return count;
+        }
+
+        double every = (double) (count - 2) / (threshold - 2);
+        int a = 0;
+        int n = 0;
+        selected[n++] = a;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // the average of the next bucket (the last point, for the last)
+            int nextStart = (int) ((bucket + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * every) + 1, count);
+            double avgX = 0, avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += i;
+                avgY += values[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            // the point of this bucket with the largest triangle
+            int start = (int) (bucket * every) + 1;
+            int end = (int) ((bucket + 1) * every) + 1;
+            double ax = a, ay = values[a];
+            double maxArea = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((ax - avgX) * (values[i] - ay)
+                        - (ax - i) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            selected[n++] = chosen;
+            a = chosen;
+        }
+        selected[n++] = count - 1;
+        return n;
+    }
+}
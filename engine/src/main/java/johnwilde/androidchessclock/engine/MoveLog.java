@@ -0,0 +1,316 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ChessClock's events, appended to a file as fixed width binary records:
+ * the game's whole timeline, for analysis, replay and disputes.
+ *
+ * The file is memory-mapped, so recording an event is a few stores into
+ * the page cache: no allocation and no system call. The kernel writes the
+ * pages out in its own time, and they survive the app being killed (but
+ * not the device losing power). The mapping grows CHUNK_RECORDS at a time,
+ * which is the only time a record() costs more.
+ *
+ * The file starts with a 32 byte header:
+ *
+ * <pre>
+ * int   magic, "CLOG"
+ * short version
+ * short record size
+ * long  number of records
+ * long  boot the times are from (see getRecordedBoot())
+ * long  wall clock offset (see getWallClockMs())
+ * </pre>
+ *
+ * followed by 24 byte records:
+ *
+ * <pre>
+ * byte  ClockEventType ordinal + 1
+ * byte  Player ordinal, -1 for none
+ * short move number
+ * int   value (see ClockEventType)
+ * long  at, the time from the clock's TimeSource
+ * long  ms to go
+ * </pre>
+ *
+ * all big-endian. The number of records is updated after each record is
+ * written, so a record that was only partly written is never read back.
+ * If the device lost power the number may have reached storage ahead of
+ * the records; those are still zeros, which no event is.
+ *
+ * Records are read back by index, again without allocating. A MoveLog is
+ * used from the clock's thread only, apart from force().
+ */
+public final class MoveLog implements ClockRecorder {
+
+    static final int MAGIC = 0x434c4f47;
+    static final short VERSION = 4;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 24;
+    // the mapping grows by this many records at a time (96 kB)
+    static final int CHUNK_RECORDS = 4096;
+
+    /** A boot that isn't known: see open(File) */
+    public static final long UNKNOWN_BOOT = 0;
+
+    private static final int COUNT_OFFSET = 8;
+    private static final int BOOT_OFFSET = 16;
+    private static final int WALL_CLOCK_OFFSET = 24;
+    private static final ClockEventType[] TYPES = ClockEventType.values();
+    private static final Player[] PLAYERS = Player.values();
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mBoot;
+    // replaced as the log grows; read by the thread calling force()
+    private volatile MappedByteBuffer mBuffer;
+    private int mCount;
+    // the header has mBoot: the log is new, or cleared or recorded to since
+    // it was opened
+    private boolean mBootRecorded;
+    private IOException mError;
+
+    private MoveLog(RandomAccessFile file, long boot) {
+        mFile = file;
+        mChannel = file.getChannel();
+        mBoot = boot;
+    }
+
+    /**
+     * Open a log to append to, creating it if it doesn't exist, in a boot
+     * that isn't known: for reading a log, or where the TimeSource doesn't
+     * start again with the device. Two unknown boots are the same.
+     *
+     * @throws IOException if the file can't be mapped or isn't a MoveLog
+     */
+    public static MoveLog open(File file) throws IOException {
+        return open(file, UNKNOWN_BOOT);
+    }
+
+    /**
+     * Open a log to append to, creating it if it doesn't exist.
+     *
+     * @param boot identifies the time the device was started, since the
+     *        times recorded (from the clock's TimeSource, the uptime on
+     *        Android) start again with it. The events recorded from now on
+     *        are of this boot.
+     * @throws IOException if the file can't be mapped or isn't a MoveLog
+     */
+    public static MoveLog open(File file, long boot) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MoveLog log = new MoveLog(raf, boot);
+        try {
+            log.load();
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        return log;
+    }
+
+    private void load() throws IOException {
+        long length = mFile.length();
+        if (length == 0) {
+            map(CHUNK_RECORDS);
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putShort(4, VERSION);
+            mBuffer.putShort(6, (short) RECORD_BYTES);
+            mBuffer.putLong(COUNT_OFFSET, 0);
+            mBuffer.putLong(BOOT_OFFSET, mBoot);
+            mBuffer.putLong(WALL_CLOCK_OFFSET, 0);
+            mBootRecorded = true;
+            return;
+        }
+        if (length < HEADER_BYTES)
+            throw new IOException("Not a move log");
+        long records = (length - HEADER_BYTES) / RECORD_BYTES;
+        map((int) Math.min(Integer.MAX_VALUE, records));
+        if (mBuffer.getInt(0) != MAGIC)
+            throw new IOException("Not a move log");
+        if (mBuffer.getShort(4) != VERSION
+                || mBuffer.getShort(6) != RECORD_BYTES)
+            throw new IOException("Unsupported move log version "
+                    + mBuffer.getShort(4));
+        long count = mBuffer.getLong(COUNT_OFFSET);
+        if (count < 0 || count > records)
+            throw new IOException("Corrupt move log: " + count + " records");
+        mCount = (int) count;
+        // records the count was written ahead of, if the device lost power
+        while (mCount > 0 && !isValid(mCount - 1))
+            mCount--;
+    }
+
+    private boolean isValid(int index) {
+        int offset = HEADER_BYTES + index * RECORD_BYTES;
+        int type = mBuffer.get(offset);
+        int player = mBuffer.get(offset + 1);
+        return type > 0 && type <= TYPES.length && player >= -1
+                && player < PLAYERS.length;
+    }
+
+    // map the header and room for 'records' records, growing the file
+    private void map(int records) throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_BYTES + (long) records * RECORD_BYTES);
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private int capacity() {
+        return (mBuffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    @Override
+    public void record(ClockEventType type, Player player, long at,
+            int moveNumber, long value, long msToGo) {
+        if (mError != null)
+            return;
+        if (mCount == capacity()) {
+            try {
+                map(mCount + CHUNK_RECORDS);
+            } catch (IOException e) {
+                // out of space: stop recording, but keep the game going
+                mError = e;
+                return;
+            }
+        }
+        if (!mBootRecorded) {
+            // ahead of the record, which mustn't be read back as of the
+            // boot before
+            mBuffer.putLong(BOOT_OFFSET, mBoot);
+            mBuffer.putLong(WALL_CLOCK_OFFSET, 0);
+            mBootRecorded = true;
+        }
+        // the device can only sleep, stopping the uptime, while the clock
+        // is idle or paused: take the wall clock again when that ends
+        if (type == ClockEventType.START || type == ClockEventType.RESUME
+                || type == ClockEventType.RESTORE
+                || type == ClockEventType.RESET)
+            mBuffer.putLong(WALL_CLOCK_OFFSET, System.currentTimeMillis()
+                    - at);
+        int offset = HEADER_BYTES + mCount * RECORD_BYTES;
+        mBuffer.put(offset, (byte) (type.ordinal() + 1));
+        mBuffer.put(offset + 1, (byte) (player == null ? -1 : player
+                .ordinal()));
+        mBuffer.putShort(offset + 2, (short) moveNumber);
+        mBuffer.putInt(offset + 4, (int) Math.max(Integer.MIN_VALUE,
+                Math.min(Integer.MAX_VALUE, value)));
+        mBuffer.putLong(offset + 8, at);
+        mBuffer.putLong(offset + 16, msToGo);
+        mCount++;
+        mBuffer.putLong(COUNT_OFFSET, mCount);
+    }
+
+    /** Forget every event, for a new game */
+    public void clear() {
+        mCount = 0;
+        mBuffer.putLong(COUNT_OFFSET, 0);
+        mBuffer.putLong(BOOT_OFFSET, mBoot);
+        mBuffer.putLong(WALL_CLOCK_OFFSET, 0);
+        mBootRecorded = true;
+    }
+
+    /** The boot the log was opened in (see open()) */
+    public long getBoot() {
+        return mBoot;
+    }
+
+    /**
+     * The boot the times of the events recorded are from: the one the log
+     * was last recorded to in. If it isn't getBoot() the device has
+     * restarted since, and they can't be compared with the time now.
+     */
+    public long getRecordedBoot() {
+        return mBuffer.getLong(BOOT_OFFSET);
+    }
+
+    /**
+     * The wall clock time (ms since the epoch) of a time of the recorded
+     * boot, from the last START, RESUME, RESTORE or RESET: the uptime stops
+     * while the device sleeps, so it can only be turned into a date by way
+     * of a wall clock time taken since. 0 if none was recorded in the
+     * boot.
+     */
+    public long getWallClockMs(long at) {
+        long offset = mBuffer.getLong(WALL_CLOCK_OFFSET);
+        return offset == 0 ? 0 : at + offset;
+    }
+
+    /** The number of events recorded */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * The index of the first event of the last game: the one after the last
+     * RESET, or 0 if there is none.
+     */
+    public int getGameStart() {
+        int first = size();
+        while (first > 0 && getType(first - 1) != ClockEventType.RESET)
+            first--;
+        return first;
+    }
+
+    /**
+     * The error that stopped recording (the file couldn't grow), or null if
+     * every event has been recorded.
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    public ClockEventType getType(int index) {
+        return TYPES[mBuffer.get(offset(index)) - 1];
+    }
+
+    /** The player, or null for RESET */
+    public Player getPlayer(int index) {
+        int player = mBuffer.get(offset(index) + 1);
+        return player < 0 ? null : PLAYERS[player];
+    }
+
+    public int getMoveNumber(int index) {
+        return mBuffer.getShort(offset(index) + 2);
+    }
+
+    public long getValue(int index) {
+        return mBuffer.getInt(offset(index) + 4);
+    }
+
+    public long getAt(int index) {
+        return mBuffer.getLong(offset(index) + 8);
+    }
+
+    public long getMsToGo(int index) {
+        return mBuffer.getLong(offset(index) + 16);
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= mCount)
+            throw new IndexOutOfBoundsException("Event " + index + " of "
+                    + mCount);
+        return HEADER_BYTES + index * RECORD_BYTES;
+    }
+
+    /**
+     * Write the events recorded so far to the storage device, blocking until
+     * it is done. May be called from any thread.
+     */
+    public void force() {
+        mBuffer.force();
+    }
+
+    /**
+     * Close the file. The events recorded stay in the page cache until the
+     * kernel writes them out.
+     */
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,73 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * How long each move of a game took, for each player: the time their clock
+ * ran for it, not counting pauses.
+ */
+public final class MoveTimes {
+
+    // indexed by Player.ordinal(), then by move number - 1
+    private final long[][] mMs = { new long[64], new long[64] };
+    private final int[] mCount = new int[2];
+
+    /** Set how long a move took; moves in between, if any, took 0 */
+    public void set(Player player, int moveNumber, long ms) {
+        int p = player.ordinal();
+        if (moveNumber > mMs[p].length) {
+            // Arrays.copyOf needs API 9
+            long[] grown = new long[Math.max(moveNumber, mMs[p].length * 2)];
+            System.arraycopy(mMs[p], 0, grown, 0, mMs[p].length);
+            mMs[p] = grown;
+        }
+        mMs[p][moveNumber - 1] = ms;
+        mCount[p] = Math.max(mCount[p], moveNumber);
+    }
+
+    /** Forget the player's moves after 'count', for a press taken back */
+    public void truncate(Player player, int count) {
+        int p = player.ordinal();
+        mCount[p] = Math.max(0, Math.min(mCount[p], count));
+    }
+
+    /** The number of moves the player made */
+    public int getCount(Player player) {
+        return mCount[player.ordinal()];
+    }
+
+    /** How long a move took, by its index (its number - 1) */
+    public long get(Player player, int index) {
+        return mMs[player.ordinal()][index];
+    }
+
+    /** The player's moves, by index; only the first getCount() are moves */
+    long[] values(Player player) {
+        return mMs[player.ordinal()];
+    }
+
+    /** The longest move by either player, 0 if there are none */
+    public long getMaxMs() {
+        long max = 0;
+        for (Player player : Player.values())
+            for (int i = 0; i < getCount(player); i++)
+                max = Math.max(max, get(player, i));
+        return max;
+    }
+
+    /**
+     * The moves of the game in a log: those recorded since the last RESET.
+     * A move recorded again (after a restore) replaces the first one, and
+     * one undone isn't counted unless it was redone.
+     */
+    public static MoveTimes fromLog(MoveLog log) {
+        MoveTimes times = new MoveTimes();
+        for (int i = log.getGameStart(); i < log.size(); i++) {
+            ClockEventType type = log.getType(i);
+            if (type == ClockEventType.PRESS || type == ClockEventType.REDO)
+                times.set(log.getPlayer(i), log.getMoveNumber(i),
+                        log.getValue(i));
+            else if (type == ClockEventType.UNDO)
+                times.truncate(log.getPlayer(i), log.getMoveNumber(i) - 1);
+        }
+        return times;
+    }
+}
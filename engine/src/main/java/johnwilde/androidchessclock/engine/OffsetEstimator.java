@@ -0,0 +1,61 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Estimates the offset between our clock and a peer's from round trips, as
+ * NTP does.
+ *
+ * For a request sent at t0 (our clock), received at t1 and answered at t2
+ * (the peer's clock), and the answer received at t3 (our clock):
+ *
+ * offset = ((t1 - t0) + (t2 - t3)) / 2, round trip = (t3 - t0) - (t2 - t1)
+ *
+ * The offset is exact if the network delay is the same both ways, and is
+ * never out by more than half the round trip. So the estimate used is the
+ * one with the shortest round trip of the last SAMPLES.
+ */
+public final class OffsetEstimator {
+
+    private static final int SAMPLES = 8;
+
+    private final long[] mOffsets = new long[SAMPLES];
+    private final long[] mRoundTrips = new long[SAMPLES];
+    private int mCount;
+    private int mBest = -1;
+
+    /** Add the result of a round trip */
+    public void addSample(long t0, long t1, long t2, long t3) {
+        long roundTrip = Math.max(0, (t3 - t0) - (t2 - t1));
+        int index = mCount++ % SAMPLES;
+        mOffsets[index] = ((t1 - t0) + (t2 - t3)) / 2;
+        mRoundTrips[index] = roundTrip;
+
+        mBest = 0;
+        int samples = Math.min(mCount, SAMPLES);
+        for (int i = 1; i < samples; i++)
+            if (mRoundTrips[i] < mRoundTrips[mBest])
+                mBest = i;
+    }
+
+    public boolean hasEstimate() {
+        return mBest >= 0;
+    }
+
+    /** The peer's clock minus ours; 0 until there is an estimate */
+    public long getOffset() {
+        return mBest < 0 ? 0 : mOffsets[mBest];
+    }
+
+    /** The round trip of the sample used, and twice the worst-case error */
+    public long getRoundTrip() {
+        return mBest < 0 ? Long.MAX_VALUE : mRoundTrips[mBest];
+    }
+
+    /** A time on the peer's clock converted to ours */
+    public long toLocal(long peerTime) {
+        return peerTime - getOffset();
+    }
+
+    public int getSampleCount() {
+        return mCount;
+    }
+}
@@ -0,0 +1,24 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * A connection to the other device of a paired clock, carrying whole
+ * messages. See PairedClock.
+ */
+public interface PairLink {
+
+    interface Receiver {
+        /** A message from the peer; may be called on any thread */
+        void onMessage(byte[] message);
+
+        /** The connection was lost */
+        void onClosed();
+    }
+
+    /** Called before any message arrives */
+    void setReceiver(Receiver receiver);
+
+    /** Send a message without blocking for long; may be dropped if closed */
+    void send(byte[] message);
+
+    void close();
+}
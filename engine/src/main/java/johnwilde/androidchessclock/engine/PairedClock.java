@@ -0,0 +1,310 @@
+package johnwilde.androidchessclock.engine;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * One of two devices showing the same game, such as one phone per player,
+ * or a player's phone and a display.
+ *
+ * Each device runs its own ChessClock. A command made on one device is
+ * applied there at once and sent to the other, stamped with the time it
+ * was made; the other device applies it as of that time, converted to its
+ * own clock (see ChessClock.pressAt). So a press is charged when it was
+ * made, and neither player gains or loses the network's delay.
+ *
+ * The offset between the devices' clocks is estimated from round trips
+ * (see OffsetEstimator), so ping() should be called a few times before
+ * the game starts and now and then during it.
+ *
+ * Commands must be called on the executor's thread, which is also where
+ * the peer's commands are applied and the clock's listener is called: the
+ * UI thread on Android.
+ *
+ * Only a command that took effect is sent, numbered with the count of
+ * commands the sender had applied. A command numbered lower than the
+ * count at the receiver was made on both devices at once, without either
+ * knowing of the other's, such as two presses inside one link delay.
+ * One device, the leader, settles those: it drops the peer's command and
+ * sends a snapshot of its own game, which the other device takes over
+ * (see ChessClock.recover). Until the snapshot arrives the other device
+ * ignores the leader's commands, which the snapshot includes. A snapshot
+ * starts a new epoch of the count, so commands made before it are
+ * dropped.
+ */
+public final class PairedClock implements PairLink.Receiver {
+
+    private static final byte PING = 1;
+    private static final byte PONG = 2;
+    private static final byte START = 3;
+    private static final byte PRESS = 4;
+    private static final byte PAUSE = 5;
+    private static final byte RESUME = 6;
+    private static final byte RESET = 7;
+    private static final byte ADJUST = 8;
+    // the leader's game, to be taken over
+    private static final byte SYNC = 9;
+    // asks the leader for a SYNC
+    private static final byte SYNC_REQUEST = 10;
+
+    // type, player, time and two more values
+    private static final int LENGTH = 1 + 1 + 3 * 8;
+    // and the state, and each player's time, delay and move number
+    private static final int SYNC_LENGTH = LENGTH + 1 + 2 * (8 + 8 + 4);
+
+    private static final Player[] PLAYERS = Player.values();
+    private static final GameState[] STATES = GameState.values();
+
+    private final ChessClock mClock;
+    private final TimeSource mTimeSource;
+    private final PairLink mLink;
+    private final Executor mExecutor;
+    private final boolean mLeader;
+    // only used on the executor's thread
+    private final OffsetEstimator mOffset = new OffsetEstimator();
+    // the commands applied here since the last SYNC, and the SYNCs
+    private int mApplied;
+    private int mEpoch;
+    // a command was made on both devices at once; not the leader
+    private boolean mAwaitingSync;
+    private volatile boolean mConnected = true;
+
+    /**
+     * @param timeSource the clock's time source
+     * @param leader whether this device settles commands made on both at
+     *        once; the devices agree on one when they connect (the one
+     *        that accepted the connection, say)
+     */
+    public PairedClock(ChessClock clock, TimeSource timeSource,
+            PairLink link, Executor executor, boolean leader) {
+        mClock = clock;
+        mTimeSource = timeSource;
+        mLink = link;
+        mExecutor = executor;
+        mLeader = leader;
+        link.setReceiver(this);
+    }
+
+    public ChessClock getClock() {
+        return mClock;
+    }
+
+    public OffsetEstimator getOffsetEstimator() {
+        return mOffset;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    //
+    // Commands made on this device
+    //
+
+    public void start() {
+        long now = mTimeSource.uptimeMillis();
+        if (mClock.startAt(now))
+            sendCommand(START, null, now, 0);
+    }
+
+    public void press(Player player) {
+        long now = mTimeSource.uptimeMillis();
+        if (mClock.pressAt(player, now))
+            sendCommand(PRESS, player, now, 0);
+    }
+
+    public void togglePause() {
+        long now = mTimeSource.uptimeMillis();
+        if (mClock.resumeAt(now))
+            sendCommand(RESUME, null, now, 0);
+        else if (mClock.pauseAt(now))
+            sendCommand(PAUSE, null, now, 0);
+    }
+
+    public void reset() {
+        mClock.reset();
+        sendCommand(RESET, null, mTimeSource.uptimeMillis(), 0);
+    }
+
+    public void adjustTime(Player player, long msToGo) {
+        long now = mTimeSource.uptimeMillis();
+        mClock.adjustTimeAt(player, msToGo, now);
+        sendCommand(ADJUST, player, now, msToGo);
+    }
+
+    /** Measure a round trip, improving the offset estimate */
+    public void ping() {
+        send(PING, null, mTimeSource.uptimeMillis(), 0, 0);
+    }
+
+    public void close() {
+        mLink.close();
+    }
+
+    //
+    // Messages from the peer
+    //
+
+    @Override
+    public void onMessage(byte[] message) {
+        long received = mTimeSource.uptimeMillis();
+        ByteBuffer in = ByteBuffer.wrap(message);
+        final byte type = in.get();
+        byte ordinal = in.get();
+        final Player player = ordinal < 0 ? null : PLAYERS[ordinal];
+        final long time = in.getLong();
+        final long a = in.getLong();
+        final long b = in.getLong();
+
+        if (type == PING) {
+            // answered at once, on this thread, to keep the round trip short
+            send(PONG, null, mTimeSource.uptimeMillis(), time, received);
+            return;
+        }
+        final ClockSnapshot snapshot = type == SYNC ? readSnapshot(in,
+                player) : null;
+
+        final long t3 = received;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (type == PONG)
+                    mOffset.addSample(a, b, time, t3);
+                else if (type == SYNC)
+                    synchronize(snapshot, mOffset.toLocal(time), b);
+                else if (type == SYNC_REQUEST)
+                    sendSync();
+                else
+                    receive(type, player, mOffset.toLocal(time), a, b);
+            }
+        });
+    }
+
+    private static ClockSnapshot readSnapshot(ByteBuffer in, Player active) {
+        GameState state = STATES[in.get()];
+        long[] msToGo = new long[2];
+        long[] msDelayToGo = new long[2];
+        int[] moveNumber = new int[2];
+        for (int i = 0; i < 2; i++) {
+            msToGo[i] = in.getLong();
+            msDelayToGo[i] = in.getLong();
+            moveNumber[i] = in.getInt();
+        }
+        return new ClockSnapshot(msToGo[0], msDelayToGo[0], moveNumber[0],
+                msToGo[1], msDelayToGo[1], moveNumber[1], state, active);
+    }
+
+    @Override
+    public void onClosed() {
+        mConnected = false;
+    }
+
+    // a command from the peer, made at 'at' by our clock, when the peer had
+    // applied the commands 'stamp' counts
+    private void receive(byte type, Player player, long at, long value,
+            long stamp) {
+        if (epoch(stamp) != mEpoch || mAwaitingSync)
+            // made before the SYNC it is waiting for, or we sent
+            return;
+        if (count(stamp) != mApplied) {
+            // made without knowing of our last commands
+            if (mLeader)
+                sendSync();
+            else
+                mAwaitingSync = true;
+            return;
+        }
+        if (apply(type, player, at, value)) {
+            mApplied++;
+        } else if (mLeader) {
+            // the games differ
+            sendSync();
+        } else {
+            mAwaitingSync = true;
+            send(SYNC_REQUEST, null, mTimeSource.uptimeMillis(), 0, 0);
+        }
+    }
+
+    // @return false if the command did nothing
+    private boolean apply(byte type, Player player, long at, long value) {
+        switch (type) {
+        case START:
+            return mClock.startAt(at);
+        case PRESS:
+            return mClock.pressAt(player, at);
+        case PAUSE:
+            return mClock.pauseAt(at);
+        case RESUME:
+            return mClock.resumeAt(at);
+        case RESET:
+            mClock.reset();
+            return true;
+        case ADJUST:
+            mClock.adjustTimeAt(player, value, at);
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // take over the leader's game, as it was at 'at' by our clock
+    private void synchronize(ClockSnapshot snapshot, long at, long stamp) {
+        mClock.recover(snapshot, at, true);
+        mEpoch = epoch(stamp);
+        mApplied = 0;
+        mAwaitingSync = false;
+    }
+
+    // the leader's game, for the peer to take over
+    private void sendSync() {
+        if (!mLeader)
+            return;
+        mEpoch++;
+        mApplied = 0;
+        long now = mTimeSource.uptimeMillis();
+        ClockSnapshot snapshot = mClock.peek(now);
+        ByteBuffer out = ByteBuffer.allocate(SYNC_LENGTH);
+        writeHeader(out, SYNC, snapshot.getActive(), now, 0, stamp());
+        out.put((byte) snapshot.getState().ordinal());
+        for (Player player : PLAYERS) {
+            out.putLong(snapshot.getMsToGo(player));
+            out.putLong(snapshot.getMsDelayToGo(player));
+            out.putInt(snapshot.getMoveNumber(player));
+        }
+        mLink.send(out.array());
+    }
+
+    // a command that took effect here
+    private void sendCommand(byte type, Player player, long time,
+            long value) {
+        send(type, player, time, value, stamp());
+        mApplied++;
+    }
+
+    private long stamp() {
+        return (long) mEpoch << 32 | mApplied;
+    }
+
+    private static int epoch(long stamp) {
+        return (int) (stamp >>> 32);
+    }
+
+    private static int count(long stamp) {
+        return (int) stamp;
+    }
+
+    private void send(byte type, Player player, long time, long a, long b) {
+        ByteBuffer out = ByteBuffer.allocate(LENGTH);
+        writeHeader(out, type, player, time, a, b);
+        mLink.send(out.array());
+    }
+
+    private static void writeHeader(ByteBuffer out, byte type,
+            Player player, long time, long a, long b) {
+        out.put(type);
+        out.put((byte) (player == null ? -1 : player.ordinal()));
+        out.putLong(time);
+        out.putLong(a);
+        out.putLong(b);
+    }
+}
@@ -0,0 +1,365 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads how long the moves took out of PGN files with [%clk] comments,
+ * such as the archives of past events or online games, into ThinkTimes.
+ *
+ * The time of a move is its [%emt] if it has one. If not, it is worked
+ * out from the clock before and after it, as ChessClock keeps it for the
+ * game's TimeControl tag: the time taken off, plus the Fischer increment,
+ * plus the time added at a tournament time control; with a Bronstein delay
+ * the time taken off plus the delay. A Bronstein move that didn't take any
+ * time off the clock took at most the delay, and is counted as taking it.
+ * Games without a TimeControl that can be read (see parseTimeControl())
+ * are skipped, as are moves before the first [%clk].
+ *
+ * The files are split into chunks of CHUNK_BYTES, and a fork-join pool
+ * reads and parses the chunks in parallel, each into ThinkTimes of its
+ * own, which are added together as the tasks join. A chunk has the games
+ * that start in it (with a line starting "[Event "), and reads on to the
+ * end of the last one, up to MAX_GAME_BYTES. Each thread reads into a
+ * buffer of its own, so memory is bounded by the number of threads
+ * whatever the size of the files.
+ */
+public final class PgnClockImporter {
+
+    static final int CHUNK_BYTES = 4 << 20;
+    static final int MAX_GAME_BYTES = 1 << 20;
+
+    private static final byte[] EVENT = bytes("[Event ");
+    private static final byte[] TIME_CONTROL = bytes("[TimeControl \"");
+    private static final byte[] CLK = bytes("[%clk ");
+    private static final byte[] EMT = bytes("[%emt ");
+
+    private static final ThreadLocal<byte[]> BUFFER =
+            new ThreadLocal<byte[]>() {
+                @Override
+                protected byte[] initialValue() {
+                    return new byte[1 + CHUNK_BYTES + MAX_GAME_BYTES];
+                }
+            };
+
+    private PgnClockImporter() {
+    }
+
+    /** Import files using all the processors */
+    public static ThinkTimes importFiles(List<File> files)
+            throws IOException {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return importFiles(files, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Import files using the threads of a pool */
+    public static ThinkTimes importFiles(List<File> files, ForkJoinPool pool)
+            throws IOException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (File file : files) {
+            long length = file.length();
+            for (long start = 0; start < length; start += CHUNK_BYTES)
+                chunks.add(new Chunk(file, start, Math.min(length, start
+                        + CHUNK_BYTES)));
+        }
+        if (chunks.isEmpty())
+            return new ThinkTimes();
+        try {
+            return pool.invoke(new ImportTask(chunks, 0, chunks.size()));
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw ex;
+        }
+    }
+
+    private static final class Chunk {
+        final File mFile;
+        final long mStart;
+        final long mEnd;
+
+        Chunk(File file, long start, long end) {
+            mFile = file;
+            mStart = start;
+            mEnd = end;
+        }
+    }
+
+    // Imports chunks [from, to): half of them forked, half here
+    private static final class ImportTask extends RecursiveTask<ThinkTimes> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Chunk> mChunks;
+        private final int mFrom;
+        private final int mTo;
+
+        ImportTask(List<Chunk> chunks, int from, int to) {
+            mChunks = chunks;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected ThinkTimes compute() {
+            if (mTo - mFrom == 1) {
+                try {
+                    return importChunk(mChunks.get(mFrom));
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            ImportTask first = new ImportTask(mChunks, mFrom, middle);
+            first.fork();
+            ThinkTimes second = new ImportTask(mChunks, middle, mTo)
+                    .compute();
+            ThinkTimes times = first.join();
+            times.add(second);
+            return times;
+        }
+    }
+
+    private static ThinkTimes importChunk(Chunk chunk) throws IOException {
+        // from the byte before the chunk, to see if a line starts with it
+        long from = Math.max(0, chunk.mStart - 1);
+        byte[] buffer = BUFFER.get();
+        int length;
+        RandomAccessFile file = new RandomAccessFile(chunk.mFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long to = Math.min(channel.size(), chunk.mEnd + MAX_GAME_BYTES);
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, (int) (to - from));
+            while (bytes.hasRemaining()
+                    && channel.read(bytes, from + bytes.position()) >= 0)
+                ;
+            length = bytes.position();
+        } finally {
+            file.close();
+        }
+        ThinkTimes times = new ThinkTimes();
+        parse(buffer, (int) (chunk.mStart - from), (int) (chunk.mEnd - from),
+                length, chunk.mStart == 0, times);
+        return times;
+    }
+
+    /**
+     * Count the games that start in buffer[start, end); they can go on to
+     * 'length'.
+     *
+     * @param atFileStart buffer[0] is the start of the file
+     */
+    static void parse(byte[] buffer, int start, int end, int length,
+            boolean atFileStart, ThinkTimes times) {
+        Map<String, ClockSettings> timeControls =
+                new HashMap<String, ClockSettings>();
+        int game = nextGame(buffer, start, length, atFileStart);
+        while (game < end) {
+            int next = nextGame(buffer, game + 1, length, atFileStart);
+            parseGame(buffer, game, next, timeControls, times);
+            game = next;
+        }
+    }
+
+    // Where the first game at or after 'position' starts, or 'length'
+    private static int nextGame(byte[] buffer, int position, int length,
+            boolean atFileStart) {
+        for (int i = position; i < length; i++) {
+            if (buffer[i] == '['
+                    && (i > 0 ? buffer[i - 1] == '\n' : atFileStart)
+                    && startsWith(buffer, i, length, EVENT))
+                return i;
+        }
+        return length;
+    }
+
+    private static void parseGame(byte[] buffer, int start, int end,
+            Map<String, ClockSettings> timeControls, ThinkTimes times) {
+        // the tags, a line each
+        String timeControl = null;
+        int position = start;
+        while (position < end && buffer[position] == '[') {
+            int line = position;
+            while (position < end && buffer[position] != '\n')
+                position++;
+            position++;
+            if (startsWith(buffer, line, end, TIME_CONTROL)) {
+                int value = line + TIME_CONTROL.length;
+                int close = value;
+                while (close < end && buffer[close] != '"')
+                    close++;
+                timeControl = new String(buffer, value, close - value);
+            }
+        }
+        ClockSettings settings = null;
+        if (timeControl != null) {
+            settings = timeControls.get(timeControl);
+            if (settings == null && !timeControls.containsKey(timeControl)) {
+                settings = parseTimeControl(timeControl);
+                timeControls.put(timeControl, settings);
+            }
+        }
+        if (settings == null) {
+            times.countSkippedGame();
+            return;
+        }
+
+        // the moves; the comments with a clock, in order, are the plies
+        LatencyHistogram[] histograms = times.histograms(timeControl);
+        long[] msToGo = { settings.getInitialMs(), settings.getInitialMs() };
+        int ply = 0;
+        while (position < end) {
+            if (buffer[position++] != '{')
+                continue;
+            int close = position;
+            while (close < end && buffer[close] != '}')
+                close++;
+            long clk = Long.MIN_VALUE, emt = Long.MIN_VALUE;
+            for (int i = position; i < close; i++) {
+                if (buffer[i] != '[')
+                    continue;
+                if (startsWith(buffer, i, close, CLK))
+                    clk = parseTime(buffer, i + CLK.length, close);
+                else if (startsWith(buffer, i, close, EMT))
+                    emt = parseTime(buffer, i + EMT.length, close);
+            }
+            position = close + 1;
+            if (clk == Long.MIN_VALUE)
+                continue;
+
+            int p = ply % 2;
+            int moveNumber = ply / 2 + 1;
+            long ms = emt != Long.MIN_VALUE ? emt : moveMs(settings,
+                    msToGo[p], clk, moveNumber);
+            times.record(histograms, moveNumber, ms);
+            msToGo[p] = clk;
+            ply++;
+        }
+        times.countGame();
+    }
+
+    /**
+     * How long a move took, from the clock before and after it; the inverse
+     * of PgnWriter.clockAfter(), up to the Bronstein delay.
+     */
+    static long moveMs(ClockSettings settings, long before, long after,
+            int moveNumber) {
+        long added = 0;
+        if (settings.getTimeControlType() == TimeControlType.TOURNAMENT
+                && moveNumber == settings.getPhase1NumberMoves())
+            added = settings.getPhase2Minutes() * 60 * 1000L;
+        long taken = before + added - after;
+        if (settings.getDelayType() == DelayType.FISCHER)
+            return Math.max(0, taken + settings.getIncrementSeconds() * 1000L);
+        return Math.max(0, taken) + settings.getBronsteinMs();
+    }
+
+    /**
+     * The settings for a TimeControl tag: "seconds", "seconds+increment",
+     * or "moves/seconds[+increment]:seconds[+increment]" for a tournament
+     * time control, with "d" in place of "+" for a Bronstein delay; as
+     * PgnWriter writes them. The increment of the second period is taken to
+     * be the first's.
+     *
+     * @return null for any other tag, such as "-" or "?"
+     */
+    public static ClockSettings parseTimeControl(String tag) {
+        try {
+            int colon = tag.indexOf(':');
+            String first = colon < 0 ? tag : tag.substring(0, colon);
+            int moves = 0;
+            int slash = first.indexOf('/');
+            if (slash >= 0) {
+                moves = Integer.parseInt(first.substring(0, slash));
+                first = first.substring(slash + 1);
+            }
+            DelayType delayType = first.indexOf('d') >= 0 ? DelayType.BRONSTEIN
+                    : DelayType.FISCHER;
+            int bonus = Math.max(first.indexOf('+'), first.indexOf('d'));
+            int seconds = Integer.parseInt(bonus < 0 ? first : first
+                    .substring(0, bonus));
+            int increment = bonus < 0 ? 0 : Integer.parseInt(first
+                    .substring(bonus + 1));
+            if (colon < 0 && slash < 0)
+                return ClockSettings.basic(seconds, increment, delayType,
+                        false);
+            if (colon < 0 || moves <= 0)
+                return null;
+            String second = tag.substring(colon + 1);
+            int secondBonus = Math.max(second.indexOf('+'),
+                    second.indexOf('d'));
+            int phase2Seconds = Integer.parseInt(secondBonus < 0 ? second
+                    : second.substring(0, secondBonus));
+            return new ClockSettings(TimeControlType.TOURNAMENT, seconds,
+                    increment, delayType, false, moves, phase2Seconds / 60);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    // H:MM:SS with optional fractions of a second, in ms; Long.MIN_VALUE
+    // if it isn't one
+    static long parseTime(byte[] buffer, int position, int end) {
+        boolean negative = position < end && buffer[position] == '-';
+        if (negative)
+            position++;
+        long seconds = 0;
+        long field = 0;
+        boolean digits = false;
+        long ms = 0;
+        while (position < end) {
+            byte b = buffer[position];
+            if (b >= '0' && b <= '9') {
+                field = field * 10 + (b - '0');
+                digits = true;
+            } else if (b == ':') {
+                seconds = (seconds + field) * 60;
+                field = 0;
+            } else if (b == '.') {
+                int scale = 100;
+                while (++position < end && buffer[position] >= '0'
+                        && buffer[position] <= '9') {
+                    ms += (buffer[position] - '0') * scale;
+                    scale /= 10;
+                }
+                break;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (!digits)
+            return Long.MIN_VALUE;
+        ms += (seconds + field) * 1000;
+        return negative ? -ms : ms;
+    }
+
+    private static boolean startsWith(byte[] buffer, int position, int end,
+            byte[] prefix) {
+        if (position + prefix.length > end)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (buffer[position + i] != prefix[i])
+                return false;
+        return true;
+    }
+
+    private static byte[] bytes(String ascii) {
+        byte[] bytes = new byte[ascii.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) ascii.charAt(i);
+        return bytes;
+    }
+}
@@ -0,0 +1,9 @@
+package johnwilde.androidchessclock.engine;
+
+public enum Player {
+    WHITE, BLACK;
+
+    public Player other() {
+        return this == WHITE ? BLACK : WHITE;
+    }
+}
@@ -0,0 +1,95 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * One player's clock and move counter, as an immutable value.
+ *
+ * Nothing is decremented while the clock runs. A running clock records
+ * when it was started, and the time left is a pure function of "now":
+ *
+ * mMsToGo: ms until the clock reaches 0, as of when it was started
+ *
+ * mMsDelayToGo: ms of Bronstein delay left for the current move, as of when
+ * it was started. It is restored to the full delay when the move is
+ * finished.
+ *
+ * mStartedAt: when the clock was started, or NOT_RUNNING
+ *
+ * Because instances never change they can be read from any thread, and
+ * keeping an old one costs nothing.
+ */
+final class PlayerClock {
+
+    static final long NOT_RUNNING = Long.MIN_VALUE;
+
+    final Player mPlayer;
+    final long mMsToGo;
+    final long mMsDelayToGo;
+    final long mBronsteinMs;
+    final int mMoveNumber;
+    final long mStartedAt;
+
+    PlayerClock(Player player, long msToGo, long msDelayToGo,
+            long bronsteinMs, int moveNumber, long startedAt) {
+        mPlayer = player;
+        mMsToGo = msToGo;
+        mMsDelayToGo = msDelayToGo;
+        mBronsteinMs = bronsteinMs;
+        mMoveNumber = moveNumber;
+        mStartedAt = startedAt;
+    }
+
+    // The clock in the initial 'IDLE' configuration
+    static PlayerClock initial(Player player, ClockSettings settings) {
+        return new PlayerClock(player, settings.getInitialMs(),
+                settings.getBronsteinMs(), settings.getBronsteinMs(), 1,
+                NOT_RUNNING);
+    }
+
+    boolean isRunning() {
+        return mStartedAt != NOT_RUNNING;
+    }
+
+    /** Time left at 'now'; the delay is used up before the clock itself */
+    long getMsToGo(long now) {
+        if (!isRunning())
+            return mMsToGo;
+        return mMsToGo - Math.max(0, elapsed(now) - mMsDelayToGo);
+    }
+
+    long getMsDelayToGo(long now) {
+        if (!isRunning())
+            return mMsDelayToGo;
+        return Math.max(0, mMsDelayToGo - elapsed(now));
+    }
+
+    PlayerClock start(long now) {
+        if (isRunning())
+            return this;
+        return new PlayerClock(mPlayer, mMsToGo, mMsDelayToGo, mBronsteinMs,
+                mMoveNumber, now);
+    }
+
+    PlayerClock stop(long now) {
+        if (!isRunning())
+            return this;
+        return new PlayerClock(mPlayer, getMsToGo(now), getMsDelayToGo(now),
+                mBronsteinMs, mMoveNumber, NOT_RUNNING);
+    }
+
+    /** A stopped clock with the given time */
+    PlayerClock withTime(long msToGo, long msDelayToGo) {
+        return new PlayerClock(mPlayer, msToGo, msDelayToGo, mBronsteinMs,
+                mMoveNumber, NOT_RUNNING);
+    }
+
+    /** A stopped clock for the next move, with bonus time added */
+    PlayerClock nextMove(long bonusMs) {
+        return new PlayerClock(mPlayer, mMsToGo + bonusMs, mBronsteinMs,
+                mBronsteinMs, mMoveNumber + 1, NOT_RUNNING);
+    }
+
+    private long elapsed(long now) {
+        // a reader on another thread may hold a slightly older 'now'
+        return Math.max(0, now - mStartedAt);
+    }
+}
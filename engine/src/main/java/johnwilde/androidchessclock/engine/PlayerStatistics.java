@@ -0,0 +1,101 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * The mean and variance of how long a player's moves take, kept up to
+ * date one move at a time (Welford's method) rather than from the whole
+ * history: addMove() is a handful of arithmetic operations and never
+ * allocates, so ChessClock calls it on every press.
+ *
+ * Used on the clock's thread only.
+ */
+public final class PlayerStatistics {
+
+    private int mCount;
+    private double mMeanMs;
+    // the sum of the squared differences from the mean
+    private double mM2;
+
+    /** Count a move that took 'ms' */
+    public void addMove(long ms) {
+        mCount++;
+        double delta = ms - mMeanMs;
+        mMeanMs += delta / mCount;
+        mM2 += delta * (ms - mMeanMs);
+    }
+
+    /** Stop counting a move that took 'ms', the last one added */
+    public void removeMove(long ms) {
+        if (mCount <= 1) {
+            reset();
+            return;
+        }
+        // addMove() backwards
+        double meanMs = (mMeanMs * mCount - ms) / (mCount - 1);
+        mM2 = Math.max(0, mM2 - (ms - meanMs) * (ms - mMeanMs));
+        mMeanMs = meanMs;
+        mCount--;
+    }
+
+    public void reset() {
+        mCount = 0;
+        mMeanMs = 0;
+        mM2 = 0;
+    }
+
+    /** The number of moves counted */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** The mean time per move, 0 if there are none */
+    public double getMeanMs() {
+        return mMeanMs;
+    }
+
+    /** The sample variance, in ms squared; 0 for fewer than two moves */
+    public double getVariance() {
+        return mCount < 2 ? 0 : mM2 / (mCount - 1);
+    }
+
+    public double getStandardDeviationMs() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * The move on which the player will run out of time if they keep
+     * moving at their mean rate, counting the bonus they get for each move
+     * and the time added at the time control.
+     *
+     * @param msToGo the time the player has left
+     * @param moveNumber the move they are on
+     * @return the move number (this one if the time has run out), or -1 if
+     *         there are no moves to go by yet or the bonus covers their
+     *         mean move
+     */
+    public int forecastFlagFall(long msToGo, int moveNumber,
+            ClockSettings settings) {
+        if (mCount == 0)
+            return -1;
+        if (msToGo <= 0)
+            return moveNumber;
+        double bonusMs = settings.getDelayType() == DelayType.FISCHER
+                ? settings.getIncrementSeconds() * 1000.0
+                : settings.getBronsteinMs();
+        double netMs = mMeanMs - bonusMs;
+        if (netMs <= 0)
+            return -1;
+
+        double ms = msToGo;
+        long move = moveNumber;
+        int control = settings.getPhase1NumberMoves();
+        if (settings.getTimeControlType() == TimeControlType.TOURNAMENT
+                && move <= control) {
+            long toControl = control - move + 1;
+            if (ms < toControl * netMs)
+                return (int) (move + (long) (ms / netMs));
+            ms += settings.getPhase2Minutes() * 60000.0 - toControl * netMs;
+            move = control + 1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, move + (long) (ms / netMs));
+    }
+}
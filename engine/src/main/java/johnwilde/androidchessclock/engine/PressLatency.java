@@ -0,0 +1,150 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * How long a press takes, from the player's finger to the other player's
+ * clock running on the screen, in stages, so that devices and releases
+ * can be compared:
+ *
+ * INPUT: from the touch to the press being handled (the click)
+ *
+ * FINISH: from there to the move being finished: the pressing player's
+ * clock stopped and any bonus added
+ *
+ * START: from there to the other player's clock running
+ *
+ * DRAW: from there to the first redraw of the running clock
+ *
+ * TOTAL: from the touch to that redraw
+ *
+ * The stages of a press are marked as it goes, in ns of a monotonic clock
+ * (System.nanoTime()), and counted when it is drawn, each in a
+ * LatencyHistogram: nothing is allocated. A mark out of order is ignored,
+ * and a press that didn't start the other clock (the wrong button, a
+ * paused game) isn't counted.
+ *
+ * Used on one thread, the UI thread on Android.
+ */
+public final class PressLatency {
+
+    public enum Stage {
+        INPUT, FINISH, START, DRAW, TOTAL
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final long NONE = Long.MIN_VALUE;
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final LatencyHistogram[] mHistograms =
+            new LatencyHistogram[STAGES.length];
+    // the press being measured; NONE for the stages it hasn't reached
+    private long mTouchNs = NONE;
+    private long mPressNs = NONE;
+    private long mFinishNs = NONE;
+    private long mStartNs = NONE;
+
+    public PressLatency() {
+        for (int i = 0; i < STAGES.length; i++)
+            mHistograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * A press is being handled, made by a touch at 'touchNs'; a press
+     * still being measured is dropped.
+     */
+    public void pressed(long touchNs, long pressNs) {
+        mTouchNs = touchNs;
+        mPressNs = pressNs;
+        mFinishNs = NONE;
+        mStartNs = NONE;
+    }
+
+    /** The pressing player's move is finished */
+    public void finished(long ns) {
+        if (mPressNs != NONE && mFinishNs == NONE)
+            mFinishNs = ns;
+    }
+
+    /** The other player's clock is running */
+    public void started(long ns) {
+        if (mFinishNs != NONE && mStartNs == NONE)
+            mStartNs = ns;
+    }
+
+    /**
+     * The press has been handled; if it didn't start the other clock it
+     * isn't counted.
+     */
+    public void handled() {
+        if (mStartNs == NONE)
+            cancel();
+    }
+
+    /** The running clock was drawn: the press is counted */
+    public void drawn(long ns) {
+        if (mStartNs == NONE)
+            return;
+        record(Stage.INPUT, mPressNs - mTouchNs);
+        record(Stage.FINISH, mFinishNs - mPressNs);
+        record(Stage.START, mStartNs - mFinishNs);
+        record(Stage.DRAW, ns - mStartNs);
+        record(Stage.TOTAL, ns - mTouchNs);
+        cancel();
+    }
+
+    /** Stop measuring the press, if there is one */
+    public void cancel() {
+        mTouchNs = NONE;
+        mPressNs = NONE;
+        mFinishNs = NONE;
+        mStartNs = NONE;
+    }
+
+    private void record(Stage stage, long ns) {
+        mHistograms[stage.ordinal()].record(ns);
+    }
+
+    /** A stage of the presses counted, in ns */
+    public LatencyHistogram get(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    /** The number of presses counted */
+    public long getCount() {
+        return get(Stage.TOTAL).getCount();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms)
+            histogram.reset();
+        cancel();
+    }
+
+    /**
+     * Write the percentiles of each stage, in microseconds, as comma
+     * separated values with a header line.
+     */
+    public void write(Appendable out) throws IOException {
+        out.append("stage,count,mean_us,p50_us,p90_us,p99_us,p99.9_us,"
+                + "max_us\n");
+        for (Stage stage : STAGES) {
+            LatencyHistogram histogram = get(stage);
+            // the same whatever the language, for a spreadsheet to read
+            out.append(stage.name().toLowerCase(Locale.US)).append(',');
+            out.append(Long.toString(histogram.getCount())).append(',');
+            out.append(String.format(Locale.US, "%.1f",
+                    histogram.getMean() / 1000));
+            for (double percentile : PERCENTILES)
+                out.append(',').append(Long.toString(micros(histogram
+                        .getValueAtPercentile(percentile))));
+            out.append(',').append(Long.toString(micros(histogram.getMax())))
+                    .append('\n');
+        }
+    }
+
+    private static long micros(long ns) {
+        return (ns + 500) / 1000;
+    }
+}
@@ -0,0 +1,102 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Plays a GameReplay forward, at 1 to 100 times the speed it was played,
+ * for a display to read the clocks from as it would from a ChessClock.
+ *
+ * Like ChessClock, nothing is stepped: the position in the game is worked
+ * out when it is read, from when playing started and how fast.
+ *
+ * Used on one thread.
+ */
+public final class ReplayPlayer {
+
+    public static final int MIN_SPEED = 1;
+    public static final int MAX_SPEED = 100;
+
+    private final GameReplay mReplay;
+    private final TimeSource mTimeSource;
+
+    // the position, in ms since the game's first event, as of mSince
+    private long mPosition;
+    private long mSince;
+    private int mSpeed = MIN_SPEED;
+    private boolean mPlaying;
+
+    public ReplayPlayer(GameReplay replay, TimeSource timeSource) {
+        mReplay = replay;
+        mTimeSource = timeSource;
+    }
+
+    public GameReplay getReplay() {
+        return mReplay;
+    }
+
+    /** Play from the current position; from the start if at the end */
+    public void play() {
+        if (mPlaying)
+            return;
+        if (mPosition >= mReplay.getDuration())
+            mPosition = 0;
+        mSince = mTimeSource.uptimeMillis();
+        mPlaying = true;
+    }
+
+    public void pause() {
+        mPosition = getPosition();
+        mPlaying = false;
+    }
+
+    /** Whether it is playing; not once it has reached the end */
+    public boolean isPlaying() {
+        return mPlaying && getPosition() < mReplay.getDuration();
+    }
+
+    /** Set how many times faster than the game was played to play it */
+    public void setSpeed(int speed) {
+        mPosition = getPosition();
+        mSince = mTimeSource.uptimeMillis();
+        mSpeed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+    }
+
+    public int getSpeed() {
+        return mSpeed;
+    }
+
+    /** Go to a time in the game, in ms since its first event */
+    public void seek(long position) {
+        mPosition = Math.max(0, Math.min(mReplay.getDuration(), position));
+        mSince = mTimeSource.uptimeMillis();
+    }
+
+    /**
+     * Go to just after a player finished a move.
+     *
+     * @return false if they didn't make it; the position doesn't change
+     */
+    public boolean seekToMove(Player player, int moveNumber) {
+        long time = mReplay.getMoveTime(player, moveNumber);
+        if (time < 0)
+            return false;
+        seek(time);
+        return true;
+    }
+
+    /** The time in the game now, in ms since its first event */
+    public long getPosition() {
+        if (!mPlaying)
+            return mPosition;
+        long played = (mTimeSource.uptimeMillis() - mSince) * mSpeed;
+        return Math.min(mReplay.getDuration(), mPosition + played);
+    }
+
+    /** The time on a player's clock at the current position */
+    public long getMsToGo(Player player) {
+        return mReplay.getMsToGo(getPosition(), player);
+    }
+
+    /** The move a player was on at the current position */
+    public int getMoveNumber(Player player) {
+        return mReplay.getMoveNumber(getPosition(), player);
+    }
+}
@@ -0,0 +1,76 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A PairLink over a TCP socket. Each message is sent as a 2 byte length
+ * followed by the message, and a thread reads the incoming messages.
+ */
+public final class SocketPairLink implements PairLink {
+
+    private final Socket mSocket;
+    private final DataOutputStream mOut;
+    private final DataInputStream mIn;
+    private volatile Receiver mReceiver;
+    private Thread mReader;
+
+    public SocketPairLink(Socket socket) throws IOException {
+        mSocket = socket;
+        mSocket.setTcpNoDelay(true);
+        mOut = new DataOutputStream(socket.getOutputStream());
+        mIn = new DataInputStream(socket.getInputStream());
+    }
+
+    @Override
+    public synchronized void setReceiver(Receiver receiver) {
+        mReceiver = receiver;
+        if (mReader != null)
+            return;
+        mReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "SocketPairLink");
+        mReader.setDaemon(true);
+        mReader.start();
+    }
+
+    @Override
+    public void send(byte[] message) {
+        try {
+            synchronized (mOut) {
+                mOut.writeShort(message.length);
+                mOut.write(message);
+                mOut.flush();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            // closed anyway
+        }
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                byte[] message = new byte[mIn.readUnsignedShort()];
+                mIn.readFully(message);
+                mReceiver.onMessage(message);
+            }
+        } catch (IOException e) {
+            close();
+            mReceiver.onClosed();
+        }
+    }
+}
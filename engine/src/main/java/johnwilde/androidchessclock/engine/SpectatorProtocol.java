@@ -0,0 +1,175 @@
+package johnwilde.androidchessclock.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The messages sent by SpectatorServer, big-endian:
+ *
+ * HELLO: byte 1, long serverTime. Sent first, so that a spectator can
+ * relate the server's times to its own clock.
+ *
+ * UPDATE: byte 2, int board, long at, byte fields, followed by the fields
+ * flagged in 'fields' in the order of the constants below. The times are
+ * as of 'at' (server time); a spectator works out the running clock's
+ * time itself from there. A spectator gets every field of a board when it
+ * first hears about it, and after that only the fields that changed.
+ */
+final class SpectatorProtocol {
+
+    static final byte HELLO = 1;
+    static final byte UPDATE = 2;
+
+    static final int HELLO_LENGTH = 1 + 8;
+    static final int UPDATE_HEADER_LENGTH = 1 + 4 + 8 + 1;
+
+    // bits of 'fields', with the size of each field
+    static final int STATE = 1; // byte, GameState.ordinal()
+    static final int ACTIVE = 1 << 1; // byte, Player.ordinal() or -1
+    static final int WHITE_MS = 1 << 2; // int
+    static final int WHITE_DELAY = 1 << 3; // int
+    static final int WHITE_MOVE = 1 << 4; // short
+    static final int BLACK_MS = 1 << 5; // int
+    static final int BLACK_DELAY = 1 << 6; // int
+    static final int BLACK_MOVE = 1 << 7; // short
+    static final int ALL = 0xff;
+
+    /** The longest message */
+    static final int MAX_LENGTH = UPDATE_HEADER_LENGTH
+            + fieldsLength(ALL);
+
+    private SpectatorProtocol() {
+    }
+
+    static void writeHello(ByteBuffer out, long serverTime) {
+        out.put(HELLO);
+        out.putLong(serverTime);
+    }
+
+    /**
+     * Write the fields of 'current' that differ from 'previous', or all of
+     * them if previous is null.
+     */
+    static void writeUpdate(ByteBuffer out, int board, long at,
+            ClockSnapshot previous, ClockSnapshot current) {
+        int fields = previous == null ? ALL : changedFields(previous, current);
+        out.put(UPDATE);
+        out.putInt(board);
+        out.putLong(at);
+        out.put((byte) fields);
+        if ((fields & STATE) != 0)
+            out.put((byte) current.getState().ordinal());
+        if ((fields & ACTIVE) != 0)
+            out.put((byte) (current.getActive() == null ? -1 : current
+                    .getActive().ordinal()));
+        writeClock(out, fields >> 2, current, Player.WHITE);
+        writeClock(out, fields >> 5, current, Player.BLACK);
+    }
+
+    // 'fields' shifted so that the player's bits start at bit 0
+    private static void writeClock(ByteBuffer out, int fields,
+            ClockSnapshot current, Player player) {
+        if ((fields & 1) != 0)
+            out.putInt(toInt(current.getMsToGo(player)));
+        if ((fields & 2) != 0)
+            out.putInt(toInt(current.getMsDelayToGo(player)));
+        if ((fields & 4) != 0)
+            out.putShort((short) current.getMoveNumber(player));
+    }
+
+    private static int changedFields(ClockSnapshot a, ClockSnapshot b) {
+        int fields = 0;
+        if (a.getState() != b.getState())
+            fields |= STATE;
+        if (a.getActive() != b.getActive())
+            fields |= ACTIVE;
+        if (a.getMsToGo(Player.WHITE) != b.getMsToGo(Player.WHITE))
+            fields |= WHITE_MS;
+        if (a.getMsDelayToGo(Player.WHITE) != b.getMsDelayToGo(Player.WHITE))
+            fields |= WHITE_DELAY;
+        if (a.getMoveNumber(Player.WHITE) != b.getMoveNumber(Player.WHITE))
+            fields |= WHITE_MOVE;
+        if (a.getMsToGo(Player.BLACK) != b.getMsToGo(Player.BLACK))
+            fields |= BLACK_MS;
+        if (a.getMsDelayToGo(Player.BLACK) != b.getMsDelayToGo(Player.BLACK))
+            fields |= BLACK_DELAY;
+        if (a.getMoveNumber(Player.BLACK) != b.getMoveNumber(Player.BLACK))
+            fields |= BLACK_MOVE;
+        return fields;
+    }
+
+    /**
+     * The length of the complete message at the buffer's position, or -1 if
+     * not enough of it has arrived to tell.
+     */
+    static int messageLength(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < 1)
+            return -1;
+        byte type = in.get(start);
+        if (type == HELLO)
+            return HELLO_LENGTH;
+        if (type != UPDATE)
+            throw new IllegalStateException("Unknown message type " + type);
+        if (in.remaining() < UPDATE_HEADER_LENGTH)
+            return -1;
+        int fields = in.get(start + UPDATE_HEADER_LENGTH - 1) & ALL;
+        return UPDATE_HEADER_LENGTH + fieldsLength(fields);
+    }
+
+    static int fieldsLength(int fields) {
+        int length = 0;
+        if ((fields & STATE) != 0)
+            length += 1;
+        if ((fields & ACTIVE) != 0)
+            length += 1;
+        for (int shift = 2; shift <= 5; shift += 3) {
+            if ((fields & (1 << shift)) != 0)
+                length += 4;
+            if ((fields & (2 << shift)) != 0)
+                length += 4;
+            if ((fields & (4 << shift)) != 0)
+                length += 2;
+        }
+        return length;
+    }
+
+    /**
+     * Read the update at the buffer's position, which must be complete,
+     * applying it to the board's previous snapshot (null if there is none).
+     */
+    static ClockSnapshot readUpdate(ByteBuffer in, ClockSnapshot previous) {
+        int fields = in.get(in.position() + UPDATE_HEADER_LENGTH - 1) & ALL;
+        in.position(in.position() + UPDATE_HEADER_LENGTH);
+        if (previous == null && fields != ALL)
+            throw new IllegalStateException("Update for an unknown board");
+
+        GameState state = (fields & STATE) != 0 ? GameState.values()[in
+                .get()] : previous.getState();
+        Player active;
+        if ((fields & ACTIVE) != 0) {
+            byte ordinal = in.get();
+            active = ordinal < 0 ? null : Player.values()[ordinal];
+        } else {
+            active = previous.getActive();
+        }
+        long whiteMs = (fields & WHITE_MS) != 0 ? in.getInt() : previous
+                .getMsToGo(Player.WHITE);
+        long whiteDelay = (fields & WHITE_DELAY) != 0 ? in.getInt()
+                : previous.getMsDelayToGo(Player.WHITE);
+        int whiteMove = (fields & WHITE_MOVE) != 0 ? in.getShort() : previous
+                .getMoveNumber(Player.WHITE);
+        long blackMs = (fields & BLACK_MS) != 0 ? in.getInt() : previous
+                .getMsToGo(Player.BLACK);
+        long blackDelay = (fields & BLACK_DELAY) != 0 ? in.getInt()
+                : previous.getMsDelayToGo(Player.BLACK);
+        int blackMove = (fields & BLACK_MOVE) != 0 ? in.getShort() : previous
+                .getMoveNumber(Player.BLACK);
+        return new ClockSnapshot(whiteMs, whiteDelay, whiteMove, blackMs,
+                blackDelay, blackMove, state, active);
+    }
+
+    private static int toInt(long ms) {
+        return (int) Math.max(Integer.MIN_VALUE,
+                Math.min(Integer.MAX_VALUE, ms));
+    }
+}
@@ -0,0 +1,364 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the boards of a Tournament to spectator displays over TCP.
+ *
+ * Nothing is sent periodically. When a board changes (a move, a state
+ * change or a time adjustment) every spectator gets the fields that
+ * changed, as of the time of the change; spectators run the clocks
+ * themselves in between (see SpectatorView). A new spectator, or one that
+ * falls behind, is sent the current state of every board instead of the
+ * changes it missed.
+ *
+ * One thread serves all the connections with a Selector. publish() and
+ * onBoardChanged() may be called from any thread.
+ */
+public final class SpectatorServer implements Tournament.Observer {
+
+    // changes are encoded once into a batch, then copied to each client
+    private static final int BATCH_SIZE = 64 * 1024;
+    // a client whose buffer can't take a batch is sent the full state
+    // instead, once it has caught up
+    private static final int CLIENT_BUFFER_SIZE = 16 * 1024;
+
+    private static final class Update {
+        final int mBoard;
+        final ClockSnapshot mSnapshot;
+        final long mAt;
+
+        Update(int board, ClockSnapshot snapshot, long at) {
+            mBoard = board;
+            mSnapshot = snapshot;
+            mAt = at;
+        }
+    }
+
+    // The latest state of a board, as sent to the clients
+    private static final class BoardState {
+        final int mBoard;
+        ClockSnapshot mSnapshot;
+        long mAt;
+        // mSequence when it last changed
+        long mChanged;
+
+        BoardState(int board) {
+            mBoard = board;
+        }
+    }
+
+    private final class Client {
+        final SocketChannel mChannel;
+        final ByteBuffer mOut = ByteBuffer.allocate(CLIENT_BUFFER_SIZE);
+        SelectionKey mKey;
+
+        // Sending the full state: every board that changed after
+        // mResyncSince, from mResyncIndex on. Once a pass is complete
+        // another starts for the boards that changed during it, until a
+        // pass finds nothing new.
+        boolean mResyncing;
+        int mResyncIndex;
+        long mResyncSince;
+        long mResyncStart;
+
+        Client(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        void resync() {
+            mResyncing = true;
+            mResyncIndex = 0;
+            mResyncSince = -1;
+            mResyncStart = mSequence;
+        }
+
+        void fillResync() {
+            while (mResyncing
+                    && mOut.remaining() >= SpectatorProtocol.MAX_LENGTH) {
+                if (mResyncIndex == mBoardList.size()) {
+                    if (mResyncStart == mSequence) {
+                        mResyncing = false;
+                    } else {
+                        mResyncIndex = 0;
+                        mResyncSince = mResyncStart;
+                        mResyncStart = mSequence;
+                    }
+                    continue;
+                }
+                BoardState board = mBoardList.get(mResyncIndex++);
+                if (board.mChanged > mResyncSince)
+                    SpectatorProtocol.writeUpdate(mOut, board.mBoard,
+                            board.mAt, null, board.mSnapshot);
+            }
+        }
+    }
+
+    private final TimeSource mTimeSource;
+    private final ServerSocketChannel mServer;
+    private final Selector mSelector;
+    private final Queue<Update> mUpdates = new ConcurrentLinkedQueue<Update>();
+    private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private volatile int mClientCount;
+
+    // only used on the server's thread
+    private final Map<Integer, BoardState> mBoards = new HashMap<Integer, BoardState>();
+    private final List<BoardState> mBoardList = new ArrayList<BoardState>();
+    private final List<Client> mClients = new ArrayList<Client>();
+    private final ByteBuffer mBatch = ByteBuffer.allocate(BATCH_SIZE);
+    private final ByteBuffer mDiscard = ByteBuffer.allocate(256);
+    // counts the changes to the boards
+    private long mSequence;
+
+    /**
+     * @param timeSource the time source of the clocks being broadcast
+     * @param address where to listen; port 0 picks a free port
+     */
+    public SpectatorServer(TimeSource timeSource, InetSocketAddress address)
+            throws IOException {
+        mTimeSource = timeSource;
+        mSelector = Selector.open();
+        mServer = ServerSocketChannel.open();
+        mServer.socket().setReuseAddress(true);
+        mServer.socket().bind(address);
+        mServer.configureBlocking(false);
+        mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return mServer.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return mClientCount;
+    }
+
+    /** Start the server's thread */
+    public synchronized void start() {
+        if (mThread != null)
+            return;
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "SpectatorServer");
+        mThread.start();
+    }
+
+    /** Stop the thread and close every connection */
+    public void shutdown() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        if (thread != null)
+            thread.join();
+        close();
+    }
+
+    /**
+     * Broadcast a board's state.
+     *
+     * @param at the time (from the clocks' TimeSource) the snapshot is of
+     */
+    public void publish(int board, ClockSnapshot snapshot, long at) {
+        mUpdates.add(new Update(board, snapshot, at));
+        if (mWakeupPending.compareAndSet(false, true))
+            mSelector.wakeup();
+    }
+
+    @Override
+    public void onBoardChanged(Board board) {
+        long now = mTimeSource.uptimeMillis();
+        publish(board.getNumber(), board.getClock().peek(now), now);
+    }
+
+    //
+    // Implementation, on the server's thread
+    //
+
+    private void loop() {
+        try {
+            while (mRunning) {
+                mSelector.select();
+                mWakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys()
+                        .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else
+                        handle(key);
+                }
+
+                broadcast();
+            }
+        } catch (IOException e) {
+            // the server socket failed; stop
+        } catch (ClosedSelectorException e) {
+            // stop
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = mServer.accept()) != null) {
+            // a client that is gone already (reset as it connected) loses
+            // only its own connection, as when it goes later
+            Client client = new Client(channel);
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                client.mKey = channel.register(mSelector,
+                        SelectionKey.OP_READ, client);
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException closing) {
+                    // gone anyway
+                }
+                continue;
+            }
+            SpectatorProtocol.writeHello(client.mOut,
+                    mTimeSource.uptimeMillis());
+            client.resync();
+            mClients.add(client);
+            mClientCount = mClients.size();
+            flushQuietly(client);
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Client client = (Client) key.attachment();
+        try {
+            if (key.isReadable()) {
+                // spectators don't send anything; this notices them leave
+                mDiscard.clear();
+                if (client.mChannel.read(mDiscard) < 0) {
+                    disconnect(client);
+                    return;
+                }
+            }
+            if (key.isWritable())
+                flush(client);
+        } catch (IOException e) {
+            disconnect(client);
+        }
+    }
+
+    // Apply the queued updates and send the changes to the clients that are
+    // up to date.
+    private void broadcast() {
+        Update update;
+        while ((update = mUpdates.poll()) != null) {
+            if (mBatch.remaining() < SpectatorProtocol.MAX_LENGTH)
+                sendBatch();
+
+            BoardState board = mBoards.get(update.mBoard);
+            if (board == null) {
+                board = new BoardState(update.mBoard);
+                mBoards.put(update.mBoard, board);
+                mBoardList.add(board);
+            }
+            SpectatorProtocol.writeUpdate(mBatch, update.mBoard, update.mAt,
+                    board.mSnapshot, update.mSnapshot);
+            board.mSnapshot = update.mSnapshot;
+            board.mAt = update.mAt;
+            board.mChanged = ++mSequence;
+        }
+        sendBatch();
+    }
+
+    private void sendBatch() {
+        mBatch.flip();
+        if (mBatch.hasRemaining()) {
+            for (int i = mClients.size() - 1; i >= 0; i--) {
+                Client client = mClients.get(i);
+                if (client.mResyncing)
+                    continue;
+                if (client.mOut.remaining() < mBatch.remaining()) {
+                    client.resync();
+                } else {
+                    client.mOut.put(mBatch.duplicate());
+                }
+                flushQuietly(client);
+            }
+        }
+        mBatch.clear();
+    }
+
+    private void flushQuietly(Client client) {
+        try {
+            flush(client);
+        } catch (IOException e) {
+            disconnect(client);
+        }
+    }
+
+    private void flush(Client client) throws IOException {
+        while (true) {
+            client.fillResync();
+            client.mOut.flip();
+            client.mChannel.write(client.mOut);
+            boolean sentAll = !client.mOut.hasRemaining();
+            client.mOut.compact();
+            if (!sentAll || !client.mResyncing)
+                break;
+        }
+
+        int ops = SelectionKey.OP_READ;
+        if (client.mOut.position() > 0 || client.mResyncing)
+            ops |= SelectionKey.OP_WRITE;
+        if (client.mKey.interestOps() != ops)
+            client.mKey.interestOps(ops);
+    }
+
+    private void disconnect(Client client) {
+        client.mKey.cancel();
+        try {
+            client.mChannel.close();
+        } catch (IOException e) {
+            // gone anyway
+        }
+        mClients.remove(client);
+        mClientCount = mClients.size();
+    }
+
+    private void close() {
+        for (Client client : new ArrayList<Client>(mClients))
+            disconnect(client);
+        try {
+            mServer.close();
+            mSelector.close();
+        } catch (IOException e) {
+            // nothing more to do
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package johnwilde.androidchessclock.engine;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A spectator's copy of the boards broadcast by a SpectatorServer, built
+ * from the bytes read from the connection.
+ *
+ * Only changes are broadcast, so the time of a running clock is worked
+ * out here from the time of the last update, with the server's clock
+ * related to the spectator's by the HELLO message. Not thread safe.
+ */
+public final class SpectatorView {
+
+    private static final class Entry {
+        ClockSnapshot mSnapshot;
+        // server time the snapshot's times are as of
+        long mAt;
+    }
+
+    private final Map<Integer, Entry> mBoards = new HashMap<Integer, Entry>();
+    // messages split across reads are kept here until they are complete
+    private final ByteBuffer mPartial = ByteBuffer
+            .allocate(SpectatorProtocol.MAX_LENGTH);
+    // server time - local time, once HELLO has arrived
+    private long mOffset;
+    private boolean mConnected;
+    private long mUpdates;
+
+    /**
+     * Apply the bytes between the buffer's position and limit.
+     * 
+     * @param localNow when they arrived, by the spectator's clock
+     */
+    public void read(ByteBuffer in, long localNow) {
+        // finish the message left over from the last read
+        if (mPartial.position() > 0) {
+            while (in.hasRemaining()) {
+                mPartial.put(in.get());
+                ByteBuffer partial = (ByteBuffer) mPartial.duplicate().flip();
+                int length = SpectatorProtocol.messageLength(partial);
+                if (length == partial.remaining()) {
+                    apply(partial, localNow);
+                    mPartial.clear();
+                    break;
+                }
+            }
+            if (mPartial.position() > 0)
+                return;
+        }
+
+        int length;
+        while ((length = SpectatorProtocol.messageLength(in)) > 0
+                && in.remaining() >= length)
+            apply(in, localNow);
+        mPartial.put(in);
+    }
+
+    private void apply(ByteBuffer in, long localNow) {
+        if (in.get(in.position()) == SpectatorProtocol.HELLO) {
+            in.get();
+            mOffset = in.getLong() - localNow;
+            mConnected = true;
+            return;
+        }
+
+        int board = in.getInt(in.position() + 1);
+        long at = in.getLong(in.position() + 5);
+        Entry entry = mBoards.get(board);
+        if (entry == null) {
+            entry = new Entry();
+            mBoards.put(board, entry);
+        }
+        entry.mSnapshot = SpectatorProtocol.readUpdate(in, entry.mSnapshot);
+        entry.mAt = at;
+        mUpdates++;
+    }
+
+    /** True once the server's HELLO has arrived */
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /** The number of updates received */
+    public long getUpdateCount() {
+        return mUpdates;
+    }
+
+    public int getBoardCount() {
+        return mBoards.size();
+    }
+
+    /** The last update for the board, null if there hasn't been one */
+    public ClockSnapshot getSnapshot(int board) {
+        Entry entry = mBoards.get(board);
+        return entry == null ? null : entry.mSnapshot;
+    }
+
+    /** Time left on a player's clock at localNow, by the spectator's clock */
+    public long getMsToGo(int board, Player player, long localNow) {
+        return clock(board, player).getMsToGo(localNow + mOffset);
+    }
+
+    public long getMsDelayToGo(int board, Player player, long localNow) {
+        return clock(board, player).getMsDelayToGo(localNow + mOffset);
+    }
+
+    // the player's clock, running from the time of the last update if it
+    // was running then
+    private PlayerClock clock(int board, Player player) {
+        Entry entry = mBoards.get(board);
+        ClockSnapshot s = entry.mSnapshot;
+        boolean running = s.getState() == GameState.RUNNING
+                && s.getActive() == player;
+        return new PlayerClock(player, s.getMsToGo(player),
+                s.getMsDelayToGo(player), 0, s.getMoveNumber(player),
+                running ? entry.mAt : PlayerClock.NOT_RUNNING);
+    }
+}
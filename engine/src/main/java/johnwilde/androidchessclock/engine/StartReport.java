@@ -0,0 +1,49 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * How well a scheduled mass start went (see Tournament.massStart).
+ */
+public final class StartReport {
+
+    private final int mBoards;
+    private final long mTarget;
+    private final long mStartedAt;
+    private final long mSpreadNanos;
+
+    StartReport(int boards, long target, long startedAt, long spreadNanos) {
+        mBoards = boards;
+        mTarget = target;
+        mStartedAt = startedAt;
+        mSpreadNanos = spreadNanos;
+    }
+
+    /** The number of boards started */
+    public int getBoards() {
+        return mBoards;
+    }
+
+    /** When the start was scheduled for */
+    public long getTarget() {
+        return mTarget;
+    }
+
+    /** How late the tournament's thread got round to the start */
+    public long getLatenessMs() {
+        return mStartedAt - mTarget;
+    }
+
+    /**
+     * Time between starting the first board and the last. Their clocks all
+     * run from the target, but the last is only seen running this much
+     * later than the first.
+     */
+    public long getSpreadNanos() {
+        return mSpreadNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d boards, %d ms late, spread %.3f ms",
+                mBoards, getLatenessMs(), mSpreadNanos / 1e6);
+    }
+}
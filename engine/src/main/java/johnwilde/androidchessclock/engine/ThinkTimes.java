@@ -0,0 +1,120 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How long moves took, by time control and move number: the distribution
+ * of the times for each, in a LatencyHistogram of milliseconds.
+ *
+ * Moves after MAX_MOVE_NUMBER are not counted.
+ *
+ * Not thread safe: keep one per thread and add() them together.
+ */
+public final class ThinkTimes {
+
+    public static final int MAX_MOVE_NUMBER = 300;
+
+    // by the time control as written in the games, then by move number - 1;
+    // the histograms are made as they are needed
+    private final Map<String, LatencyHistogram[]> mByTimeControl =
+            new HashMap<String, LatencyHistogram[]>();
+    private long mGames;
+    private long mSkippedGames;
+    private long mMoves;
+
+    /** Count a move of a game played with a time control */
+    public void record(String timeControl, int moveNumber, long ms) {
+        record(histograms(timeControl), moveNumber, ms);
+    }
+
+    // The histograms of a time control, to record a game's moves to
+    LatencyHistogram[] histograms(String timeControl) {
+        LatencyHistogram[] histograms = mByTimeControl.get(timeControl);
+        if (histograms == null) {
+            histograms = new LatencyHistogram[MAX_MOVE_NUMBER];
+            mByTimeControl.put(timeControl, histograms);
+        }
+        return histograms;
+    }
+
+    void record(LatencyHistogram[] histograms, int moveNumber, long ms) {
+        if (moveNumber < 1 || moveNumber > MAX_MOVE_NUMBER)
+            return;
+        LatencyHistogram histogram = histograms[moveNumber - 1];
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms[moveNumber - 1] = histogram;
+        }
+        histogram.record(ms);
+        mMoves++;
+    }
+
+    /** Count a game whose moves were recorded */
+    public void countGame() {
+        mGames++;
+    }
+
+    /** Count a game whose moves couldn't be worked out */
+    public void countSkippedGame() {
+        mSkippedGames++;
+    }
+
+    /**
+     * Add the moves and games counted by another to these. The other may
+     * give up its histograms to this one, so it isn't to be used after.
+     */
+    public void add(ThinkTimes other) {
+        for (Map.Entry<String, LatencyHistogram[]> entry
+                : other.mByTimeControl.entrySet()) {
+            LatencyHistogram[] histograms = histograms(entry.getKey());
+            LatencyHistogram[] others = entry.getValue();
+            for (int i = 0; i < MAX_MOVE_NUMBER; i++) {
+                if (others[i] == null)
+                    continue;
+                if (histograms[i] == null)
+                    histograms[i] = others[i];
+                else
+                    histograms[i].add(others[i]);
+            }
+        }
+        mGames += other.mGames;
+        mSkippedGames += other.mSkippedGames;
+        mMoves += other.mMoves;
+    }
+
+    /** The time controls that moves were counted for, sorted */
+    public List<String> getTimeControls() {
+        List<String> timeControls = new ArrayList<String>(
+                mByTimeControl.keySet());
+        Collections.sort(timeControls);
+        return timeControls;
+    }
+
+    /**
+     * The times of a move, over the games played with a time control; null
+     * if there are none.
+     */
+    public LatencyHistogram get(String timeControl, int moveNumber) {
+        LatencyHistogram[] histograms = mByTimeControl.get(timeControl);
+        if (histograms == null || moveNumber < 1
+                || moveNumber > MAX_MOVE_NUMBER)
+            return null;
+        return histograms[moveNumber - 1];
+    }
+
+    public long getGames() {
+        return mGames;
+    }
+
+    public long getSkippedGames() {
+        return mSkippedGames;
+    }
+
+    public long getMoves() {
+        return mMoves;
+    }
+}
@@ -0,0 +1,76 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * Works out when a running clock next needs to be redrawn.
+ *
+ * Rather than polling at a fixed rate, the timer sleeps until the text
+ * produced by ClockFormatter is about to change:
+ *
+ * above 10 seconds: when the next second ticks over
+ * below 10 seconds: when the next tenth of a second ticks over
+ * negative time: when the next (rounded) second ticks over
+ */
+public final class TickScheduler {
+
+    private TickScheduler() {
+    }
+
+    /**
+     * Return the number of ms until the timer should run again.
+     *
+     * When negative time is not allowed the delay never goes past 0, so the
+     * flag falls exactly on time.
+     */
+    public static long nextDelay(long msToGo, boolean allowNegativeTime) {
+        long delay = msUntilTextChanges(msToGo);
+        if (!allowNegativeTime && msToGo > 0 && msToGo < delay)
+            delay = msToGo;
+        return delay;
+    }
+
+    /**
+     * Return how many ms must elapse before the clock, currently showing
+     * msToGo, displays different text. Always at least 1.
+     */
+    public static long msUntilTextChanges(long msToGo) {
+        long changesAt;
+
+        if (msToGo >= 10000) {
+            // "SS", "M:SS" or "H:MM:SS", seconds are truncated
+            changesAt = (msToGo / 1000) * 1000 - 1;
+        } else if (msToGo > 0) {
+            // "N.N", rounded to the nearest tenth
+            int tenths = ClockFormatter.roundToTenths(msToGo);
+            if (tenths == 0)
+                return msToGo + 1; // next change is "0.0" -> "0"
+            long tie = tenths * 100 - 50;
+            changesAt = ClockFormatter.roundToTenths(tie) == tenths ? tie - 1
+                    : tie;
+        } else if (msToGo == 0) {
+            return 1;
+        } else {
+            // count upwards in negative time
+            long over = -msToGo;
+            long changesAtOver;
+            if (over >= 10000) {
+                changesAtOver = (over / 1000 + 1) * 1000;
+            } else {
+                int sec = ClockFormatter.roundToSeconds(over);
+                if (sec >= 10) {
+                    // "-10" lasts until the truncated display reads "-11"
+                    changesAtOver = 11000;
+                } else {
+                    long tie = sec * 1000 + 500;
+                    changesAtOver = ClockFormatter.roundToSeconds(tie) == sec ? tie + 1
+                            : tie;
+                }
+                // the minus sign appears at -1000
+                if (over < 1000 && changesAtOver > 1000)
+                    changesAtOver = 1000;
+            }
+            changesAt = -changesAtOver;
+        }
+
+        return msToGo - changesAt;
+    }
+}
@@ -0,0 +1,10 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * BASIC: a single period for the whole game.
+ *
+ * TOURNAMENT: extra time is added after the first phase's moves (FIDE).
+ */
+public enum TimeControlType {
+    BASIC, TOURNAMENT
+}
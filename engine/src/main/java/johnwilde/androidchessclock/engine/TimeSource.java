@@ -0,0 +1,20 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * A monotonic clock, in milliseconds.
+ *
+ * On Android this is SystemClock.uptimeMillis(); tests and simulations
+ * supply their own so that time can be moved by hand.
+ */
+public interface TimeSource {
+
+    long uptimeMillis();
+
+    /** Monotonic time from System.nanoTime() */
+    TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+}
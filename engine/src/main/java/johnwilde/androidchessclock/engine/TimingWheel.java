@@ -0,0 +1,289 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * A hierarchical timing wheel with millisecond resolution.
+ *
+ * Deadlines are kept in LEVELS wheels of 64 slots each. Level 0 holds the
+ * deadlines due in the next 64 ms, one slot per ms; level 1 covers 4 s in
+ * 64 ms slots, and so on up to about 250 days. As time passes, the slots
+ * of the higher levels are cascaded into the lower ones. Scheduling and
+ * cancelling are O(1): a Timeout is unlinked from its slot's list, and a
+ * bitmap per level lets advance() skip over empty slots.
+ *
+ * Timeouts can be re-armed, so a caller that keeps its Timeout objects
+ * allocates nothing once running.
+ *
+ * Not thread safe; schedule, cancel and advance from one thread.
+ */
+public final class TimingWheel {
+
+    public interface Task {
+        /** Called from advance() once the deadline has been reached */
+        void onTimeout(Timeout timeout, long now);
+    }
+
+    public static final class Timeout {
+        private final Task mTask;
+        private long mDeadline;
+        private Timeout mPrev, mNext;
+        // the slot holding this timeout, NOT_SCHEDULED otherwise
+        private int mSlot = NOT_SCHEDULED;
+        // free for the owner of the Timeout to use
+        public Object tag;
+
+        public Timeout(Task task) {
+            mTask = task;
+        }
+
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        public boolean isScheduled() {
+            return mSlot != NOT_SCHEDULED;
+        }
+    }
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    private static final int NOT_SCHEDULED = -1;
+    // deadlines that were already due when scheduled
+    private static final int EXPIRED = LEVELS * SLOTS;
+    // the slot being fired
+    private static final int FIRING = EXPIRED + 1;
+
+    private final Timeout[] mSlots = new Timeout[FIRING + 1];
+    private final long[] mOccupied = new long[LEVELS];
+    private long mCurrent;
+    private int mSize;
+
+    /** @param now the current time, deadlines are relative to the same clock */
+    public TimingWheel(long now) {
+        mCurrent = now;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Create and schedule a timeout */
+    public Timeout schedule(long deadline, Task task) {
+        Timeout timeout = new Timeout(task);
+        schedule(timeout, deadline);
+        return timeout;
+    }
+
+    /** (Re)schedule a timeout, replacing any deadline it already had */
+    public void schedule(Timeout timeout, long deadline) {
+        if (timeout.isScheduled())
+            unlink(timeout);
+        else
+            mSize++;
+        timeout.mDeadline = deadline;
+        insert(timeout);
+    }
+
+    /** @return false if the timeout wasn't scheduled */
+    public boolean cancel(Timeout timeout) {
+        if (!timeout.isScheduled())
+            return false;
+        unlink(timeout);
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Fire all timeouts with a deadline up to and including now, in order
+     * of deadline (timeouts with the same deadline fire in no particular
+     * order). Tasks may schedule and cancel timeouts; a timeout scheduled
+     * for a deadline that has already passed fires later in this call or
+     * on the next one.
+     * 
+     * @return the number of timeouts fired
+     */
+    public int advance(long now) {
+        int fired = fireSlot(EXPIRED, now);
+
+        while (mCurrent < now) {
+            if (mSize == 0) {
+                mCurrent = now;
+                break;
+            }
+
+            // the next time level 0 wraps, and higher levels must cascade
+            long wrap = (mCurrent | MASK) + 1;
+            long end = Math.min(now, wrap - 1);
+
+            // the first occupied level 0 slot between here and there
+            if (end > mCurrent) {
+                int from = (int) ((mCurrent + 1) & MASK);
+                int to = (int) (end & MASK);
+                long range = (-1L << from) & (-1L >>> (MASK - to));
+                long bits = mOccupied[0] & range;
+                if (bits != 0) {
+                    int slot = Long.numberOfTrailingZeros(bits);
+                    mCurrent += slot - (int) (mCurrent & MASK);
+                    fired += fireSlot(slot, now);
+                    continue;
+                }
+            }
+
+            if (end == now) {
+                mCurrent = now;
+                break;
+            }
+
+            // with level 0 empty, skip the wraps where nothing cascades
+            if (mOccupied[0] == 0) {
+                long next = nextCascade();
+                if (next > now) {
+                    mCurrent = now;
+                    break;
+                }
+                wrap = next;
+            }
+
+            mCurrent = wrap;
+            cascade();
+            // cascading puts deadlines equal to mCurrent in EXPIRED
+            fired += fireSlot((int) (mCurrent & MASK), now);
+            fired += fireSlot(EXPIRED, now);
+        }
+        return fired;
+    }
+
+    /**
+     * A time at or before the earliest deadline, Long.MAX_VALUE if nothing
+     * is scheduled. Deadlines beyond the current 64 ms slice may be reported
+     * early, at the time their slot cascades to a lower level of the wheel.
+     */
+    public long nextDeadlineBound() {
+        if (mSize == 0)
+            return Long.MAX_VALUE;
+        if (mSlots[EXPIRED] != null)
+            return mCurrent;
+
+        // level 0 slots before it wraps are due before anything else
+        int current = (int) (mCurrent & MASK);
+        long bits = mOccupied[0];
+        long ahead = bits & (-1L << current);
+        if (ahead != 0)
+            return mCurrent + Long.numberOfTrailingZeros(ahead) - current;
+
+        long bound = Long.MAX_VALUE;
+        if (bits != 0)
+            bound = mCurrent + Long.numberOfTrailingZeros(bits) + SLOTS
+                    - current;
+        bound = Math.min(bound, nextCascade());
+        return bound;
+    }
+
+    // When the first occupied slot above level 0 cascades, Long.MAX_VALUE
+    // if there are none. Always a multiple of 64.
+    private long nextCascade() {
+        long next = Long.MAX_VALUE;
+        for (int level = 1; level < LEVELS; level++) {
+            long occupied = mOccupied[level];
+            if (occupied == 0)
+                continue;
+            // the first occupied slot after the current one
+            int shift = SLOT_BITS * level;
+            int index = (int) ((mCurrent >> shift) & MASK);
+            long rotated = Long.rotateRight(occupied, index + 1);
+            int distance = Long.numberOfTrailingZeros(rotated) + 1;
+            next = Math.min(next, ((mCurrent >> shift) + distance) << shift);
+        }
+        return next;
+    }
+
+    private void insert(Timeout timeout) {
+        long deadline = timeout.mDeadline;
+        long diff = deadline - mCurrent;
+        int slot;
+        if (diff <= 0) {
+            slot = EXPIRED;
+        } else {
+            int level = 0;
+            while (level < LEVELS - 1
+                    && diff >= (1L << (SLOT_BITS * (level + 1))))
+                level++;
+            if (diff >= (1L << (SLOT_BITS * LEVELS)))
+                deadline = mCurrent + (1L << (SLOT_BITS * LEVELS)) - 1;
+            int index = (int) ((deadline >> (SLOT_BITS * level)) & MASK);
+            slot = level * SLOTS + index;
+            mOccupied[level] |= 1L << index;
+        }
+
+        Timeout head = mSlots[slot];
+        timeout.mPrev = null;
+        timeout.mNext = head;
+        if (head != null)
+            head.mPrev = timeout;
+        mSlots[slot] = timeout;
+        timeout.mSlot = slot;
+    }
+
+    private void unlink(Timeout timeout) {
+        int slot = timeout.mSlot;
+        if (timeout.mPrev != null)
+            timeout.mPrev.mNext = timeout.mNext;
+        else
+            mSlots[slot] = timeout.mNext;
+        if (timeout.mNext != null)
+            timeout.mNext.mPrev = timeout.mPrev;
+        timeout.mPrev = timeout.mNext = null;
+        timeout.mSlot = NOT_SCHEDULED;
+        if (mSlots[slot] == null && slot < EXPIRED)
+            mOccupied[slot / SLOTS] &= ~(1L << (slot & MASK));
+    }
+
+    // mCurrent is a multiple of 64: move the deadlines in the slots that
+    // start now down to the lower levels
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int index = (int) ((mCurrent >> (SLOT_BITS * level)) & MASK);
+            int slot = level * SLOTS + index;
+            Timeout t = mSlots[slot];
+            mSlots[slot] = null;
+            mOccupied[level] &= ~(1L << index);
+            while (t != null) {
+                Timeout next = t.mNext;
+                insert(t);
+                t = next;
+            }
+            if (index != 0)
+                break;
+        }
+    }
+
+    // Fire the due timeouts in a slot, and re-insert the others.
+    private int fireSlot(int slot, long now) {
+        if (mSlots[slot] == null)
+            return 0;
+
+        // move the slot's list aside, so that tasks can schedule and cancel
+        // (including the timeouts still waiting to fire) as they like
+        Timeout t = mSlots[slot];
+        mSlots[slot] = null;
+        if (slot != EXPIRED)
+            mOccupied[slot / SLOTS] &= ~(1L << (slot & MASK));
+        mSlots[FIRING] = t;
+        for (; t != null; t = t.mNext)
+            t.mSlot = FIRING;
+
+        int fired = 0;
+        while ((t = mSlots[FIRING]) != null) {
+            unlink(t);
+            if (t.mDeadline <= now) {
+                mSize--;
+                fired++;
+                t.mTask.onTimeout(t, now);
+            } else {
+                insert(t);
+            }
+        }
+        return fired;
+    }
+}
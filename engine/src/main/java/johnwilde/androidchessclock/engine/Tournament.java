@@ -0,0 +1,554 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hosts many games in one process.
+ *
+ * Each Board has its own ChessClock, with the same rules as the clock in
+ * ChessTimerActivity, but all of them are driven by a single thread: the
+ * commands sent from other threads are queued and run there in order, and
+ * in between the thread sleeps until the next clock event is due (see
+ * ClockEventScheduler). Listeners are called on that thread.
+ *
+ * An arbiter's batch command (pause all, add time to every black clock in
+ * a round, ...) is a single command too, so it applies to all its boards
+ * with no other command in between, and at one instant: the clocks' time
+ * stands still while it runs. The same goes for a scheduled mass start.
+ *
+ * A command, listener or Observer that throws is logged (to
+ * java.util.logging, which Android passes on to its log) and the thread
+ * goes on with the next: one board's bug doesn't stop the others' clocks.
+ */
+public final class Tournament {
+
+    /** Told about boards whose clocks changed, on the tournament's thread */
+    public interface Observer {
+        /**
+         * The board's state, active player or time changed other than by
+         * running down. Called once per board for a batch of commands and
+         * clock events, after all of them have run.
+         */
+        void onBoardChanged(Board board);
+    }
+
+    /** An arbiter's action, applied to each board a batch selects */
+    public interface BoardAction {
+        /** @return true if the board was changed */
+        boolean apply(ChessClock clock);
+    }
+
+    // commands run before the clock events are checked again, so that a
+    // flood of presses cannot hold up a flag fall for long
+    private static final int MAX_BATCH = 1024;
+    // how long the thread sleeps with nothing to do
+    private static final long IDLE_WAIT_MS = 1000;
+
+    private static final Logger LOG = Logger.getLogger(Tournament.class
+            .getName());
+
+    private final TimeSource mTimeSource;
+    // the time source of the clocks, which stops during a batch
+    private final BatchTime mTime;
+    private final ClockEventScheduler mScheduler;
+    private final BlockingQueue<Runnable> mCommands = new LinkedBlockingQueue<Runnable>();
+
+    private int mNextNumber = 1;
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    private volatile Observer mObserver;
+    // only used on the tournament's thread
+    private final List<Board> mBoards = new ArrayList<Board>();
+    // boards with Board.mChanged set
+    private final List<Board> mChanged = new ArrayList<Board>();
+
+    public Tournament(TimeSource timeSource) {
+        mTimeSource = timeSource;
+        mTime = new BatchTime(timeSource);
+        mScheduler = new ClockEventScheduler(mTime);
+    }
+
+    public TimeSource getTimeSource() {
+        return mTimeSource;
+    }
+
+    public void setObserver(Observer observer) {
+        mObserver = observer;
+    }
+
+    /** Start the tournament's thread */
+    public synchronized void startLoop() {
+        if (mThread != null)
+            return;
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Tournament");
+        mThread.start();
+    }
+
+    /** Stop the thread once the commands already queued have run */
+    public void shutdown() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread == null)
+            return;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                mRunning = false;
+            }
+        });
+        thread.join();
+    }
+
+    /**
+     * Add a game; the listener is called on the tournament's thread.
+     * Boards are numbered from 1 in the order they are added.
+     */
+    public Board addBoard(ClockSettings settings, ClockListener listener) {
+        return addBoard(settings, 0, null, listener);
+    }
+
+    /** Add a game, for batch commands by round and section */
+    public synchronized Board addBoard(ClockSettings settings, int round,
+            String section, ClockListener listener) {
+        ChessClock clock = new ChessClock(settings, mTime);
+        final Board board = new Board(mNextNumber++, round, section, clock);
+        clock.setListener(new BoardEvents(board, listener));
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                board.mHandle = mScheduler.watch(board.getClock());
+                mBoards.add(board);
+            }
+        });
+        return board;
+    }
+
+    /** Run some code on the tournament's thread */
+    public void execute(Runnable command) {
+        mCommands.add(command);
+    }
+
+    //
+    // Commands for one board, see ChessClock
+    //
+
+    public void start(Board board) {
+        execute(new BoardCommand(board) {
+            @Override
+            void apply(ChessClock clock) {
+                clock.start();
+            }
+        });
+    }
+
+    public void press(Board board, final Player player) {
+        execute(new BoardCommand(board) {
+            @Override
+            void apply(ChessClock clock) {
+                clock.press(player);
+            }
+        });
+    }
+
+    public void togglePause(Board board) {
+        execute(new BoardCommand(board) {
+            @Override
+            void apply(ChessClock clock) {
+                clock.togglePause();
+            }
+        });
+    }
+
+    public void reset(Board board) {
+        execute(new BoardCommand(board) {
+            @Override
+            void apply(ChessClock clock) {
+                clock.reset();
+            }
+        });
+    }
+
+    public void adjustTime(Board board, final Player player,
+            final long msToGo) {
+        execute(new BoardCommand(board) {
+            @Override
+            void apply(ChessClock clock) {
+                clock.adjustTime(player, msToGo);
+            }
+        });
+    }
+
+    //
+    // Batch commands for the arbiter
+    //
+
+    /**
+     * Apply an action to every board the selector picks, in one go.
+     * 
+     * @return the number of boards changed, once it has run
+     */
+    public Future<Integer> apply(final BoardSelector selector,
+            final BoardAction action) {
+        FutureTask<Integer> task = new FutureTask<Integer>(
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return applyNow(selector, action);
+                    }
+                });
+        execute(task);
+        return task;
+    }
+
+    /** Pause the running games */
+    public Future<Integer> pause(BoardSelector selector) {
+        return apply(selector, new BoardAction() {
+            @Override
+            public boolean apply(ChessClock clock) {
+                return clock.getState() == GameState.RUNNING && clock.pause();
+            }
+        });
+    }
+
+    /** Resume the paused games */
+    public Future<Integer> resume(BoardSelector selector) {
+        return apply(selector, new BoardAction() {
+            @Override
+            public boolean apply(ChessClock clock) {
+                if (clock.getState() != GameState.PAUSED)
+                    return false;
+                clock.togglePause();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Add time to (or, if negative, take it from) the player's clock in
+     * the games that have started and aren't over.
+     */
+    public Future<Integer> addTime(BoardSelector selector,
+            final Player player, final long ms) {
+        return apply(selector, new BoardAction() {
+            @Override
+            public boolean apply(ChessClock clock) {
+                GameState state = clock.getState();
+                if (state != GameState.RUNNING && state != GameState.PAUSED)
+                    return false;
+                clock.adjustTime(player, clock.getMsToGo(player) + ms);
+                return true;
+            }
+        });
+    }
+
+    /** Put the clocks back to their initial time */
+    public Future<Integer> reset(BoardSelector selector) {
+        return apply(selector, new BoardAction() {
+            @Override
+            public boolean apply(ChessClock clock) {
+                clock.reset();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Arm the selected boards that haven't started, then start them all
+     * together at 'at' (a time from the tournament's TimeSource). The
+     * clocks run from 'at' exactly, however late the tournament's thread
+     * gets to them. A board that is reset in the meantime isn't started.
+     * 
+     * @return the report, once the boards have started
+     */
+    public Future<StartReport> massStart(final BoardSelector selector,
+            final long at) {
+        final FutureTask<StartReport> start = new FutureTask<StartReport>(
+                new Callable<StartReport>() {
+                    @Override
+                    public StartReport call() {
+                        return startNow(selector, at);
+                    }
+                });
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                applyNow(selector, new BoardAction() {
+                    @Override
+                    public boolean apply(ChessClock clock) {
+                        return clock.arm();
+                    }
+                });
+                mScheduler.schedule(at, new TimingWheel.Task() {
+                    @Override
+                    public void onTimeout(TimingWheel.Timeout timeout,
+                            long now) {
+                        start.run();
+                    }
+                });
+            }
+        });
+        return start;
+    }
+
+    //
+    // Implementation
+    //
+
+    private StartReport startNow(BoardSelector selector, long at) {
+        int started = 0;
+        long first = 0;
+        long last = 0;
+
+        mTime.freeze();
+        long now = mTime.uptimeMillis();
+        try {
+            for (int i = 0; i < mBoards.size(); i++) {
+                Board board = mBoards.get(i);
+                ChessClock clock = board.getClock();
+                if (clock.getState() != GameState.ARMED
+                        || !selector.matches(board))
+                    continue;
+
+                last = System.nanoTime();
+                if (started++ == 0)
+                    first = last;
+                clock.startAt(at);
+                mScheduler.update(board.mHandle);
+            }
+        } finally {
+            mTime.unfreeze();
+        }
+        return new StartReport(started, at, now, last - first);
+    }
+
+    private int applyNow(BoardSelector selector, BoardAction action) {
+        int changed = 0;
+        mTime.freeze();
+        try {
+            for (int i = 0; i < mBoards.size(); i++) {
+                Board board = mBoards.get(i);
+                if (selector.matches(board) && action.apply(board.getClock())) {
+                    changed++;
+                    mScheduler.update(board.mHandle);
+                }
+            }
+        } finally {
+            mTime.unfreeze();
+        }
+        return changed;
+    }
+
+    // The time source of the clocks, which can be stopped for a while
+    private static final class BatchTime implements TimeSource {
+        private static final long RUNNING = Long.MIN_VALUE;
+
+        private final TimeSource mSource;
+        private volatile long mFrozenAt = RUNNING;
+
+        BatchTime(TimeSource source) {
+            mSource = source;
+        }
+
+        void freeze() {
+            mFrozenAt = mSource.uptimeMillis();
+        }
+
+        void unfreeze() {
+            mFrozenAt = RUNNING;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            long frozenAt = mFrozenAt;
+            return frozenAt != RUNNING ? frozenAt : mSource.uptimeMillis();
+        }
+    }
+
+    // A command to one board, which reschedules the board's events after
+    // it has run.
+    private abstract class BoardCommand implements Runnable {
+        private final Board mBoard;
+
+        BoardCommand(Board board) {
+            mBoard = board;
+        }
+
+        abstract void apply(ChessClock clock);
+
+        @Override
+        public void run() {
+            try {
+                apply(mBoard.getClock());
+            } catch (RuntimeException e) {
+                failed(mBoard + ": command", e);
+            }
+            // whatever it got done
+            mScheduler.update(mBoard.mHandle);
+        }
+    }
+
+    // Passes the clock's events on to the board's listener, and notes which
+    // ones the Observer needs to hear about.
+    private class BoardEvents implements ClockListener {
+        private final Board mBoard;
+        private final ClockListener mListener;
+
+        BoardEvents(Board board, ClockListener listener) {
+            mBoard = board;
+            mListener = listener != null ? listener
+                    : new ClockListener.Adapter();
+        }
+
+        private void changed() {
+            if (!mBoard.mChanged) {
+                mBoard.mChanged = true;
+                mChanged.add(mBoard);
+            }
+        }
+
+        @Override
+        public void onStateChanged(GameState from, GameState to) {
+            changed();
+            try {
+                mListener.onStateChanged(from, to);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onStateChanged", e);
+            }
+        }
+
+        @Override
+        public void onActivePlayerChanged(Player player) {
+            changed();
+            try {
+                mListener.onActivePlayerChanged(player);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onActivePlayerChanged", e);
+            }
+        }
+
+        @Override
+        public void onClockRunning(Player player) {
+            changed();
+            try {
+                mListener.onClockRunning(player);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onClockRunning", e);
+            }
+        }
+
+        @Override
+        public void onClockStopped(Player player) {
+            changed();
+            try {
+                mListener.onClockStopped(player);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onClockStopped", e);
+            }
+        }
+
+        @Override
+        public void onDelayFinished(Player player) {
+            try {
+                mListener.onDelayFinished(player);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onDelayFinished", e);
+            }
+        }
+
+        @Override
+        public void onTimeChanged(Player player) {
+            changed();
+            try {
+                mListener.onTimeChanged(player);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onTimeChanged", e);
+            }
+        }
+
+        @Override
+        public void onFlagFall(Player player) {
+            changed();
+            try {
+                mListener.onFlagFall(player);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onFlagFall", e);
+            }
+        }
+
+        @Override
+        public void onNegativeTime(Player player) {
+            try {
+                mListener.onNegativeTime(player);
+            } catch (RuntimeException e) {
+                failed(mBoard + ": onNegativeTime", e);
+            }
+        }
+    }
+
+    private void notifyObserver() {
+        Observer observer = mObserver;
+        for (int i = 0; i < mChanged.size(); i++) {
+            Board board = mChanged.get(i);
+            board.mChanged = false;
+            if (observer == null)
+                continue;
+            try {
+                observer.onBoardChanged(board);
+            } catch (RuntimeException e) {
+                failed(board + ": onBoardChanged", e);
+            }
+        }
+        mChanged.clear();
+    }
+
+    private static void failed(String what, RuntimeException e) {
+        LOG.log(Level.SEVERE, what + " failed", e);
+    }
+
+    private void loop() {
+        try {
+            while (mRunning) {
+                long wait = Math.min(mScheduler.msUntilNextEvent(),
+                        IDLE_WAIT_MS);
+                Runnable command = wait > 0 ? mCommands.poll(wait,
+                        TimeUnit.MILLISECONDS) : mCommands.poll();
+                for (int i = 0; command != null; i++) {
+                    // each command sees the events that were due before it
+                    // ran
+                    mScheduler.advance();
+                    try {
+                        command.run();
+                    } catch (RuntimeException e) {
+                        failed("command", e);
+                    }
+                    if (i == MAX_BATCH)
+                        break;
+                    command = mCommands.poll();
+                }
+                mScheduler.advance();
+                notifyObserver();
+            }
+        } catch (InterruptedException e) {
+            // stop
+        }
+    }
+}
@@ -1,8 +1,8 @@
-package johnwilde.androidchessclock;
+package johnwilde.androidchessclock.engine;
 
 import java.text.DecimalFormat;
 
- class Utils {
+public class Utils {
     public static String formatTime(long millisIn) {
         // formatters for displaying text in timer
         DecimalFormat dfOneDecimal = new DecimalFormat("0.0");
@@ -69,4 +69,18 @@ import java.text.DecimalFormat;
         return stringHr + stringMin + stringSec;
 
     }
+
+    /**
+     * The value of a numeric timer preference, which is stored as a string.
+     * An empty or malformed value counts as 0.
+     */
+    public static int parseTimerOption(String s) {
+        if (s == null || s.length() == 0)
+            return 0;
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
 }
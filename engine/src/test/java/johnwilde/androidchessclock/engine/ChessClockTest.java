@@ -0,0 +1,416 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ChessClockTest extends TestCase {
+
+    private ManualTimeSource mTime;
+    private ChessClock mClock;
+    private List<String> mEvents;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource();
+        mEvents = new ArrayList<String>();
+    }
+
+    private void create(ClockSettings settings) {
+        mClock = new ChessClock(settings, mTime);
+        mClock.setListener(new RecordingListener());
+    }
+
+    public void testFirstPressStartsOtherPlayer() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.press(Player.BLACK);
+        assertEquals(GameState.RUNNING, mClock.getState());
+        assertEquals(Player.WHITE, mClock.getActive());
+        assertTrue(mClock.isRunning(Player.WHITE));
+        assertFalse(mClock.isRunning(Player.BLACK));
+    }
+
+    public void testStartButtonStartsWhite() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.start();
+        assertEquals(Player.WHITE, mClock.getActive());
+        assertTrue(mClock.isRunning(Player.WHITE));
+    }
+
+    public void testFischerIncrement() {
+        create(ClockSettings.basic(300, 5, DelayType.FISCHER, false));
+        // the bonus is given before the first move too
+        assertEquals(305000, mClock.getMsToGo(Player.WHITE));
+
+        mClock.start();
+        mTime.advance(10000);
+        mClock.press(Player.WHITE);
+        assertEquals(300000, mClock.getMsToGo(Player.WHITE));
+        assertEquals(2, mClock.getMoveNumber(Player.WHITE));
+        assertEquals(Player.BLACK, mClock.getActive());
+
+        // pressing the clock that isn't running does nothing
+        mClock.press(Player.WHITE);
+        assertEquals(Player.BLACK, mClock.getActive());
+    }
+
+    public void testBronsteinDelay() {
+        create(ClockSettings.basic(300, 5, DelayType.BRONSTEIN, false));
+        assertEquals(300000, mClock.getMsToGo(Player.WHITE));
+        mClock.start();
+
+        // within the delay nothing is charged
+        mTime.advance(3000);
+        mClock.tick();
+        assertEquals(300000, mClock.getMsToGo(Player.WHITE));
+        assertEquals(2000, mClock.getMsDelayToGo(Player.WHITE));
+
+        mTime.advance(3000);
+        mClock.tick();
+        assertEquals(299000, mClock.getMsToGo(Player.WHITE));
+        assertTrue(mEvents.contains("delayFinished WHITE"));
+
+        mClock.press(Player.WHITE);
+        assertEquals(299000, mClock.getMsToGo(Player.WHITE));
+        assertEquals(5000, mClock.getMsDelayToGo(Player.WHITE));
+    }
+
+    public void testPauseDuringDelayKeepsRemainingDelay() {
+        create(ClockSettings.basic(300, 5, DelayType.BRONSTEIN, false));
+        mClock.start();
+        mTime.advance(7000);
+        mClock.pause();
+        assertEquals(GameState.PAUSED, mClock.getState());
+        assertEquals(298000, mClock.getMsToGo(Player.WHITE));
+        assertEquals(0, mClock.getMsDelayToGo(Player.WHITE));
+
+        // the delay already ran out: resuming must not grant a new one
+        mTime.advance(60000);
+        mClock.togglePause();
+        mTime.advance(1000);
+        mClock.tick();
+        assertEquals(297000, mClock.getMsToGo(Player.WHITE));
+    }
+
+    public void testTournamentPhaseTwo() {
+        create(ClockSettings.tournament(90, 2, 30, 30, DelayType.FISCHER, false));
+        mClock.start();
+        mClock.press(Player.WHITE); // move 1
+        mClock.press(Player.BLACK);
+        long before = mClock.getMsToGo(Player.WHITE);
+        mClock.press(Player.WHITE); // move 2 completes phase 1
+        assertEquals(before + 30 * 60000 + 30000, mClock.getMsToGo(Player.WHITE));
+    }
+
+    public void testFlagFallIsExact() {
+        create(ClockSettings.basic(10, 0, DelayType.FISCHER, false));
+        mClock.start();
+        mTime.advance(9999);
+        mClock.tick();
+        assertEquals(GameState.RUNNING, mClock.getState());
+        mTime.advance(1);
+        mClock.tick();
+        assertEquals(GameState.DONE, mClock.getState());
+        assertEquals(Player.WHITE, mClock.getActive());
+        assertEquals(0, mClock.getMsToGo(Player.WHITE));
+        assertTrue(mEvents.contains("flagFall WHITE"));
+
+        // nothing happens after the game is over
+        mClock.press(Player.WHITE);
+        assertEquals(GameState.DONE, mClock.getState());
+    }
+
+    public void testLatePressStillFlags() {
+        create(ClockSettings.basic(10, 0, DelayType.FISCHER, false));
+        mClock.start();
+        mTime.advance(10050); // no tick in between
+        mClock.press(Player.WHITE);
+        assertEquals(GameState.DONE, mClock.getState());
+        assertEquals(Player.WHITE, mClock.getActive());
+    }
+
+    public void testNegativeTime() {
+        create(ClockSettings.basic(10, 0, DelayType.FISCHER, true));
+        mClock.start();
+        mTime.advance(10000);
+        mClock.tick();
+        assertEquals(GameState.RUNNING, mClock.getState());
+        mTime.advance(1);
+        mClock.tick();
+        mTime.advance(1);
+        mClock.tick();
+        assertEquals(-2, mClock.getMsToGo(Player.WHITE));
+        assertEquals(1, count("negativeTime WHITE"));
+    }
+
+    public void testPauseAndResume() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        assertFalse(mClock.pause());
+        mClock.start();
+        mTime.advance(1000);
+        assertTrue(mClock.pause());
+        mTime.advance(5000);
+        // a press while paused resumes
+        mClock.press(Player.BLACK);
+        assertEquals(GameState.RUNNING, mClock.getState());
+        mTime.advance(1000);
+        mClock.tick();
+        assertEquals(298000, mClock.getMsToGo(Player.WHITE));
+    }
+
+    public void testAdjustTime() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.start();
+        mClock.pause();
+        mClock.adjustTime(Player.BLACK, 123000);
+        assertEquals(123000, mClock.getMsToGo(Player.BLACK));
+        assertTrue(mEvents.contains("timeChanged BLACK"));
+    }
+
+    public void testSnapshotAndRestore() {
+        create(ClockSettings.basic(300, 5, DelayType.BRONSTEIN, false));
+        mClock.start();
+        mTime.advance(8000);
+        mClock.press(Player.WHITE);
+        mTime.advance(2000);
+        ClockSnapshot snapshot = mClock.snapshot();
+        assertEquals(GameState.RUNNING, snapshot.getState());
+        assertEquals(3000, snapshot.getMsDelayToGo(Player.BLACK));
+
+        ChessClock restored = new ChessClock(mClock.getSettings(), mTime);
+        restored.restore(snapshot);
+        assertEquals(GameState.PAUSED, restored.getState());
+        assertEquals(Player.BLACK, restored.getActive());
+        assertEquals(297000, restored.getMsToGo(Player.WHITE));
+        assertEquals(2, restored.getMoveNumber(Player.WHITE));
+        assertEquals(3000, restored.getMsDelayToGo(Player.BLACK));
+    }
+
+    public void testRestoreKeepsTimeAdjustedBeforeTheStart() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.adjustTime(Player.BLACK, 240000);
+        ClockSnapshot snapshot = mClock.snapshot();
+
+        ChessClock restored = new ChessClock(mClock.getSettings(), mTime);
+        restored.restore(snapshot);
+        assertEquals(GameState.IDLE, restored.getState());
+        assertEquals(300000, restored.getMsToGo(Player.WHITE));
+        assertEquals(240000, restored.getMsToGo(Player.BLACK));
+    }
+
+    public void testReset() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.start();
+        mTime.advance(1000);
+        mClock.press(Player.WHITE);
+        mClock.reset(ClockSettings.basic(60, 0, DelayType.FISCHER, false));
+        assertEquals(GameState.IDLE, mClock.getState());
+        assertNull(mClock.getActive());
+        assertEquals(60000, mClock.getMsToGo(Player.WHITE));
+        assertEquals(1, mClock.getMoveNumber(Player.WHITE));
+        assertFalse(mClock.isRunning(Player.BLACK));
+    }
+
+    // The time left is derived from "now"; no ticking is needed.
+    public void testTimeIsComputedOnRead() {
+        create(ClockSettings.basic(300, 5, DelayType.BRONSTEIN, false));
+        mClock.start();
+        mTime.advance(65000);
+        assertEquals(240000, mClock.getMsToGo(Player.WHITE));
+        assertEquals(0, mClock.getMsDelayToGo(Player.WHITE));
+        assertEquals(300000, mClock.getMsToGo(Player.BLACK));
+        assertFalse(mEvents.contains("delayFinished WHITE"));
+    }
+
+    public void testMsUntilNextEvent() {
+        create(ClockSettings.basic(60, 5, DelayType.BRONSTEIN, false));
+        assertEquals(Long.MAX_VALUE, mClock.msUntilNextEvent());
+        mClock.start();
+        mTime.advance(1000);
+        assertEquals(4000, mClock.msUntilNextEvent()); // delay ends
+        mTime.advance(4000);
+        mClock.tick();
+        assertEquals(60000, mClock.msUntilNextEvent()); // flag falls
+        mTime.advance(60000);
+        mClock.tick();
+        assertEquals(GameState.DONE, mClock.getState());
+        assertEquals(Long.MAX_VALUE, mClock.msUntilNextEvent());
+    }
+
+    public void testMsUntilNegativeTime() {
+        create(ClockSettings.basic(60, 0, DelayType.FISCHER, true));
+        mClock.start();
+        assertEquals(60001, mClock.msUntilNextEvent());
+        mTime.advance(60001);
+        mClock.tick();
+        assertEquals(Long.MAX_VALUE, mClock.msUntilNextEvent());
+    }
+
+    public void testArmedClockWaitsForTheScheduledStart() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        assertTrue(mClock.arm());
+        assertEquals(GameState.ARMED, mClock.getState());
+        assertEquals(Player.WHITE, mClock.getActive());
+        assertFalse(mClock.arm());
+
+        // the players can't start or pause it
+        mClock.press(Player.BLACK);
+        mClock.togglePause();
+        assertEquals(GameState.ARMED, mClock.getState());
+        assertFalse(mClock.isRunning(Player.WHITE));
+
+        // started late, but running from the scheduled time
+        long at = mTime.uptimeMillis();
+        mTime.advance(30);
+        mClock.startAt(at);
+        assertEquals(GameState.RUNNING, mClock.getState());
+        assertEquals(299970, mClock.getMsToGo(Player.WHITE));
+
+        // a start time in the future is the same as now
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.arm();
+        mClock.startAt(mTime.uptimeMillis() + 1000);
+        assertEquals(300000, mClock.getMsToGo(Player.WHITE));
+    }
+
+    public void testPressInThePast() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.start();
+        mTime.advance(10000);
+        // made 2 s ago on another device
+        mClock.pressAt(Player.WHITE, mTime.uptimeMillis() - 2000);
+        assertEquals(292000, mClock.getMsToGo(Player.WHITE));
+        assertEquals(298000, mClock.getMsToGo(Player.BLACK));
+
+        // never before the clock started, nor in the future
+        mTime.advance(1000);
+        mClock.pressAt(Player.BLACK, mTime.uptimeMillis() - 5000);
+        assertEquals(300000, mClock.getMsToGo(Player.BLACK));
+        mTime.advance(1000);
+        mClock.pressAt(Player.WHITE, mTime.uptimeMillis() + 5000);
+        assertEquals(288000, mClock.getMsToGo(Player.WHITE));
+    }
+
+    public void testPauseAndResumeInThePast() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.start();
+        mTime.advance(10000);
+        assertTrue(mClock.pauseAt(mTime.uptimeMillis() - 4000));
+        assertEquals(294000, mClock.getMsToGo(Player.WHITE));
+
+        mTime.advance(5000);
+        assertTrue(mClock.resumeAt(mTime.uptimeMillis() - 1000));
+        assertEquals(293000, mClock.getMsToGo(Player.WHITE));
+        assertFalse(mClock.resumeAt(mTime.uptimeMillis()));
+    }
+
+    public void testResetDisarms() {
+        create(ClockSettings.basic(300, 0, DelayType.FISCHER, false));
+        mClock.arm();
+        mClock.reset();
+        assertEquals(GameState.IDLE, mClock.getState());
+        assertNull(mClock.getActive());
+
+        // an armed clock is restored as IDLE
+        mClock.arm();
+        ClockSnapshot snapshot = mClock.snapshot();
+        mClock.restore(snapshot);
+        assertEquals(GameState.IDLE, mClock.getState());
+    }
+
+    public void testQueriesFromAnotherThread() throws Exception {
+        final ChessClock clock = new ChessClock(
+                ClockSettings.basic(300, 0, DelayType.FISCHER, false),
+                TimeSource.SYSTEM);
+        clock.start();
+        final long[] seen = new long[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100000; i++) {
+                    long total = clock.getMsToGo(Player.WHITE)
+                            + clock.getMsToGo(Player.BLACK);
+                    seen[0] = Math.max(seen[0], total);
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < 100000; i++)
+            clock.press(clock.getActive());
+        reader.join();
+        assertTrue(seen[0] <= 600000);
+    }
+
+    // A plain JVM can play a very large number of moves per second.
+    public void testThroughput() {
+        create(ClockSettings.tournament(90, 40, 30, 30, DelayType.FISCHER, false));
+        mClock.setListener(null);
+        int moves = 2000000;
+        long start = System.nanoTime();
+        mClock.start();
+        Player player = Player.WHITE;
+        for (int i = 0; i < moves; i++) {
+            mTime.advance(1);
+            mClock.tick();
+            mClock.press(player);
+            player = player.other();
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println(String.format("ChessClock: %.1f million moves/s",
+                moves * 1000.0 / ns));
+        assertEquals(GameState.RUNNING, mClock.getState());
+    }
+
+    private int count(String event) {
+        int n = 0;
+        for (String e : mEvents) {
+            if (e.equals(event))
+                n++;
+        }
+        return n;
+    }
+
+    private class RecordingListener implements ClockListener {
+        @Override
+        public void onStateChanged(GameState from, GameState to) {
+            mEvents.add("state " + from + " " + to);
+        }
+
+        @Override
+        public void onActivePlayerChanged(Player player) {
+            mEvents.add("active " + player);
+        }
+
+        @Override
+        public void onClockRunning(Player player) {
+            mEvents.add("running " + player);
+        }
+
+        @Override
+        public void onClockStopped(Player player) {
+            mEvents.add("stopped " + player);
+        }
+
+        @Override
+        public void onDelayFinished(Player player) {
+            mEvents.add("delayFinished " + player);
+        }
+
+        @Override
+        public void onTimeChanged(Player player) {
+            mEvents.add("timeChanged " + player);
+        }
+
+        @Override
+        public void onFlagFall(Player player) {
+            mEvents.add("flagFall " + player);
+        }
+
+        @Override
+        public void onNegativeTime(Player player) {
+            mEvents.add("negativeTime " + player);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package johnwilde.androidchessclock.engine;
+
+import junit.framework.TestCase;
+
+public class ClockEventSchedulerTest extends TestCase {
+
+    private ManualTimeSource mTime;
+    private ClockEventScheduler mScheduler;
+    private int mFlags;
+
+    private final ClockListener mFlagCounter = new ClockListener.Adapter() {
+        @Override
+        public void onFlagFall(Player player) {
+            mFlags++;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource();
+        mScheduler = new ClockEventScheduler(mTime);
+    }
+
+    private ChessClock create(int seconds) {
+        ChessClock clock = new ChessClock(ClockSettings.basic(seconds, 0,
+                DelayType.FISCHER, false), mTime);
+        clock.setListener(mFlagCounter);
+        return clock;
+    }
+
+    public void testIdleClockHasNothingPending() {
+        mScheduler.watch(create(60));
+        assertEquals(0, mScheduler.pending());
+        assertEquals(Long.MAX_VALUE, mScheduler.msUntilNextEvent());
+    }
+
+    public void testFlagFallsOnTime() {
+        ChessClock clock = create(60);
+        TimingWheel.Timeout handle = mScheduler.watch(clock);
+        clock.start();
+        mScheduler.update(handle);
+        assertEquals(1, mScheduler.pending());
+
+        mTime.advance(59999);
+        assertEquals(0, mScheduler.advance());
+        assertEquals(GameState.RUNNING, clock.getState());
+
+        mTime.advance(1);
+        assertEquals(1, mScheduler.advance());
+        assertEquals(GameState.DONE, clock.getState());
+        assertEquals(1, mFlags);
+        assertEquals(0, mScheduler.pending());
+    }
+
+    public void testMoveReschedules() {
+        ChessClock clock = create(60);
+        TimingWheel.Timeout handle = mScheduler.watch(clock);
+        clock.start();
+        mScheduler.update(handle);
+
+        mTime.advance(50000);
+        clock.press(Player.WHITE);
+        mScheduler.update(handle);
+
+        // white would have flagged by now, black has 10 s left
+        mTime.advance(20000);
+        assertEquals(0, mScheduler.advance());
+        mTime.advance(40000);
+        assertEquals(1, mScheduler.advance());
+        assertEquals(Player.BLACK, clock.getActive());
+        assertEquals(0, clock.getMsToGo(Player.BLACK));
+    }
+
+    public void testUnwatch() {
+        ChessClock clock = create(60);
+        TimingWheel.Timeout handle = mScheduler.watch(clock);
+        clock.start();
+        mScheduler.update(handle);
+        mScheduler.unwatch(handle);
+        mTime.advance(120000);
+        assertEquals(0, mScheduler.advance());
+        assertEquals(GameState.RUNNING, clock.getState());
+    }
+
+    public void testManyClocks() {
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            ChessClock clock = create(1 + i % 600);
+            TimingWheel.Timeout handle = mScheduler.watch(clock);
+            clock.start();
+            mScheduler.update(handle);
+        }
+
+        // sleep between the events, the way a host would
+        int wakeups = 0;
+        while (mScheduler.pending() > 0) {
+            mTime.advance(Math.max(1, mScheduler.msUntilNextEvent()));
+            mScheduler.advance();
+            wakeups++;
+        }
+        assertEquals(count, mFlags);
+        // one wake-up per distinct flag time, plus the cascades
+        assertTrue("" + wakeups, wakeups < 600 * 3);
+    }
+}
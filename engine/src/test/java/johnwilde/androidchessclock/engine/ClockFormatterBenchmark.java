@@ -0,0 +1,56 @@
+package johnwilde.androidchessclock.engine;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the cost of Utils.formatTime with ClockFormatter.
+ *
+ * The numbers are written to the log (or stdout when run on a JVM); the
+ * test only fails if the results of the two formatters disagree.
+ */
+public class ClockFormatterBenchmark extends TestCase {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 200000;
+
+    // a running clock, sampled every 100 ms from 10 minutes down to -20 s
+    private static long timeAt(int i) {
+        return 10 * 60 * 1000 - (i % 6200) * 100L;
+    }
+
+    public void testFormatterIsCheaperThanUtils() {
+        ClockFormatter formatter = new ClockFormatter();
+
+        long check = runUtils(WARMUP) + runFormatter(formatter, WARMUP);
+
+        long start = System.nanoTime();
+        long utilsChars = runUtils(ITERATIONS);
+        long utilsNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long formatterChars = runFormatter(formatter, ITERATIONS);
+        long formatterNs = System.nanoTime() - start;
+
+        System.out.println(String.format(
+                "formatTime: Utils %.1f ns/op, ClockFormatter %.1f ns/op (%d)",
+                (double) utilsNs / ITERATIONS,
+                (double) formatterNs / ITERATIONS, check));
+        assertEquals(utilsChars, formatterChars);
+    }
+
+    private static long runUtils(int iterations) {
+        long chars = 0;
+        for (int i = 0; i < iterations; i++)
+            chars += Utils.formatTime(timeAt(i)).length();
+        return chars;
+    }
+
+    private static long runFormatter(ClockFormatter formatter, int iterations) {
+        long chars = 0;
+        for (int i = 0; i < iterations; i++) {
+            formatter.format(timeAt(i));
+            chars += formatter.length();
+        }
+        return chars;
+    }
+}
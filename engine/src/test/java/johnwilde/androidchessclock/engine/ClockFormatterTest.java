@@ -0,0 +1,84 @@
+package johnwilde.androidchessclock.engine;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that ClockFormatter produces exactly the text of Utils.formatTime.
+ */
+public class ClockFormatterTest extends TestCase {
+
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+
+    private ClockFormatter mFormatter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFormatter = new ClockFormatter();
+    }
+
+    // every millisecond in the range where all of the special cases live:
+    // "N.N", "N", "-N", "SS", "M:SS" and "-M:SS"
+    public void testEveryMillisecondAroundZero() {
+        for (long ms = -2 * MINUTE; ms <= 2 * MINUTE; ms++)
+            assertSameText(ms);
+    }
+
+    // each second boundary (and its neighbours) up to ten hours either side
+    public void testSecondBoundaries() {
+        for (long s = 0; s <= 10 * HOUR / SECOND; s++) {
+            for (long d = -1; d <= 1; d++) {
+                assertSameText(s * SECOND + d);
+                assertSameText(-s * SECOND + d);
+            }
+        }
+    }
+
+    public void testRandomValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++)
+            assertSameText(random.nextLong() % (1000 * HOUR));
+    }
+
+    public void testExtremeValues() {
+        assertSameText(Long.MAX_VALUE);
+        assertSameText(Long.MIN_VALUE);
+        assertSameText(Long.MIN_VALUE + 1);
+    }
+
+    public void testOtherLocales() {
+        Locale saved = Locale.getDefault();
+        try {
+            for (Locale locale : new Locale[] { new Locale("ru"),
+                    Locale.GERMANY, new Locale("ar", "EG"), Locale.FRANCE }) {
+                Locale.setDefault(locale);
+                mFormatter = new ClockFormatter(new DecimalFormatSymbols(locale));
+                for (long ms = -12 * SECOND; ms <= 12 * SECOND; ms++)
+                    assertSameText(ms);
+                assertSameText(2 * HOUR + 3 * MINUTE + 4 * SECOND);
+            }
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    public void testReportsChanges() {
+        assertTrue(mFormatter.format(5 * MINUTE + 900));
+        assertFalse(mFormatter.format(5 * MINUTE));
+        assertTrue(mFormatter.format(5 * MINUTE - 1));
+        mFormatter.invalidate();
+        assertTrue(mFormatter.format(5 * MINUTE - 1));
+    }
+
+    private void assertSameText(long ms) {
+        mFormatter.format(ms);
+        assertEquals("formatting " + ms, Utils.formatTime(ms),
+                mFormatter.toString());
+    }
+}
@@ -0,0 +1,378 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import junit.framework.TestCase;
+
+public class ClockJournalTest extends TestCase {
+
+    // recovering a 300 move game must take less than this
+    private static final long RECOVERY_BUDGET_MS = 50;
+
+    private static final ClockSettings BRONSTEIN = ClockSettings.tournament(
+            5, 10, 1, 3, DelayType.BRONSTEIN, false);
+    // the device's boots
+    private static final long BOOT = 1;
+    private static final long NEXT_BOOT = 2;
+
+    private ManualTimeSource mTime;
+    private File mFile;
+    private MoveLog mLog;
+    private ClockJournal mJournal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource(0);
+        mFile = File.createTempFile("journal", ".log");
+        mFile.delete();
+        mLog = MoveLog.open(mFile, BOOT);
+        mJournal = new ClockJournal(mLog, 100, 16);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mJournal.close();
+        mLog.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private ChessClock create(ClockSettings settings) {
+        ChessClock clock = new ChessClock(settings, mTime);
+        clock.setRecorder(mJournal);
+        clock.reset();
+        return clock;
+    }
+
+    // What a new process finds: the log as the old one left it
+    private ChessClock relaunch(ClockSettings settings, File file)
+            throws IOException {
+        return relaunch(settings, file, BOOT);
+    }
+
+    private ChessClock relaunch(ClockSettings settings, File file, long boot)
+            throws IOException {
+        MoveLog log = MoveLog.open(file, boot);
+        try {
+            ChessClock clock = new ChessClock(settings, mTime);
+            assertTrue(ClockJournal.recover(log, clock));
+            return clock;
+        } finally {
+            log.close();
+        }
+    }
+
+    public void testRunningGameKeepsRunningThroughTheCrash()
+            throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        clock.start();
+        mTime.set(4000);
+        clock.press(Player.WHITE);
+        mTime.set(6000);
+        clock.press(Player.BLACK);
+        // white is in the middle of the delay when the process dies
+        mTime.set(7000);
+        long whiteAtCrash = clock.getMsToGo(Player.WHITE);
+        mTime.set(60000);
+
+        ChessClock recovered = relaunch(BRONSTEIN, mFile);
+        assertEquals(GameState.RUNNING, recovered.getState());
+        assertEquals(Player.WHITE, recovered.getActive());
+        assertTrue(recovered.isRunning(Player.WHITE));
+        // the time while the app was dead was used by white
+        assertTrue(recovered.getMsToGo(Player.WHITE) < whiteAtCrash);
+        assertSame(clock, recovered, 60000);
+        // and the statistics are rebuilt from the moves
+        assertEquals(4000.0, recovered.getStatistics(Player.WHITE)
+                .getMeanMs());
+        assertEquals(1, recovered.getStatistics(Player.BLACK).getCount());
+    }
+
+    public void testPausedAndFinishedGames() throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        clock.press(Player.BLACK);
+        mTime.set(2000);
+        clock.press(Player.WHITE);
+        mTime.set(3500);
+        clock.pause();
+        clock.adjustTime(Player.WHITE, 1000);
+        mTime.set(10000);
+        ChessClock recovered = relaunch(BRONSTEIN, mFile);
+        assertEquals(GameState.PAUSED, recovered.getState());
+        assertSame(clock, recovered, 10000);
+
+        clock.togglePause();
+        clock.press(Player.BLACK);
+        mTime.set(20000);
+        clock.tick();
+        assertEquals(GameState.DONE, clock.getState());
+        recovered = relaunch(BRONSTEIN, mFile);
+        assertEquals(GameState.DONE, recovered.getState());
+        assertEquals(Player.WHITE, recovered.getActive());
+        assertSame(clock, recovered, 20000);
+    }
+
+    public void testTimeAdjustedBeforeTheStartIsRecovered()
+            throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        clock.adjustTime(Player.BLACK, 240000);
+        ChessClock recovered = relaunch(BRONSTEIN, mFile);
+        assertEquals(GameState.IDLE, recovered.getState());
+        assertEquals(240000, recovered.getMsToGo(Player.BLACK));
+    }
+
+    public void testNothingToRecoverAfterAReset() throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        clock.start();
+        mTime.set(1000);
+        clock.reset();
+        assertFalse(ClockJournal.recover(mLog, new ChessClock(BRONSTEIN,
+                mTime)));
+    }
+
+    public void testRecoveringTwiceGivesTheSameGame() throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        clock.start();
+        mTime.set(3000);
+        clock.press(Player.WHITE);
+        mTime.set(5000);
+
+        // the recovered clock records to the same log, and dies as well
+        ChessClock recovered = new ChessClock(BRONSTEIN, mTime);
+        recovered.setRecorder(mJournal);
+        assertTrue(ClockJournal.recover(mLog, recovered));
+        mTime.set(9000);
+        assertSame(clock, relaunch(BRONSTEIN, mFile), 9000);
+    }
+
+    public void testAfterARestartTheGameIsPaused() throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        mTime.set(500000);
+        clock.start();
+        mTime.set(510000);
+        long msToGo = clock.getMsToGo(Player.WHITE);
+
+        // uptime starts again from 0
+        mTime.set(1000);
+        ChessClock recovered = relaunch(BRONSTEIN, mFile, NEXT_BOOT);
+        assertEquals(GameState.PAUSED, recovered.getState());
+        assertTrue(recovered.getMsToGo(Player.WHITE) > msToGo);
+    }
+
+    // The uptime after a restart can't be told from the uptime before
+    public void testAfterARestartUptimeMayBePastTheGame() throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        mTime.set(5000);
+        clock.start();
+        mTime.set(8000);
+        clock.press(Player.WHITE);
+        // past the delay
+        mTime.set(15000);
+        long msToGo = clock.getMsToGo(Player.BLACK);
+
+        // the device restarted, and has been up longer than it had been
+        mTime.set(600000);
+        ChessClock recovered = relaunch(BRONSTEIN, mFile, NEXT_BOOT);
+        assertEquals(GameState.PAUSED, recovered.getState());
+        assertEquals(Player.BLACK, recovered.getActive());
+        assertEquals(BRONSTEIN.getInitialMs(), recovered
+                .getMsToGo(Player.BLACK));
+        assertTrue(recovered.getMsToGo(Player.BLACK) > msToGo);
+    }
+
+    // What the log says after the game is recovered in the new boot
+    public void testRecoveredGameIsOfTheNewBoot() throws Exception {
+        ChessClock clock = create(BRONSTEIN);
+        clock.start();
+        mTime.set(2000);
+        mJournal.close();
+        mLog.close();
+
+        mTime.set(1000);
+        mLog = MoveLog.open(mFile, NEXT_BOOT);
+        mJournal = new ClockJournal(mLog, 100, 16);
+        assertEquals(BOOT, mLog.getRecordedBoot());
+        ChessClock recovered = new ChessClock(BRONSTEIN, mTime);
+        recovered.setRecorder(mJournal);
+        assertTrue(ClockJournal.recover(mLog, recovered));
+        assertEquals(GameState.PAUSED, recovered.getState());
+        assertEquals(NEXT_BOOT, mLog.getRecordedBoot());
+
+        // and played on: it runs through the next crash
+        recovered.togglePause();
+        mTime.set(4000);
+        assertSame(recovered, relaunch(BRONSTEIN, mFile, NEXT_BOOT), 4000);
+        assertEquals(GameState.RUNNING, relaunch(BRONSTEIN, mFile,
+                NEXT_BOOT).getState());
+    }
+
+    public void testSyncsAreBatchedAndBounded() throws Exception {
+        long start = System.nanoTime();
+        mJournal.record(ClockEventType.RESET, null, 0, 0, 0, 300000);
+        while (mJournal.getUnsynced() > 0)
+            Thread.sleep(5);
+        // within the 100 ms delay, plus a sync
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, mJournal.getSyncs());
+
+        for (int i = 0; i < 1000; i++)
+            mJournal.record(ClockEventType.PRESS, Player.WHITE, i, i, 0, 0);
+        mJournal.close();
+        assertEquals(0, mJournal.getUnsynced());
+        assertTrue("synced " + mJournal.getSyncs() + " times",
+                mJournal.getSyncs() <= 1 + 1000 / 16 + 1);
+    }
+
+    /**
+     * One thread plays games as fast as it can; another copies the log file
+     * while it does, which is what killing the process leaves behind (the
+     * mapped pages are the kernel's, and the process can die between any
+     * two stores). Every copy must recover to the game as it was after the
+     * command that recorded its last event.
+     */
+    public void testWriterKilledAtRandomPoints() throws Exception {
+        final long far = 1L << 40;
+        // the game after each command, by the number of events so far
+        final Map<Integer, String> expected =
+                new ConcurrentHashMap<Integer, String>();
+        final ClockSettings settings = ClockSettings.tournament(1, 20, 1, 2,
+                DelayType.BRONSTEIN, false);
+        final ChessClock clock = create(settings);
+        expected.put(mLog.size(), clock.peek(far).toString());
+
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                Random random = new Random(1);
+                for (int i = 0; i < 40000; i++) {
+                    mTime.advance(random.nextInt(3000));
+                    command(clock, random);
+                    expected.put(mLog.size(), clock.peek(far).toString());
+                    if (i % 10 == 0)
+                        LockSupport.parkNanos(50000);
+                }
+            }
+        };
+        writer.start();
+
+        Random random = new Random(2);
+        File copy = File.createTempFile("killed", ".log");
+        int kills = 0, compared = 0;
+        long maxRecoveryNs = 0;
+        try {
+            while (writer.isAlive()) {
+                copy(mFile, copy);
+                kills++;
+                MoveLog log = MoveLog.open(copy, BOOT);
+                ChessClock recovered = new ChessClock(settings,
+                        new ManualTimeSource(far));
+                long start = System.nanoTime();
+                if (!ClockJournal.recover(log, recovered))
+                    recovered.reset();
+                maxRecoveryNs = Math.max(maxRecoveryNs, System.nanoTime()
+                        - start);
+                // a command can record several events; if the copy ends
+                // between them there is nothing to compare with
+                String game = expected.get(log.size());
+                if (game != null) {
+                    assertEquals("after " + log.size() + " events", game,
+                            recovered.peek(far).toString());
+                    compared++;
+                }
+                log.close();
+                Thread.sleep(random.nextInt(3));
+            }
+        } finally {
+            writer.join();
+            copy.delete();
+        }
+        System.out.println(String.format(
+                "ClockJournal: killed %d times, %d compared, recovery max "
+                        + "%.3f ms", kills, compared, maxRecoveryNs / 1e6));
+        assertTrue(compared > kills / 2);
+    }
+
+    // the writer's next command: mostly presses, with pauses, adjustments,
+    // flag falls and new games
+    private void command(ChessClock clock, Random random) {
+        int r = random.nextInt(100);
+        GameState state = clock.getState();
+        if (state == GameState.IDLE || state == GameState.DONE) {
+            clock.reset();
+            if (r < 20)
+                clock.adjustTime(Player.BLACK, 90000);
+            clock.start();
+        } else if (r < 85) {
+            clock.press(clock.getActive());
+        } else if (r < 92) {
+            clock.togglePause();
+        } else if (r < 96) {
+            Player player = random.nextBoolean() ? Player.WHITE
+                    : Player.BLACK;
+            clock.adjustTime(player, clock.getMsToGo(player) + 5000);
+        } else {
+            clock.tick();
+        }
+    }
+
+    public void testThreeHundredMoveGameRecoversWithinBudget()
+            throws IOException {
+        ChessClock clock = create(BRONSTEIN);
+        clock.start();
+        Random random = new Random(3);
+        for (int move = 0; move < 600; move++) {
+            mTime.advance(random.nextInt(1000));
+            if (move % 50 == 25) {
+                clock.pause();
+                clock.adjustTime(clock.getActive(), 60000);
+                clock.togglePause();
+            }
+            clock.press(clock.getActive());
+        }
+        assertEquals(301, clock.getMoveNumber(Player.BLACK));
+
+        long worst = 0;
+        ChessClock recovered = null;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            recovered = relaunch(BRONSTEIN, mFile);
+            worst = Math.max(worst, System.nanoTime() - start);
+        }
+        System.out.println(String.format("ClockJournal: %d events of a 300 "
+                + "move game recovered in %.3f ms at worst", mLog.size(),
+                worst / 1e6));
+        assertSame(clock, recovered, mTime.uptimeMillis());
+        assertTrue(worst < TimeUnit.MILLISECONDS.toNanos(RECOVERY_BUDGET_MS));
+    }
+
+    private static void assertSame(ChessClock clock, ChessClock recovered,
+            long now) {
+        assertEquals(clock.peek(now).toString(), recovered.peek(now)
+                .toString());
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs random sequences of events (presses, pauses, time adjustments,
+ * saving and restoring, ...) against a ChessClock in virtual time, and
+ * checks after every step that:
+ *
+ * - time is conserved: each clock shows its initial time, plus bonuses
+ * and adjustments, less the time it ran beyond the Bronstein delay
+ *
+ * - each finished move adds its bonus exactly once
+ *
+ * - a clock never shows negative time when negative time is off, other
+ * than a running clock whose flag fall tick() is due right now
+ *
+ * - the state, active player and running clocks agree with each other
+ *
+ * The expected times are worked out from the listener's reports of clocks
+ * starting and stopping, so a clock running when it shouldn't, or time
+ * being lost, shows up as a difference.
+ *
+ * Scenarios are generated from a seed, so a failure can be replayed, and
+ * shrink() cuts a failing scenario down to a minimal one.
+ */
+public class ClockSimulator {
+
+    enum Type {
+        ADVANCE, PRESS, TOGGLE_PAUSE, START, ARM, ADJUST, TICK,
+        SAVE_AND_RESTORE, RESET
+    }
+
+    static final class Event {
+        final Type mType;
+        final Player mPlayer;
+        final long mValue;
+
+        Event(Type type, Player player, long value) {
+            mType = type;
+            mPlayer = player;
+            mValue = value;
+        }
+
+        @Override
+        public String toString() {
+            switch (mType) {
+            case ADVANCE:
+                return "advance " + mValue;
+            case PRESS:
+                return "press " + mPlayer;
+            case ADJUST:
+                return "adjust " + mPlayer + " " + mValue;
+            default:
+                return mType.toString().toLowerCase();
+            }
+        }
+    }
+
+    /** A time control and the events to run with it */
+    static final class Scenario {
+        final ClockSettings mSettings;
+        final List<Event> mEvents;
+
+        Scenario(ClockSettings settings, List<Event> events) {
+            mSettings = settings;
+            mEvents = events;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            s.append(mSettings.getTimeControlType()).append(' ')
+                    .append(mSettings.getInitialDurationSeconds())
+                    .append("s ").append(mSettings.getDelayType())
+                    .append(' ').append(mSettings.getIncrementSeconds())
+                    .append("s");
+            if (mSettings.getTimeControlType() == TimeControlType.TOURNAMENT)
+                s.append(", ").append(mSettings.getPhase1NumberMoves())
+                        .append(" moves then +")
+                        .append(mSettings.getPhase2Minutes()).append("min");
+            if (mSettings.getAllowNegativeTime())
+                s.append(", negative time");
+            for (Event event : mEvents)
+                s.append("\n  ").append(event);
+            return s.toString();
+        }
+    }
+
+    /** A random time control, and 'steps' random events */
+    static Scenario generate(long seed, int steps) {
+        Random random = new Random(seed);
+        int initialSeconds = 1 + random.nextInt(random.nextBoolean() ? 10
+                : 600);
+        int increment = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(10);
+        DelayType delay = random.nextBoolean() ? DelayType.FISCHER
+                : DelayType.BRONSTEIN;
+        boolean negative = random.nextInt(4) == 0;
+        ClockSettings settings;
+        if (random.nextBoolean())
+            settings = ClockSettings.basic(initialSeconds, increment, delay,
+                    negative);
+        else
+            settings = new ClockSettings(TimeControlType.TOURNAMENT,
+                    initialSeconds, increment, delay, negative,
+                    1 + random.nextInt(5), random.nextInt(3));
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < steps; i++) {
+            int kind = random.nextInt(100);
+            Player player = random.nextBoolean() ? Player.WHITE
+                    : Player.BLACK;
+            if (kind < 35)
+                events.add(new Event(Type.ADVANCE, null,
+                        advance(random, settings)));
+            else if (kind < 70)
+                events.add(new Event(Type.PRESS, player, 0));
+            else if (kind < 78)
+                events.add(new Event(Type.TOGGLE_PAUSE, null, 0));
+            else if (kind < 82)
+                events.add(new Event(Type.START, null, 0));
+            else if (kind < 83)
+                events.add(new Event(Type.ARM, null, 0));
+            else if (kind < 87)
+                events.add(new Event(Type.ADJUST, player, random
+                        .nextInt((int) settings.getInitialMs() + 1)));
+            else if (kind < 94)
+                events.add(new Event(Type.TICK, null, 0));
+            else if (kind < 98)
+                events.add(new Event(Type.SAVE_AND_RESTORE, null, 0));
+            else
+                events.add(new Event(Type.RESET, null, 0));
+        }
+        return new Scenario(settings, events);
+    }
+
+    // mostly short steps, some around the delay, a few long ones
+    private static long advance(Random random, ClockSettings settings) {
+        int kind = random.nextInt(10);
+        if (kind < 5)
+            return random.nextInt(50);
+        if (kind < 8)
+            return random.nextInt((int) settings.getBronsteinMs() * 2 + 2000);
+        if (kind < 9)
+            return random.nextInt(60000);
+        return random.nextInt((int) settings.getInitialMs() + 1);
+    }
+
+    /** An invariant was broken */
+    static final class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int mStep;
+
+        Failure(int step, String message) {
+            super("step " + step + ": " + message);
+            mStep = step;
+        }
+    }
+
+    private final ManualTimeSource mTime = new ManualTimeSource(0);
+    private ClockSettings mSettings;
+    private ChessClock mClock;
+    private int mStep;
+
+    // The expected state of each clock, indexed by Player.ordinal(): its
+    // time and delay when last stopped, and when it was started, or -1
+    private final long[] mMsToGo = new long[2];
+    private final long[] mDelay = new long[2];
+    private final long[] mRunningSince = new long[2];
+    private GameState mState;
+
+    /**
+     * Run a scenario from the start.
+     *
+     * @throws Failure at the first broken invariant
+     */
+    public void run(Scenario scenario) {
+        mSettings = scenario.mSettings;
+        mTime.set(0);
+        mStep = 0;
+        mClock = newClock(mSettings, mTime);
+        mClock.setListener(new Ledger());
+        resetLedger();
+        check();
+        for (Event event : scenario.mEvents) {
+            mStep++;
+            apply(event);
+            check();
+        }
+    }
+
+    /** The clock under test */
+    protected ChessClock newClock(ClockSettings settings, TimeSource time) {
+        return new ChessClock(settings, time);
+    }
+
+    private void apply(Event event) {
+        switch (event.mType) {
+        case ADVANCE:
+            mTime.advance(event.mValue);
+            break;
+
+        case PRESS:
+            Player player = event.mPlayer;
+            boolean moves = mClock.getState() == GameState.RUNNING
+                    && mClock.isRunning(player);
+            int before = mClock.getMoveNumber(player);
+            mClock.press(player);
+            int after = mClock.getMoveNumber(player);
+            if (after != before && !moves)
+                fail("the move counter changed when " + player
+                        + " wasn't on move");
+            if (after > before + 1)
+                fail("two moves counted for one press");
+            if (moves && mClock.getState() == GameState.RUNNING
+                    && after != before + 1)
+                fail("the move wasn't counted");
+            if (after == before + 1)
+                moveFinished(player, before);
+            break;
+
+        case TOGGLE_PAUSE:
+            mClock.togglePause();
+            break;
+
+        case START:
+            mClock.start();
+            break;
+
+        case ARM:
+            mClock.arm();
+            break;
+
+        case ADJUST:
+            player = event.mPlayer;
+            long now = mTime.uptimeMillis();
+            // the clock is set without stopping, so no listener calls
+            boolean running = mRunningSince[player.ordinal()] >= 0;
+            if (running)
+                stopped(player, now);
+            mClock.adjustTime(player, event.mValue);
+            mMsToGo[player.ordinal()] = event.mValue;
+            if (running)
+                mRunningSince[player.ordinal()] = now;
+            break;
+
+        case TICK:
+            mClock.tick();
+            break;
+
+        case SAVE_AND_RESTORE:
+            // as ChessTimerActivity does on a configuration change
+            if (mClock.getState() == GameState.RUNNING)
+                mClock.togglePause();
+            ClockSnapshot snapshot = mClock.snapshot();
+            mClock = newClock(mSettings, mTime);
+            mClock.setListener(new Ledger());
+            resetLedger();
+            mClock.restore(snapshot);
+            for (Player each : Player.values()) {
+                mMsToGo[each.ordinal()] = snapshot.getMsToGo(each);
+                mDelay[each.ordinal()] = snapshot.getMsDelayToGo(each);
+                if (mClock.getMoveNumber(each) != snapshot
+                        .getMoveNumber(each))
+                    fail("restore lost the move number");
+            }
+            break;
+
+        case RESET:
+            mClock.reset();
+            break;
+        }
+    }
+
+    // a move was finished: it earns its bonus, and a fresh delay
+    private void moveFinished(Player player, int moveNumber) {
+        long bonus = 0;
+        if (mSettings.getDelayType() == DelayType.FISCHER)
+            bonus += mSettings.getIncrementSeconds() * 1000L;
+        if (mSettings.getTimeControlType() == TimeControlType.TOURNAMENT
+                && moveNumber == mSettings.getPhase1NumberMoves())
+            bonus += mSettings.getPhase2Minutes() * 60000L;
+        mMsToGo[player.ordinal()] += bonus;
+        mDelay[player.ordinal()] = mSettings.getBronsteinMs();
+    }
+
+    private void resetLedger() {
+        for (Player player : Player.values()) {
+            mMsToGo[player.ordinal()] = mSettings.getInitialMs();
+            mDelay[player.ordinal()] = mSettings.getBronsteinMs();
+            mRunningSince[player.ordinal()] = -1;
+        }
+        mState = mClock.getState();
+    }
+
+    private void stopped(Player player, long now) {
+        int i = player.ordinal();
+        long elapsed = now - mRunningSince[i];
+        mMsToGo[i] -= Math.max(0, elapsed - mDelay[i]);
+        mDelay[i] = Math.max(0, mDelay[i] - elapsed);
+        mRunningSince[i] = -1;
+    }
+
+    private long expectedMsToGo(Player player, long now) {
+        int i = player.ordinal();
+        if (mRunningSince[i] < 0)
+            return mMsToGo[i];
+        return mMsToGo[i]
+                - Math.max(0, now - mRunningSince[i] - mDelay[i]);
+    }
+
+    private long expectedDelay(Player player, long now) {
+        int i = player.ordinal();
+        if (mRunningSince[i] < 0)
+            return mDelay[i];
+        return Math.max(0, mDelay[i] - (now - mRunningSince[i]));
+    }
+
+    private void check() {
+        long now = mTime.uptimeMillis();
+        GameState state = mClock.getState();
+        Player active = mClock.getActive();
+        if (state != mState)
+            fail("state is " + state + " but the listener said " + mState);
+
+        for (Player player : Player.values()) {
+            long msToGo = mClock.getMsToGo(player);
+            if (msToGo != expectedMsToGo(player, now))
+                fail(player + " shows " + msToGo + " ms but should show "
+                        + expectedMsToGo(player, now));
+            if (mClock.getMsDelayToGo(player) != expectedDelay(player, now))
+                fail(player + " has " + mClock.getMsDelayToGo(player)
+                        + " ms of delay but should have "
+                        + expectedDelay(player, now));
+
+            boolean running = mClock.isRunning(player);
+            if (running != (mRunningSince[player.ordinal()] >= 0))
+                fail(player + " running " + running
+                        + " without the listener being told");
+            if (running != (state == GameState.RUNNING && active == player))
+                fail(player + " running " + running + " in " + state
+                        + " with " + active + " active");
+
+            if (msToGo < 0 && !mSettings.getAllowNegativeTime()
+                    && !(running && mClock.msUntilNextEvent() == 0))
+                fail(player + " shows negative time " + msToGo);
+        }
+
+        if ((active == null) != (state == GameState.IDLE))
+            fail("active player " + active + " in " + state);
+        // (the time may have been adjusted before the game starts)
+        if (state == GameState.IDLE) {
+            for (Player player : Player.values())
+                if (mClock.getMoveNumber(player) != 1)
+                    fail("IDLE but " + player + " has moved");
+        }
+    }
+
+    private void fail(String message) {
+        throw new Failure(mStep, message);
+    }
+
+    // Follows the clocks through the listener
+    private class Ledger extends ClockListener.Adapter {
+        @Override
+        public void onStateChanged(GameState from, GameState to) {
+            if (from != mState)
+                fail("changed from " + from + " but was " + mState);
+            mState = to;
+            if (to == GameState.IDLE)
+                resetLedger();
+        }
+
+        @Override
+        public void onClockRunning(Player player) {
+            if (mRunningSince[player.ordinal()] >= 0)
+                fail(player + " started twice");
+            mRunningSince[player.ordinal()] = mTime.uptimeMillis();
+        }
+
+        @Override
+        public void onClockStopped(Player player) {
+            if (mRunningSince[player.ordinal()] < 0)
+                fail(player + " stopped but wasn't running");
+            stopped(player, mTime.uptimeMillis());
+        }
+
+        @Override
+        public void onFlagFall(Player player) {
+            if (mSettings.getAllowNegativeTime())
+                fail("flag fell with negative time allowed");
+            if (mMsToGo[player.ordinal()] > 0)
+                fail("flag fell with " + mMsToGo[player.ordinal()]
+                        + " ms left");
+            // shown as exactly 0
+            mMsToGo[player.ordinal()] = 0;
+        }
+    }
+
+    /**
+     * Cut a failing scenario down to a smaller one that still fails: drop
+     * ever smaller runs of events, then shorten the time steps, until
+     * nothing more can go.
+     */
+    public Scenario shrink(Scenario scenario) {
+        List<Event> events = new ArrayList<Event>(scenario.mEvents);
+        // nothing after the failure matters
+        events = events.subList(0, Math.min(events.size(),
+                failingStep(new Scenario(scenario.mSettings, events))));
+
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int chunk = events.size(); chunk >= 1; chunk /= 2) {
+                for (int start = 0; start + chunk <= events.size();) {
+                    List<Event> smaller = new ArrayList<Event>(events
+                            .subList(0, start));
+                    smaller.addAll(events.subList(start + chunk,
+                            events.size()));
+                    if (failingStep(new Scenario(scenario.mSettings,
+                            smaller)) > 0) {
+                        events = smaller;
+                        progress = true;
+                    } else {
+                        start += chunk;
+                    }
+                }
+            }
+            for (int i = 0; i < events.size(); i++) {
+                Event event = events.get(i);
+                if (event.mType != Type.ADVANCE || event.mValue == 0)
+                    continue;
+                List<Event> shorter = new ArrayList<Event>(events);
+                shorter.set(i, new Event(Type.ADVANCE, null,
+                        event.mValue / 2));
+                if (failingStep(new Scenario(scenario.mSettings, shorter)) > 0) {
+                    events = shorter;
+                    progress = true;
+                }
+            }
+        }
+        return new Scenario(scenario.mSettings, events);
+    }
+
+    /** The step a scenario fails at, or 0 if it passes */
+    public int failingStep(Scenario scenario) {
+        try {
+            run(scenario);
+            return 0;
+        } catch (Failure failure) {
+            return Math.max(1, failure.mStep);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package johnwilde.androidchessclock.engine;
+
+import junit.framework.TestCase;
+
+public class ClockSimulatorTest extends TestCase {
+
+    private static final int GAMES = 20000;
+    private static final int STEPS = 200;
+
+    public void testRandomScenarios() {
+        ClockSimulator simulator = new ClockSimulator();
+        long start = System.nanoTime();
+        for (long seed = 0; seed < GAMES; seed++) {
+            ClockSimulator.Scenario scenario = ClockSimulator.generate(seed,
+                    STEPS);
+            if (simulator.failingStep(scenario) > 0) {
+                ClockSimulator.Scenario minimal = simulator.shrink(scenario);
+                try {
+                    simulator.run(minimal);
+                } catch (ClockSimulator.Failure failure) {
+                    fail("seed " + seed + ", " + failure.getMessage()
+                            + ", shrunk to " + minimal);
+                }
+            }
+        }
+        long ns = System.nanoTime() - start;
+        System.out.println(String.format(
+                "ClockSimulator: %.0f games/s, %.1f million steps/s",
+                GAMES * 1e9 / ns, GAMES * (double) STEPS * 1e3 / ns));
+    }
+
+    // A clock that gets adjustments wrong, to see the shrinking work
+    public void testShrinksToTheMinimalCase() {
+        ClockSimulator simulator = new ClockSimulator() {
+            @Override
+            protected ChessClock newClock(ClockSettings settings,
+                    TimeSource time) {
+                return new ChessClock(settings, time) {
+                    @Override
+                    public void adjustTime(Player player, long msToGo) {
+                        super.adjustTime(player, msToGo + 1);
+                    }
+                };
+            }
+        };
+        ClockSimulator.Scenario scenario = ClockSimulator.generate(1, STEPS);
+        assertTrue(simulator.failingStep(scenario) > 0);
+
+        ClockSimulator.Scenario minimal = simulator.shrink(scenario);
+        assertEquals(1, minimal.mEvents.size());
+        assertEquals(ClockSimulator.Type.ADJUST, minimal.mEvents.get(0).mType);
+    }
+
+    public void testScenariosAreReproducible() {
+        assertEquals(ClockSimulator.generate(42, STEPS).toString(),
+                ClockSimulator.generate(42, STEPS).toString());
+    }
+}
@@ -0,0 +1,262 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ClockUndoTest extends TestCase {
+
+    // the phase ends on move 2, so the bonus is quick to reach
+    private static final ClockSettings FISCHER = ClockSettings.tournament(
+            5, 2, 1, 3, DelayType.FISCHER, false);
+    private static final ClockSettings BRONSTEIN = ClockSettings.tournament(
+            5, 2, 1, 5, DelayType.BRONSTEIN, false);
+
+    private ManualTimeSource mTime;
+    // the clock presses are taken back on, and one on which they weren't
+    // made, on the same time source
+    private ChessClock mClock;
+    private ChessClock mExpected;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource(100000);
+    }
+
+    private void create(ClockSettings settings) {
+        mClock = new ChessClock(settings, mTime);
+        mExpected = new ChessClock(settings, mTime);
+    }
+
+    private void pressBoth(Player player) {
+        mClock.press(player);
+        mExpected.press(player);
+    }
+
+    private void assertSameClocks() {
+        long now = mTime.uptimeMillis();
+        assertEquals(mExpected.peek(now).toString(), mClock.peek(now)
+                .toString());
+    }
+
+    private void assertSameStatistics(Player player) {
+        PlayerStatistics expected = mExpected.getStatistics(player);
+        PlayerStatistics statistics = mClock.getStatistics(player);
+        assertEquals(expected.getCount(), statistics.getCount());
+        assertEquals(expected.getMeanMs(), statistics.getMeanMs(), 1e-6);
+    }
+
+    public void testUndoWhileRunning() {
+        for (ClockSettings settings : new ClockSettings[] { FISCHER,
+                BRONSTEIN }) {
+            create(settings);
+            mClock.start();
+            mExpected.start();
+            mTime.advance(2000);
+            pressBoth(Player.WHITE);
+            mTime.advance(3000);
+            pressBoth(Player.BLACK);
+
+            // white's second press reaches the phase bonus; black knocks
+            // it back 1.5 s (some of it in the delay) later
+            mTime.advance(2000);
+            mClock.press(Player.WHITE);
+            assertEquals(3, mClock.getMoveNumber(Player.WHITE));
+            mTime.advance(1500);
+            assertTrue(mClock.undo());
+            assertSameClocks();
+            assertEquals(2, mClock.getMoveNumber(Player.WHITE));
+            assertTrue(mClock.isRunning(Player.WHITE));
+            assertFalse(mClock.isRunning(Player.BLACK));
+            assertSameStatistics(Player.WHITE);
+
+            // and the game goes on as if it hadn't happened
+            mTime.advance(4000);
+            pressBoth(Player.WHITE);
+            mTime.advance(1000);
+            assertSameClocks();
+            assertSameStatistics(Player.WHITE);
+        }
+    }
+
+    public void testUndoWhilePaused() {
+        create(BRONSTEIN);
+        mClock.start();
+        mExpected.start();
+        mTime.advance(2000);
+        mClock.press(Player.WHITE);
+        mTime.advance(4000);
+        mClock.pause();
+        mExpected.pause();
+        mTime.advance(60000);
+
+        assertTrue(mClock.undo());
+        assertEquals(GameState.PAUSED, mClock.getState());
+        assertEquals(Player.WHITE, mClock.getActive());
+        assertSameClocks();
+        assertEquals(0, mClock.getStatistics(Player.WHITE).getCount());
+
+        mTime.advance(1000);
+        mClock.togglePause();
+        mExpected.togglePause();
+        mTime.advance(3000);
+        pressBoth(Player.WHITE);
+        assertSameClocks();
+        assertSameStatistics(Player.WHITE);
+    }
+
+    public void testRedo() {
+        create(FISCHER);
+        mClock.start();
+        mExpected.start();
+        mTime.advance(2000);
+        pressBoth(Player.WHITE);
+        mTime.advance(1000);
+        assertFalse(mClock.canRedo());
+        assertTrue(mClock.undo());
+        mTime.advance(500);
+        assertTrue(mClock.canRedo());
+        assertTrue(mClock.redo());
+        // black is charged from the first press, and white only for it
+        assertSameClocks();
+        assertSameStatistics(Player.WHITE);
+        assertFalse(mClock.redo());
+
+        // a new press is a different history
+        assertTrue(mClock.undo());
+        mClock.press(Player.WHITE);
+        assertFalse(mClock.canRedo());
+    }
+
+    public void testUndoAndRedoTheWholeGame() {
+        Random random = new Random(1);
+        // long enough for white to play the whole game alone
+        create(ClockSettings.basic(3600, 5, DelayType.BRONSTEIN, false));
+        mClock.start();
+        mExpected.start();
+        int presses = 0;
+        // as many as can be undone
+        while (presses < ChessClock.UNDO_DEPTH) {
+            mTime.advance(random.nextInt(8000));
+            if (random.nextInt(10) == 0) {
+                // the clock that never pressed is paused along with it
+                mClock.togglePause();
+                mExpected.togglePause();
+            } else if (mClock.getState() == GameState.RUNNING) {
+                mClock.press(mClock.getActive());
+                presses++;
+            }
+        }
+        ClockSnapshot played = mClock.peek(mTime.uptimeMillis());
+
+        // white's clock running all along, less the pauses
+        for (int i = 0; i < presses; i++)
+            assertTrue(mClock.undo());
+        assertFalse(mClock.undo());
+        assertSameClocks();
+        assertEquals(0, mClock.getStatistics(Player.WHITE).getCount());
+        assertEquals(0, mClock.getStatistics(Player.BLACK).getCount());
+
+        for (int i = 0; i < presses; i++)
+            assertTrue(mClock.redo());
+        assertEquals(played.toString(), mClock.peek(mTime.uptimeMillis())
+                .toString());
+    }
+
+    // A game that never ends keeps only the last presses
+    public void testHistoryIsBounded() {
+        create(ClockSettings.basic(60, 5, DelayType.FISCHER, false));
+        mClock.start();
+        int presses = 100000;
+        ClockSnapshot kept = null;
+        for (int i = 0; i < presses; i++) {
+            if (i == presses - ChessClock.UNDO_DEPTH)
+                kept = mClock.peek(mTime.uptimeMillis());
+            mTime.advance(3);
+            mClock.press(mClock.getActive());
+        }
+
+        int undone = 0;
+        while (mClock.undo())
+            undone++;
+        assertEquals(ChessClock.UNDO_DEPTH, undone);
+        // back to before the oldest press kept
+        for (Player player : Player.values())
+            assertEquals(kept.getMoveNumber(player), mClock
+                    .getMoveNumber(player));
+        assertEquals(kept.getActive(), mClock.getActive());
+        assertEquals(presses - ChessClock.UNDO_DEPTH, mClock.getStatistics(
+                Player.WHITE).getCount()
+                + mClock.getStatistics(Player.BLACK).getCount());
+    }
+
+    public void testHistoryIsClearedByOtherChanges() {
+        create(FISCHER);
+        mClock.start();
+        mTime.advance(1000);
+        mClock.press(Player.WHITE);
+        mClock.adjustTime(Player.WHITE, 60000);
+        assertFalse(mClock.canUndo());
+
+        mClock.press(Player.BLACK);
+        mClock.reset();
+        assertFalse(mClock.undo());
+
+        mClock.start();
+        mClock.press(Player.WHITE);
+        mTime.advance(FISCHER.getInitialMs());
+        mClock.tick();
+        assertEquals(GameState.DONE, mClock.getState());
+        assertFalse(mClock.undo());
+    }
+
+    // What was taken back is recorded so that a reader of the log sees the
+    // game as it was left
+    public void testLogAfterUndo() throws Exception {
+        File file = File.createTempFile("undo", ".log");
+        file.delete();
+        MoveLog log = MoveLog.open(file);
+        try {
+            create(BRONSTEIN);
+            mClock.setRecorder(log);
+            mClock.reset();
+            mClock.start();
+            mTime.advance(2000);
+            mClock.press(Player.WHITE);
+            mTime.advance(3000);
+            mClock.press(Player.BLACK);
+            mTime.advance(1000);
+            mClock.press(Player.WHITE);
+            mTime.advance(1000);
+            mClock.undo();
+            mClock.undo();
+            mTime.advance(500);
+            mClock.redo();
+            mTime.advance(700);
+
+            MoveTimes times = MoveTimes.fromLog(log);
+            assertEquals(1, times.getCount(Player.WHITE));
+            assertEquals(1, times.getCount(Player.BLACK));
+            assertEquals(3000, times.get(Player.BLACK, 0));
+
+            GameReplay replay = GameReplay.fromLog(log, BRONSTEIN);
+            long end = replay.getDuration() + 700;
+            assertEquals(mClock.peek(mTime.uptimeMillis()).toString(),
+                    replay.seek(end).toString());
+            assertEquals(1, replay.getMoveCount(Player.BLACK));
+            assertEquals(-1, replay.getMoveTime(Player.WHITE, 2));
+
+            ChessClock recovered = new ChessClock(BRONSTEIN, mTime);
+            assertTrue(ClockJournal.recover(log, recovered));
+            assertEquals(mClock.peek(mTime.uptimeMillis()).toString(),
+                    recovered.peek(mTime.uptimeMillis()).toString());
+            assertEquals(1, recovered.getStatistics(Player.BLACK).getCount());
+            assertEquals(1, recovered.getStatistics(Player.WHITE).getCount());
+        } finally {
+            log.close();
+            file.delete();
+        }
+    }
+}
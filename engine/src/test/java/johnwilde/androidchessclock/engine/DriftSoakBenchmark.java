@@ -0,0 +1,225 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * A six hour classical game (the FIDE preset: 90 minutes for 40 moves,
+ * then 30 more, with a 30 s increment) played in virtual time on two
+ * devices, each running the timer's update loop the way ChessTimerActivity
+ * does, with its own scheduler jitter: handlers run late by a few ms, and
+ * now and then by a lot (a garbage collection, the screen turning on).
+ * An arbiter pauses the game and gives penalty time along the way.
+ *
+ * Both clocks are compared with an exact ledger of the time each player
+ * has used at every redraw, move and interruption. The maximum and final
+ * drift are written to stdout, along with how late the text changed; the
+ * test fails if the drift exceeds the budget, 0 ms by default, set with
+ * -Dsoak.driftBudgetMs=N.
+ *
+ * This covers the software only. Two real devices also disagree by their
+ * oscillators' difference (tens of ppm, so up to a second over six hours);
+ * PairedClock takes care of that by charging each press as of one device's
+ * time.
+ */
+public class DriftSoakBenchmark extends TestCase {
+
+    private static final long HOUR = 3600 * 1000;
+    private static final long GAME_MS = 6 * HOUR;
+    private static final long DRIFT_BUDGET_MS = Long.getLong(
+            "soak.driftBudgetMs", 0);
+
+    private static final ClockSettings FIDE = ClockSettings.tournament(90,
+            40, 30, 30, DelayType.FISCHER, false);
+
+    // The exact time each player has left, kept in whole ms from the
+    // events themselves
+    private final long[] mLedger = new long[2];
+    private Player mRunning;
+    private long mRunningSince;
+
+    private long mMaxDriftMs;
+    private long mMaxDisplayLagMs;
+    private long mRedraws;
+
+    // The activity's timer on one device: a task that ticks the clock,
+    // redraws and posts itself again with some jitter
+    private final class Device {
+        final ManualTimeSource mTime;
+        final ChessClock mClock;
+        final ClockFormatter mFormatter = new ClockFormatter();
+        final Random mJitter;
+        // when the update task runs next, Long.MAX_VALUE if not posted
+        long mNextRun = Long.MAX_VALUE;
+        // when the text shown should next change
+        long mTextChangesAt = Long.MAX_VALUE;
+
+        Device(ManualTimeSource time, long seed) {
+            mTime = time;
+            mClock = new ChessClock(FIDE, time);
+            mJitter = new Random(seed);
+            mClock.setListener(new ClockListener.Adapter() {
+                @Override
+                public void onClockRunning(Player player) {
+                    post(0);
+                }
+
+                @Override
+                public void onClockStopped(Player player) {
+                    mNextRun = Long.MAX_VALUE;
+                    mTextChangesAt = Long.MAX_VALUE;
+                }
+            });
+        }
+
+        // Handler.postDelayed: a few ms late, sometimes 100s of ms
+        void post(long delay) {
+            long late = mJitter.nextInt(8);
+            if (mJitter.nextInt(500) == 0)
+                late += 100 + mJitter.nextInt(400);
+            mNextRun = mTime.uptimeMillis() + delay + late;
+        }
+
+        // UpdateTimeTask.run()
+        void run() {
+            long now = mTime.uptimeMillis();
+            mClock.tick();
+            Player player = mClock.getActive();
+            if (!mClock.isRunning(player))
+                return;
+            if (mTextChangesAt != Long.MAX_VALUE)
+                mMaxDisplayLagMs = Math.max(mMaxDisplayLagMs, now
+                        - mTextChangesAt);
+            long msToGo = mClock.getMsToGo(player);
+            mFormatter.format(msToGo);
+            mRedraws++;
+            check(this);
+            long delay = TickScheduler.nextDelay(msToGo, false);
+            mTextChangesAt = now + TickScheduler.msUntilTextChanges(msToGo);
+            post(delay);
+        }
+    }
+
+    public void testSixHourClassicalGame() {
+        ManualTimeSource time = new ManualTimeSource(0);
+        Device[] devices = { new Device(time, 1), new Device(time, 2) };
+        Random players = new Random(3);
+        long start = System.nanoTime();
+
+        mLedger[0] = mLedger[1] = FIDE.getInitialMs();
+        for (Device device : devices)
+            device.mClock.start();
+        startLedger(Player.WHITE, 0);
+
+        long nextMove = think(players, Player.WHITE, 1, 0);
+        long nextInterruption = HOUR + players.nextInt((int) HOUR);
+        int moves = 0;
+        while (time.uptimeMillis() < GAME_MS) {
+            long next = Math.min(nextMove, nextInterruption);
+            for (Device device : devices)
+                next = Math.min(next, device.mNextRun);
+            time.set(next);
+
+            for (Device device : devices)
+                if (device.mNextRun == next)
+                    device.run();
+
+            if (next == nextMove) {
+                Player player = mRunning;
+                stopLedger(next);
+                int move = devices[0].mClock.getMoveNumber(player);
+                mLedger[player.ordinal()] += 30000;
+                if (move == 40)
+                    mLedger[player.ordinal()] += 30 * 60000;
+                for (Device device : devices) {
+                    device.mClock.press(player);
+                    check(device);
+                }
+                startLedger(player.other(), next);
+                moves++;
+                nextMove = next
+                        + think(players, player.other(), move, next);
+            }
+
+            if (next == nextInterruption) {
+                // the arbiter stops the clocks for a dispute and gives the
+                // player not on move two minutes
+                Player player = mRunning.other();
+                Player onMove = mRunning;
+                stopLedger(next);
+                for (Device device : devices)
+                    device.mClock.togglePause();
+                long pause = 60000 + players.nextInt(600000);
+                time.set(next + pause);
+                mLedger[player.ordinal()] += 120000;
+                startLedger(onMove, next + pause);
+                for (Device device : devices) {
+                    device.mClock.adjustTime(player, device.mClock
+                            .getMsToGo(player) + 120000);
+                    device.mClock.togglePause();
+                    check(device);
+                }
+                nextMove += pause;
+                nextInterruption = next + pause + HOUR
+                        + players.nextInt((int) HOUR);
+            }
+        }
+
+        long ns = System.nanoTime() - start;
+        long end = time.uptimeMillis();
+        long finalDrift = 0;
+        for (Device device : devices)
+            for (Player player : Player.values())
+                finalDrift = Math.max(finalDrift, Math.abs(device.mClock
+                        .getMsToGo(player) - exact(player, end)));
+        System.out.println(String.format(
+                "DriftSoak: 6 h game, %d moves, %d redraws in %.1f ms: "
+                        + "drift max %d ms, final %d ms; text changed up to "
+                        + "%d ms late", moves, mRedraws, ns / 1e6,
+                mMaxDriftMs, finalDrift, mMaxDisplayLagMs));
+
+        assertEquals(GameState.RUNNING, devices[0].mClock.getState());
+        assertTrue(moves > 80);
+        for (Player player : Player.values())
+            assertEquals(devices[0].mClock.getMsToGo(player),
+                    devices[1].mClock.getMsToGo(player));
+        assertTrue("drift of " + mMaxDriftMs + " ms is over budget",
+                mMaxDriftMs <= DRIFT_BUDGET_MS);
+    }
+
+    // how long a player thinks about their next move, leaving a margin
+    // so that nobody loses on time
+    private long think(Random random, Player player, int move, long now) {
+        long mean = move < 40 ? 150000 : 90000;
+        long ms = (long) (-mean * Math.log(1 - random.nextDouble()));
+        long left = exact(player, now) - 10000;
+        return Math.max(1000, Math.min(ms, left));
+    }
+
+    private void startLedger(Player player, long now) {
+        mRunning = player;
+        mRunningSince = now;
+    }
+
+    private void stopLedger(long now) {
+        mLedger[mRunning.ordinal()] -= now - mRunningSince;
+        mRunningSince = now;
+    }
+
+    private long exact(Player player, long now) {
+        long ms = mLedger[player.ordinal()];
+        if (player == mRunning)
+            ms -= now - mRunningSince;
+        return ms;
+    }
+
+    private void check(Device device) {
+        long now = device.mTime.uptimeMillis();
+        for (Player player : Player.values()) {
+            long drift = Math.abs(device.mClock.getMsToGo(player)
+                    - exact(player, now));
+            mMaxDriftMs = Math.max(mMaxDriftMs, drift);
+        }
+    }
+}
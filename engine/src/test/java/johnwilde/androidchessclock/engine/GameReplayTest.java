@@ -0,0 +1,224 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class GameReplayTest extends TestCase {
+
+    // the slowest seek allowed, in a game of thousands of events
+    private static final long SEEK_BUDGET_NS = TimeUnit.MILLISECONDS
+            .toNanos(1);
+
+    private static final ClockSettings BRONSTEIN = ClockSettings.tournament(
+            5, 10, 1, 3, DelayType.BRONSTEIN, true);
+
+    private ManualTimeSource mTime;
+    private File mFile;
+    private MoveLog mLog;
+    private ChessClock mClock;
+    private long mStart;
+    // what the clock showed, at times since mStart
+    private final List<Long> mTimes = new ArrayList<Long>();
+    private final List<String> mShown = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource(100000);
+        mFile = File.createTempFile("replay", ".log");
+        mFile.delete();
+        mLog = MoveLog.open(mFile);
+        mClock = new ChessClock(BRONSTEIN, mTime);
+        mClock.setRecorder(mLog);
+        mClock.reset();
+        mStart = mTime.uptimeMillis();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLog.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    // Let some time pass, noting what the clock shows along the way; not
+    // at the end, where the replay shows the command that follows
+    private void play(Random random, long ms) {
+        long end = mTime.uptimeMillis() + ms;
+        while (true) {
+            mTime.advance(Math.min(end - mTime.uptimeMillis(), 1 + random
+                    .nextInt(700)));
+            if (mTime.uptimeMillis() >= end)
+                break;
+            note();
+        }
+    }
+
+    private void note() {
+        long now = mTime.uptimeMillis();
+        mTimes.add(now - mStart);
+        mShown.add(mClock.peek(now).toString());
+    }
+
+    // A game of pauses, adjustments and presses
+    private void playGame(Random random, int commands) {
+        mClock.start();
+        note();
+        for (int i = 0; i < commands; i++) {
+            play(random, random.nextInt(4000));
+            int r = random.nextInt(100);
+            if (r < 85) {
+                mClock.press(mClock.getActive());
+            } else if (r < 92) {
+                mClock.togglePause();
+            } else {
+                Player player = random.nextBoolean() ? Player.WHITE
+                        : Player.BLACK;
+                mClock.adjustTime(player, mClock.getMsToGo(player) + 30000);
+            }
+            note();
+        }
+    }
+
+    public void testSeekShowsWhatTheClockShowed() {
+        Random random = new Random(1);
+        playGame(random, 400);
+        GameReplay replay = GameReplay.fromLog(mLog, BRONSTEIN);
+        assertEquals(mLog.size() - mLog.getGameStart(), replay.size());
+        assertEquals(mTime.uptimeMillis() - mStart, replay.getDuration());
+        for (int i = 0; i < mTimes.size(); i++) {
+            long time = mTimes.get(i);
+            assertEquals("at " + time, mShown.get(i), replay.seek(time)
+                    .toString());
+            for (Player player : Player.values())
+                assertEquals(replay.seek(time).getMsToGo(player), replay
+                        .getMsToGo(time, player));
+        }
+    }
+
+    public void testSeekToMove() {
+        mClock.start();
+        mTime.advance(4000);
+        mClock.press(Player.WHITE);
+        mTime.advance(6000);
+        mClock.press(Player.BLACK);
+        mTime.advance(2000);
+        mClock.press(Player.WHITE);
+        long afterBlack = BRONSTEIN.getInitialMs() - 3000;
+
+        GameReplay replay = GameReplay.fromLog(mLog, BRONSTEIN);
+        assertEquals(2, replay.getMoveCount(Player.WHITE));
+        assertEquals(1, replay.getMoveCount(Player.BLACK));
+        assertEquals(10000, replay.getMoveTime(Player.BLACK, 1));
+        assertEquals(-1, replay.getMoveTime(Player.BLACK, 2));
+
+        ClockSnapshot snapshot = replay.seek(replay.getMoveTime(
+                Player.BLACK, 1));
+        assertEquals(afterBlack, snapshot.getMsToGo(Player.BLACK));
+        assertEquals(2, snapshot.getMoveNumber(Player.BLACK));
+        assertEquals(Player.WHITE, snapshot.getActive());
+    }
+
+    public void testWallClock() {
+        long before = System.currentTimeMillis();
+        mClock.start();
+        long after = System.currentTimeMillis();
+        mTime.advance(4000);
+        mClock.press(Player.WHITE);
+
+        GameReplay replay = GameReplay.fromLog(mLog, BRONSTEIN);
+        long start = replay.getWallClockMs(0);
+        assertTrue(start >= before && start <= after);
+        assertEquals(start + 4000, replay.getWallClockMs(4000));
+    }
+
+    public void testRestartDoesNotCountAsTime() throws IOException {
+        mClock.start();
+        mTime.advance(4000);
+        mClock.press(Player.WHITE);
+        mTime.advance(1000);
+
+        // the device restarts, and uptime with it
+        mTime.set(500);
+        ChessClock recovered = new ChessClock(BRONSTEIN, mTime);
+        recovered.setRecorder(mLog);
+        assertTrue(ClockJournal.recover(mLog, recovered));
+        recovered.togglePause();
+        mTime.advance(2000);
+        recovered.press(Player.BLACK);
+
+        // black's second before the restart left no event, and is lost as
+        // it is by the recovered clock
+        GameReplay replay = GameReplay.fromLog(mLog, BRONSTEIN);
+        assertEquals(6000, replay.getDuration());
+        assertEquals(GameState.RUNNING, replay.seek(5000).getState());
+        assertEquals(recovered.peek(mTime.uptimeMillis()).toString(),
+                replay.seek(replay.getDuration()).toString());
+    }
+
+    public void testPlayback() {
+        mClock.start();
+        mTime.advance(60000);
+        mClock.press(Player.WHITE);
+        mTime.advance(60000);
+        mClock.press(Player.BLACK);
+
+        ManualTimeSource time = new ManualTimeSource(0);
+        ReplayPlayer player = new ReplayPlayer(GameReplay.fromLog(mLog,
+                BRONSTEIN), time);
+        player.play();
+        time.advance(1000);
+        assertEquals(1000, player.getPosition());
+        player.setSpeed(10);
+        time.advance(1000);
+        assertEquals(11000, player.getPosition());
+        // white was 3 s into their move, the delay used up
+        player.seek(3000);
+        assertEquals(BRONSTEIN.getInitialMs(), player.getMsToGo(
+                Player.WHITE));
+        player.setSpeed(1000);
+        assertEquals(ReplayPlayer.MAX_SPEED, player.getSpeed());
+        time.advance(500);
+        assertEquals(53000, player.getPosition());
+        assertEquals(1, player.getMoveNumber(Player.WHITE));
+        time.advance(100000);
+        assertEquals(120000, player.getPosition());
+        assertFalse(player.isPlaying());
+        assertEquals(2, player.getMoveNumber(Player.BLACK));
+
+        assertTrue(player.seekToMove(Player.WHITE, 1));
+        player.pause();
+        time.advance(5000);
+        assertEquals(60000, player.getPosition());
+        assertFalse(player.seekToMove(Player.WHITE, 2));
+    }
+
+    public void testSeekInUnderAMillisecond() {
+        Random random = new Random(2);
+        playGame(random, 5000);
+        long start = System.nanoTime();
+        GameReplay replay = GameReplay.fromLog(mLog, BRONSTEIN);
+        long loadNs = System.nanoTime() - start;
+
+        // the first seeks are before the JIT has seen them
+        LatencyHistogram seekNs = new LatencyHistogram();
+        for (int i = 0; i < 100000; i++) {
+            long time = (long) (random.nextDouble() * replay.getDuration());
+            start = System.nanoTime();
+            replay.seek(time);
+            seekNs.record(System.nanoTime() - start);
+        }
+        System.out.println(String.format("GameReplay: %d events loaded in "
+                + "%.2f ms; seek ns %s", replay.size(), loadNs / 1e6,
+                seekNs));
+        assertTrue(replay.size() > 5000);
+        // the slowest are the ones a collection or a compilation lands on
+        assertTrue(seekNs.getValueAtPercentile(99.9) < SEEK_BUDGET_NS);
+    }
+}
@@ -0,0 +1,221 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class GameStoreTest extends TestCase {
+
+    // opening the store and each query over 100,000 games must take less
+    // than this
+    private static final long SCAN_BUDGET_MS = 1000;
+
+    private static final ClockSettings BLITZ = ClockSettings.basic(300, 3,
+            DelayType.FISCHER, false);
+    private static final ClockSettings FIDE = ClockSettings.tournament(90,
+            40, 30, 30, DelayType.FISCHER, false);
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = File.createTempFile("games", "");
+        mDirectory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    private static MoveTimes times(long[] white, long[] black) {
+        MoveTimes times = new MoveTimes();
+        for (int i = 0; i < white.length; i++)
+            times.set(Player.WHITE, i + 1, white[i]);
+        for (int i = 0; i < black.length; i++)
+            times.set(Player.BLACK, i + 1, black[i]);
+        return times;
+    }
+
+    public void testGamesAreKeptAcrossOpens() throws IOException {
+        GameStore store = GameStore.open(mDirectory);
+        assertEquals(0, store.add(BLITZ, times(new long[] { 4000, 100,
+                9000000000L }, new long[] { 0, 7000 }), Player.BLACK));
+        assertEquals(1, store.add(FIDE, times(new long[0], new long[0]),
+                null));
+        store.close();
+
+        store = GameStore.open(mDirectory);
+        try {
+            assertEquals(2, store.size());
+            assertEquals(BLITZ.getInitialMs(), store.getSettings(0)
+                    .getInitialMs());
+            assertEquals(TimeControlType.TOURNAMENT, store.getSettings(1)
+                    .getTimeControlType());
+            assertEquals(40, store.getSettings(1).getPhase1NumberMoves());
+            assertEquals(Player.BLACK, store.getFlagged(0));
+            assertNull(store.getFlagged(1));
+            assertEquals(3, store.getMoveCount(0, Player.WHITE));
+            assertEquals(2, store.getMoveCount(0, Player.BLACK));
+            assertEquals(0, store.getMoveCount(1, Player.WHITE));
+            // the differences go both ways, and get large
+            assertEquals(100, store.getMoveMs(0, Player.WHITE, 1));
+            assertEquals(9000000000L, store.getMoveMs(0, Player.WHITE, 2));
+            assertEquals(7000, store.getMoveMs(0, Player.BLACK, 1));
+
+            MoveTimes times = store.getMoveTimes(0);
+            assertEquals(2, times.getCount(Player.BLACK));
+            assertEquals(4000, times.get(Player.WHITE, 0));
+            assertEquals(0, times.get(Player.BLACK, 0));
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testGamesAddedAfterOpenAreReadWithTheStoredOnes()
+            throws IOException {
+        GameStore store = GameStore.open(mDirectory);
+        store.add(BLITZ, times(new long[] { 1000, 2000 },
+                new long[] { 3000 }), null);
+        store.close();
+
+        store = GameStore.open(mDirectory);
+        try {
+            // enough to grow what is kept of the times added
+            for (int game = 1; game <= 1000; game++)
+                store.add(BLITZ, times(new long[] { 5000 * game, 7000 },
+                        new long[] { 4000, 3000 }), null);
+            assertEquals(2000, store.getMoveMs(0, Player.WHITE, 1));
+            assertEquals(3000, store.getMoveMs(0, Player.BLACK, 0));
+            assertEquals(5000000, store.getMoveMs(1000, Player.WHITE, 0));
+            assertEquals(3000, store.getMoveTimes(1000).get(Player.BLACK,
+                    1));
+            // white's 2000 then 1000 of 7000; black's 1000 of 3000
+            assertEquals((2000 + 7000000 + 3000000) / 2001.0,
+                    store.getMeanMoveMs(BLITZ, 2), 1e-6);
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testQueries() throws IOException {
+        GameStore store = GameStore.open(mDirectory);
+        try {
+            store.add(BLITZ, times(new long[] { 1000, 2000 },
+                    new long[] { 3000 }), null);
+            store.add(FIDE, times(new long[] { 60000, 60000 },
+                    new long[] { 60000, 60000 }), Player.WHITE);
+            store.add(BLITZ, times(new long[] { 5000, 4000 },
+                    new long[] { 7000, 10000 }), Player.BLACK);
+
+            assertEquals(4000.0, store.getMeanMoveMs(BLITZ, 1));
+            // only the moves that were made
+            assertEquals(16000 / 3.0, store.getMeanMoveMs(BLITZ, 2), 1e-9);
+            assertTrue(Double.isNaN(store.getMeanMoveMs(BLITZ, 3)));
+            assertTrue(Double.isNaN(store.getMeanMoveMs(ClockSettings.basic(
+                    300, 3, DelayType.BRONSTEIN, false), 1)));
+
+            int[] blitz = store.getGames(BLITZ);
+            assertEquals(2, blitz.length);
+            assertEquals(2, blitz[1]);
+            int[] onTime = store.getGamesEndedOnTime();
+            assertEquals(2, onTime.length);
+            assertEquals(1, onTime[0]);
+            assertEquals(2, onTime[1]);
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testPartlyWrittenGameIsCutOff() throws IOException {
+        GameStore store = GameStore.open(mDirectory);
+        store.add(BLITZ, times(new long[] { 1000 }, new long[] { 2000 }),
+                null);
+        store.add(BLITZ, times(new long[] { 3000, 300000 },
+                new long[] { 4000 }), null);
+        store.close();
+
+        // the process died while the last game's times were written
+        RandomAccessFile times = new RandomAccessFile(new File(mDirectory,
+                "times.col"), "rw");
+        times.setLength(times.length() - 1);
+        times.close();
+
+        store = GameStore.open(mDirectory);
+        assertEquals(1, store.size());
+        store.add(FIDE, times(new long[] { 5000 }, new long[0]),
+                Player.BLACK);
+        store.close();
+
+        store = GameStore.open(mDirectory);
+        try {
+            assertEquals(2, store.size());
+            assertEquals(2000, store.getMoveMs(0, Player.BLACK, 0));
+            assertEquals(5000, store.getMoveMs(1, Player.WHITE, 0));
+            assertEquals(Player.BLACK, store.getFlagged(1));
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testHundredThousandGamesScanInUnderASecond()
+            throws IOException {
+        ClockSettings[] controls = { BLITZ, FIDE,
+                ClockSettings.basic(60, 0, DelayType.FISCHER, false),
+                ClockSettings.basic(900, 10, DelayType.FISCHER, false),
+                ClockSettings.basic(300, 5, DelayType.BRONSTEIN, false) };
+        Random random = new Random(1);
+        GameStore store = GameStore.open(mDirectory);
+        for (int game = 0; game < 100000; game++) {
+            MoveTimes times = new MoveTimes();
+            int moves = 10 + random.nextInt(70);
+            for (int move = 1; move <= moves; move++)
+                for (Player player : Player.values())
+                    times.set(player, move, (long) (-8000 * Math.log(1
+                            - random.nextDouble())));
+            Player flagged = random.nextInt(5) == 0 ? Player.values()[random
+                    .nextInt(2)] : null;
+            store.add(controls[game % controls.length], times, flagged);
+        }
+        store.close();
+        long bytes = 0;
+        for (File file : mDirectory.listFiles())
+            bytes += file.length();
+
+        long start = System.nanoTime();
+        store = GameStore.open(mDirectory);
+        long openNs = System.nanoTime() - start;
+        try {
+            start = System.nanoTime();
+            double mean = store.getMeanMoveMs(BLITZ, 30);
+            long meanNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            int onTime = store.getGamesEndedOnTime().length;
+            long onTimeNs = System.nanoTime() - start;
+
+            System.out.println(String.format("GameStore: 100000 games in %d "
+                    + "KB, opened in %.1f ms; mean of move 30 in %.1f ms, "
+                    + "games ended on time in %.3f ms", bytes / 1024,
+                    openNs / 1e6, meanNs / 1e6, onTimeNs / 1e6));
+            assertEquals(100000, store.size());
+            assertEquals(8000, mean, 400);
+            assertTrue(onTime > 15000 && onTime < 25000);
+            long budget = TimeUnit.MILLISECONDS.toNanos(SCAN_BUDGET_MS);
+            assertTrue(openNs < budget);
+            assertTrue(meanNs < budget);
+            assertTrue(onTimeNs < budget);
+        } finally {
+            store.close();
+        }
+    }
+}
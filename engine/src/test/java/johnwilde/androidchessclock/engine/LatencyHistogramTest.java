@@ -0,0 +1,66 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getMin());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+    }
+
+    public void testBucketsCoverEveryValue() {
+        long previous = -1;
+        for (int index = 0; index < 58 * 64; index++) {
+            long top = LatencyHistogram.highestInBucket(index);
+            assertTrue(top > previous);
+            assertEquals(index, LatencyHistogram.index(top));
+            assertEquals(index, LatencyHistogram.index(previous + 1));
+            previous = top;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    // Percentiles within 1/64th of the exact ones, over six decades
+    public void testAgainstSorting() {
+        Random random = new Random(3);
+        long[] values = new long[100000];
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 14);
+            (i % 2 == 0 ? a : b).record(values[i]);
+        }
+        a.add(b);
+        Arrays.sort(values);
+        assertEquals(values.length, a.getCount());
+        assertEquals(values[values.length - 1], a.getMax());
+        for (double percentile : new double[] { 1, 50, 90, 99, 99.9 }) {
+            long exact = values[(int) Math.ceil(percentile / 100
+                    * values.length) - 1];
+            long estimate = a.getValueAtPercentile(percentile);
+            assertTrue(estimate >= exact);
+            assertTrue(estimate - exact <= exact / 64);
+        }
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getMax());
+    }
+}
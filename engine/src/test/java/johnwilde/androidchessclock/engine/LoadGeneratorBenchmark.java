@@ -0,0 +1,25 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * 100,000 simulated players, making a move every couple of seconds: far
+ * busier than a real hall. The report is written to stdout; the test fails
+ * if the median press takes a millisecond or more to switch the clocks.
+ */
+public class LoadGeneratorBenchmark extends TestCase {
+
+    public void testHundredThousandPlayers() throws Exception {
+        LoadGenerator generator = new LoadGenerator(100000,
+                ClockSettings.basic(180, 2, DelayType.FISCHER, false));
+        generator.setThinkTime(1000, 0.5);
+        LoadReport report = generator.run(TimeUnit.SECONDS.toMillis(5));
+        System.out.println("LoadGenerator: " + report);
+
+        assertTrue(report.getPresses() > 0);
+        assertTrue(report.getLatency().getValueAtPercentile(50) < TimeUnit.MILLISECONDS
+                .toNanos(1));
+    }
+}
@@ -0,0 +1,32 @@
+package johnwilde.androidchessclock.engine;
+
+import junit.framework.TestCase;
+
+public class LoadGeneratorTest extends TestCase {
+
+    // Fast players, so that every kind of event happens in a few seconds
+    public void testEveryKindOfEvent() throws Exception {
+        LoadGenerator generator = new LoadGenerator(200, ClockSettings.basic(
+                1, 0, DelayType.FISCHER, false));
+        generator.setShards(2);
+        generator.setThinkTime(100, 0.5);
+        generator.setTimeTrouble(200, 50);
+        generator.setSimultaneousPressRate(0.2);
+        generator.setInterruptionRate(0.05, 50);
+        generator.setMovesPerGame(30);
+        LoadReport report = generator.run(3000);
+
+        assertEquals(200, report.getPlayers());
+        assertEquals(2, report.getShards());
+        assertTrue(report.getPresses() > 1000);
+        assertTrue(report.getCommands() > report.getPresses());
+        assertTrue(report.getGames() > 0);
+        assertTrue(report.getFlagFalls() > 0);
+        assertTrue(report.getInterruptions() > 0);
+        // nearly every press switches the clocks; the ones that don't came
+        // after a flag fall
+        long switches = report.getLatency().getCount();
+        assertTrue(switches <= report.getPresses());
+        assertTrue(switches >= report.getPresses() * 9 / 10);
+    }
+}
@@ -0,0 +1,31 @@
+package johnwilde.androidchessclock.engine;
+
+/**
+ * A TimeSource that only moves when told to.
+ */
+public class ManualTimeSource implements TimeSource {
+
+    // read by the threads of the code under test
+    private volatile long mNow;
+
+    public ManualTimeSource() {
+        this(1000000);
+    }
+
+    public ManualTimeSource(long start) {
+        mNow = start;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mNow;
+    }
+
+    public void advance(long ms) {
+        mNow += ms;
+    }
+
+    public void set(long now) {
+        mNow = now;
+    }
+}
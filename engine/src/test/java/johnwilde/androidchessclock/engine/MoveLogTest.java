@@ -0,0 +1,203 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+public class MoveLogTest extends TestCase {
+
+    private ManualTimeSource mTime;
+    private File mFile;
+    private MoveLog mLog;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource(0);
+        mFile = File.createTempFile("moves", ".log");
+        mFile.delete();
+        mLog = MoveLog.open(mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLog.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private ChessClock create(ClockSettings settings) {
+        ChessClock clock = new ChessClock(settings, mTime);
+        clock.setRecorder(mLog);
+        return clock;
+    }
+
+    public void testRecordsEveryEvent() {
+        ChessClock clock = create(ClockSettings.basic(300, 5,
+                DelayType.FISCHER, false));
+        mTime.set(1000);
+        clock.start();
+        mTime.set(4000);
+        clock.press(Player.WHITE);
+        mTime.set(5000);
+        clock.pause();
+        mTime.set(65000);
+        clock.togglePause();
+        mTime.set(67000);
+        clock.adjustTime(Player.WHITE, 360000);
+        mTime.set(70000);
+        clock.press(Player.BLACK);
+        clock.reset();
+
+        assertEquals(7, mLog.size());
+        assertEvent(0, ClockEventType.START, Player.WHITE, 1000, 1, 0, 305000);
+        assertEvent(1, ClockEventType.PRESS, Player.WHITE, 4000, 1, 3000,
+                307000);
+        assertEvent(2, ClockEventType.PAUSE, Player.BLACK, 5000, 1, 0, 304000);
+        assertEvent(3, ClockEventType.RESUME, Player.BLACK, 65000, 1, 0,
+                304000);
+        assertEvent(4, ClockEventType.ADJUST, Player.WHITE, 67000, 2,
+                53000, 360000);
+        // the move took 6 s of clock time, not counting the pause
+        assertEvent(5, ClockEventType.PRESS, Player.BLACK, 70000, 1, 6000,
+                304000);
+        assertEvent(6, ClockEventType.RESET, null, 70000, 0, 0, 305000);
+    }
+
+    public void testPressInThePastIsRecordedWhenItWasMade() {
+        ChessClock clock = create(ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false));
+        clock.press(Player.BLACK);
+        mTime.set(10000);
+        clock.pressAt(Player.WHITE, 9000);
+        assertEvent(0, ClockEventType.START, Player.WHITE, 0, 1, 0, 300000);
+        assertEvent(1, ClockEventType.PRESS, Player.WHITE, 9000, 1, 9000,
+                291000);
+    }
+
+    public void testPhaseChangeAndFlag() {
+        ChessClock clock = create(ClockSettings.tournament(1, 1, 1, 0,
+                DelayType.FISCHER, false));
+        clock.start();
+        mTime.set(1000);
+        clock.press(Player.WHITE);
+        mTime.set(200000);
+        clock.tick();
+
+        assertEquals(4, mLog.size());
+        assertEvent(1, ClockEventType.PRESS, Player.WHITE, 1000, 1, 1000,
+                119000);
+        assertEvent(2, ClockEventType.PHASE, Player.WHITE, 1000, 2, 60000,
+                119000);
+        assertEvent(3, ClockEventType.FLAG, Player.BLACK, 200000, 1, 0, 0);
+    }
+
+    public void testReopenedLogAppends() throws IOException {
+        ChessClock clock = create(ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false));
+        clock.start();
+        mTime.set(2000);
+        clock.press(Player.WHITE);
+        mLog.close();
+
+        mLog = MoveLog.open(mFile);
+        assertEquals(2, mLog.size());
+        assertEvent(1, ClockEventType.PRESS, Player.WHITE, 2000, 1, 2000,
+                298000);
+        clock.setRecorder(mLog);
+        mTime.set(5000);
+        clock.press(Player.BLACK);
+        assertEquals(3, mLog.size());
+        assertEquals(ClockEventType.PRESS, mLog.getType(2));
+    }
+
+    public void testGrowsPastTheFirstChunk() throws IOException {
+        int events = MoveLog.CHUNK_RECORDS * 2 + 10;
+        for (int i = 0; i < events; i++)
+            mLog.record(ClockEventType.PRESS, Player.values()[i % 2], i,
+                    i / 2 + 1, i, -i);
+        assertNull(mLog.getError());
+        mLog.close();
+
+        mLog = MoveLog.open(mFile);
+        assertEquals(events, mLog.size());
+        for (int i = 0; i < events; i += 997) {
+            assertEquals(i, mLog.getAt(i));
+            assertEquals(-i, mLog.getMsToGo(i));
+            assertEquals(i / 2 + 1, mLog.getMoveNumber(i));
+        }
+    }
+
+    public void testClear() {
+        mLog.record(ClockEventType.RESET, null, 0, 0, 0, 0);
+        mLog.clear();
+        assertEquals(0, mLog.size());
+        mLog.record(ClockEventType.START, Player.WHITE, 7, 1, 0, 1000);
+        assertEquals(7, mLog.getAt(0));
+    }
+
+    public void testWallClockIsTakenWhenTheClockGoes() throws IOException {
+        assertEquals(0, mLog.getWallClockMs(0));
+        long before = System.currentTimeMillis();
+        mLog.record(ClockEventType.START, Player.WHITE, 1000, 1, 0, 1000);
+        long after = System.currentTimeMillis();
+        mLog.record(ClockEventType.PRESS, Player.WHITE, 4000, 1, 3000, 997);
+        long at = mLog.getWallClockMs(4000);
+        assertTrue(at >= before + 3000 && at <= after + 3000);
+        mLog.close();
+
+        // kept with the boot it is of
+        mLog = MoveLog.open(mFile, 1);
+        assertEquals(at, mLog.getWallClockMs(4000));
+        mLog.record(ClockEventType.PAUSE, Player.WHITE, 5, 1, 0, 997);
+        assertEquals(0, mLog.getWallClockMs(5));
+
+        mLog.record(ClockEventType.RESET, null, 0, 0, 0, 0);
+        mLog.clear();
+        assertEquals(0, mLog.getWallClockMs(0));
+    }
+
+    // The device lost power after the number of records reached storage,
+    // but before the last records did
+    public void testRecordsThatNeverReachedStorage() throws IOException {
+        mLog.record(ClockEventType.START, Player.WHITE, 0, 1, 0, 1000);
+        mLog.record(ClockEventType.PRESS, Player.WHITE, 5, 1, 5, 995);
+        mLog.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(8);
+        file.writeLong(5);
+        file.close();
+
+        mLog = MoveLog.open(mFile);
+        assertEquals(2, mLog.size());
+        assertEquals(ClockEventType.PRESS, mLog.getType(1));
+    }
+
+    public void testRejectsOtherFiles() throws IOException {
+        File other = File.createTempFile("other", ".log");
+        FileOutputStream out = new FileOutputStream(other);
+        out.write(new byte[100]);
+        out.close();
+        try {
+            MoveLog.open(other);
+            fail();
+        } catch (IOException e) {
+            // expected
+        } finally {
+            other.delete();
+        }
+    }
+
+    private void assertEvent(int index, ClockEventType type, Player player,
+            long at, int moveNumber, long value, long msToGo) {
+        assertEquals(type, mLog.getType(index));
+        assertEquals(player, mLog.getPlayer(index));
+        assertEquals(at, mLog.getAt(index));
+        assertEquals(moveNumber, mLog.getMoveNumber(index));
+        assertEquals(value, mLog.getValue(index));
+        assertEquals(msToGo, mLog.getMsToGo(index));
+    }
+}
@@ -0,0 +1,126 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class MoveTimeChartTest extends TestCase {
+
+    // 60 frames a second
+    private static final long FRAME_NS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    public void testLttbKeepsAllPointsUnderTheThreshold() {
+        long[] values = { 5, 1, 7 };
+        int[] selected = new int[3];
+        assertEquals(3, Lttb.downsample(values, 3, 10, selected));
+        assertEquals(2, selected[2]);
+    }
+
+    public void testLttbKeepsTheEndsAndThePeaks() {
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 1000 + i % 7;
+        values[333] = 90000;
+        values[777] = 0;
+        int[] selected = new int[50];
+        int n = Lttb.downsample(values, values.length, 50, selected);
+
+        assertEquals(50, n);
+        assertEquals(0, selected[0]);
+        assertEquals(999, selected[49]);
+        boolean peak = false, trough = false;
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                assertTrue(selected[i] > selected[i - 1]);
+            peak |= selected[i] == 333;
+            trough |= selected[i] == 777;
+        }
+        assertTrue(peak);
+        assertTrue(trough);
+    }
+
+    public void testMoveTimesOfTheLastGameInTheLog() throws IOException {
+        File file = File.createTempFile("chart", ".log");
+        file.delete();
+        MoveLog log = MoveLog.open(file);
+        try {
+            ManualTimeSource time = new ManualTimeSource(0);
+            ChessClock clock = new ChessClock(ClockSettings.basic(300, 0,
+                    DelayType.FISCHER, false), time);
+            clock.setRecorder(log);
+            clock.start();
+            time.advance(5000);
+            clock.press(Player.WHITE);
+            clock.reset();
+
+            clock.start();
+            time.advance(3000);
+            clock.press(Player.WHITE);
+            time.advance(1000);
+            clock.pause();
+            time.advance(60000);
+            clock.togglePause();
+            time.advance(1500);
+            clock.press(Player.BLACK);
+            time.advance(2000);
+            clock.press(Player.WHITE);
+
+            MoveTimes times = MoveTimes.fromLog(log);
+            assertEquals(2, times.getCount(Player.WHITE));
+            assertEquals(1, times.getCount(Player.BLACK));
+            assertEquals(3000, times.get(Player.WHITE, 0));
+            assertEquals(2000, times.get(Player.WHITE, 1));
+            // not counting the pause
+            assertEquals(2500, times.get(Player.BLACK, 0));
+            assertEquals(3000, times.getMaxMs());
+        } finally {
+            log.close();
+            file.delete();
+        }
+    }
+
+    public void testLayout() {
+        MoveTimes times = new MoveTimes();
+        times.set(Player.WHITE, 1, 1000);
+        times.set(Player.WHITE, 2, 4000);
+        times.set(Player.WHITE, 3, 2000);
+        times.set(Player.BLACK, 1, 3000);
+        MoveTimeChart chart = new MoveTimeChart(times);
+        chart.layout(200, 100);
+
+        assertEquals(8, chart.getLineFloats(Player.WHITE));
+        float[] lines = chart.getLines(Player.WHITE);
+        assertEquals(0f, lines[0]);
+        assertEquals(75f, lines[1]);
+        assertEquals(100f, lines[2]);
+        assertEquals(0f, lines[3]);
+        assertEquals(200f, lines[6]);
+        assertEquals(50f, lines[7]);
+        // one move is a point, not a line
+        assertEquals(0, chart.getLineFloats(Player.BLACK));
+    }
+
+    public void testThousandMoveGameInUnderAFrame() {
+        Random random = new Random(1);
+        MoveTimes times = new MoveTimes();
+        for (int move = 1; move <= 1000; move++)
+            for (Player player : Player.values())
+                times.set(player, move, (long) (-5000 * Math.log(1 - random
+                        .nextDouble())));
+
+        // the first time, as the dialog would, without a warm JIT
+        long start = System.nanoTime();
+        MoveTimeChart chart = new MoveTimeChart(times);
+        chart.layout(1280, 600);
+        long ns = System.nanoTime() - start;
+        System.out.println(String.format("MoveTimeChart: 2 x 1000 moves "
+                + "laid out in %.3f ms", ns / 1e6));
+
+        int points = 1280 / MoveTimeChart.PIXELS_PER_POINT;
+        assertEquals((points - 1) * 4, chart.getLineFloats(Player.WHITE));
+        assertTrue(ns < FRAME_NS);
+    }
+}
@@ -0,0 +1,284 @@
+package johnwilde.androidchessclock.engine;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class PairedClockTest extends TestCase {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // a device's clock, 'offset' ahead of the true time
+    private static TimeSource deviceTime(final TimeSource trueTime,
+            final long offset) {
+        return new TimeSource() {
+            @Override
+            public long uptimeMillis() {
+                return trueTime.uptimeMillis() + offset;
+            }
+        };
+    }
+
+    private ManualTimeSource mTime;
+    private SimulatedLink.Network mNetwork;
+    private PairedClock mWhite;
+    private PairedClock mBlack;
+
+    private void pair(long delayMs, long jitterMs, long backDelayMs) {
+        mTime = new ManualTimeSource();
+        mNetwork = new SimulatedLink.Network(mTime, 7);
+        SimulatedLink[] links = SimulatedLink.pair(mNetwork, delayMs,
+                jitterMs, backDelayMs);
+        ClockSettings settings = ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false);
+
+        // the devices' clocks disagree by a lot more than the network delay
+        TimeSource whiteTime = deviceTime(mTime, 123456);
+        TimeSource blackTime = deviceTime(mTime, -98765);
+        mWhite = new PairedClock(new ChessClock(settings, whiteTime),
+                whiteTime, links[0], DIRECT, true);
+        mBlack = new PairedClock(new ChessClock(settings, blackTime),
+                blackTime, links[1], DIRECT, false);
+    }
+
+    private void synchronize() {
+        for (int i = 0; i < 8; i++) {
+            mWhite.ping();
+            mBlack.ping();
+            mNetwork.runFor(500);
+        }
+    }
+
+    public void testOffsetEstimate() {
+        pair(40, 30, 40);
+        synchronize();
+        OffsetEstimator white = mWhite.getOffsetEstimator();
+        assertTrue(white.hasEstimate());
+        // never out by more than half the round trip
+        assertTrue(Math.abs(white.getOffset() - (-98765 - 123456)) <= white
+                .getRoundTrip() / 2 + 1);
+        OffsetEstimator black = mBlack.getOffsetEstimator();
+        assertTrue(Math.abs(black.getOffset() - (123456 + 98765)) <= black
+                .getRoundTrip() / 2 + 1);
+    }
+
+    public void testNeitherSideGainsTheNetworkDelay() {
+        // symmetric delay, no jitter: the offset is exact
+        pair(50, 0, 50);
+        synchronize();
+
+        mWhite.start();
+        mNetwork.runFor(10000);
+        mWhite.press(Player.WHITE);
+        mNetwork.runFor(5000);
+        mBlack.press(Player.BLACK);
+        mNetwork.runFor(3000);
+
+        for (PairedClock device : new PairedClock[] { mWhite, mBlack }) {
+            ChessClock clock = device.getClock();
+            assertEquals(Player.WHITE, clock.getActive());
+            assertEquals(2, clock.getMoveNumber(Player.BLACK));
+            // charged when the buttons were pressed, not when the other
+            // device heard about it
+            assertEquals(287000, clock.getMsToGo(Player.WHITE));
+            assertEquals(295000, clock.getMsToGo(Player.BLACK));
+        }
+    }
+
+    public void testJitterAndAsymmetry() {
+        // 10 ms each way on average, up to 20 ms of jitter, and 20 ms more
+        // one way than the other
+        pair(20, 20, 40);
+        synchronize();
+        // a converted time is out by at most half the round trip
+        long error = (mWhite.getOffsetEstimator().getRoundTrip()
+                + mBlack.getOffsetEstimator().getRoundTrip()) / 2 + 2;
+
+        mWhite.start();
+        for (int move = 0; move < 40; move++) {
+            mNetwork.runFor(1000 + 137 * move % 3000);
+            PairedClock device = move % 2 == 0 ? mWhite : mBlack;
+            device.press(device.getClock().getActive());
+        }
+        mNetwork.runFor(1000);
+        mWhite.togglePause();
+        mNetwork.runFor(1000);
+
+        for (Player player : Player.values()) {
+            long white = mWhite.getClock().getMsToGo(player);
+            long black = mBlack.getClock().getMsToGo(player);
+            // each of a player's 20 moves is out by at most the errors of
+            // the two estimates, which add up when the delay is asymmetric
+            assertTrue(white + " " + black + " " + error,
+                    Math.abs(white - black) <= 20 * error);
+        }
+        assertEquals(GameState.PAUSED, mBlack.getClock().getState());
+        assertEquals(mWhite.getClock().getMoveNumber(Player.BLACK), mBlack
+                .getClock().getMoveNumber(Player.BLACK));
+    }
+
+    // Both devices show the same game, at the same true time
+    private void assertSameGame() {
+        ChessClock white = mWhite.getClock();
+        ChessClock black = mBlack.getClock();
+        assertEquals(white.getState(), black.getState());
+        assertEquals(white.getActive(), black.getActive());
+        for (Player player : Player.values()) {
+            assertEquals(white.getMoveNumber(player), black
+                    .getMoveNumber(player));
+            assertEquals(white.getMsToGo(player), black.getMsToGo(player));
+        }
+    }
+
+    public void testPressesInsideOneLinkDelay() {
+        // symmetric delay, no jitter: the offset is exact
+        pair(50, 0, 50);
+        synchronize();
+        mWhite.start();
+        mNetwork.runFor(1000);
+
+        // black presses on their device before it has heard of white's
+        // press: it isn't their turn there, so nothing is sent
+        mWhite.press(Player.WHITE);
+        mNetwork.runFor(20);
+        mBlack.press(Player.BLACK);
+        mNetwork.runFor(1000);
+        assertSameGame();
+        assertEquals(Player.BLACK, mBlack.getClock().getActive());
+        assertEquals(299000, mBlack.getClock().getMsToGo(Player.WHITE));
+
+        // both devices take white's press, 20 ms apart: the leader's wins
+        mNetwork.runFor(2000);
+        mWhite.press(Player.BLACK);
+        mNetwork.runFor(20);
+        mBlack.press(Player.BLACK);
+        mNetwork.runFor(1000);
+        assertSameGame();
+        assertEquals(Player.WHITE, mBlack.getClock().getActive());
+        assertEquals(296980, mBlack.getClock().getMsToGo(Player.BLACK));
+
+        // and the game goes on from there, from either device
+        mBlack.press(Player.WHITE);
+        mNetwork.runFor(500);
+        mWhite.press(Player.BLACK);
+        mNetwork.runFor(1000);
+        assertSameGame();
+        assertEquals(Player.WHITE, mWhite.getClock().getActive());
+        assertEquals(3, mWhite.getClock().getMoveNumber(Player.BLACK));
+    }
+
+    public void testPauseAndPressAtOnce() {
+        pair(50, 0, 50);
+        synchronize();
+        mWhite.start();
+        mNetwork.runFor(1000);
+        mBlack.togglePause();
+        mNetwork.runFor(10);
+        mWhite.press(Player.WHITE);
+        mNetwork.runFor(1000);
+        assertSameGame();
+        // the leader's press, and the pause was lost
+        assertEquals(GameState.RUNNING, mBlack.getClock().getState());
+        assertEquals(Player.BLACK, mBlack.getClock().getActive());
+    }
+
+    public void testAdjustAndReset() {
+        // symmetric delay, no jitter: the offset is exact
+        pair(30, 0, 30);
+        synchronize();
+        mWhite.start();
+        mNetwork.runFor(100);
+        mBlack.adjustTime(Player.WHITE, 42000);
+        mNetwork.runFor(100);
+        // set as of when it was made, not when the other device heard
+        assertEquals(41900, mWhite.getClock().getMsToGo(Player.WHITE));
+        assertEquals(41900, mBlack.getClock().getMsToGo(Player.WHITE));
+
+        mWhite.reset();
+        mNetwork.runFor(100);
+        assertEquals(GameState.IDLE, mBlack.getClock().getState());
+    }
+
+    // Two engines connected by a real socket over loopback
+    public void testOverLoopback() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress());
+        Socket one = new Socket(InetAddress.getLoopbackAddress(),
+                server.getLocalPort());
+        Socket two = server.accept();
+        server.close();
+
+        // each device's thread, like the UI thread
+        ExecutorService whiteThread = Executors.newSingleThreadExecutor();
+        ExecutorService blackThread = Executors.newSingleThreadExecutor();
+        ClockSettings settings = ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false);
+        final PairedClock white = new PairedClock(new ChessClock(settings,
+                TimeSource.SYSTEM), TimeSource.SYSTEM,
+                new SocketPairLink(one), whiteThread, true);
+        final PairedClock black = new PairedClock(new ChessClock(settings,
+                TimeSource.SYSTEM), TimeSource.SYSTEM,
+                new SocketPairLink(two), blackThread, false);
+
+        try {
+            for (int i = 0; i < 8; i++) {
+                whiteThread.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        white.ping();
+                    }
+                }).get();
+                Thread.sleep(5);
+            }
+            long offset = whiteThread.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return white.getOffsetEstimator().getOffset();
+                }
+            }).get();
+            // the same clock on both sides
+            assertTrue(Math.abs(offset) <= 2);
+
+            whiteThread.submit(new Runnable() {
+                @Override
+                public void run() {
+                    white.start();
+                }
+            }).get();
+            Thread.sleep(50);
+            whiteThread.submit(new Runnable() {
+                @Override
+                public void run() {
+                    white.press(Player.WHITE);
+                }
+            }).get();
+            Thread.sleep(50);
+
+            ChessClock clock = blackThread.submit(new Callable<ChessClock>() {
+                @Override
+                public ChessClock call() {
+                    return black.getClock();
+                }
+            }).get();
+            assertEquals(Player.BLACK, clock.getActive());
+            assertEquals(white.getClock().getMsToGo(Player.WHITE), clock
+                    .getMsToGo(Player.WHITE), 3);
+        } finally {
+            white.close();
+            black.close();
+            whiteThread.shutdown();
+            blackThread.shutdown();
+        }
+    }
+}
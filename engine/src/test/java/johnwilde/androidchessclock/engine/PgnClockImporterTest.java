@@ -0,0 +1,210 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PgnClockImporterTest extends TestCase {
+
+    // a 1 GB archive must take no longer than this many seconds
+    private static final double GIGABYTE_BUDGET_SECONDS = 20;
+
+    private static final ClockSettings BLITZ = ClockSettings.basic(180, 2,
+            DelayType.FISCHER, false);
+    private static final ClockSettings DELAY = ClockSettings.basic(300, 5,
+            DelayType.BRONSTEIN, false);
+    private static final ClockSettings FIDE = ClockSettings.tournament(90,
+            40, 30, 30, DelayType.FISCHER, false);
+
+    // Whole seconds, which survive [%clk] exactly; with DELAY's 5 s delay
+    // a move of 5 s or less can't be told from one of 5 s, so they are longer
+    private static MoveTimes game(Random random, int moves) {
+        MoveTimes times = new MoveTimes();
+        for (int move = 1; move <= moves; move++)
+            for (Player player : Player.values())
+                times.set(player, move, 6000 + 1000 * random.nextInt(60));
+        return times;
+    }
+
+    private static String pgn(ClockSettings settings, MoveTimes times,
+            boolean emt) throws IOException {
+        StringWriter out = new StringWriter();
+        new PgnWriter(out).write(settings, times, null);
+        String pgn = out.toString();
+        return emt ? pgn : pgn.replaceAll(" \\[%emt [^]]*\\]", "");
+    }
+
+    private static void assertSameTimes(ThinkTimes expected, ThinkTimes times,
+            String timeControl) {
+        for (int move = 1; move <= ThinkTimes.MAX_MOVE_NUMBER; move++) {
+            LatencyHistogram e = expected.get(timeControl, move);
+            LatencyHistogram h = times.get(timeControl, move);
+            if (e == null) {
+                assertNull(h);
+                continue;
+            }
+            assertEquals(e.getCount(), h.getCount());
+            assertEquals(e.getMean(), h.getMean());
+            assertEquals(e.getMax(), h.getMax());
+        }
+    }
+
+    public void testParseTimeControl() {
+        ClockSettings blitz = PgnClockImporter.parseTimeControl("180+2");
+        assertEquals(TimeControlType.BASIC, blitz.getTimeControlType());
+        assertEquals(180, blitz.getInitialDurationSeconds());
+        assertEquals(2, blitz.getIncrementSeconds());
+        assertEquals(DelayType.BRONSTEIN, PgnClockImporter.parseTimeControl(
+                "300d5").getDelayType());
+        assertEquals(0, PgnClockImporter.parseTimeControl("600")
+                .getIncrementSeconds());
+
+        ClockSettings fide = PgnClockImporter.parseTimeControl(
+                "40/5400+30:1800+30");
+        assertEquals(TimeControlType.TOURNAMENT, fide.getTimeControlType());
+        assertEquals(5400, fide.getInitialDurationSeconds());
+        assertEquals(40, fide.getPhase1NumberMoves());
+        assertEquals(30, fide.getPhase2Minutes());
+        assertEquals(30, fide.getIncrementSeconds());
+
+        assertNull(PgnClockImporter.parseTimeControl("-"));
+        assertNull(PgnClockImporter.parseTimeControl("?"));
+        assertNull(PgnClockImporter.parseTimeControl("*60"));
+        assertNull(PgnClockImporter.parseTimeControl("40/7200"));
+    }
+
+    public void testParseTime() {
+        byte[] time = "1:02:03.45]".getBytes();
+        assertEquals(3723450, PgnClockImporter.parseTime(time, 0,
+                time.length));
+        time = "-0:00:07]".getBytes();
+        assertEquals(-7000, PgnClockImporter.parseTime(time, 0, time.length));
+        time = "]".getBytes();
+        assertEquals(Long.MIN_VALUE, PgnClockImporter.parseTime(time, 0,
+                time.length));
+    }
+
+    // What the writer writes the importer reads back, from the clock alone
+    // or from [%emt]
+    public void testMoveTimesAreReconstructed() throws IOException {
+        Random random = new Random(1);
+        ClockSettings[] controls = { BLITZ, DELAY, FIDE };
+        String[] tags = { "180+2", "300d5", "40/5400+30:1800+30" };
+        ThinkTimes expected = new ThinkTimes();
+        StringBuilder archive = new StringBuilder();
+        for (int game = 0; game < 60; game++) {
+            int c = game % controls.length;
+            MoveTimes times = game(random, 30 + random.nextInt(30));
+            archive.append(pgn(controls[c], times, game % 2 == 0));
+            for (int i = 0; i < times.getCount(Player.WHITE); i++)
+                for (Player player : Player.values())
+                    expected.record(tags[c], i + 1, times.get(player, i));
+        }
+        // not a time control it can work with
+        archive.append(pgn(BLITZ, game(random, 10), false).replace("180+2",
+                "-"));
+
+        byte[] bytes = archive.toString().getBytes("UTF-8");
+        ThinkTimes times = new ThinkTimes();
+        PgnClockImporter.parse(bytes, 0, bytes.length, bytes.length, true,
+                times);
+        assertEquals(60, times.getGames());
+        assertEquals(1, times.getSkippedGames());
+        assertEquals(expected.getMoves(), times.getMoves());
+        assertEquals(Arrays.asList(tags[0], tags[1], tags[2]), times
+                .getTimeControls());
+        for (String tag : tags)
+            assertSameTimes(expected, times, tag);
+    }
+
+    // Split at any byte, each game is counted once, by the chunk it starts in
+    public void testChunksSplitAnywhere() throws IOException {
+        Random random = new Random(2);
+        StringBuilder archive = new StringBuilder();
+        for (int game = 0; game < 20; game++)
+            archive.append(pgn(BLITZ, game(random, 1 + random.nextInt(40)),
+                    false));
+        byte[] bytes = archive.toString().getBytes("UTF-8");
+        ThinkTimes whole = new ThinkTimes();
+        PgnClockImporter.parse(bytes, 0, bytes.length, bytes.length, true,
+                whole);
+
+        for (int i = 0; i < 200; i++) {
+            int split = random.nextInt(bytes.length);
+            ThinkTimes times = new ThinkTimes();
+            PgnClockImporter.parse(bytes, 0, split, bytes.length, true,
+                    times);
+            PgnClockImporter.parse(bytes, split, bytes.length, bytes.length,
+                    true, times);
+            assertEquals(20, times.getGames());
+            assertEquals(whole.getMoves(), times.getMoves());
+        }
+    }
+
+    public void testArchiveInParallel() throws IOException {
+        Random random = new Random(3);
+        ClockSettings[] controls = { BLITZ, DELAY, FIDE };
+        MoveTimes[] games = new MoveTimes[500];
+        for (int i = 0; i < games.length; i++)
+            games[i] = game(random, 20 + random.nextInt(60));
+
+        // 4 files of about 32 MB, so several chunks each
+        List<File> files = new ArrayList<File>();
+        ThinkTimes expected = new ThinkTimes();
+        long bytes = 0;
+        try {
+            for (int f = 0; f < 4; f++) {
+                File file = File.createTempFile("archive", ".pgn");
+                files.add(file);
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(file), "UTF-8"), 65536);
+                try {
+                    PgnWriter writer = new PgnWriter(out);
+                    for (int i = 0; bytes + file.length() < (f + 1)
+                            * (32L << 20); i++) {
+                        MoveTimes times = games[i % games.length];
+                        ClockSettings settings = controls[i
+                                % controls.length];
+                        writer.write(settings, times, null);
+                        expected.countGame();
+                        if (i % 1000 == 999)
+                            out.flush();
+                    }
+                } finally {
+                    out.close();
+                }
+                bytes += file.length();
+            }
+
+            // once to warm up, then timed
+            PgnClockImporter.importFiles(files);
+            long start = System.nanoTime();
+            ThinkTimes times = PgnClockImporter.importFiles(files);
+            long ns = System.nanoTime() - start;
+            double mbPerSecond = (bytes / 1e6) / (ns / 1e9);
+            System.out.println(String.format("PgnClockImporter: %d MB, %d "
+                    + "games in %.0f ms on %d threads, %.0f MB/s (1 GB in "
+                    + "%.1f s)", bytes >> 20, times.getGames(), ns / 1e6,
+                    Runtime.getRuntime().availableProcessors(), mbPerSecond,
+                    1000 / mbPerSecond));
+
+            assertEquals(expected.getGames(), times.getGames());
+            assertEquals(0, times.getSkippedGames());
+            assertEquals(3, times.getTimeControls().size());
+            assertTrue(1000 / mbPerSecond < GIGABYTE_BUDGET_SECONDS);
+        } finally {
+            for (File file : files)
+                file.delete();
+        }
+    }
+}
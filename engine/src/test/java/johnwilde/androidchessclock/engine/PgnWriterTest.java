@@ -0,0 +1,156 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PgnWriterTest extends TestCase {
+
+    // games a second, on one thread
+    private static final int REQUIRED_RATE = 50000;
+
+    private static String pgn(ClockSettings settings, MoveTimes times,
+            Player flagged) throws IOException {
+        StringWriter out = new StringWriter();
+        new PgnWriter(out).write(settings, times, flagged);
+        return out.toString();
+    }
+
+    private static String timeControl(ClockSettings settings)
+            throws IOException {
+        String pgn = pgn(settings, new MoveTimes(), null);
+        int start = pgn.indexOf("[TimeControl \"") + 14;
+        return pgn.substring(start, pgn.indexOf('"', start));
+    }
+
+    public void testGame() throws IOException {
+        MoveTimes times = new MoveTimes();
+        times.set(Player.WHITE, 1, 4200);
+        times.set(Player.BLACK, 1, 61000);
+        times.set(Player.WHITE, 2, 3000);
+        assertEquals("[Event \"?\"]\n"
+                + "[Site \"?\"]\n"
+                + "[Date \"????.??.??\"]\n"
+                + "[Round \"?\"]\n"
+                + "[White \"?\"]\n"
+                + "[Black \"?\"]\n"
+                + "[Result \"0-1\"]\n"
+                + "[TimeControl \"300+3\"]\n"
+                + "[Termination \"time forfeit\"]\n"
+                + "\n"
+                + "1. -- {[%clk 0:05:01] [%emt 0:00:04]}\n"
+                + "1... -- {[%clk 0:04:05] [%emt 0:01:01]}\n"
+                + "2. -- {[%clk 0:05:01] [%emt 0:00:03]}\n"
+                + "0-1\n\n", pgn(ClockSettings.basic(300, 3,
+                DelayType.FISCHER, false), times, Player.WHITE));
+    }
+
+    public void testTimeControls() throws IOException {
+        assertEquals("60", timeControl(ClockSettings.basic(60, 0,
+                DelayType.FISCHER, true)));
+        assertEquals("300d5", timeControl(ClockSettings.basic(300, 5,
+                DelayType.BRONSTEIN, false)));
+        assertEquals("40/5400+30:1800+30", timeControl(ClockSettings
+                .tournament(90, 40, 30, 30, DelayType.FISCHER, false)));
+        assertEquals("40/7200:3600", timeControl(ClockSettings.tournament(
+                120, 40, 60, 0, DelayType.FISCHER, false)));
+    }
+
+    // The clocks written are the ones ChessClock kept
+    public void testClockIsTheChessClocks() throws IOException {
+        ClockSettings[] controls = {
+                ClockSettings.tournament(5, 10, 1, 2, DelayType.FISCHER,
+                        true),
+                ClockSettings.tournament(5, 10, 1, 3, DelayType.BRONSTEIN,
+                        true) };
+        Random random = new Random(1);
+        for (ClockSettings settings : controls) {
+            File file = File.createTempFile("pgn", ".log");
+            file.delete();
+            MoveLog log = MoveLog.open(file);
+            try {
+                ManualTimeSource time = new ManualTimeSource(0);
+                ChessClock clock = new ChessClock(settings, time);
+                clock.setRecorder(log);
+                clock.reset();
+                clock.start();
+                for (int i = 0; i < 60; i++) {
+                    time.advance(random.nextInt(8000));
+                    clock.press(clock.getActive());
+                }
+
+                MoveTimes times = MoveTimes.fromLog(log);
+                long[] msToGo = { settings.getInitialMs(),
+                        settings.getInitialMs() };
+                for (int i = 0; i < log.size(); i++) {
+                    if (log.getType(i) != ClockEventType.PRESS)
+                        continue;
+                    Player player = log.getPlayer(i);
+                    int move = log.getMoveNumber(i);
+                    int p = player.ordinal();
+                    msToGo[p] = PgnWriter.clockAfter(settings, msToGo[p],
+                            move, times.get(player, move - 1));
+                    assertEquals(log.getMsToGo(i), msToGo[p]);
+                }
+            } finally {
+                log.close();
+                file.delete();
+            }
+        }
+    }
+
+    public void testStreamsFiftyThousandGamesASecond() throws IOException {
+        ClockSettings settings = ClockSettings.basic(300, 3,
+                DelayType.FISCHER, false);
+        Random random = new Random(1);
+        MoveTimes[] games = new MoveTimes[1000];
+        for (int game = 0; game < games.length; game++) {
+            games[game] = new MoveTimes();
+            for (int move = 1; move <= 45; move++)
+                for (Player player : Player.values())
+                    games[game].set(player, move, (long) (-6000 * Math.log(1
+                            - random.nextDouble())));
+        }
+
+        // the writer's own time; where the text goes is another matter
+        CountingWriter out = new CountingWriter();
+        PgnWriter writer = new PgnWriter(out);
+        // warm up
+        for (int i = 0; i < 20000; i++)
+            writer.write(settings, games[i % games.length], null);
+
+        int count = 100000;
+        out.mChars = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            writer.write(settings, games[i % games.length],
+                    i % 5 == 0 ? Player.BLACK : null);
+        long ns = System.nanoTime() - start;
+        double rate = count / (ns / 1e9);
+        System.out.println(String.format("PgnWriter: %d games of 45 moves "
+                + "in %.0f ms, %.0f games/s, %d MB", count, ns / 1e6, rate,
+                out.mChars >> 20));
+        assertTrue(rate > REQUIRED_RATE);
+    }
+
+    private static final class CountingWriter extends Writer {
+        long mChars;
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            mChars += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
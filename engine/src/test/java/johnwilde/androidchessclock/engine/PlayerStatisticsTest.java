@@ -0,0 +1,136 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PlayerStatisticsTest extends TestCase {
+
+    public void testMatchesTheTwoPassFormulas() {
+        Random random = new Random(1);
+        long[] moves = new long[5000];
+        PlayerStatistics statistics = new PlayerStatistics();
+        for (int i = 0; i < moves.length; i++) {
+            // large values, with a small spread: where the naive sum of
+            // squares loses its precision
+            moves[i] = 3600000000L + random.nextInt(2000);
+            statistics.addMove(moves[i]);
+        }
+
+        double mean = 0;
+        for (long move : moves)
+            mean += move;
+        mean /= moves.length;
+        double variance = 0;
+        for (long move : moves)
+            variance += (move - mean) * (move - mean);
+        variance /= moves.length - 1;
+
+        assertEquals(moves.length, statistics.getCount());
+        assertEquals(mean, statistics.getMeanMs(), 1e-3);
+        assertEquals(variance, statistics.getVariance(), variance * 1e-6);
+    }
+
+    public void testFewMoves() {
+        PlayerStatistics statistics = new PlayerStatistics();
+        assertEquals(0.0, statistics.getMeanMs());
+        statistics.addMove(4000);
+        assertEquals(4000.0, statistics.getMeanMs());
+        assertEquals(0.0, statistics.getVariance());
+        statistics.addMove(6000);
+        assertEquals(5000.0, statistics.getMeanMs());
+        assertEquals(2000000.0, statistics.getVariance());
+        statistics.reset();
+        assertEquals(0, statistics.getCount());
+    }
+
+    public void testRemoveMoveUndoesAddMove() {
+        Random random = new Random(2);
+        long[] moves = new long[205];
+        PlayerStatistics statistics = new PlayerStatistics();
+        PlayerStatistics expected = new PlayerStatistics();
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = 1000 + random.nextInt(60000);
+            statistics.addMove(moves[i]);
+            if (i < 200)
+                expected.addMove(moves[i]);
+        }
+        // the last five taken back, newest first
+        for (int i = moves.length - 1; i >= 200; i--)
+            statistics.removeMove(moves[i]);
+
+        assertEquals(expected.getCount(), statistics.getCount());
+        assertEquals(expected.getMeanMs(), statistics.getMeanMs(), 1e-6);
+        assertEquals(expected.getVariance(), statistics.getVariance(),
+                expected.getVariance() * 1e-9);
+
+        statistics.reset();
+        statistics.addMove(4000);
+        statistics.removeMove(4000);
+        assertEquals(0, statistics.getCount());
+        assertEquals(0.0, statistics.getMeanMs());
+    }
+
+    public void testForecast() {
+        ClockSettings noBonus = ClockSettings.basic(300, 0, DelayType.FISCHER,
+                false);
+        PlayerStatistics statistics = new PlayerStatistics();
+        assertEquals(-1, statistics.forecastFlagFall(60000, 10, noBonus));
+
+        statistics.addMove(10000);
+        // moves 10 to 15 take the 60 s, and the flag falls during move 16
+        assertEquals(16, statistics.forecastFlagFall(60000, 10, noBonus));
+        assertEquals(10, statistics.forecastFlagFall(0, 10, noBonus));
+
+        // 2 s of each move is given back
+        ClockSettings fischer = ClockSettings.basic(300, 2,
+                DelayType.FISCHER, false);
+        assertEquals(17, statistics.forecastFlagFall(60000, 10, fischer));
+
+        // a delay as long as the mean move costs nothing
+        ClockSettings bronstein = ClockSettings.basic(300, 10,
+                DelayType.BRONSTEIN, false);
+        assertEquals(-1, statistics.forecastFlagFall(60000, 10, bronstein));
+    }
+
+    public void testForecastCountsTheTimeControl() {
+        // 40 moves, then 30 more minutes
+        ClockSettings fide = ClockSettings.tournament(90, 40, 30, 0,
+                DelayType.FISCHER, false);
+        PlayerStatistics statistics = new PlayerStatistics();
+        statistics.addMove(60000);
+
+        // runs out before the control
+        assertEquals(35, statistics.forecastFlagFall(300000, 30, fide));
+        // makes it, with 60 s to spare and 30 minutes more
+        assertEquals(72, statistics.forecastFlagFall(720000, 30, fide));
+    }
+
+    public void testClockKeepsStatisticsOnEveryPress() {
+        ManualTimeSource time = new ManualTimeSource(0);
+        ChessClock clock = new ChessClock(ClockSettings.tournament(5, 3, 1,
+                0, DelayType.FISCHER, false), time);
+        clock.start();
+        assertEquals(3, clock.getMovesToTimeControl(Player.WHITE));
+        assertEquals(-1, clock.getFlagFallForecast(Player.WHITE));
+
+        time.advance(20000);
+        clock.press(Player.WHITE);
+        time.advance(5000);
+        clock.press(Player.BLACK);
+        time.advance(40000);
+        clock.press(Player.WHITE);
+
+        PlayerStatistics white = clock.getStatistics(Player.WHITE);
+        assertEquals(2, white.getCount());
+        assertEquals(30000.0, white.getMeanMs());
+        assertEquals(1, clock.getMovesToTimeControl(Player.WHITE));
+        // 240 s left at 30 s a move: move 3, the last before the control,
+        // leaves 210 s, and the minute added makes it 9 more moves
+        assertEquals(13, clock.getFlagFallForecast(Player.WHITE));
+        assertEquals(1, clock.getStatistics(Player.BLACK).getCount());
+
+        clock.reset();
+        assertEquals(0, clock.getStatistics(Player.WHITE).getCount());
+    }
+}
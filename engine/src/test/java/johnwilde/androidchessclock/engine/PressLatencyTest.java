@@ -0,0 +1,107 @@
+package johnwilde.androidchessclock.engine;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class PressLatencyTest extends TestCase {
+
+    private final PressLatency mLatency = new PressLatency();
+
+    private void press(long touch, long press, long finish, long start,
+            long drawn) {
+        mLatency.pressed(touch, press);
+        mLatency.finished(finish);
+        mLatency.started(start);
+        mLatency.handled();
+        mLatency.drawn(drawn);
+    }
+
+    public void testStages() {
+        press(1000000, 9000000, 9100000, 9150000, 12150000);
+        assertEquals(1, mLatency.getCount());
+        assertEquals(8000000, mLatency.get(PressLatency.Stage.INPUT)
+                .getMax());
+        assertEquals(100000, mLatency.get(PressLatency.Stage.FINISH)
+                .getMax());
+        assertEquals(50000, mLatency.get(PressLatency.Stage.START).getMax());
+        assertEquals(3000000, mLatency.get(PressLatency.Stage.DRAW)
+                .getMax());
+        assertEquals(11150000, mLatency.get(PressLatency.Stage.TOTAL)
+                .getMax());
+
+        // counted once; later redraws aren't presses
+        mLatency.drawn(20000000);
+        assertEquals(1, mLatency.getCount());
+    }
+
+    public void testPressThatDidNotSwitchIsNotCounted() {
+        mLatency.pressed(0, 1000);
+        mLatency.handled();
+        // the clock running again after a pause, say
+        mLatency.finished(2000);
+        mLatency.started(3000);
+        mLatency.drawn(4000);
+        assertEquals(0, mLatency.getCount());
+
+        // marks out of order
+        mLatency.pressed(0, 1000);
+        mLatency.started(2000);
+        mLatency.drawn(3000);
+        assertEquals(0, mLatency.getCount());
+    }
+
+    // The marks the activity makes, from the clock's listener
+    public void testAroundTheClock() {
+        final ManualTimeSource time = new ManualTimeSource();
+        ChessClock clock = new ChessClock(ClockSettings.basic(300, 5,
+                DelayType.FISCHER, false), time);
+        clock.setListener(new ClockListener.Adapter() {
+            @Override
+            public void onTimeChanged(Player player) {
+                mLatency.finished(time.uptimeMillis() * 1000000);
+            }
+
+            @Override
+            public void onClockRunning(Player player) {
+                mLatency.started(time.uptimeMillis() * 1000000);
+            }
+        });
+        clock.start();
+        for (int i = 0; i < 10; i++) {
+            time.advance(5000);
+            mLatency.pressed(time.uptimeMillis() * 1000000 - 7000000, time
+                    .uptimeMillis() * 1000000);
+            clock.press(clock.getActive());
+            mLatency.handled();
+            mLatency.drawn(time.uptimeMillis() * 1000000 + 16000000);
+        }
+        // the wrong button
+        mLatency.pressed(0, time.uptimeMillis() * 1000000);
+        clock.press(clock.getActive().other());
+        mLatency.handled();
+        mLatency.drawn(time.uptimeMillis() * 1000000);
+
+        assertEquals(10, mLatency.getCount());
+        assertEquals(23000000, mLatency.get(PressLatency.Stage.TOTAL)
+                .getValueAtPercentile(50));
+    }
+
+    public void testWrite() throws IOException {
+        for (int i = 1; i <= 100; i++)
+            press(0, 1000 * i, 1000 * i, 1000 * i, 2000 * i);
+        StringBuilder out = new StringBuilder();
+        mLatency.write(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(6, lines.length);
+        assertEquals("stage,count,mean_us,p50_us,p90_us,p99_us,p99.9_us,"
+                + "max_us", lines[0]);
+        assertEquals("input,100,50.5,50,90,99,100,100", lines[1]);
+        // the larger percentiles are to within the histogram's buckets
+        assertTrue(lines[5].startsWith("total,100,101.0,100,180,"));
+        assertTrue(lines[5].endsWith(",200"));
+
+        mLatency.reset();
+        assertEquals(0, mLatency.getCount());
+    }
+}
@@ -0,0 +1,106 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * A pair of PairLinks over a simulated network with delay and jitter, in
+ * virtual time: messages are only delivered by Network.runUntil().
+ */
+public class SimulatedLink implements PairLink {
+
+    /** Delivers messages in order of arrival, moving time forward */
+    public static class Network {
+        private final ManualTimeSource mTime;
+        private final Random mRandom;
+        private final PriorityQueue<Delivery> mInFlight = new PriorityQueue<Delivery>();
+        private long mSequence;
+
+        public Network(ManualTimeSource time, long seed) {
+            mTime = time;
+            mRandom = new Random(seed);
+        }
+
+        /** Deliver everything due by 'end', and move time on to it */
+        public void runUntil(long end) {
+            while (!mInFlight.isEmpty() && mInFlight.peek().mAt <= end) {
+                Delivery delivery = mInFlight.poll();
+                mTime.set(Math.max(mTime.uptimeMillis(), delivery.mAt));
+                delivery.mTo.mReceiver.onMessage(delivery.mMessage);
+            }
+            mTime.set(Math.max(mTime.uptimeMillis(), end));
+        }
+
+        public void runFor(long ms) {
+            runUntil(mTime.uptimeMillis() + ms);
+        }
+    }
+
+    private static class Delivery implements Comparable<Delivery> {
+        final long mAt;
+        final long mSequence;
+        final SimulatedLink mTo;
+        final byte[] mMessage;
+
+        Delivery(long at, long sequence, SimulatedLink to, byte[] message) {
+            mAt = at;
+            mSequence = sequence;
+            mTo = to;
+            mMessage = message;
+        }
+
+        @Override
+        public int compareTo(Delivery other) {
+            if (mAt != other.mAt)
+                return mAt < other.mAt ? -1 : 1;
+            return mSequence < other.mSequence ? -1 : 1;
+        }
+    }
+
+    private final Network mNetwork;
+    private final long mDelayMs;
+    private final long mJitterMs;
+    private SimulatedLink mPeer;
+    private Receiver mReceiver;
+    // a stream: a message never overtakes the one sent before it
+    private long mLastArrival;
+
+    private SimulatedLink(Network network, long delayMs, long jitterMs) {
+        mNetwork = network;
+        mDelayMs = delayMs;
+        mJitterMs = jitterMs;
+    }
+
+    /**
+     * Two connected links. Each message takes delayMs plus up to jitterMs
+     * to arrive; 'back' is for the second link's messages to the first.
+     */
+    public static SimulatedLink[] pair(Network network, long delayMs,
+            long jitterMs, long backDelayMs) {
+        SimulatedLink a = new SimulatedLink(network, delayMs, jitterMs);
+        SimulatedLink b = new SimulatedLink(network, backDelayMs, jitterMs);
+        a.mPeer = b;
+        b.mPeer = a;
+        return new SimulatedLink[] { a, b };
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        mReceiver = receiver;
+    }
+
+    @Override
+    public void send(byte[] message) {
+        long jitter = mJitterMs == 0 ? 0 : (long) (mNetwork.mRandom
+                .nextDouble() * mJitterMs);
+        long at = Math.max(mLastArrival, mNetwork.mTime.uptimeMillis()
+                + mDelayMs + jitter);
+        mLastArrival = at;
+        mNetwork.mInFlight.add(new Delivery(at, mNetwork.mSequence++, mPeer,
+                message));
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,192 @@
+package johnwilde.androidchessclock.engine;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Connects 1,000 spectators over loopback to a tournament of 100 boards
+ * and checks that every spectator ends up with the tournament's state.
+ */
+public class SpectatorServerTest extends TestCase {
+
+    private static final int CLIENTS = 1000;
+    private static final int BOARDS = 100;
+    private static final long TIMEOUT_MS = 30000;
+
+    private ManualTimeSource mTime;
+    private Tournament mTournament;
+    private SpectatorServer mServer;
+    private Board[] mBoards;
+
+    private Selector mSelector;
+    private final ByteBuffer mIn = ByteBuffer.allocate(64 * 1024);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource();
+        mTournament = new Tournament(mTime);
+        mServer = new SpectatorServer(mTime, new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0));
+        mTournament.setObserver(mServer);
+        mServer.start();
+        mTournament.startLoop();
+        mSelector = Selector.open();
+
+        mBoards = new Board[BOARDS];
+        ClockSettings settings = ClockSettings.basic(300, 2,
+                DelayType.BRONSTEIN, false);
+        for (int i = 0; i < BOARDS; i++)
+            mBoards[i] = mTournament.addBoard(settings, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSelector.close();
+        mTournament.shutdown();
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private SpectatorView[] connect(int count) throws Exception {
+        SpectatorView[] views = new SpectatorView[count];
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), mServer.getPort()));
+            channel.configureBlocking(false);
+            views[i] = new SpectatorView();
+            channel.register(mSelector, SelectionKey.OP_READ, views[i]);
+        }
+        return views;
+    }
+
+    // wait for the tournament's commands so far to run
+    private void sync() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mTournament.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private void playMoves(int moves) throws InterruptedException {
+        for (int move = 0; move < moves; move++) {
+            for (Board board : mBoards) {
+                if (board.getClock().getState() == GameState.IDLE)
+                    mTournament.start(board);
+                else
+                    mTournament.press(board, board.getClock().getActive());
+            }
+            sync();
+            mTime.advance(1500);
+        }
+    }
+
+    // read until every view matches the boards, or time out
+    private void awaitViews(SpectatorView[] views) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        long now = mTime.uptimeMillis();
+        while (!matches(views, now)) {
+            assertTrue("spectators did not catch up",
+                    System.currentTimeMillis() < deadline);
+            mSelector.select(100);
+            Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                mIn.clear();
+                int read = ((SocketChannel) key.channel()).read(mIn);
+                assertTrue(read >= 0);
+                mIn.flip();
+                ((SpectatorView) key.attachment()).read(mIn, now);
+            }
+        }
+    }
+
+    private boolean matches(SpectatorView[] views, long now) {
+        for (SpectatorView view : views) {
+            if (!view.isConnected() || view.getBoardCount() != BOARDS)
+                return false;
+            for (Board board : mBoards) {
+                ChessClock clock = board.getClock();
+                ClockSnapshot snapshot = view.getSnapshot(board.getNumber());
+                if (snapshot.getState() != clock.getState()
+                        || snapshot.getActive() != clock.getActive())
+                    return false;
+                for (Player player : Player.values()) {
+                    if (view.getMsToGo(board.getNumber(), player, now) != clock
+                            .getMsToGo(player)
+                            || snapshot.getMoveNumber(player) != clock
+                                    .getMoveNumber(player))
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void testThousandSpectators() throws Exception {
+        // the boards are known before anyone connects
+        playMoves(1);
+        SpectatorView[] views = connect(CLIENTS);
+        awaitViews(views);
+        assertEquals(CLIENTS, mServer.getClientCount());
+
+        long updatesBefore = views[0].getUpdateCount();
+        playMoves(10);
+        awaitViews(views);
+        // at most one update per board and move (a spectator that falls
+        // behind gets fewer: the state of each board, not every move)
+        long updates = views[0].getUpdateCount();
+        assertTrue(updates > updatesBefore);
+        assertTrue(updates <= updatesBefore + 10 * BOARDS);
+
+        // nothing is sent while the clocks just run
+        mTime.advance(5000);
+        sync();
+        Thread.sleep(200);
+        awaitViews(views);
+        assertEquals(updates, views[0].getUpdateCount());
+    }
+
+    // Spectators that reset their connections as soon as they are made
+    // don't stop the server for the others
+    public void testSpectatorsThatResetAtOnce() throws Exception {
+        playMoves(1);
+        for (int i = 0; i < 200; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), mServer.getPort()));
+            // closed with a reset rather than a FIN
+            channel.socket().setSoLinger(true, 0);
+            channel.close();
+        }
+
+        SpectatorView[] views = connect(10);
+        awaitViews(views);
+        playMoves(3);
+        awaitViews(views);
+        assertEquals(10, mServer.getClientCount());
+    }
+
+    public void testLateSpectatorGetsTheFullState() throws Exception {
+        playMoves(5);
+        // once the first spectator is up to date, so is the server
+        awaitViews(connect(1));
+
+        SpectatorView[] late = connect(1);
+        awaitViews(late);
+        // the state of each board, rather than the moves it missed
+        assertEquals(BOARDS, late[0].getUpdateCount());
+    }
+}
@@ -0,0 +1,84 @@
+package johnwilde.androidchessclock.engine;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class SpectatorViewTest extends TestCase {
+
+    private static final ClockSnapshot IDLE = new ClockSnapshot(300000,
+            0, 1, 300000, 0, 1, GameState.IDLE, null);
+
+    public void testFullUpdateThenDelta() {
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        SpectatorProtocol.writeHello(out, 5000);
+        SpectatorProtocol.writeUpdate(out, 7, 5000, null, IDLE);
+        int full = out.position() - SpectatorProtocol.HELLO_LENGTH;
+
+        // white moved after 10 s, so only black's clock is running
+        ClockSnapshot moved = new ClockSnapshot(290000, 0, 2, 300000, 0, 1,
+                GameState.RUNNING, Player.BLACK);
+        int before = out.position();
+        SpectatorProtocol.writeUpdate(out, 7, 15000, IDLE, moved);
+        int delta = out.position() - before;
+        assertEquals(SpectatorProtocol.MAX_LENGTH, full);
+        // state, active, white's time and move counter
+        assertEquals(SpectatorProtocol.UPDATE_HEADER_LENGTH + 1 + 1 + 4 + 2,
+                delta);
+
+        SpectatorView view = new SpectatorView();
+        out.flip();
+        // the spectator's clock reads 100 when the server's reads 5000
+        view.read(out, 100);
+        assertTrue(view.isConnected());
+        assertEquals(2, view.getUpdateCount());
+        assertEquals(moved.toString(), view.getSnapshot(7).toString());
+
+        // black's clock runs from the time of the update
+        assertEquals(300000, view.getMsToGo(7, Player.BLACK, 10100));
+        assertEquals(299000, view.getMsToGo(7, Player.BLACK, 11100));
+        assertEquals(290000, view.getMsToGo(7, Player.WHITE, 11100));
+    }
+
+    public void testBronsteinDelayIsUsedFirst() {
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        SpectatorProtocol.writeHello(out, 0);
+        SpectatorProtocol.writeUpdate(out, 1, 0, null, new ClockSnapshot(
+                60000, 5000, 1, 60000, 5000, 1, GameState.RUNNING,
+                Player.WHITE));
+        out.flip();
+        SpectatorView view = new SpectatorView();
+        view.read(out, 0);
+        assertEquals(60000, view.getMsToGo(1, Player.WHITE, 4000));
+        assertEquals(1000, view.getMsDelayToGo(1, Player.WHITE, 4000));
+        assertEquals(58000, view.getMsToGo(1, Player.WHITE, 7000));
+    }
+
+    public void testMessagesSplitAcrossReads() {
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        SpectatorProtocol.writeHello(out, 0);
+        ClockSnapshot previous = null;
+        for (int i = 0; i < 50; i++) {
+            ClockSnapshot next = new ClockSnapshot(300000 - i, 0, 1 + i / 2,
+                    300000 - 2 * i, 0, 1 + i / 3, GameState.RUNNING,
+                    i % 2 == 0 ? Player.WHITE : Player.BLACK);
+            SpectatorProtocol.writeUpdate(out, 3, i, previous, next);
+            previous = next;
+        }
+        out.flip();
+
+        // feed it one to seven bytes at a time
+        SpectatorView view = new SpectatorView();
+        int chunk = 1;
+        while (out.hasRemaining()) {
+            int end = Math.min(out.limit(), out.position() + chunk);
+            ByteBuffer part = out.duplicate();
+            part.limit(end);
+            view.read(part, 0);
+            out.position(end);
+            chunk = chunk % 7 + 1;
+        }
+        assertEquals(50, view.getUpdateCount());
+        assertEquals(previous.toString(), view.getSnapshot(3).toString());
+    }
+}
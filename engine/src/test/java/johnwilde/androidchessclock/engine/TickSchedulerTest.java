@@ -0,0 +1,92 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the timer wakes up exactly when the clock text changes, and
+ * counts how many wakeups that saves over a whole game.
+ */
+public class TickSchedulerTest extends TestCase {
+
+    // the fixed rate the timer used to run at
+    private static final long POST_FAST = 100;
+
+    private ClockFormatter mFormatter = new ClockFormatter();
+
+    // The text must stay the same until the scheduled wakeup, and be
+    // different when it arrives.
+    public void testWakesUpExactlyWhenTextChanges() {
+        for (long ms = -65000; ms <= 65000; ms++)
+            assertWakeupIsExact(ms);
+        for (long ms = 3600000 - 2000; ms <= 3600000 + 2000; ms++)
+            assertWakeupIsExact(ms);
+    }
+
+    public void testFlagFallIsExact() {
+        for (long ms = 1; ms <= 20000; ms++) {
+            long delay = TickScheduler.nextDelay(ms, false);
+            assertTrue(delay <= ms);
+            // repeatedly sleeping must land on 0, not past it
+            long t = ms;
+            while (t > 0)
+                t -= TickScheduler.nextDelay(t, false);
+            assertEquals(0, t);
+        }
+    }
+
+    public void testNegativeTimeNeverStopsAtZero() {
+        long t = 3000;
+        while (t > -3000) {
+            t -= TickScheduler.nextDelay(t, true);
+            assertTrue(t != 0 || TickScheduler.nextDelay(t, true) == 1);
+        }
+    }
+
+    // A 15 minute game, 40 moves each, with most moves played quickly and
+    // an occasional long think. Compare the callbacks posted by the old
+    // 100 ms polling with the adaptive scheduler.
+    public void testScheduledCallbacksOverSimulatedGame() {
+        Random random = new Random(1);
+        long[] clocks = { 15 * 60 * 1000, 15 * 60 * 1000 };
+        long fixed = 0, adaptive = 0;
+
+        for (int move = 0; move < 80; move++) {
+            int player = move % 2;
+            long think = 2000 + (long) (random.nextDouble() * 15000);
+            if (random.nextInt(10) == 0)
+                think += 60000;
+            think = Math.min(think, clocks[player] - 1);
+
+            fixed += (think + POST_FAST - 1) / POST_FAST;
+
+            long ms = clocks[player];
+            long end = ms - think;
+            while (ms > end) {
+                ms -= TickScheduler.nextDelay(ms, false);
+                adaptive++;
+            }
+            clocks[player] = end;
+        }
+
+        System.out.println("Callbacks per game: fixed " + fixed
+                + ", adaptive " + adaptive);
+        assertTrue("expected roughly 10x fewer callbacks",
+                adaptive * 8 < fixed);
+    }
+
+    private void assertWakeupIsExact(long ms) {
+        long delay = TickScheduler.msUntilTextChanges(ms);
+        assertTrue(delay >= 1);
+        String now = text(ms);
+        for (long d = 1; d < delay; d++)
+            assertEquals("at " + ms + " after " + d, now, text(ms - d));
+        assertFalse("at " + ms + " after " + delay, now.equals(text(ms - delay)));
+    }
+
+    private String text(long ms) {
+        mFormatter.format(ms);
+        return mFormatter.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares a TimingWheel with a PriorityQueue for the pattern of a busy
+ * multi-clock host: every move cancels one clock's event and schedules a
+ * new one further out.
+ *
+ * The numbers are written to stdout; the test only fails if the two
+ * disagree about how many events fired.
+ */
+public class TimingWheelBenchmark extends TestCase {
+
+    private static final int CLOCKS = 10000;
+    private static final int MOVES = 2000000;
+
+    private static final TimingWheel.Task NOTHING = new TimingWheel.Task() {
+        @Override
+        public void onTimeout(TimingWheel.Timeout timeout, long now) {
+        }
+    };
+
+    private static final class Entry implements Comparable<Entry> {
+        long deadline;
+
+        @Override
+        public int compareTo(Entry other) {
+            return deadline < other.deadline ? -1
+                    : deadline == other.deadline ? 0 : 1;
+        }
+    }
+
+    public void testWheelIsCheaperThanPriorityQueue() {
+        long check = runWheel(MOVES / 10) + runQueue(MOVES / 10);
+
+        long start = System.nanoTime();
+        int wheelFired = runWheel(MOVES);
+        long wheelNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int queueFired = runQueue(MOVES);
+        long queueNs = System.nanoTime() - start;
+
+        System.out.println(String.format(
+                "reschedule: TimingWheel %.1f ns/op, PriorityQueue %.1f ns/op (%d)",
+                (double) wheelNs / MOVES, (double) queueNs / MOVES, check));
+        assertEquals(queueFired, wheelFired);
+    }
+
+    // deadlines between 1 s and 10 min away, one move per ms
+    private static long nextDeadline(Random random, long now) {
+        return now + 1000 + random.nextInt(600000);
+    }
+
+    private static int runWheel(int moves) {
+        Random random = new Random(1);
+        long now = 0;
+        TimingWheel wheel = new TimingWheel(now);
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[CLOCKS];
+        for (int i = 0; i < CLOCKS; i++) {
+            timeouts[i] = new TimingWheel.Timeout(NOTHING);
+            wheel.schedule(timeouts[i], nextDeadline(random, now));
+        }
+
+        int fired = 0;
+        for (int i = 0; i < moves; i++) {
+            TimingWheel.Timeout t = timeouts[random.nextInt(CLOCKS)];
+            wheel.schedule(t, nextDeadline(random, ++now));
+            if ((i & 63) == 0)
+                fired += wheel.advance(now);
+        }
+        return fired;
+    }
+
+    private static int runQueue(int moves) {
+        Random random = new Random(1);
+        long now = 0;
+        PriorityQueue<Entry> queue = new PriorityQueue<Entry>(CLOCKS);
+        Entry[] entries = new Entry[CLOCKS];
+        for (int i = 0; i < CLOCKS; i++) {
+            entries[i] = new Entry();
+            entries[i].deadline = nextDeadline(random, now);
+            queue.add(entries[i]);
+        }
+
+        int fired = 0;
+        for (int i = 0; i < moves; i++) {
+            Entry e = entries[random.nextInt(CLOCKS)];
+            // a fired entry is no longer in the queue, remove() is O(n)
+            queue.remove(e);
+            e.deadline = nextDeadline(random, ++now);
+            queue.add(e);
+            if ((i & 63) == 0) {
+                while (!queue.isEmpty() && queue.peek().deadline <= now) {
+                    queue.poll();
+                    fired++;
+                }
+            }
+        }
+        return fired;
+    }
+}
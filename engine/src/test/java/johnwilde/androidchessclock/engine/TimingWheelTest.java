@@ -0,0 +1,205 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TimingWheelTest extends TestCase {
+
+    private static final long START = 1000000;
+
+    private List<Long> mFired;
+    private long mLastNow;
+
+    // records the time each timeout fired, and checks it wasn't late
+    private final TimingWheel.Task mRecorder = new TimingWheel.Task() {
+        @Override
+        public void onTimeout(TimingWheel.Timeout timeout, long now) {
+            assertTrue(timeout.getDeadline() <= now);
+            assertFalse(timeout.isScheduled());
+            mFired.add(timeout.getDeadline());
+            mLastNow = now;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFired = new ArrayList<Long>();
+    }
+
+    public void testFiresInOrderOfDeadline() {
+        TimingWheel wheel = new TimingWheel(START);
+        long[] deadlines = { 5, 1, 64, 63, 65, 4096, 4095, 10000, 262144, 2 };
+        for (long d : deadlines)
+            wheel.schedule(START + d, mRecorder);
+        assertEquals(deadlines.length, wheel.size());
+
+        assertEquals(deadlines.length, wheel.advance(START + 300000));
+        assertEquals(0, wheel.size());
+        for (int i = 1; i < mFired.size(); i++)
+            assertTrue(mFired.get(i - 1) <= mFired.get(i));
+    }
+
+    public void testDoesNotFireEarly() {
+        TimingWheel wheel = new TimingWheel(START);
+        wheel.schedule(START + 5000, mRecorder);
+        assertEquals(0, wheel.advance(START + 4999));
+        assertEquals(1, wheel.advance(START + 5000));
+        assertEquals(START + 5000, mLastNow);
+    }
+
+    public void testCancel() {
+        TimingWheel wheel = new TimingWheel(START);
+        TimingWheel.Timeout a = wheel.schedule(START + 10, mRecorder);
+        TimingWheel.Timeout b = wheel.schedule(START + 100000, mRecorder);
+        assertTrue(wheel.cancel(a));
+        assertFalse(wheel.cancel(a));
+        assertFalse(a.isScheduled());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(START + 200000);
+        assertEquals(1, mFired.size());
+        assertEquals(START + 100000, (long) mFired.get(0));
+        assertFalse(wheel.cancel(b));
+    }
+
+    public void testRescheduleMovesTheDeadline() {
+        TimingWheel wheel = new TimingWheel(START);
+        TimingWheel.Timeout t = wheel.schedule(START + 10, mRecorder);
+        wheel.schedule(t, START + 70000);
+        assertEquals(1, wheel.size());
+        assertEquals(0, wheel.advance(START + 69999));
+        assertEquals(1, wheel.advance(START + 70000));
+    }
+
+    public void testPastDeadlineFiresOnNextAdvance() {
+        TimingWheel wheel = new TimingWheel(START);
+        wheel.advance(START + 100);
+        wheel.schedule(START + 50, mRecorder);
+        assertEquals(START + 100, wheel.nextDeadlineBound());
+        assertEquals(1, wheel.advance(START + 100));
+    }
+
+    public void testVeryLongDeadline() {
+        TimingWheel wheel = new TimingWheel(START);
+        long far = START + 400L * 24 * 3600 * 1000;
+        wheel.schedule(far, mRecorder);
+        long now = START;
+        while (wheel.size() > 0) {
+            now = Math.max(now + 1, wheel.nextDeadlineBound());
+            wheel.advance(now);
+        }
+        assertEquals(far, mLastNow);
+    }
+
+    public void testNextDeadlineBound() {
+        TimingWheel wheel = new TimingWheel(START);
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadlineBound());
+
+        TimingWheel.Timeout t = wheel.schedule(START + 30, mRecorder);
+        assertEquals(START + 30, wheel.nextDeadlineBound());
+
+        wheel.advance(START + 50);
+        wheel.schedule(t, START + 60);
+        // exact for deadlines in the current 64 ms slice
+        assertEquals(START + 60, wheel.nextDeadlineBound());
+
+        wheel.schedule(t, START + 50000);
+        long bound = wheel.nextDeadlineBound();
+        assertTrue(bound > START + 50 && bound <= START + 50000);
+    }
+
+    public void testTasksCanCancelAndRescheduleDuringAdvance() {
+        final TimingWheel wheel = new TimingWheel(START);
+        final TimingWheel.Timeout victim = wheel.schedule(START + 10,
+                mRecorder);
+        final int[] repeats = { 0 };
+        TimingWheel.Task repeating = new TimingWheel.Task() {
+            @Override
+            public void onTimeout(TimingWheel.Timeout timeout, long now) {
+                // due at the same time as the victim, which may not have
+                // fired yet
+                wheel.cancel(victim);
+                if (++repeats[0] < 5)
+                    wheel.schedule(timeout, now + 1000);
+            }
+        };
+        wheel.schedule(START + 10, repeating);
+        wheel.schedule(START + 10, repeating);
+
+        for (long now = START; now <= START + 10000; now += 10)
+            wheel.advance(now);
+        // four reschedules, then each timeout fires once more
+        assertEquals(6, repeats[0]);
+        assertTrue(mFired.isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    public void testSelfReschedulingInThePastTerminates() {
+        final TimingWheel wheel = new TimingWheel(START);
+        final int[] count = { 0 };
+        wheel.schedule(START + 10, new TimingWheel.Task() {
+            @Override
+            public void onTimeout(TimingWheel.Timeout timeout, long now) {
+                count[0]++;
+                wheel.schedule(timeout, now - 1);
+            }
+        });
+        wheel.advance(START + 10);
+        int first = count[0];
+        assertTrue(first >= 1 && first <= 2);
+        wheel.advance(START + 10);
+        assertTrue(count[0] > first);
+    }
+
+    // Random schedules, cancels and advances, checked against a list
+    public void testAgainstBruteForce() {
+        Random random = new Random(42);
+        TimingWheel wheel = new TimingWheel(START);
+        List<TimingWheel.Timeout> timeouts = new ArrayList<TimingWheel.Timeout>();
+        for (int i = 0; i < 500; i++)
+            timeouts.add(new TimingWheel.Timeout(mRecorder));
+
+        long now = START;
+        for (int step = 0; step < 20000; step++) {
+            TimingWheel.Timeout t = timeouts.get(random.nextInt(timeouts
+                    .size()));
+            int op = random.nextInt(10);
+            if (op < 5) {
+                long range = 1L << (6 * (1 + random.nextInt(4)));
+                wheel.schedule(t, now + random.nextInt((int) range));
+            } else if (op < 7) {
+                wheel.cancel(t);
+            } else {
+                long next = now + random.nextInt(op == 9 ? 100000 : 100);
+
+                // what should fire
+                List<Long> expected = new ArrayList<Long>();
+                int scheduled = 0;
+                for (TimingWheel.Timeout each : timeouts) {
+                    if (each.isScheduled()) {
+                        scheduled++;
+                        if (each.getDeadline() <= next)
+                            expected.add(each.getDeadline());
+                    }
+                }
+                assertEquals(scheduled, wheel.size());
+                long bound = wheel.nextDeadlineBound();
+                for (TimingWheel.Timeout each : timeouts)
+                    if (each.isScheduled())
+                        assertTrue(bound + " " + now + " " + each.getDeadline(),
+                                bound <= Math.max(now, each.getDeadline()));
+
+                mFired.clear();
+                assertEquals(expected.size(), wheel.advance(next));
+                Collections.sort(expected);
+                assertEquals(expected, mFired);
+                now = next;
+            }
+        }
+    }
+}
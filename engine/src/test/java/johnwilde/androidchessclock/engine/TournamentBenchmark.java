@@ -0,0 +1,152 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import junit.framework.TestCase;
+
+/**
+ * A load test for Tournament: 10,000 boards, each making a move every
+ * 100 ms on average (100,000 presses a second, far more than a real hall),
+ * measuring the time from sending a press to the other clock starting.
+ *
+ * The numbers are written to stdout; the test fails if the 99th
+ * percentile press takes longer than the budget, 1 ms by default, set with
+ * -Dtournament.pressBudgetMs=N. The tail is the garbage collector's: each
+ * press keeps its clocks for undo, so at this rate a young generation
+ * sized for a small heap collects every second, with the presses queued
+ * behind it. Give the JVM one that holds the run (-Xmn512m) to measure the
+ * tournament alone.
+ *
+ * Also times an arbiter's batch command over all the boards, and a
+ * scheduled mass start of all of them, which must have every board running
+ * within START_SPREAD_BUDGET_MS of the first.
+ */
+public class TournamentBenchmark extends TestCase {
+
+    private static final int BOARDS = 10000;
+    private static final int PRESSES_PER_SECOND = 100000;
+    private static final int SECONDS = 3;
+    // presses before the JIT has settled down aren't measured
+    private static final int WARMUP_SECONDS = 1;
+    private static final long START_SPREAD_BUDGET_MS = 250;
+    private static final long PRESS_BUDGET_MS = Long.getLong(
+            "tournament.pressBudgetMs", 1);
+
+    private final long[] mSentAt = new long[BOARDS + 1];
+    private final long[] mLatency = new long[PRESSES_PER_SECOND * SECONDS];
+    private int mSamples;
+
+    // on the tournament's thread
+    private class LatencyListener extends ClockListener.Adapter {
+        private final int mNumber;
+
+        LatencyListener(int number) {
+            mNumber = number;
+        }
+
+        @Override
+        public void onClockRunning(Player player) {
+            long sentAt = mSentAt[mNumber];
+            if (sentAt != 0 && mSamples < mLatency.length)
+                mLatency[mSamples++] = System.nanoTime() - sentAt;
+        }
+    }
+
+    public void testPressLatencyWithTenThousandBoards() throws Exception {
+        Tournament tournament = new Tournament(TimeSource.SYSTEM);
+        ClockSettings settings = ClockSettings.basic(3600, 0,
+                DelayType.FISCHER, false);
+        Board[] boards = new Board[BOARDS];
+        for (int i = 0; i < BOARDS; i++) {
+            boards[i] = tournament.addBoard(settings, new LatencyListener(
+                    i + 1));
+            tournament.start(boards[i]);
+        }
+        tournament.startLoop();
+
+        // visit the boards in turn, so each press has long been handled by
+        // the time its board comes round again
+        long interval = TimeUnit.SECONDS.toNanos(1) / PRESSES_PER_SECOND;
+        long next = System.nanoTime();
+        int warmup = PRESSES_PER_SECOND * WARMUP_SECONDS;
+        int presses = PRESSES_PER_SECOND * SECONDS;
+        // whose turn it is, by the presses sent rather than the clock: if
+        // the tournament falls behind, the clock hasn't switched yet
+        Player[] active = new Player[BOARDS];
+        Arrays.fill(active, Player.WHITE);
+        for (int i = -warmup; i < presses; i++) {
+            int index = (i + warmup) % BOARDS;
+            Board board = boards[index];
+            long now = System.nanoTime();
+            if (next > now)
+                LockSupport.parkNanos(next - now);
+            next += interval;
+            mSentAt[board.getNumber()] = i < 0 ? 0 : System.nanoTime();
+            tournament.press(board, active[index]);
+            active[index] = active[index].other();
+        }
+        tournament.shutdown();
+
+        long[] latency = Arrays.copyOf(mLatency, mSamples);
+        Arrays.sort(latency);
+        long p99 = latency[latency.length * 99 / 100];
+        System.out.println(String.format(
+                "Tournament: %d boards, %d presses, latency p50 %.3f ms, "
+                        + "p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                BOARDS, latency.length, latency[latency.length / 2] / 1e6,
+                p99 / 1e6, latency[latency.length * 999 / 1000] / 1e6,
+                latency[latency.length - 1] / 1e6));
+        assertEquals(presses, latency.length);
+        assertTrue("p99 of " + p99 / 1e6 + " ms is over budget",
+                p99 <= TimeUnit.MILLISECONDS.toNanos(PRESS_BUDGET_MS));
+    }
+
+    public void testBatchOverTenThousandBoards() throws Exception {
+        Tournament tournament = new Tournament(TimeSource.SYSTEM);
+        ClockSettings settings = ClockSettings.basic(3600, 0,
+                DelayType.FISCHER, false);
+        for (int i = 0; i < BOARDS; i++)
+            tournament.start(tournament.addBoard(settings, 1 + i % 10,
+                    null, null));
+        tournament.startLoop();
+
+        int batches = 50;
+        long[] ns = new long[batches];
+        for (int i = 0; i < batches; i++) {
+            long start = System.nanoTime();
+            int changed = tournament.addTime(BoardSelector.ALL, Player.BLACK,
+                    1000).get();
+            ns[i] = System.nanoTime() - start;
+            assertEquals(BOARDS, changed);
+        }
+        tournament.shutdown();
+
+        Arrays.sort(ns);
+        System.out.println(String.format(
+                "Tournament: add time to %d boards, median %.3f ms, max %.3f ms",
+                BOARDS, ns[batches / 2] / 1e6, ns[batches - 1] / 1e6));
+    }
+
+    public void testMassStartOfTenThousandBoards() throws Exception {
+        Tournament tournament = new Tournament(TimeSource.SYSTEM);
+        ClockSettings settings = ClockSettings.basic(3600, 5,
+                DelayType.BRONSTEIN, false);
+        Board[] boards = new Board[BOARDS];
+        for (int i = 0; i < BOARDS; i++)
+            boards[i] = tournament.addBoard(settings, 1, null, null);
+        tournament.startLoop();
+
+        StartReport report = tournament.massStart(BoardSelector.round(1),
+                TimeSource.SYSTEM.uptimeMillis() + 500).get();
+        tournament.shutdown();
+
+        System.out.println("Tournament: mass start of " + report);
+        assertEquals(BOARDS, report.getBoards());
+        assertTrue(report.getSpreadNanos() < TimeUnit.MILLISECONDS
+                .toNanos(START_SPREAD_BUDGET_MS));
+        for (Board board : boards)
+            assertEquals(GameState.RUNNING, board.getClock().getState());
+    }
+}
@@ -0,0 +1,321 @@
+package johnwilde.androidchessclock.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class TournamentTest extends TestCase {
+
+    private ManualTimeSource mTime;
+    private Tournament mTournament;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTime = new ManualTimeSource();
+        mTournament = new Tournament(mTime);
+        mTournament.startLoop();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTournament.shutdown();
+        super.tearDown();
+    }
+
+    // wait for the commands sent so far, and the clock events due before
+    // the last of them
+    private void sync() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mTournament.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    public void testBoardsAreIndependent() throws Exception {
+        ClockSettings settings = ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false);
+        Board one = mTournament.addBoard(settings, null);
+        Board two = mTournament.addBoard(settings, null);
+        assertEquals(1, one.getNumber());
+        assertEquals(2, two.getNumber());
+
+        mTournament.start(one);
+        sync();
+        mTime.advance(10000);
+        mTournament.press(one, Player.WHITE);
+        sync();
+
+        assertEquals(GameState.RUNNING, one.getClock().getState());
+        assertEquals(Player.BLACK, one.getClock().getActive());
+        assertEquals(290000, one.getClock().getMsToGo(Player.WHITE));
+        assertEquals(GameState.IDLE, two.getClock().getState());
+        assertEquals(300000, two.getClock().getMsToGo(Player.WHITE));
+    }
+
+    // A command, listener or Observer that throws is logged, and the
+    // tournament goes on
+    public void testFailuresDontStopTheTournament() throws Exception {
+        final List<String> logged = Collections
+                .synchronizedList(new ArrayList<String>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                logged.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger log = Logger.getLogger(Tournament.class.getName());
+        log.addHandler(handler);
+        log.setUseParentHandlers(false);
+        try {
+            ClockSettings settings = ClockSettings.basic(60, 0,
+                    DelayType.FISCHER, false);
+            final Board faulty = mTournament.addBoard(settings,
+                    new ClockListener.Adapter() {
+                        @Override
+                        public void onClockRunning(Player player) {
+                            throw new IllegalStateException();
+                        }
+
+                        @Override
+                        public void onFlagFall(Player player) {
+                            throw new IllegalStateException();
+                        }
+                    });
+            Board board = mTournament.addBoard(settings, null);
+            final List<Board> changed = Collections
+                    .synchronizedList(new ArrayList<Board>());
+            mTournament.setObserver(new Tournament.Observer() {
+                @Override
+                public void onBoardChanged(Board changedBoard) {
+                    if (changedBoard == faulty)
+                        throw new IllegalStateException();
+                    changed.add(changedBoard);
+                }
+            });
+            mTournament.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException();
+                }
+            });
+            mTournament.start(faulty);
+            mTournament.start(board);
+            sync();
+            assertEquals(GameState.RUNNING, faulty.getClock().getState());
+            assertEquals(GameState.RUNNING, board.getClock().getState());
+            // the Observer is told after the batch the sync was in
+            awaitItem(changed, board);
+
+            mTime.advance(60000);
+            sync();
+            assertEquals(GameState.DONE, faulty.getClock().getState());
+            assertEquals(GameState.DONE, board.getClock().getState());
+            assertTrue(logged.contains("command failed"));
+            assertTrue(logged.contains("Board 1: onClockRunning failed"));
+            assertTrue(logged.contains("Board 1: onFlagFall failed"));
+            awaitItem(logged, "Board 1: onBoardChanged failed");
+        } finally {
+            log.removeHandler(handler);
+            log.setUseParentHandlers(true);
+        }
+    }
+
+    private static void awaitItem(List<?> list, Object item)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!list.contains(item)) {
+            assertTrue(item + " not seen", System.currentTimeMillis()
+                    < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    public void testFlagFallIsReportedOnTheTournamentThread()
+            throws Exception {
+        final Thread[] flagThread = new Thread[1];
+        Board board = mTournament.addBoard(
+                ClockSettings.basic(60, 0, DelayType.FISCHER, false),
+                new ClockListener.Adapter() {
+                    @Override
+                    public void onFlagFall(Player player) {
+                        flagThread[0] = Thread.currentThread();
+                    }
+                });
+        mTournament.start(board);
+        sync();
+
+        mTime.advance(59999);
+        sync();
+        assertEquals(GameState.RUNNING, board.getClock().getState());
+
+        mTime.advance(1);
+        sync();
+        assertEquals(GameState.DONE, board.getClock().getState());
+        assertEquals("Tournament", flagThread[0].getName());
+    }
+
+    public void testPauseAndAdjust() throws Exception {
+        Board board = mTournament.addBoard(
+                ClockSettings.basic(60, 0, DelayType.FISCHER, false), null);
+        mTournament.start(board);
+        mTournament.togglePause(board);
+        mTournament.adjustTime(board, Player.BLACK, 5000);
+        sync();
+        assertEquals(GameState.PAUSED, board.getClock().getState());
+        assertEquals(5000, board.getClock().getMsToGo(Player.BLACK));
+
+        mTournament.reset(board);
+        sync();
+        assertEquals(GameState.IDLE, board.getClock().getState());
+        assertEquals(60000, board.getClock().getMsToGo(Player.BLACK));
+    }
+
+    public void testBatchCommandsBySectionAndRound() throws Exception {
+        ClockSettings settings = ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false);
+        Board[] boards = new Board[8];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = mTournament.addBoard(settings, 4 + i % 2,
+                    i < 4 ? "A" : "B", null);
+            mTournament.start(boards[i]);
+        }
+        sync();
+        mTime.advance(1000);
+
+        // black's clocks in round 5
+        assertEquals(4, (int) mTournament.addTime(BoardSelector.round(5),
+                Player.BLACK, 30000).get());
+        for (Board board : boards)
+            assertEquals(board.getRound() == 5 ? 330000 : 300000, board
+                    .getClock().getMsToGo(Player.BLACK));
+
+        // white is running, so only the white clocks lose time
+        assertEquals(2, (int) mTournament.addTime(
+                BoardSelector.section("A").and(BoardSelector.round(4)),
+                Player.WHITE, -10000).get());
+        assertEquals(289000, boards[0].getClock().getMsToGo(Player.WHITE));
+        assertEquals(299000, boards[1].getClock().getMsToGo(Player.WHITE));
+
+        assertEquals(4, (int) mTournament.reset(BoardSelector.section("B"))
+                .get());
+        for (Board board : boards)
+            assertEquals(board.getSection().equals("B") ? GameState.IDLE
+                    : GameState.RUNNING, board.getClock().getState());
+    }
+
+    public void testPauseAndResumeAll() throws Exception {
+        ClockSettings settings = ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false);
+        Board running = mTournament.addBoard(settings, null);
+        Board idle = mTournament.addBoard(settings, null);
+        mTournament.start(running);
+
+        assertEquals(1, (int) mTournament.pause(BoardSelector.ALL).get());
+        assertEquals(GameState.PAUSED, running.getClock().getState());
+        assertEquals(GameState.IDLE, idle.getClock().getState());
+        // nothing left to pause
+        assertEquals(0, (int) mTournament.pause(BoardSelector.ALL).get());
+
+        mTime.advance(60000);
+        assertEquals(1, (int) mTournament.resume(BoardSelector.ALL).get());
+        assertEquals(GameState.RUNNING, running.getClock().getState());
+        assertEquals(300000, running.getClock().getMsToGo(Player.WHITE));
+    }
+
+    public void testBatchAppliesAtOneInstant() throws Exception {
+        // a clock that moves on by 1 ms every time it is read
+        final ManualTimeSource time = new ManualTimeSource() {
+            @Override
+            public long uptimeMillis() {
+                advance(1);
+                return super.uptimeMillis();
+            }
+        };
+        Tournament tournament = new Tournament(time);
+        tournament.startLoop();
+        ClockSettings settings = ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false);
+        Board[] boards = new Board[100];
+        for (int i = 0; i < boards.length; i++)
+            boards[i] = tournament.addBoard(settings, null);
+
+        tournament.apply(BoardSelector.ALL, new Tournament.BoardAction() {
+            @Override
+            public boolean apply(ChessClock clock) {
+                clock.start();
+                return true;
+            }
+        }).get();
+        tournament.pause(BoardSelector.ALL).get();
+        tournament.shutdown();
+
+        // every clock started at the same time, and was paused at the same
+        // time, however long the batches took
+        long msToGo = boards[0].getClock().getMsToGo(Player.WHITE);
+        assertTrue(msToGo < 300000);
+        for (Board board : boards)
+            assertEquals(msToGo, board.getClock().getMsToGo(Player.WHITE));
+    }
+
+    public void testMassStart() throws Exception {
+        ClockSettings settings = ClockSettings.basic(300, 0,
+                DelayType.FISCHER, false);
+        Board[] boards = new Board[20];
+        for (int i = 0; i < boards.length; i++)
+            boards[i] = mTournament.addBoard(settings, 1 + i % 2, null, null);
+        // already playing, so not part of the mass start
+        mTournament.start(boards[0]);
+
+        long at = mTime.uptimeMillis() + 60000;
+        Future<StartReport> report = mTournament.massStart(
+                BoardSelector.round(1), at);
+        sync();
+        for (Board board : boards) {
+            GameState expected = board == boards[0] ? GameState.RUNNING
+                    : board.getRound() == 1 ? GameState.ARMED
+                            : GameState.IDLE;
+            assertEquals(expected, board.getClock().getState());
+        }
+        // a board reset before the start isn't started
+        mTournament.reset(boards[2]);
+
+        mTime.advance(59999);
+        sync();
+        assertFalse(report.isDone());
+        assertEquals(GameState.ARMED, boards[4].getClock().getState());
+
+        // the tournament only notices 5 ms late
+        mTime.advance(6);
+        StartReport started = report.get();
+        assertEquals(8, started.getBoards());
+        assertEquals(5, started.getLatenessMs());
+        assertTrue(started.getSpreadNanos() >= 0);
+        assertTrue(started.getSpreadNanos() < TimeUnit.SECONDS.toNanos(1));
+        for (int i = 4; i < boards.length; i += 2) {
+            assertEquals(GameState.RUNNING, boards[i].getClock().getState());
+            assertEquals(299995, boards[i].getClock().getMsToGo(Player.WHITE));
+        }
+        assertEquals(GameState.IDLE, boards[2].getClock().getState());
+    }
+}
@@ -0,0 +1,13 @@
+package johnwilde.androidchessclock.engine;
+
+import junit.framework.TestCase;
+
+public class UtilsTest extends TestCase {
+
+    public void testParseTimerOption() {
+        assertEquals(5, Utils.parseTimerOption("5"));
+        assertEquals(0, Utils.parseTimerOption(""));
+        assertEquals(0, Utils.parseTimerOption(null));
+        assertEquals(0, Utils.parseTimerOption("five"));
+    }
+}
@@ -1,5 +1,6 @@
 package johnwilde.androidchessclock;
 
+import johnwilde.androidchessclock.engine.Utils;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
@@ -1,8 +1,38 @@
 package johnwilde.androidchessclock;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.UUID;
 
 import johnwilde.androidchessclock.TimerOptions.TimeControl;
+import johnwilde.androidchessclock.engine.ChessClock;
+import johnwilde.androidchessclock.engine.ClockFormatter;
+import johnwilde.androidchessclock.engine.ClockJournal;
+import johnwilde.androidchessclock.engine.ClockListener;
+import johnwilde.androidchessclock.engine.ClockSettings;
+import johnwilde.androidchessclock.engine.ClockSnapshot;
+import johnwilde.androidchessclock.engine.DelayType;
+import johnwilde.androidchessclock.engine.GameReplay;
+import johnwilde.androidchessclock.engine.GameState;
+import johnwilde.androidchessclock.engine.GameStore;
+import johnwilde.androidchessclock.engine.MoveLog;
+import johnwilde.androidchessclock.engine.MoveTimeChart;
+import johnwilde.androidchessclock.engine.MoveTimes;
+import johnwilde.androidchessclock.engine.PgnWriter;
+import johnwilde.androidchessclock.engine.Player;
+import johnwilde.androidchessclock.engine.PlayerStatistics;
+import johnwilde.androidchessclock.engine.PressLatency;
+import johnwilde.androidchessclock.engine.ReplayPlayer;
+import johnwilde.androidchessclock.engine.TickScheduler;
+import johnwilde.androidchessclock.engine.TimeControlType;
+import johnwilde.androidchessclock.engine.TimeSource;
+import johnwilde.androidchessclock.engine.Utils;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
@@ -12,13 +42,12 @@ import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.RectF;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
+import android.graphics.Typeface;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.PowerManager;
@@ -29,9 +58,11 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.View.OnLongClickListener;
+import android.view.View.OnTouchListener;
 import android.widget.Button;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
@@ -42,39 +73,28 @@ import android.widget.ToggleButton;
 
 /**
  * Activity holding two clocks and two buttons.
+ *
+ * The timekeeping is done by a ChessClock; this class turns button presses
+ * into ChessClock commands and renders what the clock reports.
  */
 public class ChessTimerActivity extends Activity {
 
-    /**
-     * The 4 states are:
-     * 
-     * IDLE: Waiting for a player to make the first move.
-     * 
-     * RUNNING: The timer for one player is running.
-     * 
-     * PAUSED: Neither timer is running, but mActive stores the button of the
-     * player whose timer will start when play is resumed.
-     * 
-     * DONE: Neither timer is running and one timer has reached 0.0. mActive
-     * stores the player whose timer ran out.
-     * 
-     */
-    enum GameState {
-        IDLE, RUNNING, PAUSED, DONE
-    };
-
-    GameState mCurrentState = GameState.IDLE;
-
-    enum TimeControlType {
-        BASIC, TOURNAMENT
-    };
+    // The game itself, see GameState for the states it moves through.
+    ChessClock mClock;
+    ClockSettings mSettings;
+    // every event of the game, null if the file couldn't be opened
+    MoveLog mMoveLog;
+    // syncs mMoveLog to storage
+    ClockJournal mJournal;
+    // the game was recovered from mMoveLog when the activity was created
+    boolean mRecovered;
+    // the games played to the end, null until one is stored or exported
+    GameStore mGameStore;
+    // while the game is replayed, the clocks show the replay's
+    ReplayPlayer mReplay;
 
     TimeControlType mTimeControlType = TimeControlType.BASIC;
 
-    enum DelayType {
-        FISCHER, BRONSTEIN;
-    }
-
     DelayType mDelayType;
 
     PlayerButton mButton1, mButton2; // The two big buttons
@@ -84,19 +104,6 @@ public class ChessTimerActivity extends Activity {
     ToggleButton mPauseButton;
     AlertDialog mPauseDialog;
 
-    // This field holds a reference to either mButton1 or mButton2.
-    //
-    // if mCurrentState == IDLE:
-    // it will be null.
-    // if mCurrentState == RUNNING:
-    // it will point to the player whose clock is running
-    // if mCurrentState == PAUSED:
-    // it will point to the player whose clock was running
-    // when paused
-    // if mCurrentState == DONE:
-    // it will point to the player whose clock ran out of fime
-    PlayerButton mActive = null;
-
     private SharedPreferences mSharedPref;
 
     // The values below are populated from the user preferences
@@ -104,6 +111,7 @@ public class ChessTimerActivity extends Activity {
     int mIncrementSeconds;
     boolean mAllowNegativeTime = false;
     boolean mShowMoveCounter = false;
+    boolean mShowMoveStats = false;
     private boolean mWhiteOnLeft = false;
     private int mWakeLockType;
     // set when using TOURNAMENT time control
@@ -112,15 +120,21 @@ public class ChessTimerActivity extends Activity {
 
     // used to keep the screen bright during play
     private WakeLock mWakeLock;
-    // for sounding buzzer
-    MediaPlayer mMediaPlayerBell;
+    // the click and the buzzer, loaded once
+    private ClockSounds mSounds;
+    // the buttons that start a clock are disabled until the sounds are
+    // loaded (or won't be)
+    private boolean mHoldingPresses;
 
     private boolean mPlaySoundAtEnd;
 
-    private MediaPlayer mMediaPlayerClick;
-
     private boolean mPlaySoundOnClick;
 
+    // when the tap being handled was, in uptime ms; 0 between taps
+    private long mTapAt;
+    // how long presses take, see showDiagnostics()
+    private final PressLatency mPressLatency = new PressLatency();
+
     // Constants
     public final static String EXTRA_COLOR = "johnwilde.androidchessclock.COLOR";
     public final static String EXTRA_TIME = "johnwilde.androidchessclock.TIME";
@@ -130,6 +144,20 @@ public class ChessTimerActivity extends Activity {
     private static final int BUTTON_VISIBLE = 255;
     private static final int REQUEST_CODE_PREFERENCES = 1;
     private static final int REQUEST_CODE_ADJUST_TIME = 2;
+    private static final String MOVE_LOG_FILE = "moves.log";
+    // at most this many ms, or events, are lost if the device loses power
+    private static final long JOURNAL_SYNC_DELAY_MS = 200;
+    private static final int JOURNAL_SYNC_BATCH = 16;
+    private static final String GAME_STORE_DIRECTORY = "games";
+    private static final String PGN_FILE = "games.pgn";
+    private static final String LATENCY_FILE = "latency.csv";
+
+    private static final TimeSource UPTIME = new TimeSource() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    };
 
     // Create all the objects and enter IDLE state
     @Override
@@ -144,16 +172,20 @@ public class ChessTimerActivity extends Activity {
         mSharedPref = PreferenceManager.getDefaultSharedPreferences(this);
         PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
         loadAllUserPreferences();
+        mClock = new ChessClock(mSettings, UPTIME);
+        openMoveLog();
 
-        Timer whiteTimer = new Timer(R.id.whiteClock,
+        Timer whiteTimer = new Timer(Player.WHITE, R.id.whiteClock,
                 R.id.whiteSpinnerContainer, "white");
         mButton1 = new PlayerButton(whiteTimer, R.id.whiteButton,
                 R.id.whiteMoveCounter);
-        Timer blackTimer = new Timer(R.id.blackClock,
+        Timer blackTimer = new Timer(Player.BLACK, R.id.blackClock,
                 R.id.blackSpinnerContainer, "black");
         mButton2 = new PlayerButton(blackTimer, R.id.blackButton,
                 R.id.blackMoveCounter);
 
+        mClock.setListener(new ClockEvents());
+
         mResetButton = (Button) findViewById(R.id.reset_button);
         mStartButton = (Button) findViewById(R.id.start_button);
         mStartButton.setOnClickListener(new StartButtonClickListener());
@@ -170,43 +202,71 @@ public class ChessTimerActivity extends Activity {
         mResetButton.setOnClickListener(new ResetButtonClickListener());
 
         mOverflowButton = (ImageButton) findViewById(R.id.overflowButton);
-        mOverflowButton.setOnClickListener(new OverflowButtonClickListener());
+        OverflowButtonClickListener overflow =
+                new OverflowButtonClickListener();
+        mOverflowButton.setOnClickListener(overflow);
+        mOverflowButton.setOnLongClickListener(overflow);
 
         // enable following line to clear settings if they are in a bad state
         // mSharedPref.edit().clear().apply();
 
-        transitionTo(GameState.IDLE);
+        // pick up a game the process was killed in the middle of, running
+        // clock and all
+        mRecovered = mMoveLog != null
+                && ClockJournal.recover(mMoveLog, mClock);
+        if (!mRecovered) {
+            clearMoveLog();
+            mClock.reset();
+        }
 
         acquireWakeLock();
-        acquireMediaPlayer();
+        // a press before the sounds are loaded would be silent, if they
+        // are played at all; but a running clock's player can always press
+        mHoldingPresses = (mPlaySoundOnClick || mPlaySoundAtEnd)
+                && mClock.getState() != GameState.RUNNING;
+        if (mHoldingPresses)
+            setClockButtonsEnabled(false);
+        // after the recovery, which mustn't click
+        mSounds = new ClockSounds(this, new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "sounds loaded: " + mSounds.isLoaded());
+                if (mHoldingPresses) {
+                    mHoldingPresses = false;
+                    setClockButtonsEnabled(true);
+                }
+            }
+        });
 
         Log.d(TAG, "Finished onCreate()");
     }
 
     @Override
     public void onPause() {
+        // nobody is looking, only wake up for flag fall
+        mButton1.timer.setVisible(false);
+        mButton2.timer.setVisible(false);
         releaseWakeLock();
-        releaseMediaPlayer(mMediaPlayerBell);
-        releaseMediaPlayer(mMediaPlayerClick);
-        mMediaPlayerBell = null;
-        mMediaPlayerClick = null;
+        Log.d(TAG, "tap to click ms: " + mSounds.getTapToPlayMs()
+                + "; missed " + mSounds.getMissed() + "; output buffer ms "
+                + ClockSounds.getOutputBufferMs());
         super.onPause();
     }
 
     @Override
     public void onResume() {
         acquireWakeLock();
-        acquireMediaPlayer();
+        mButton1.timer.setVisible(true);
+        mButton2.timer.setVisible(true);
         super.onResume();
     }
 
     @Override
     public void onDestroy() {
+        closeMoveLog();
+        closeGameStore();
         releaseWakeLock();
-        releaseMediaPlayer(mMediaPlayerBell);
-        releaseMediaPlayer(mMediaPlayerClick);
-        mMediaPlayerBell = null;
-        mMediaPlayerClick = null;
+        mSounds.release();
         super.onDestroy();
     }
 
@@ -216,20 +276,22 @@ public class ChessTimerActivity extends Activity {
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        if (mCurrentState == GameState.RUNNING)
+        if (mClock.getState() == GameState.RUNNING)
             mPauseButton.performClick(); // pause, if not IDLE
 
-        outState.putLong("Timer1", mButton1.timer.getMsToGo());
-        outState.putLong("Timer1Delay", mButton1.timer.getMsDelayToGo());
-        outState.putLong("Timer2", mButton2.timer.getMsToGo());
-        outState.putLong("Timer2Delay", mButton2.timer.getMsDelayToGo());
-        outState.putInt("MoveCounter1", mButton1.mMoveNumber);
-        outState.putInt("MoveCounter2", mButton2.mMoveNumber);
-        outState.putString("State", mCurrentState.toString());
-
-        // if IDLE, the current state is NULL
-        if (mCurrentState != GameState.IDLE)
-            outState.putInt("ActiveButton", mActive.getButtonId());
+        ClockSnapshot snapshot = mClock.snapshot();
+        outState.putLong("Timer1", snapshot.getMsToGo(Player.WHITE));
+        outState.putLong("Timer1Delay", snapshot.getMsDelayToGo(Player.WHITE));
+        outState.putLong("Timer2", snapshot.getMsToGo(Player.BLACK));
+        outState.putLong("Timer2Delay", snapshot.getMsDelayToGo(Player.BLACK));
+        outState.putInt("MoveCounter1", snapshot.getMoveNumber(Player.WHITE));
+        outState.putInt("MoveCounter2", snapshot.getMoveNumber(Player.BLACK));
+        outState.putString("State", snapshot.getState().toString());
+
+        // if IDLE, the active player is NULL
+        if (snapshot.getState() != GameState.IDLE)
+            outState.putInt("ActiveButton", button(snapshot.getActive())
+                    .getButtonId());
     }
 
     // This is called after onCreate() and restores the activity state
@@ -239,36 +301,34 @@ public class ChessTimerActivity extends Activity {
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
 
+        // the journal has the same game, and more exactly
+        if (mRecovered) {
+            if (mClock.getState() == GameState.PAUSED)
+                showPauseToast();
+            return;
+        }
+
         GameState stateToRestore = GameState.valueOf(savedInstanceState
                 .getString("State"));
 
-        // onCreate() puts us in IDLE and we don't need to do anything else
-        if (stateToRestore == GameState.IDLE)
-            return;
-
-        long activeButtonId = savedInstanceState.getInt("ActiveButton");
-        boolean button1Active = (mButton1.getButtonId() == activeButtonId ? true
-                : false);
-        boolean button2Active = (mButton2.getButtonId() == activeButtonId ? true
-                : false);
+        // if IDLE, only the times are restored, in case they were adjusted
+        Player active = null;
+        if (stateToRestore != GameState.IDLE) {
+            long activeButtonId = savedInstanceState.getInt("ActiveButton");
+            active = (mButton1.getButtonId() == activeButtonId ? Player.WHITE
+                    : Player.BLACK);
+        }
 
-        mButton1.setTimeAndState(savedInstanceState.getLong("Timer1"),
+        mClock.restore(new ClockSnapshot(savedInstanceState.getLong("Timer1"),
                 savedInstanceState.getLong("Timer1Delay"),
-                savedInstanceState.getInt("MoveCounter1"), button1Active);
-        mButton2.setTimeAndState(savedInstanceState.getLong("Timer2"),
+                savedInstanceState.getInt("MoveCounter1"),
+                savedInstanceState.getLong("Timer2"),
                 savedInstanceState.getLong("Timer2Delay"),
-                savedInstanceState.getInt("MoveCounter2"), button2Active);
-
-        if (stateToRestore == GameState.DONE) {
-            transitionTo(GameState.DONE);
-            return;
-        }
-
-        if (stateToRestore == GameState.PAUSED) {
-            transitionToPauseAndToast();
-            return;
-        }
+                savedInstanceState.getInt("MoveCounter2"), stateToRestore,
+                active));
 
+        if (mClock.getState() == GameState.PAUSED)
+            showPauseToast();
     }
 
     @Override
@@ -281,6 +341,8 @@ public class ChessTimerActivity extends Activity {
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         transitionToPauseAndToast();
+        menu.findItem(R.id.optionsmenu_undo).setEnabled(mClock.canUndo());
+        menu.findItem(R.id.optionsmenu_redo).setEnabled(mClock.canRedo());
         return true;
     }
 
@@ -294,6 +356,21 @@ public class ChessTimerActivity extends Activity {
         case R.id.optionsmenu_about:
             showAboutDialog();
             break;
+        case R.id.optionsmenu_undo:
+            mClock.undo();
+            break;
+        case R.id.optionsmenu_redo:
+            mClock.redo();
+            break;
+        case R.id.optionsmenu_move_times:
+            showMoveTimeChart();
+            break;
+        case R.id.optionsmenu_export_pgn:
+            exportGames();
+            break;
+        case R.id.optionsmenu_replay:
+            showReplay();
+            break;
         // Generic catch all for all the other menu resources
         default:
             break;
@@ -321,7 +398,7 @@ public class ChessTimerActivity extends Activity {
             if (data.getBooleanExtra(
                     TimerOptions.TimerPref.LOAD_ALL.toString(), false)) {
                 loadAllUserPreferences();
-                transitionTo(GameState.IDLE);
+                newGame();
                 return; // exit early
             } else {
                 loadUiPreferences();
@@ -337,55 +414,237 @@ public class ChessTimerActivity extends Activity {
             else
                 button = mButton2;
 
-            button.adjustTime(newTime);
-            if (mActive != null && mActive != button) {
+            mClock.adjustTime(button.mPlayer, newTime);
+            if (mClock.getActive() != null
+                    && mClock.getActive() != button.mPlayer) {
                 button.setTransparency(BUTTON_FADED);
             }
 
         }
     }
 
-    private void acquireMediaPlayer() {
-        releaseMediaPlayer(mMediaPlayerBell);
-        releaseMediaPlayer(mMediaPlayerClick);
-        if (mPlaySoundAtEnd) {
-            mMediaPlayerBell = getMediaPlayer(R.raw.bell);
+    // Record the game's events, from the RESET it started with
+    private void openMoveLog() {
+        File file = new File(getFilesDir(), MOVE_LOG_FILE);
+        try {
+            try {
+                mMoveLog = MoveLog.open(file, getBoot());
+            } catch (IOException ex) {
+                // of an older version, say: the game on the clock is lost,
+                // but the finished ones are in the game store
+                Log.d(TAG, "move log replaced:", ex);
+                file.delete();
+                mMoveLog = MoveLog.open(file, getBoot());
+            }
+            mJournal = new ClockJournal(mMoveLog, JOURNAL_SYNC_DELAY_MS,
+                    JOURNAL_SYNC_BATCH);
+            mClock.setRecorder(mJournal);
+        } catch (IOException ex) {
+            Log.d(TAG, "move log unavailable:", ex);
         }
-        if (mPlaySoundOnClick) {
-            mMediaPlayerClick = getMediaPlayer(R.raw.click);
+    }
+
+    // Identifies the device's boot, since the uptime the clock's times are
+    // from starts again with it: the kernel's boot id, or failing that the
+    // minute the device was started by the wall clock
+    private static long getBoot() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(
+                    "/proc/sys/kernel/random/boot_id"));
+            try {
+                String line = in.readLine();
+                if (line != null) {
+                    UUID id = UUID.fromString(line.trim());
+                    return id.getMostSignificantBits()
+                            ^ id.getLeastSignificantBits();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            // not readable here
+        } catch (IllegalArgumentException ex) {
+            // not a boot id
         }
+        return (System.currentTimeMillis() - SystemClock.elapsedRealtime())
+                / 60000;
+    }
 
+    // The games before the next are in the game store: start the log again
+    // from its RESET, so that it doesn't grow with every game played
+    private void clearMoveLog() {
+        if (mMoveLog != null)
+            mMoveLog.clear();
     }
 
-    private MediaPlayer getMediaPlayer(int media) {
-        MediaPlayer mediaPlayer = null;
+    private void closeMoveLog() {
+        if (mMoveLog == null)
+            return;
+        mClock.setRecorder(null);
         try {
-            AssetFileDescriptor afd = getResources().openRawResourceFd(media);
-            if (afd == null)
-                return null;
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(afd.getFileDescriptor(),
-                    afd.getStartOffset(), afd.getLength());
-            afd.close();
-            mediaPlayer.setAudioStreamType(AudioManager.STREAM_ALARM);
-            mediaPlayer.prepareAsync();
+            mJournal.close();
+            mMoveLog.close();
         } catch (IOException ex) {
-            Log.d(TAG, "create failed:", ex);
-            // fall through
-        } catch (IllegalArgumentException ex) {
-            Log.d(TAG, "create failed:", ex);
-            // fall through
-        } catch (SecurityException ex) {
-            Log.d(TAG, "create failed:", ex);
-            // fall through
+            Log.d(TAG, "move log close failed:", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        mJournal = null;
+        mMoveLog = null;
+    }
+
+    // The history of games, opened when a game is stored or exported
+    // rather than with the activity: null if it can't be
+    private GameStore getGameStore() {
+        if (mGameStore != null)
+            return mGameStore;
+        try {
+            mGameStore = GameStore.open(new File(getFilesDir(),
+                    GAME_STORE_DIRECTORY));
+        } catch (IOException ex) {
+            Log.d(TAG, "game store unavailable:", ex);
+        }
+        return mGameStore;
+    }
+
+    private void closeGameStore() {
+        if (mGameStore == null)
+            return;
+        try {
+            mGameStore.close();
+        } catch (IOException ex) {
+            Log.d(TAG, "game store close failed:", ex);
+        }
+        mGameStore = null;
+    }
+
+    // Keep the game on the clock in the history, if any moves were made
+    void storeGame(Player flagged) {
+        if (mMoveLog == null)
+            return;
+        MoveTimes times = MoveTimes.fromLog(mMoveLog);
+        if (times.getCount(Player.WHITE) == 0)
+            return;
+        GameStore store = getGameStore();
+        if (store == null)
+            return;
+        try {
+            store.add(mClock.getSettings(), times, flagged);
+            store.flush();
+        } catch (IOException ex) {
+            Log.d(TAG, "game not stored:", ex);
         }
-        return mediaPlayer;
     }
 
-    private void releaseMediaPlayer(MediaPlayer mediaPlayer) {
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
+    // Where exported files go: the app's directory on external storage,
+    // which other apps can read, if there is one (Android 2.2 and later)
+    private File getExportDirectory() {
+        File directory = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO)
+            directory = getExternalFilesDir(null);
+        return directory != null ? directory : getFilesDir();
+    }
+
+    // Write the stored games to a PGN file other apps can read
+    public void exportGames() {
+        GameStore store = getGameStore();
+        if (store == null)
+            return;
+        File file = new File(getExportDirectory(), PGN_FILE);
+        String message;
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"));
+            try {
+                new PgnWriter(out).writeAll(store);
+            } finally {
+                out.close();
+            }
+            message = getString(R.string.export_pgn_done,
+                    store.size(), file.getPath());
+        } catch (IOException ex) {
+            Log.d(TAG, "export failed:", ex);
+            message = getString(R.string.export_pgn_failed);
         }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    // The measurements of how long presses take, for comparing devices and
+    // releases: hidden, opened by a long press of the overflow button
+    public void showDiagnostics() {
+        StringBuilder text = new StringBuilder();
+        try {
+            writeDiagnostics(text);
+        } catch (IOException ex) {
+            // a StringBuilder doesn't throw
+        }
+        TextView view = new TextView(this);
+        view.setTypeface(Typeface.MONOSPACE);
+        view.setPadding(16, 16, 16, 16);
+        view.setText(text);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.diagnostics_title)
+                .setView(view)
+                .setPositiveButton(R.string.OK, null)
+                .setNeutralButton(R.string.diagnostics_export,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog,
+                                    int which) {
+                                exportDiagnostics();
+                            }
+                        })
+                .setNegativeButton(R.string.reset_button,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog,
+                                    int which) {
+                                mPressLatency.reset();
+                                mSounds.getTapToPlayMs().reset();
+                            }
+                        }).show();
+    }
+
+    // What was measured on which device and release, then the stages of a
+    // press in microseconds (see PressLatency)
+    private void writeDiagnostics(Appendable out) throws IOException {
+        out.append("# " + getString(R.string.app_name) + " "
+                + getPackageVersion() + ", Android " + Build.VERSION.RELEASE
+                + ", " + Build.MANUFACTURER + " " + Build.MODEL + "\n");
+        mPressLatency.write(out);
+        out.append("# tap to click ms: " + mSounds.getTapToPlayMs()
+                + "; missed " + mSounds.getMissed() + "; output buffer ms "
+                + ClockSounds.getOutputBufferMs() + "\n");
+    }
+
+    private void exportDiagnostics() {
+        File file = new File(getExportDirectory(), LATENCY_FILE);
+        String message;
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"));
+            try {
+                writeDiagnostics(out);
+            } finally {
+                out.close();
+            }
+            message = getString(R.string.diagnostics_export_done,
+                    file.getPath());
+        } catch (IOException ex) {
+            Log.d(TAG, "export failed:", ex);
+            message = getString(R.string.diagnostics_export_failed);
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    // Reset the clock with mSettings. A game that was in progress is over:
+    // keep it (one that ended on time was kept when the flag fell)
+    void newGame() {
+        GameState state = mClock.getState();
+        if (state == GameState.RUNNING || state == GameState.PAUSED)
+            storeGame(null);
+        clearMoveLog();
+        mClock.reset(mSettings);
     }
 
     private void releaseWakeLock() {
@@ -405,15 +664,12 @@ public class ChessTimerActivity extends Activity {
         Log.d(TAG, "acquired wake lock " + mWakeLock);
     }
 
-    // All state transitions occur here. The logic that controls
-    // the UI elements is here.
-    public void transitionTo(GameState state) {
-        GameState start = mCurrentState;
-
+    // Called after every state transition of the clock. The logic that
+    // controls the UI elements is here.
+    void showState(GameState start, GameState state) {
         switch (state) {
         case IDLE:
-            mCurrentState = GameState.IDLE;
-            mStartButton.setEnabled(true);
+            mStartButton.setEnabled(!mHoldingPresses);
             mStartButton.setVisibility(View.VISIBLE);
             mResetButton.setEnabled(false);
             mPauseButton.setVisibility(View.GONE);
@@ -421,73 +677,104 @@ public class ChessTimerActivity extends Activity {
             mButton2.reset();
             break;
 
+        case ARMED:
+            // waiting for a scheduled start, which only reset cancels
+            mStartButton.setEnabled(false);
+            mStartButton.setVisibility(View.VISIBLE);
+            mResetButton.setEnabled(true);
+            mPauseButton.setVisibility(View.GONE);
+            break;
+
         case RUNNING:
-            mCurrentState = GameState.RUNNING;
             mResetButton.setEnabled(true);
             mStartButton.setEnabled(false);
             mStartButton.setVisibility(View.GONE);
             mPauseButton.setVisibility(View.VISIBLE);
             mPauseButton.setClickable(true); // enable 'pause'
             mPauseButton.setChecked(false); // set toggle to show "pause" text
-
-            // start the clock
-            mActive.moveStarted();
             break;
 
         case PAUSED:
-            mCurrentState = GameState.PAUSED;
             mStartButton.setVisibility(View.GONE);
             mPauseButton.setVisibility(View.VISIBLE);
             mPauseButton.setChecked(true); // Changes text on Pause button
             mPauseButton.setClickable(true); // enable 'resume'
-            // pause the clock
-            mActive.timer.pause();
             break;
 
         case DONE:
-            if (mActive != null) {
-                mCurrentState = GameState.DONE;
-                mStartButton.setEnabled(true);
-                mStartButton.setVisibility(View.VISIBLE);
-                mPauseButton.setVisibility(View.GONE);
-                mResetButton.setEnabled(true);
-                mPauseButton.setClickable(false); // disable pause when DONE
-                break;
-            } else {
-                Log.d(TAG,
-                        "Can't tranition to DONE when neither player is active");
-                return;
-            }
-
+            mStartButton.setEnabled(!mHoldingPresses);
+            mStartButton.setVisibility(View.VISIBLE);
+            mPauseButton.setVisibility(View.GONE);
+            mResetButton.setEnabled(true);
+            mPauseButton.setClickable(false); // disable pause when DONE
+            break;
         }
 
-        Log.d(TAG, "Transition from " + start + " to " + mCurrentState);
+        Log.d(TAG, "Transition from " + start + " to " + state);
+
+    }
 
+    // The player buttons, and the start button if the clock can be started
+    private void setClockButtonsEnabled(boolean enabled) {
+        mButton1.button.setEnabled(enabled);
+        mButton2.button.setEnabled(enabled);
+        GameState state = mClock.getState();
+        mStartButton.setEnabled(enabled
+                && (state == GameState.IDLE || state == GameState.DONE));
     }
 
     public void setActiveButtonAndMoveCount(PlayerButton button) {
-        mActive = button;
+        PlayerButton active = button;
 
         // Give visual indication of which player goes next by fading
         // the button of the player who just moved
-        mActive.setTransparency(BUTTON_VISIBLE);
-        PlayerButton other = (mButton1 == mActive ? mButton2 : mButton1);
+        active.setTransparency(BUTTON_VISIBLE);
+        PlayerButton other = (mButton1 == active ? mButton2 : mButton1);
         other.setTransparency(BUTTON_FADED);
 
-        if (mShowMoveCounter) {
-            mActive.mMoveCounter.setVisibility(View.VISIBLE);
-            String s = getString(R.string.move_counter_text) + " "
-                    + mActive.mMoveNumber;
-            mActive.mMoveCounter.setText(s);
+        if (mShowMoveCounter || mShowMoveStats) {
+            active.mMoveCounter.setVisibility(View.VISIBLE);
+            active.mMoveCounter.setText(moveCounterText(active.mPlayer));
             other.mMoveCounter.setVisibility(View.GONE);
         } else {
-            mActive.mMoveCounter.setVisibility(View.GONE);
+            active.mMoveCounter.setVisibility(View.GONE);
             other.mMoveCounter.setVisibility(View.GONE);
         }
 
         Log.d(TAG, "Setting active button = " + button.getButtonId());
     }
 
+    // The move number and, if enabled, the player's statistics
+    private String moveCounterText(Player player) {
+        StringBuilder text = new StringBuilder();
+        if (mShowMoveCounter)
+            text.append(getString(R.string.move_counter_text)).append(' ')
+                    .append(mClock.getMoveNumber(player));
+        if (!mShowMoveStats)
+            return text.toString();
+
+        PlayerStatistics statistics = mClock.getStatistics(player);
+        if (statistics.getCount() > 0)
+            appendStat(text, getString(R.string.move_stats_text,
+                    Utils.formatTime((long) statistics.getMeanMs()),
+                    Utils.formatTime((long) statistics
+                            .getStandardDeviationMs())));
+        int toControl = mClock.getMovesToTimeControl(player);
+        if (toControl > 0)
+            appendStat(text, getString(R.string.moves_to_control_text,
+                    toControl));
+        int flagFall = mClock.getFlagFallForecast(player);
+        if (flagFall > 0)
+            appendStat(text, getString(R.string.flag_forecast_text, flagFall));
+        return text.toString();
+    }
+
+    private static void appendStat(StringBuilder text, String stat) {
+        if (text.length() > 0)
+            text.append('\n');
+        text.append(stat);
+    }
+
     public void launchPreferencesActivity() {
         // launch an activity through this intent
         Intent launchPreferencesIntent = new Intent().setClass(this,
@@ -524,6 +811,53 @@ public class ChessTimerActivity extends Activity {
         alert.show();
     }
 
+    // How long each move took, from the move log
+    public void showMoveTimeChart() {
+        if (mMoveLog == null)
+            return;
+        MoveTimes times = MoveTimes.fromLog(mMoveLog);
+        if (times.getCount(Player.WHITE) == 0)
+            return;
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.move_times_title)
+                .setView(new MoveTimeChartView(this, new MoveTimeChart(times)))
+                .setPositiveButton(R.string.OK, null).show();
+    }
+
+    // Replay the game from the move log on the clocks, paused first if it
+    // is running
+    public void showReplay() {
+        if (mMoveLog == null)
+            return;
+        GameReplay replay = GameReplay.fromLog(mMoveLog, mClock.getSettings());
+        if (replay == null)
+            return;
+        transitionToPauseAndToast();
+        mReplay = new ReplayPlayer(replay, UPTIME);
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.replay_title)
+                .setView(new ReplayView(this, mReplay,
+                        new ReplayView.Listener() {
+                            @Override
+                            public void onReplayPositionChanged() {
+                                updateTimers();
+                            }
+                        })).setPositiveButton(R.string.OK, null).create();
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface d) {
+                mReplay = null;
+                updateTimers();
+            }
+        });
+        dialog.show();
+    }
+
+    void updateTimers() {
+        mButton1.timer.updateTimerText();
+        mButton2.timer.updateTimerText();
+    }
+
     private String getPackageVersion() {
 
         try {
@@ -573,6 +907,11 @@ public class ChessTimerActivity extends Activity {
             mTimeControlType = TimeControlType.TOURNAMENT;
             loadAdvancedTimeControlUserPreference();
         }
+
+        // used by the clock the next time it is reset
+        mSettings = new ClockSettings(mTimeControlType,
+                mInitialDurationSeconds, mIncrementSeconds, mDelayType,
+                mAllowNegativeTime, mPhase1NumberMoves, mPhase2Minutes);
     }
 
     private void loadBasicTimeControlUserPreference() {
@@ -599,8 +938,10 @@ public class ChessTimerActivity extends Activity {
     private void loadMoveCounterUserPreference() {
         mShowMoveCounter = mSharedPref.getBoolean(
                 TimerOptions.Key.SHOW_MOVE_COUNTER.toString(), false);
-        if (mCurrentState == GameState.PAUSED)
-            setActiveButtonAndMoveCount(mActive);
+        mShowMoveStats = mSharedPref.getBoolean(
+                TimerOptions.Key.SHOW_MOVE_STATS.toString(), false);
+        if (mClock != null && mClock.getState() == GameState.PAUSED)
+            setActiveButtonAndMoveCount(button(mClock.getActive()));
     }
 
     private void loadSwapSidesUserPreference() {
@@ -614,7 +955,6 @@ public class ChessTimerActivity extends Activity {
                 TimerOptions.Key.PLAY_BELL.toString(), false);
         mPlaySoundOnClick = mSharedPref.getBoolean(
                 TimerOptions.Key.PLAY_CLICK.toString(), false);
-        acquireMediaPlayer();
     }
 
     private void configureSides() {
@@ -697,19 +1037,8 @@ public class ChessTimerActivity extends Activity {
     }
 
     private int getTimerOptionsValue(TimerOptions.Key key) {
-        try {
-            String s = mSharedPref.getString(key.toString(), "0");
-
-            if (s.length() == 0) {
-                s = "0";
-            }
-
-            return (Integer.parseInt(s));
-
-        } catch (NumberFormatException ex) {
-            Log.d(TAG, ex.getMessage());
-            return 0;
-        }
+        return Utils.parseTimerOption(mSharedPref.getString(key.toString(),
+                "0"));
     }
 
     private void setInitialDuration(int seconds) {
@@ -721,25 +1050,21 @@ public class ChessTimerActivity extends Activity {
     }
 
     // Class to aggregate a button, a timer and a move counter.
-    // It provides a method for setting the time which is used when the
-    // activity must be recreated after it had been started.
-    // The methods of this class implement the logic of when time
-    // should be added to each clock according to the style of time
-    // control that the user configured.
+    // The time and move count themselves are kept by mClock.
     class PlayerButton {
         Timer timer;
         ImageButton button;
         TextView mMoveCounter;
         boolean isFaded = false;
         private int mId;
-        private int mMoveNumber;
+        final Player mPlayer;
 
         PlayerButton(Timer timer, int buttonId, int moveCounterId) {
             this.timer = timer;
             button = (ImageButton) findViewById(buttonId);
             mMoveCounter = (TextView) findViewById(moveCounterId);
             mId = buttonId;
-            mMoveNumber = 1;
+            mPlayer = timer.mPlayer;
         }
 
         public int getButtonId() {
@@ -748,6 +1073,7 @@ public class ChessTimerActivity extends Activity {
 
         void setButtonListener(PlayerButtonClickListener listener) {
             button.setOnClickListener(listener);
+            button.setOnTouchListener(listener);
         }
 
         // 0 is fully transparent, 255 is fully opaque
@@ -760,56 +1086,78 @@ public class ChessTimerActivity extends Activity {
             button.invalidateDrawable(button.getDrawable());
         }
 
-        public void setTimeAndState(long time, long delay, int moveCount,
-                boolean isActive) {
-            if (isActive)
-                setActiveButtonAndMoveCount(this);
-            mMoveNumber = moveCount;
-            timer.initializeWithValue(time, delay);
-        }
-
-        public void adjustTime(long time) {
-            timer.initializeWithValue(time, timer.getMsDelayToGo());
-        }
-
         // Put the button into the initial 'IDLE' configuration
         public void reset() {
-            mMoveNumber = 1;
-            timer.reset();
             setTransparency(BUTTON_VISIBLE);
             mMoveCounter.setVisibility(View.GONE);
         }
+    }
 
-        public void moveFinished() {
+    PlayerButton button(Player player) {
+        return player == Player.WHITE ? mButton1 : mButton2;
+    }
 
-            mMoveNumber++;
+    /**
+     * Renders what the clock reports.
+     */
+    final class ClockEvents implements ClockListener {
+        @Override
+        public void onStateChanged(GameState from, GameState to) {
+            showState(from, to);
+        }
 
-            if (mTimeControlType == TimeControlType.TOURNAMENT) {
-                if (mMoveNumber == (mPhase1NumberMoves + 1)) {
-                    timer.increment(mPhase2Minutes * 60);
-                }
-            }
+        @Override
+        public void onActivePlayerChanged(Player player) {
+            setActiveButtonAndMoveCount(button(player));
+        }
 
-            timer.moveFinished();
+        @Override
+        public void onClockRunning(Player player) {
+            mPressLatency.started(System.nanoTime());
+            if (mPlaySoundOnClick && mSounds != null)
+                mSounds.playClick(mTapAt);
+            button(player).timer.start();
+        }
 
-            if (mDelayType == DelayType.FISCHER)
-                timer.increment(mIncrementSeconds);
+        @Override
+        public void onClockStopped(Player player) {
+            button(player).timer.pause();
+        }
 
+        @Override
+        public void onDelayFinished(Player player) {
+            button(player).timer.clockStarted();
         }
 
-        public void moveStarted() {
-            if (mPlaySoundOnClick) {
-                mMediaPlayerClick.start();
-            }
-            timer.moveStarted();
+        @Override
+        public void onTimeChanged(Player player) {
+            // at the end of a press, the move finished
+            mPressLatency.finished(System.nanoTime());
+            button(player).timer.updateTimerText();
+        }
+
+        @Override
+        public void onFlagFall(Player player) {
+            button(player).timer.done();
+            storeGame(player);
+            showMoveTimeChart();
+        }
+
+        @Override
+        public void onNegativeTime(Player player) {
+            if (mPlaySoundAtEnd && mSounds != null)
+                mSounds.playBell();
         }
     }
 
     /**
      * Pause one clock and start the other when a button is clicked.
      */
-    final class PlayerButtonClickListener implements OnClickListener {
+    final class PlayerButtonClickListener implements OnClickListener,
+            OnTouchListener {
         PlayerButton mine, other;
+        // the touch that ends in a click, the tap it is timed from
+        private long mReleasedAt;
 
         public PlayerButtonClickListener(PlayerButton mine, PlayerButton other) {
             this.mine = mine;
@@ -817,33 +1165,24 @@ public class ChessTimerActivity extends Activity {
         }
 
         @Override
-        public void onClick(View v) {
-
-            switch (mCurrentState) {
-
-            case PAUSED:
-                // alternate way to un-pause the activity
-                // the primary way is to click the "Pause-Reset" toggle button
-                mPauseButton.performClick();
-                return;
-
-            case DONE: // do nothing
-                return;
-
-            case RUNNING:
-                if (mine.timer.isRunning()) {
-                    mine.moveFinished();
-                    other.moveStarted();
-                    setActiveButtonAndMoveCount(other);
-                }
-                break;
+        public boolean onTouch(View v, MotionEvent event) {
+            if (event.getAction() == MotionEvent.ACTION_UP)
+                mReleasedAt = event.getEventTime();
+            return false;
+        }
 
-            case IDLE:
-                // the game just started
-                setActiveButtonAndMoveCount(other);
-                transitionTo(GameState.RUNNING);
-                break;
-            }
+        @Override
+        public void onClick(View v) {
+            // the touch was in uptime ms, which is the same monotonic clock
+            long pressNs = System.nanoTime();
+            long touchNs = mReleasedAt == 0 ? pressNs : pressNs
+                    - (SystemClock.uptimeMillis() - mReleasedAt) * 1000000L;
+            mPressLatency.pressed(touchNs, pressNs);
+            mTapAt = mReleasedAt;
+            mClock.press(mine.mPlayer);
+            mTapAt = 0;
+            mReleasedAt = 0;
+            mPressLatency.handled();
         }
     }
 
@@ -862,7 +1201,7 @@ public class ChessTimerActivity extends Activity {
                                 if (mPauseDialog != null)
                                     mPauseDialog.cancel();
                                 loadAllUserPreferences();
-                                transitionTo(GameState.IDLE);
+                                newGame();
                             }
                         }).setNegativeButton(R.string.no, null).show();
     }
@@ -870,12 +1209,19 @@ public class ChessTimerActivity extends Activity {
     /**
      *  Show preferences
      */
-    final class OverflowButtonClickListener implements OnClickListener {
+    final class OverflowButtonClickListener implements OnClickListener,
+            OnLongClickListener {
         @Override
         public void onClick(View v) {
             transitionToPauseAndToast();
             launchPreferencesActivity();
         }
+
+        @Override
+        public boolean onLongClick(View v) {
+            showDiagnostics();
+            return true;
+        }
     }
 
     /**
@@ -889,19 +1235,12 @@ public class ChessTimerActivity extends Activity {
     }
 
     /**
-     * Pause the clock that is running.
+     * Start white's clock.
      */
     final class StartButtonClickListener implements OnClickListener {
         @Override
         public void onClick(View v) {
-
-            if (mCurrentState == GameState.DONE)
-                return;
-            if (mCurrentState == GameState.IDLE) {
-                setActiveButtonAndMoveCount(mButton1);
-                transitionTo(GameState.RUNNING);
-                return;
-            }
+            mClock.start();
         }
     }
 
@@ -911,60 +1250,52 @@ public class ChessTimerActivity extends Activity {
     final class PauseButtonClickListener implements OnClickListener {
         @Override
         public void onClick(View v) {
-
-            if (mCurrentState == GameState.DONE)
-                return;
-            if (mCurrentState == GameState.PAUSED) {
-                transitionTo(GameState.RUNNING);
-            } else {
+            if (mClock.getState() == GameState.RUNNING)
                 transitionToPauseAndToast();
-            }
+            else
+                mClock.togglePause();
         }
     }
 
     public void transitionToPauseAndToast() {
-        if (mCurrentState == GameState.DONE || mCurrentState == GameState.IDLE)
-            return;
-        transitionTo(GameState.PAUSED);
+        if (mClock.pause() && mClock.getState() == GameState.PAUSED)
+            showPauseToast();
+    }
+
+    private void showPauseToast() {
         Toast.makeText(this, getString(R.string.pause_toast),
                 Toast.LENGTH_SHORT).show();
     }
 
-    // This class updates each player's clock.
-    // These variables maintain the clock state:
-    //
-    // mMsToGo:
-    // ms until the timer reaches 0
-    // mMsDelayToGo:
-    // ms until the Bronstein delay interval reaches 0
-    //
-    //
+    // This class displays each player's clock, and keeps the display up to
+    // date while the clock is running. The time itself is kept by mClock.
     final class Timer implements OnClickListener, OnLongClickListener {
+        final Player mPlayer;
         TextView mView;
-        InnerTimer.SpinnerView mSpinView;
         FrameLayout mSpinContainer;
-        long mBronsteinMs;
+        InnerTimer mCountDownTimer = new InnerTimer();
 
-        // maintain state
-        long mMsToGo;
-        long mMsDelayToGo = 0;
-        InnerTimer mCountDownTimer;
-        boolean isRunning = false;
+        // reused on every update so redraws don't create garbage
+        final ClockFormatter mFormatter = new ClockFormatter();
+        int mTextColor;
 
         private String mPlayerColor;
 
-        Timer(int clockId, int spinId, String playerColor) {
+        Timer(Player player, int clockId, int spinId, String playerColor) {
+            mPlayer = player;
             mView = (TextView) findViewById(clockId);
             mView.setFocusable(false);
+            mView.setOnClickListener(this);
+            mView.setOnLongClickListener(this);
             mSpinContainer = (FrameLayout) findViewById(spinId);
             mPlayerColor = playerColor;
-            initialize();
         }
 
         @Override
         public void onClick(View v) {
             transitionToPauseAndToast();
-            launchAdjustPlayerClockActivity(mPlayerColor, mMsToGo);
+            launchAdjustPlayerClockActivity(mPlayerColor,
+                    mClock.getMsToGo(mPlayer));
         }
 
         @Override
@@ -974,73 +1305,21 @@ public class ChessTimerActivity extends Activity {
             return true;
         }
 
-        public void initialize() {
-            mBronsteinMs = (mDelayType == DelayType.BRONSTEIN) ? mIncrementSeconds * 1000
-                    : 0;
-            mMsDelayToGo = mBronsteinMs;
-            initializeWithValue(mInitialDurationSeconds * 1000, mBronsteinMs);
-            if (mDelayType == DelayType.FISCHER)
-                increment(mIncrementSeconds);
-        }
-
-        public void initializeWithValue(long msToGo, long msDelayToGo) {
-            mView.setOnClickListener(this);
-            mView.setOnLongClickListener(this);
-            mMsToGo = msToGo;
-            mMsDelayToGo = msDelayToGo;
-            mCountDownTimer = new InnerTimer();
-            isRunning = false;
-            mView.setTextColor(Color.BLACK);
-
-            updateTimerText();
-        }
-
-        // Public Interface Methods
-
-        public void moveStarted() {
-            start();
-        }
-
-        public void moveFinished() {
-            // when a move finishes we must reset the delay timer
-            mMsDelayToGo = mBronsteinMs;
-            pause();
-        }
-
         public void start() {
             mCountDownTimer.start();
-            isRunning = true;
         }
 
         public void pause() {
-            if (mCountDownTimer != null)
-                mCountDownTimer.kill();
-            isRunning = false;
-        }
-
-        public void reset() {
             mCountDownTimer.kill();
-            initialize();
-        }
-
-        public long getMsDelayToGo() {
-            return mMsDelayToGo;
-        }
-
-        public long getMsToGo() {
-            return mMsToGo;
-        }
-
-        public boolean isRunning() {
-            return isRunning;
+            updateTimerText();
         }
 
-        boolean getAllowNegativeTime() {
-            return mAllowNegativeTime;
+        public void setVisible(boolean visible) {
+            mCountDownTimer.setVisible(visible);
         }
 
         //
-        // Callbacks invoked by the inner timer
+        // Callbacks invoked by the clock
         //
 
         // callback that is invoked when the clock starts moving (after
@@ -1057,24 +1336,27 @@ public class ChessTimerActivity extends Activity {
         // callback that is invoked when clock reaches 0
         private void done() {
             mView.setText("0.0");
-            mView.setTextColor(Color.RED);
-            if (mPlaySoundAtEnd && mMediaPlayerBell != null)
-                mMediaPlayerBell.start();
-            transitionTo(GameState.DONE);
-        }
-
-        private void increment(int incrementSeconds) {
-            mMsToGo += incrementSeconds * 1000;
-            updateTimerText();
+            mFormatter.invalidate();
+            setTextColor(Color.RED);
+            if (mPlaySoundAtEnd && mSounds != null)
+                mSounds.playBell();
         }
 
         private void updateTimerText() {
-            if (getMsToGo() < 10000)
-                mView.setTextColor(Color.RED);
-            else
-                mView.setTextColor(Color.BLACK);
+            long msToGo = mReplay != null ? mReplay.getMsToGo(mPlayer)
+                    : mClock.getMsToGo(mPlayer);
+            setTextColor(msToGo < 10000 ? Color.RED : Color.BLACK);
+
+            // only touch the view when the displayed text actually changes
+            if (mFormatter.format(msToGo))
+                mView.setText(mFormatter.getBuffer(), 0, mFormatter.length());
+        }
 
-            mView.setText(Utils.formatTime(mMsToGo));
+        private void setTextColor(int color) {
+            if (color != mTextColor) {
+                mTextColor = color;
+                mView.setTextColor(color);
+            }
         }
 
         public View getView() {
@@ -1082,90 +1364,88 @@ public class ChessTimerActivity extends Activity {
         }
 
         /*
-         * Inner class to handle the update of the timer text and playing the
-         * buzzer. The timer text updates at faster rate during the last 10
-         * seconds.
+         * Inner class to handle the update of the timer text while the clock
+         * is running.
          */
         class InnerTimer {
             Handler mHandler = new Handler();
             private UpdateTimeTask mUpdateTimeTask;
-            boolean mPlayedBuzzer = false;
+            // when false the text isn't redrawn; we only wake up when the
+            // clock has an event to report
+            private boolean mVisible = true;
+
+            void setVisible(boolean visible) {
+                mVisible = visible;
+                if (mUpdateTimeTask != null) {
+                    // reschedule, the clock itself is always up to date
+                    mHandler.removeCallbacks(mUpdateTimeTask);
+                    mHandler.post(mUpdateTimeTask);
+                }
+            }
 
             void start() {
+                kill();
                 mUpdateTimeTask = new UpdateTimeTask();
                 mHandler.post(mUpdateTimeTask);
             }
 
             void kill() {
                 Timer.this.clockStopped();
-                mHandler.removeCallbacks(mUpdateTimeTask);
+                if (mUpdateTimeTask != null) {
+                    mHandler.removeCallbacks(mUpdateTimeTask);
+                    mUpdateTimeTask = null;
+                }
             }
 
-            // this class will update itself (and call
-            // updateTimerText) accordingly:
-            // if getMsToGo() > 10 * 1000, every 1000 ms
-            // if getMsToGo() < 10 * 1000, every 100 ms
-            // if getMsToGo() < 0 and getAllowNegativeTime is true, every 1000
-            // ms
+            // this class will let the clock report its events and call
+            // updateTimerText whenever the displayed time is about to
+            // change, see TickScheduler. While the Bronstein delay is
+            // counting down it updates every 100 ms to animate the spinner.
+            // The clock computes the time left whenever it is asked, so
+            // nothing is lost if an update is late or skipped.
             class UpdateTimeTask implements Runnable {
-                boolean startOfMove = true;
-
-                public synchronized void setMoveStartFlag(boolean value) {
-                    this.startOfMove = value;
-                }
-
-                long startedAt;
-                long lastUpdate;
                 SpinnerView spinner;
-                static final int POST_SLOW = 1000;
                 static final int POST_FAST = 100;
 
                 UpdateTimeTask() {
-                    this.startedAt = SystemClock.uptimeMillis();
-                    this.lastUpdate = startedAt;
-                    if (mMsDelayToGo > 0) {
+                    if (mClock.getMsDelayToGo(mPlayer) > 0) {
                         spinner = new SpinnerView(ChessTimerActivity.this,
-                                mBronsteinMs);
+                                mClock.getSettings().getBronsteinMs());
                         mSpinContainer.addView(spinner);
                     }
                 }
 
                 public void run() {
-                    long now = SystemClock.uptimeMillis();
-                    long dt = now - lastUpdate;
-                    lastUpdate = now;
-                    // Are we in Bronstein delay period?
-                    if (startOfMove && mMsDelayToGo > 0) {
-                        mMsDelayToGo -= dt;
-                        spinner.setElapsedMilliseconds(mMsDelayToGo);
-                        spinner.postInvalidate();
-                        mHandler.postDelayed(mUpdateTimeTask, POST_FAST);
+                    // the first run after a press shows it
+                    mPressLatency.drawn(System.nanoTime());
+                    // may stop the clock, in which case we have been killed
+                    mClock.tick();
+                    if (!mClock.isRunning(mPlayer))
                         return;
-                    }
 
-                    if (startOfMove) {
-                        Timer.this.clockStarted(); // invoke callback
-                        setMoveStartFlag(false);
-                        mMsDelayToGo = mBronsteinMs; // reset
+                    if (!mVisible) {
+                        long next = mClock.msUntilNextEvent();
+                        if (next != Long.MAX_VALUE)
+                            mHandler.postDelayed(this, next);
+                        return;
                     }
-                    mMsToGo -= dt;
-
-                    if (getMsToGo() > 0) {
-                        updateTimerText();
-                        mHandler.postDelayed(mUpdateTimeTask, POST_FAST);
-                    } else if (getMsToGo() < 0 && getAllowNegativeTime()) {
-                        updateTimerText();
-                        if (mPlaySoundAtEnd && mMediaPlayerBell != null && mPlayedBuzzer == false) {
-                            mMediaPlayerBell.start();
-                            mPlayedBuzzer = true;
-                        }
 
-                        mHandler.postDelayed(mUpdateTimeTask, POST_SLOW);
-                    } else {
-                        mHandler.removeCallbacks(mUpdateTimeTask);
-                        done();
+                    // Are we still in the Bronstein delay period?
+                    long msDelayToGo = mClock.getMsDelayToGo(mPlayer);
+                    if (msDelayToGo > 0) {
+                        if (spinner != null) {
+                            spinner.setElapsedMilliseconds(msDelayToGo);
+                            spinner.postInvalidate();
+                        }
+                        mHandler.postDelayed(this,
+                                Math.min(POST_FAST, msDelayToGo));
                         return;
                     }
+
+                    updateTimerText();
+                    mHandler.postDelayed(this, TickScheduler.nextDelay(
+                            mClock.getMsToGo(mPlayer),
+                            mClock.getSettings().getAllowNegativeTime()));
                 }
             };
 
@@ -0,0 +1,165 @@
+package johnwilde.androidchessclock;
+
+import johnwilde.androidchessclock.engine.LatencyHistogram;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * The click and the bell, decoded to PCM once, when the activity is
+ * created, and kept in memory until it is destroyed. Playing one hands the
+ * samples to the mixer: nothing is opened, decoded or prepared on the
+ * press path, so it is as quick as the platform allows and can't be lost
+ * to a player that isn't ready yet.
+ *
+ * A SoundPool does the decoding and the playing: it reads both the wav and
+ * the mp3, which nothing else on the oldest devices supported can. It
+ * keeps up to 1 MB of samples per sound there, the first few seconds of
+ * the bell.
+ *
+ * The pool loads the sounds in the background, and plays nothing until
+ * each is loaded: the owner is told once both are (or LOAD_TIMEOUT_MS has
+ * passed, or a load failed), so that it can hold back the presses until
+ * then.
+ *
+ * The time from the tap to the sound being handed to the mixer is
+ * measured on every press, in ms from the touch event. What the mixer and
+ * the hardware add after that can't be seen from here; its output buffer
+ * is the least of it (getOutputBufferMs()).
+ *
+ * Used on the UI thread.
+ */
+final class ClockSounds {
+
+    // the longest the owner waits for the sounds to load
+    static final long LOAD_TIMEOUT_MS = 1000;
+
+    private final SoundPool mPool;
+    private final int mClick;
+    private final int mBell;
+    private final Handler mHandler = new Handler();
+    private final Runnable mOnLoaded;
+    private boolean mClickLoaded;
+    private boolean mBellLoaded;
+    // the owner has been told
+    private boolean mDone;
+    private final LatencyHistogram mTapToPlayMs = new LatencyHistogram();
+    // sounds that weren't played: not yet decoded, or the pool failed
+    private int mMissed;
+
+    /**
+     * @param onLoaded run on this thread once the sounds are loaded, or
+     *        won't be
+     */
+    ClockSounds(Context context, Runnable onLoaded) {
+        mOnLoaded = onLoaded;
+        mPool = new SoundPool(2, AudioManager.STREAM_ALARM, 0);
+        // before loading, or a sound could load unheard; only Android 2.2
+        // and later say, before that the timeout has to do
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO)
+            mPool.setOnLoadCompleteListener(
+                    new SoundPool.OnLoadCompleteListener() {
+                        @Override
+                        public void onLoadComplete(SoundPool pool,
+                                int sampleId, int status) {
+                            loaded(sampleId, status);
+                        }
+                    });
+        mClick = mPool.load(context, R.raw.click, 1);
+        mBell = mPool.load(context, R.raw.bell, 1);
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                done();
+            }
+        }, LOAD_TIMEOUT_MS);
+    }
+
+    private void loaded(int sound, int status) {
+        if (status != 0) {
+            // it never will be
+            done();
+            return;
+        }
+        if (sound == mClick)
+            mClickLoaded = true;
+        else if (sound == mBell)
+            mBellLoaded = true;
+        if (isLoaded())
+            done();
+    }
+
+    private void done() {
+        if (mDone)
+            return;
+        mDone = true;
+        mHandler.removeCallbacksAndMessages(null);
+        mOnLoaded.run();
+    }
+
+    /** Whether both sounds are loaded, and can be played */
+    boolean isLoaded() {
+        return mClickLoaded && mBellLoaded;
+    }
+
+    /**
+     * Click, for a clock that started running.
+     *
+     * @param tapAt when the tap that started it was, in uptime ms; 0 if it
+     *        wasn't started by a tap, and isn't measured
+     */
+    void playClick(long tapAt) {
+        if (!play(mClick))
+            return;
+        if (tapAt != 0)
+            mTapToPlayMs.record(SystemClock.uptimeMillis() - tapAt);
+    }
+
+    /** Ring the bell, for time that ran out */
+    void playBell() {
+        play(mBell);
+    }
+
+    private boolean play(int sound) {
+        if (sound != 0 && mPool.play(sound, 1, 1, 1, 0, 1) != 0)
+            return true;
+        mMissed++;
+        return false;
+    }
+
+    /** From tap to the click handed to the mixer, in ms */
+    LatencyHistogram getTapToPlayMs() {
+        return mTapToPlayMs;
+    }
+
+    /** The number of sounds that should have played and didn't */
+    int getMissed() {
+        return mMissed;
+    }
+
+    /** The shortest the mixer's output buffer can be, in ms */
+    static long getOutputBufferMs() {
+        int rate = AudioTrack
+                .getNativeOutputSampleRate(AudioManager.STREAM_ALARM);
+        // two bytes a frame: 16 bit mono
+        int bytes = AudioTrack.getMinBufferSize(rate,
+                AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (rate <= 0 || bytes <= 0)
+            return -1;
+        return bytes / 2 * 1000L / rate;
+    }
+
+    /** Free the samples; nothing plays after this */
+    void release() {
+        // and the owner isn't told
+        mDone = true;
+        mHandler.removeCallbacksAndMessages(null);
+        mPool.release();
+    }
+}
@@ -0,0 +1,74 @@
+package johnwilde.androidchessclock;
+
+import johnwilde.androidchessclock.engine.MoveTimeChart;
+import johnwilde.androidchessclock.engine.Player;
+import johnwilde.androidchessclock.engine.Utils;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.view.View;
+
+/**
+ * Draws a MoveTimeChart: how long each move took, white's line and
+ * black's, with the longest move's time at the top. The lines are laid out
+ * when the size is known, so onDraw() only draws them.
+ */
+public class MoveTimeChartView extends View {
+
+    private static final int MARGIN = 16;
+
+    private final MoveTimeChart mChart;
+    private final Paint mWhitePaint = new Paint();
+    private final Paint mBlackPaint = new Paint();
+    private final Paint mAxisPaint = new Paint();
+    private final String mMaxLabel;
+
+    public MoveTimeChartView(Context context, MoveTimeChart chart) {
+        super(context);
+        mChart = chart;
+        mMaxLabel = Utils.formatTime(chart.getMaxMs());
+        setBackgroundColor(Color.BLACK);
+
+        mWhitePaint.setAntiAlias(true);
+        mWhitePaint.setStrokeWidth(2);
+        mWhitePaint.setColor(Color.WHITE);
+        mBlackPaint.setAntiAlias(true);
+        mBlackPaint.setStrokeWidth(2);
+        mBlackPaint.setColor(0xFFFF8800);
+        mAxisPaint.setAntiAlias(true);
+        mAxisPaint.setColor(Color.GRAY);
+        mAxisPaint.setTextSize(24);
+    }
+
+    // half as high as it is wide
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        setMeasuredDimension(width, width / 2);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mChart.layout(Math.max(0, w - 2 * MARGIN), Math.max(0, h - 2
+                * MARGIN));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int bottom = getHeight() - MARGIN;
+        canvas.drawLine(MARGIN, bottom, getWidth() - MARGIN, bottom,
+                mAxisPaint);
+        canvas.drawText(mMaxLabel, MARGIN, MARGIN + mAxisPaint.getTextSize(),
+                mAxisPaint);
+
+        canvas.save();
+        canvas.translate(MARGIN, MARGIN);
+        canvas.drawLines(mChart.getLines(Player.WHITE), 0,
+                mChart.getLineFloats(Player.WHITE), mWhitePaint);
+        canvas.drawLines(mChart.getLines(Player.BLACK), 0,
+                mChart.getLineFloats(Player.BLACK), mBlackPaint);
+        canvas.restore();
+    }
+}
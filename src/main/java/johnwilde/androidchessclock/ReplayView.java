@@ -0,0 +1,176 @@
+package johnwilde.androidchessclock;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import johnwilde.androidchessclock.engine.Player;
+import johnwilde.androidchessclock.engine.ReplayPlayer;
+import android.content.Context;
+import android.text.InputType;
+import android.text.format.DateUtils;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Controls for replaying a recorded game: where in the game it is, how
+ * fast it plays, play and pause, and going to a player's move. The clocks are shown by the activity's
+ * timers, which read them from the ReplayPlayer; the listener is told
+ * whenever they should be redrawn.
+ */
+public class ReplayView extends LinearLayout implements Runnable,
+        SeekBar.OnSeekBarChangeListener, View.OnClickListener {
+
+    // how often the position is redrawn while playing
+    private static final long FRAME_MS = 50;
+
+    interface Listener {
+        void onReplayPositionChanged();
+    }
+
+    private final ReplayPlayer mPlayer;
+    private final Listener mListener;
+    private final TextView mPosition;
+    private final SeekBar mPositionBar;
+    private final TextView mSpeed;
+    private final SeekBar mSpeedBar;
+    private final Button mPlayButton;
+    private final EditText mMove;
+    private final Button mWhiteMoveButton;
+    private final Button mBlackMoveButton;
+    private final DateFormat mTimeFormat = DateFormat
+            .getTimeInstance(DateFormat.MEDIUM);
+
+    public ReplayView(Context context, ReplayPlayer player,
+            Listener listener) {
+        super(context);
+        mPlayer = player;
+        mListener = listener;
+        setOrientation(VERTICAL);
+        setPadding(16, 16, 16, 16);
+
+        mPosition = new TextView(context);
+        addView(mPosition);
+        mPositionBar = new SeekBar(context);
+        mPositionBar.setMax((int) Math.min(Integer.MAX_VALUE, player
+                .getReplay().getDuration()));
+        mPositionBar.setOnSeekBarChangeListener(this);
+        addView(mPositionBar);
+
+        mSpeed = new TextView(context);
+        addView(mSpeed);
+        mSpeedBar = new SeekBar(context);
+        mSpeedBar.setMax(ReplayPlayer.MAX_SPEED - ReplayPlayer.MIN_SPEED);
+        mSpeedBar.setOnSeekBarChangeListener(this);
+        addView(mSpeedBar);
+
+        mPlayButton = new Button(context);
+        mPlayButton.setOnClickListener(this);
+        addView(mPlayButton);
+
+        // a move number, and whose move it is
+        LinearLayout moveRow = new LinearLayout(context);
+        mMove = new EditText(context);
+        mMove.setInputType(InputType.TYPE_CLASS_NUMBER);
+        mMove.setHint(R.string.replay_move_hint);
+        moveRow.addView(mMove, new LinearLayout.LayoutParams(0,
+                LayoutParams.WRAP_CONTENT, 1));
+        mWhiteMoveButton = new Button(context);
+        mWhiteMoveButton.setText(R.string.replay_white_move);
+        mWhiteMoveButton.setOnClickListener(this);
+        moveRow.addView(mWhiteMoveButton);
+        mBlackMoveButton = new Button(context);
+        mBlackMoveButton.setText(R.string.replay_black_move);
+        mBlackMoveButton.setOnClickListener(this);
+        moveRow.addView(mBlackMoveButton);
+        addView(moveRow);
+        update();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(this);
+        super.onDetachedFromWindow();
+    }
+
+    // Redraw while playing
+    @Override
+    public void run() {
+        update();
+        if (mPlayer.isPlaying())
+            postDelayed(this, FRAME_MS);
+    }
+
+    private void update() {
+        long position = mPlayer.getPosition();
+        String elapsed = DateUtils.formatElapsedTime(position / 1000);
+        long wallClockMs = mPlayer.getReplay().getWallClockMs(position);
+        String at = wallClockMs == 0 ? "?" : mTimeFormat.format(new Date(
+                wallClockMs));
+        mPosition.setText(getContext().getString(
+                R.string.replay_position_text, elapsed, at,
+                mPlayer.getMoveNumber(Player.WHITE),
+                mPlayer.getMoveNumber(Player.BLACK)));
+        mPositionBar.setProgress((int) Math.min(Integer.MAX_VALUE,
+                position));
+        mSpeed.setText(getContext().getString(R.string.replay_speed_text,
+                mPlayer.getSpeed()));
+        mSpeedBar.setProgress(mPlayer.getSpeed() - ReplayPlayer.MIN_SPEED);
+        mPlayButton.setText(mPlayer.isPlaying() ? R.string.replay_pause
+                : R.string.replay_play);
+        mListener.onReplayPositionChanged();
+    }
+
+    @Override
+    public void onClick(View v) {
+        if (v != mPlayButton) {
+            seekToMove(v == mWhiteMoveButton ? Player.WHITE : Player.BLACK);
+            return;
+        }
+        if (mPlayer.isPlaying()) {
+            mPlayer.pause();
+        } else {
+            mPlayer.play();
+            removeCallbacks(this);
+            post(this);
+        }
+        update();
+    }
+
+    // Go to just after the move in mMove, if the player made it
+    private void seekToMove(Player player) {
+        int moveNumber;
+        try {
+            moveNumber = Integer.parseInt(mMove.getText().toString());
+        } catch (NumberFormatException ex) {
+            moveNumber = 0;
+        }
+        if (moveNumber < 1 || !mPlayer.seekToMove(player, moveNumber))
+            Toast.makeText(getContext(), R.string.replay_move_not_made,
+                    Toast.LENGTH_SHORT).show();
+        update();
+    }
+
+    @Override
+    public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
+        if (!fromUser)
+            return;
+        if (bar == mPositionBar)
+            mPlayer.seek(progress);
+        else
+            mPlayer.setSpeed(progress + ReplayPlayer.MIN_SPEED);
+        update();
+    }
+
+    @Override
+    public void onStartTrackingTouch(SeekBar bar) {
+    }
+
+    @Override
+    public void onStopTrackingTouch(SeekBar bar) {
+    }
+}
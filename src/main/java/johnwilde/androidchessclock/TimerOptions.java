@@ -3,6 +3,7 @@ package johnwilde.androidchessclock;
 import java.util.Arrays;
 import java.util.List;
 
+import johnwilde.androidchessclock.engine.DelayType;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
@@ -35,6 +36,7 @@ public class TimerOptions extends PreferenceActivity
         PLAY_CLICK("audible_notification_preference_click"),
 		PLAY_BELL("audible_notification_preference_bell"),
 		SHOW_MOVE_COUNTER("show_move_count_preference"),
+		SHOW_MOVE_STATS("show_move_stats_preference"),
 		TIMECONTROL_TYPE("timecontrol_type_preference"),
 		FIDE_MOVES_PHASE1("fide_n_moves"),
 		FIDE_MIN_PHASE1("fide_minutes1"),
@@ -100,6 +102,7 @@ public class TimerOptions extends PreferenceActivity
         
         List<Key> uiKeys = Arrays.asList( new Key[] {
                 Key.SHOW_MOVE_COUNTER, 
+                Key.SHOW_MOVE_STATS,
                 Key.SWAP_SIDES, 
                 Key.SCREEN_DIM,
                 Key.PLAY_BELL,
@@ -192,7 +195,7 @@ public class TimerOptions extends PreferenceActivity
         int FIDE_PHASE2_MIN = 30;
         int FIDE_PHASE1_MOVES = 40;
         int FIDE_INCREMENT_SEC = 30;
-        String delayType = ChessTimerActivity.DelayType.FISCHER.name();
+        String delayType = DelayType.FISCHER.name();
         boolean allowNegativeTime = false;
         
         setEditTextValue(Key.FIDE_MIN_PHASE1, "" + FIDE_PHASE1_MIN);